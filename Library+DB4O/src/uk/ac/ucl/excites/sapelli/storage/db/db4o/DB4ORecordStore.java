@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
 import uk.ac.ucl.excites.sapelli.shared.db.db4o.DB4OConnector;
@@ -42,9 +43,12 @@ import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.AutoIncrementingPrimaryKey;
 import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
 import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.SourceBySchemata;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+import uk.ac.ucl.excites.sapelli.storage.util.SpatialGridIndex;
 
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
@@ -73,6 +77,11 @@ public class DB4ORecordStore extends RecordStore
 	
 	private AutoIncrementDictionary autoIncrementDict;
 	
+	/**
+	 * In-memory spatial indexes, built on first use (see {@link #getSpatialGridIndex(Schema, ColumnPointer)})
+	 */
+	private final Map<Schema, List<SpatialGridIndex>> spatialGridIndexes = new HashMap<Schema, List<SpatialGridIndex>>();
+	
 	public DB4ORecordStore(StorageClient client, File folder, String baseFilename) throws Exception
 	{
 		super(client, false); // don't make use of roll-back tasks
@@ -117,6 +126,7 @@ public class DB4ORecordStore extends RecordStore
 		try
 		{
 			db4o.rollback();
+			spatialGridIndexes.clear(); // they will be rebuilt when needed
 		}
 		catch(Exception e)
 		{
@@ -211,7 +221,10 @@ public class DB4ORecordStore extends RecordStore
 			// Insert, or update (i.e. replace; when allowed) the record:
 			boolean insert = previouslyStored == null;
 			if(insert || updateAllowed)
+			{
 				db4o.store(record);
+				updateSpatialGridIndexes(record, false);
+			}
 			return insert;
 		}
 		catch(Exception e)
@@ -249,6 +262,18 @@ public class DB4ORecordStore extends RecordStore
 	public List<Record> retrieveRecords(final RecordsQuery query)
 	{
 		final Source source = query.getSource();
+		Constraint constraints = query.getConstraints();
+		
+		// Use a spatial grid index if the query is on a single schema and has a bounding box constraint:
+		BoundingBoxConstraint boundingBox = SpatialGridIndex.GetBoundingBoxConstraint(constraints);
+		if(boundingBox != null && source instanceof SourceBySchemata && ((SourceBySchemata) source).isByInclusion() && ((SourceBySchemata) source).getSchemata().size() == 1)
+		{
+			List<Record> result = new ArrayList<Record>();
+			for(Record r : getSpatialGridIndex(((SourceBySchemata) source).getSchemata().iterator().next(), boundingBox.getGeometryColumnPointer()).query(boundingBox))
+				if(source.isValid(r) && constraints.isValid(r))
+					result.add(r);
+			return sortAndLimit(query, result);
+		}
 		
 		// Query for records:
 		ObjectSet<Record> resultSet = db4o.query(new Predicate<Record>()
@@ -270,7 +295,6 @@ public class DB4ORecordStore extends RecordStore
 		
 		// Activate result records, filter by query constraints & add to new ArrayList (list returned by DB4O doesn't allow sorting and possibly other things):
 		List<Record> result = new ArrayList<Record>();
-		Constraint constraints = query.getConstraints();
 		while(resultSet.hasNext())
 		{
 			Record r = resultSet.next();
@@ -280,6 +304,11 @@ public class DB4ORecordStore extends RecordStore
 				result.add(r);
 		}
 		
+		return sortAndLimit(query, result);
+	}
+	
+	private List<Record> sortAndLimit(RecordsQuery query, List<Record> result)
+	{
 		// Sort result:
 		query.getOrder().sort(result);
 		
@@ -291,6 +320,46 @@ public class DB4ORecordStore extends RecordStore
 			return result;
 	}
 	
+	/**
+	 * Returns the spatial grid index on the given column of the given schema, building it (by retrieving all records of the schema) if needed.
+	 * 
+	 * @param schema
+	 * @param geometryColumnPointer
+	 * @return the index
+	 */
+	private SpatialGridIndex getSpatialGridIndex(Schema schema, ColumnPointer<?> geometryColumnPointer)
+	{
+		List<SpatialGridIndex> indexes = spatialGridIndexes.get(schema);
+		if(indexes == null)
+		{
+			indexes = new ArrayList<SpatialGridIndex>();
+			spatialGridIndexes.put(schema, indexes);
+		}
+		for(SpatialGridIndex index : indexes)
+			if(index.getGeometryColumnPointer().equals(geometryColumnPointer))
+				return index;
+		SpatialGridIndex index = new SpatialGridIndex(geometryColumnPointer);
+		for(Record record : retrieveRecords(new RecordsQuery(schema)))
+			index.add(record);
+		indexes.add(index);
+		return index;
+	}
+	
+	/**
+	 * @param record a record that has just been stored or deleted
+	 * @param deleted
+	 */
+	private void updateSpatialGridIndexes(Record record, boolean deleted)
+	{
+		List<SpatialGridIndex> indexes = spatialGridIndexes.get(record.getSchema());
+		if(indexes != null)
+			for(SpatialGridIndex index : indexes)
+				if(deleted)
+					index.remove(record);
+				else
+					index.add(record);
+	}
+	
 	@Override
 	public List<RecordReference> retrieveRecordReferences(RecordsQuery query)
 	{
@@ -362,6 +431,7 @@ public class DB4ORecordStore extends RecordStore
 			if(db4o.ext().isStored(record))
 			{
 				db4o.delete(record);
+				updateSpatialGridIndexes(record, true);
 				return true;
 			}
 			else
@@ -19,29 +19,64 @@
 package uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.java;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import com.almworks.sqlite4java.SQLiteBackup;
 import com.almworks.sqlite4java.SQLiteConnection;
 import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteJob;
+import com.almworks.sqlite4java.SQLiteQueue;
+import com.almworks.sqlite4java.SQLiteStatement;
 
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
 import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient;
+import uk.ac.ucl.excites.sapelli.storage.db.RecordCursor;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStoreUpgrader;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteCursor;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteStatementCache;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordReference;
+import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery;
 
 /**
  * A RecordStore class which stores records in a SQLite database, using the sqlite4java library.
  * 
+ * sqlite4java confines each connection to the thread which opened it. The connection opened by the constructor is used
+ * for all writing, and must therefore only be used from the thread which created the store (the "owner thread").
+ * Optionally the database can be put in WAL journal mode and be given a pool of read-only connections, each running on
+ * its own {@link SQLiteQueue} thread and with its own statement cache. Queries made from any other thread than the owner
+ * thread are then served concurrently by the pool, each within a read transaction (i.e. on a consistent snapshot of the
+ * database) that does not block, nor is blocked by, the writer. Queries made from the owner thread keep using the writing
+ * connection, such that they see the effect of any open transaction.
+ * 
  * @author mstevens
  */
 public class JavaSQLiteRecordStore extends SQLiteRecordStore
 {
-
+	
+	// STATIC -------------------------------------------------------
+	static public final int READ_CONNECTION_BUSY_TIMEOUT_MS = 10 * 1000;
+	
+	// DYNAMIC ------------------------------------------------------
 	private SQLiteConnection db;
+	private final Thread ownerThread;
+	
+	/**
+	 * Pool of read-only connections, {@code null} if there is none
+	 */
+	private final List<ReadConnection> readConnections;
+	private final BlockingQueue<ReadConnection> idleReadConnections;
+	private final ThreadLocal<ReadConnection> currentReadConnection = new ThreadLocal<ReadConnection>();
 	
 	/**
 	 * @param client
@@ -52,8 +87,23 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 	 * @throws DBException
 	 */
 	public JavaSQLiteRecordStore(StorageClient client, File folderPath, String baseName, int targetVersion, SQLRecordStoreUpgrader upgrader) throws DBException
+	{
+		this(client, folderPath, baseName, targetVersion, upgrader, 0);
+	}
+	
+	/**
+	 * @param client
+	 * @param folderPath
+	 * @param baseName
+	 * @param targetVersion
+	 * @param upgrader
+	 * @param numberOfReadConnections number of read-only connections to serve queries from other threads than the owner thread, when > 0 the database is put in WAL journal mode
+	 * @throws DBException
+	 */
+	public JavaSQLiteRecordStore(StorageClient client, File folderPath, String baseName, int targetVersion, SQLRecordStoreUpgrader upgrader, int numberOfReadConnections) throws DBException
 	{
 		super(client);
+		this.ownerThread = Thread.currentThread();
 		
 		// Database file:
 		File dbFile = new File(folderPath, GetDBFileName(baseName));
@@ -70,6 +120,26 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 			throw new DBException(sqlE);
 		}
 		
+		// Set up pool of read-only connections:
+		if(numberOfReadConnections > 0)
+		{
+			enableWAL(); // readers and writer only run concurrently in WAL mode
+			readConnections = new ArrayList<ReadConnection>(numberOfReadConnections);
+			idleReadConnections = new ArrayBlockingQueue<ReadConnection>(numberOfReadConnections);
+			for(int r = 0; r < numberOfReadConnections; r++)
+			{
+				ReadConnection readConnection = new ReadConnection(dbFile);
+				readConnection.start(); // the connection will be opened on the queue's thread
+				readConnections.add(readConnection);
+				idleReadConnections.add(readConnection);
+			}
+		}
+		else
+		{
+			readConnections = null;
+			idleReadConnections = null;
+		}
+		
 		// Just to be sure:
 		newDB = newDB || !doesTableExist(Model.MODEL_SCHEMA);
 		
@@ -77,6 +147,340 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 		setInitialisationArguments(newDB, targetVersion, upgrader);
 	}
 	
+	/**
+	 * Puts the database in WAL journal mode (this setting is persistent).
+	 * 
+	 * @throws DBException when the mode could not be changed (e.g. for in-memory databases)
+	 * @see <a href="http://www.sqlite.org/wal.html">Write-Ahead Logging</a>
+	 */
+	private void enableWAL() throws DBException
+	{
+		SQLiteStatement pragma = null;
+		try
+		{
+			pragma = db.prepare("PRAGMA journal_mode=WAL;", false);
+			if(!pragma.step() || !"wal".equalsIgnoreCase(pragma.columnString(0)))
+				throw new DBException("Could not enable WAL journal mode");
+		}
+		catch(SQLiteException sqlE)
+		{
+			throw new DBException("Could not enable WAL journal mode", sqlE);
+		}
+		finally
+		{
+			if(pragma != null)
+				pragma.dispose();
+		}
+	}
+	
+	/**
+	 * @return the connection to use on the current thread: the read-only connection if the thread belongs to the pool, the writing connection otherwise
+	 */
+	private SQLiteConnection getConnection()
+	{
+		ReadConnection readConnection = currentReadConnection.get();
+		return readConnection != null ? readConnection.connection : db;
+	}
+	
+	/**
+	 * @return whether or not queries made on the current thread are to be dispatched to the pool of read-only connections
+	 */
+	private boolean isToBeReadFromPool()
+	{
+		return readConnections != null && Thread.currentThread() != ownerThread && currentReadConnection.get() == null;
+	}
+	
+	/**
+	 * Runs the given {@link SnapshotReader} on one of the read-only connections, within a single read transaction,
+	 * meaning all queries it makes on this store see the same snapshot of the database, regardless of any writes that
+	 * happen in the meantime. Meant for long-running reads (e.g. exports) and for streaming through {@link #retrieveRecordCursor(RecordsQuery, boolean)}
+	 * from other threads than the owner thread (outside of a reader such cursors are materialised). The calling thread blocks until the reader
+	 * has finished, waiting for a connection to become available first if necessary. 
+	 * 
+	 * If the store has no pool of read-only connections, or if the calling thread already belongs to the pool, the
+	 * reader is simply run on the calling thread.
+	 * 
+	 * @param reader
+	 * @return the result of {@link SnapshotReader#read()}
+	 * @throws DBException
+	 */
+	public <T> T readSnapshot(SnapshotReader<T> reader) throws DBException
+	{
+		if(readConnections == null || currentReadConnection.get() != null)
+			return reader.read();
+		if(isClosed())
+			throw new DBException("Store is closed");
+		// Get an idle connection:
+		ReadConnection readConnection;
+		try
+		{
+			readConnection = idleReadConnections.take();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new DBException("Interrupted while waiting for a read connection", ie);
+		}
+		// Run the reader on the connection's thread:
+		try
+		{
+			SnapshotJob<T> job = readConnection.execute(new SnapshotJob<T>(reader));
+			T result = job.complete();
+			Throwable error = job.readerError != null ? job.readerError : job.getError();
+			if(error instanceof DBException)
+				throw (DBException) error;
+			if(error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			if(error instanceof Error)
+				throw (Error) error;
+			if(error != null)
+				throw new DBException("Error upon reading from snapshot", error);
+			if(job.isCancelled())
+				throw new DBException("Read connection closed");
+			return result;
+		}
+		finally
+		{
+			idleReadConnections.add(readConnection);
+		}
+	}
+	
+	/**
+	 * Used to dispatch queries from non-owner threads to the pool of read-only connections.
+	 * 
+	 * @param reader
+	 * @param errorResult value to return upon error (which is logged)
+	 * @param methodName name of the method to use in the error log message
+	 * @return
+	 */
+	private <T> T readFromPool(SnapshotReader<T> reader, T errorResult, String methodName)
+	{
+		try
+		{
+			return readSnapshot(reader);
+		}
+		catch(DBException dbE)
+		{
+			client.logError("Error in " + methodName, dbE);
+			return errorResult;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveRecords(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
+	 */
+	@Override
+	public List<Record> retrieveRecords(final RecordsQuery query)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveRecords(query);
+		return readFromPool(new SnapshotReader<List<Record>>()
+		{
+			@Override
+			public List<Record> read()
+			{
+				return JavaSQLiteRecordStore.super.retrieveRecords(query);
+			}
+		}, Collections.<Record> emptyList(), "retrieveRecords(RecordsQuery)");
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveRecordReferences(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
+	 */
+	@Override
+	public List<RecordReference> retrieveRecordReferences(final RecordsQuery query)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveRecordReferences(query);
+		return readFromPool(new SnapshotReader<List<RecordReference>>()
+		{
+			@Override
+			public List<RecordReference> read()
+			{
+				return JavaSQLiteRecordStore.super.retrieveRecordReferences(query);
+			}
+		}, Collections.<RecordReference> emptyList(), "retrieveRecordReferences(RecordsQuery)");
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveRecordCount(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
+	 */
+	@Override
+	public long retrieveRecordCount(final RecordsQuery query)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveRecordCount(query);
+		return readFromPool(new SnapshotReader<Long>()
+		{
+			@Override
+			public Long read()
+			{
+				return JavaSQLiteRecordStore.super.retrieveRecordCount(query);
+			}
+		}, 0L, "retrieveRecordCount(RecordsQuery)");
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveValues(uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery)
+	 */
+	@Override
+	public List<Object[]> retrieveValues(final ValueQuery query)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveValues(query);
+		return readFromPool(new SnapshotReader<List<Object[]>>()
+		{
+			@Override
+			public List<Object[]> read()
+			{
+				return JavaSQLiteRecordStore.super.retrieveValues(query);
+			}
+		}, Collections.<Object[]> emptyList(), "retrieveValues(ValueQuery)");
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveRecord(uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery)
+	 */
+	@Override
+	public Record retrieveRecord(final SingleRecordQuery query)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveRecord(query);
+		return readFromPool(new SnapshotReader<Record>()
+		{
+			@Override
+			public Record read()
+			{
+				return JavaSQLiteRecordStore.super.retrieveRecord(query);
+			}
+		}, null, "retrieveRecord(SingleRecordQuery)");
+	}
+	
+	/**
+	 * When called from another thread than the owner thread, and the store has a pool of read-only connections, the
+	 * records are read from a snapshot in one go, as the cursor cannot outlive the read transaction. To stream records
+	 * on such a thread use this method within {@link #readSnapshot(SnapshotReader)}, or use {@link #forEach(RecordsQuery, boolean, RecordHandler)}.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveRecordCursor(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery, boolean)
+	 */
+	@Override
+	public RecordCursor retrieveRecordCursor(final RecordsQuery query, boolean reuseRecord)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveRecordCursor(query, reuseRecord);
+		final List<Record> records = new ArrayList<Record>();
+		try
+		{
+			readSnapshot(new SnapshotReader<Void>()
+			{
+				@Override
+				public Void read() throws DBException
+				{
+					JavaSQLiteRecordStore.super.forEach(query, false, new RecordHandler()
+					{
+						@Override
+						public void handle(Record record)
+						{
+							records.add(record);
+						}
+					});
+					return null;
+				}
+			});
+			return RecordCursor.Over(records);
+		}
+		catch(final DBException dbE)
+		{	// don't pass on a partial result, the error is reported by the cursor instead:
+			return new RecordCursor()
+			{
+				@Override
+				protected Record fetchNext() throws DBException
+				{
+					throw dbE;
+				}
+				
+				@Override
+				protected void release() {}
+			};
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#retrieveModel(long)
+	 */
+	@Override
+	public Model retrieveModel(final long modelID)
+	{
+		if(!isToBeReadFromPool())
+			return super.retrieveModel(modelID);
+		return readFromPool(new SnapshotReader<Model>()
+		{
+			@Override
+			public Model read()
+			{
+				return JavaSQLiteRecordStore.super.retrieveModel(modelID);
+			}
+		}, null, "retrieveModel(long)");
+	}
+	
+	/**
+	 * When called from another thread than the owner thread, and the store has a pool of read-only connections,
+	 * the records are read from a snapshot and passed to the handler on the thread of the read-only connection.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#forEach(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery, boolean, uk.ac.ucl.excites.sapelli.storage.db.RecordStore.RecordHandler)
+	 */
+	@Override
+	public void forEach(final RecordsQuery query, final boolean reuseRecord, final RecordHandler handler) throws DBException
+	{
+		if(!isToBeReadFromPool())
+		{
+			super.forEach(query, reuseRecord, handler);
+			return;
+		}
+		readSnapshot(new SnapshotReader<Void>()
+		{
+			@Override
+			public Void read() throws DBException
+			{
+				JavaSQLiteRecordStore.super.forEach(query, reuseRecord, handler);
+				return null;
+			}
+		}); // errors are not logged but thrown, as with the super implementation
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#isReadingFromSnapshot()
+	 */
+	@Override
+	protected boolean isReadingFromSnapshot()
+	{
+		return currentReadConnection.get() != null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore#getStatementCache()
+	 */
+	@Override
+	public SQLiteStatementCache getStatementCache()
+	{
+		ReadConnection readConnection = currentReadConnection.get();
+		return readConnection != null ? readConnection.statementCache : super.getStatementCache();
+	}
+	
+	/**
+	 * The statement caches of the read-only connections are cleared on their own threads, asynchronously.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore#clearStatementCaches()
+	 */
+	@Override
+	protected void clearStatementCaches()
+	{
+		super.clearStatementCaches();
+		if(readConnections != null)
+			for(ReadConnection readConnection : readConnections)
+				readConnection.clearStatementCache();
+	}
+	
 	@Override
 	public int getVersion() throws DBException
 	{
@@ -118,7 +522,7 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 	{
 		try
 		{
-			return db.getAutoCommit();
+			return getConnection().getAutoCommit();
 		}
 		catch(SQLiteException sqlE)
 		{
@@ -140,7 +544,7 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 			client.logInfo("SQLite> Raw execute: " + sql);
 		try
 		{
-			db.exec(sql);
+			getConnection().exec(sql);
 		}
 		catch(SQLiteException sqlE)
 		{
@@ -156,7 +560,7 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 		// Return number of affected rows:
 		try
 		{
-			int rows = db.getChanges();
+			int rows = getConnection().getChanges();
 			if(loggingEnabled)
 				client.logInfo("SQLite> Affected rows: " + rows);
 			return rows;
@@ -167,6 +571,22 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore#getLastInsertROWID()
+	 */
+	@Override
+	protected Long getLastInsertROWID() throws DBException
+	{
+		try
+		{
+			return db.getLastInsertId();
+		}
+		catch(SQLiteException e)
+		{
+			throw new DBException("Failed to get last inserted ROWID", e);
+		}
+	}
+
 	@Override
 	protected SQLiteCursor executeQuery(String sql, List<SQLiteColumn<?, ?>> paramCols, List<? extends Object> sapArguments) throws DBException
 	{
@@ -185,13 +605,13 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 	}
 	
 	@Override
-	protected synchronized JavaSQLiteStatement generateStatement(String sql, List<SQLiteColumn<?, ?>> paramCols) throws DBException
+	protected JavaSQLiteStatement generateStatement(String sql, List<SQLiteColumn<?, ?>> paramCols) throws DBException
 	{
 		try
 		{
 			if(loggingEnabled)
 				client.logInfo("SQLite> Compile/reuse statement: " + sql);
-			return new JavaSQLiteStatement(db, sql, paramCols);
+			return new JavaSQLiteStatement(getConnection(), sql, paramCols);
 		}
 		catch(SQLiteException sqliteE)
 		{
@@ -199,9 +619,34 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 		}
 	}
 	
+	/**
+	 * {@link JavaSQLiteStatement}s can act as their own cursor.
+	 *
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore#isSelectStatementSupported()
+	 */
+	@Override
+	protected boolean isSelectStatementSupported()
+	{
+		return true;
+	}
+
 	@Override
 	protected void closeConnection() throws DBException
 	{
+		if(readConnections != null)
+		{
+			for(ReadConnection readConnection : readConnections)
+				readConnection.stop(true); // finishes queued jobs first
+			try
+			{
+				for(ReadConnection readConnection : readConnections)
+					readConnection.join();
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
 		db.dispose();
 	}
 	
@@ -235,5 +680,119 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 	{
 		return db.getDatabaseFile();
 	}
+	
+	/**
+	 * A read-only connection, confined to the thread of its {@link SQLiteQueue}.
+	 * 
+	 * @author mstevens
+	 */
+	private class ReadConnection extends SQLiteQueue
+	{
+		
+		private final SQLiteStatementCache statementCache = new SQLiteStatementCache();
+		private SQLiteConnection connection;
+		
+		public ReadConnection(File dbFile)
+		{
+			super(dbFile, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "JavaSQLiteRecordStore-reader");
+					thread.setDaemon(true); // don't keep the VM alive if the store is not closed
+					return thread;
+				}
+			});
+		}
+		
+		@Override
+		protected SQLiteConnection openConnection() throws SQLiteException
+		{
+			SQLiteConnection connection = new SQLiteConnection(getDatabaseFile());
+			connection.openReadonly();
+			return connection;
+		}
+		
+		@Override
+		protected void initConnection(SQLiteConnection connection) throws SQLiteException
+		{
+			connection.setBusyTimeout(READ_CONNECTION_BUSY_TIMEOUT_MS);
+			this.connection = connection;
+			currentReadConnection.set(this); // (called on the queue's thread)
+		}
+		
+		@Override
+		protected void disposeConnection(SQLiteConnection connection)
+		{
+			statementCache.clear(); // statements must be disposed on the thread of their connection
+			currentReadConnection.remove();
+			this.connection = null;
+			super.disposeConnection(connection);
+		}
+		
+		public void clearStatementCache()
+		{
+			execute(new SQLiteJob<Void>()
+			{
+				@Override
+				protected Void job(SQLiteConnection connection)
+				{
+					statementCache.clear();
+					return null;
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * Job which runs a {@link SnapshotReader} within a read transaction.
+	 * 
+	 * @author mstevens
+	 */
+	static private class SnapshotJob<T> extends SQLiteJob<T>
+	{
+		
+		private final SnapshotReader<T> reader;
+		private volatile Throwable readerError; // caught here rather than by SQLiteJob, which would log it
+		
+		public SnapshotJob(SnapshotReader<T> reader)
+		{
+			this.reader = reader;
+		}
+		
+		@Override
+		protected T job(SQLiteConnection connection) throws SQLiteException
+		{
+			connection.exec("BEGIN;"); // the snapshot is taken upon the first read
+			try
+			{
+				return reader.read();
+			}
+			catch(Throwable t)
+			{
+				readerError = t;
+				return null;
+			}
+			finally
+			{
+				connection.exec("COMMIT;");
+			}
+		}
+		
+	}
+	
+	/**
+	 * Reads from the store, see {@link JavaSQLiteRecordStore#readSnapshot(SnapshotReader)}.
+	 * 
+	 * @author mstevens
+	 */
+	public interface SnapshotReader<T>
+	{
+		
+		public T read() throws DBException;
+		
+	}
 
 }
@@ -137,6 +137,7 @@ public class JavaSQLiteStatement extends SQLiteStatement implements SQLiteCursor
 	 */
 	protected void reset(boolean clearBindings)
 	{
+		firstStep = null; // forget pre-fetched step result (statements may be reused, see SQLiteStatementCache)
 		try
 		{
 			javaSQLiteSt.reset(clearBindings && javaSQLiteSt.hasBindings()); // also clear bindings if there are any
@@ -295,10 +296,8 @@ public class JavaSQLiteStatement extends SQLiteStatement implements SQLiteCursor
 	public SQLiteCursor executeSelectRows() throws DBException
 	{
 		if(javaSQLiteSt.hasStepped())
-		{
-			firstStep = null;
 			reset(false); // don't clear bindings!
-		}
+		firstStep = null; // !!!
 		try
 		{
 			firstStep = moveToNext();
@@ -19,14 +19,17 @@
 package uk.ac.ucl.excites.sapelli.shared.io;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Iterator;
 
 import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
 
 /**
- * @author mstevens
+ * A fixed-length array of bits, packed in a {@code long[]}.<br/>
+ * Comparison, hashing, copying and (de)serialisation work on 64 bits at a time, and {@link #subArray(int, int)} returns a view without copying.
  * 
+ * @author mstevens
  */
 public class BitArray implements Iterable<Boolean>
 {
@@ -72,8 +75,22 @@ public class BitArray implements Iterable<Boolean>
 		return baos.toBitArray(true); // use given max bitLength
 	}
 	
+	/**
+	 * @param numberOfBits in range [0, 64]
+	 * @return a long with the given number of least significant bits set
+	 */
+	static private long mask(int numberOfBits)
+	{
+		return numberOfBits == Long.SIZE ? -1l : (1l << numberOfBits) - 1;
+	}
+	
 	// DYNAMIC ------------------------------------------------------
-	private final BitSet bits;
+	/**
+	 * Packed bits, using the same layout as {@link BitSet#toLongArray()} (i.e. bit {@code i} is stored in {@code words[i / 64]} at position {@code i % 64}).
+	 * May be shared with other BitArrays (see {@link #subArray(int, int)}).
+	 */
+	private final long[] words;
+	private final int offset;
 	private final int length;
 	
 	/**
@@ -81,7 +98,7 @@ public class BitArray implements Iterable<Boolean>
 	 */
 	public BitArray(int length)
 	{
-		this(new BitSet(length), length);
+		this(new long[Math.max(0, (length + Long.SIZE - 1) / Long.SIZE)], 0, length);
 	}
 	
 	/**
@@ -90,28 +107,87 @@ public class BitArray implements Iterable<Boolean>
 	 */
 	public BitArray(BitSet bits, int length)
 	{
-		if(bits == null)
+		this(bits.toLongArray(), 0, length);
+	}
+	
+	/**
+	 * @param words array with packed bits, in {@link BitSet#toLongArray()} layout (will be used, not copied, and may be shorter than needed to hold length bits if the missing bits are all 0)
+	 * @param offset index of the bit in {@code words} which is to be the first bit of this BitArray
+	 * @param length
+	 */
+	BitArray(long[] words, int offset, int length)
+	{
+		if(words == null)
 			throw new NullPointerException("bits cannot be null!");
 		if(length < 0)
 			throw new IllegalArgumentException("length cannot be negative!");
-		this.bits = bits;
+		int wordsNeeded = (offset + length + Long.SIZE - 1) / Long.SIZE;
+		this.words = words.length >= wordsNeeded ? words : Arrays.copyOf(words, wordsNeeded);
+		this.offset = offset;
 		this.length = length;
 	}
+	
+	private void checkIndex(int index)
+	{
+		if(index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index (" + index + ") out of bounds [0, " + (length - 1) + "]!");
+	}
 
 	public boolean get(int index)
 	{
-		if(index >= 0 && index < length)
-			return bits.get(index);
-		else
-			throw new IndexOutOfBoundsException("index (" + index + ") out of bounds [0, " + (length - 1) + "]!");
+		checkIndex(index);
+		int i = offset + index;
+		return (words[i / Long.SIZE] & (1l << (i % Long.SIZE))) != 0;
 	}
 	
 	public void set(int index, boolean value)
 	{
-		if(index >= 0 && index < length)
-			bits.set(index, value);
+		checkIndex(index);
+		int i = offset + index;
+		if(value)
+			words[i / Long.SIZE] |= 1l << (i % Long.SIZE);
 		else
-			throw new IndexOutOfBoundsException("index (" + index + ") out of bounds [0, " + (length - 1) + "]!");
+			words[i / Long.SIZE] &= ~(1l << (i % Long.SIZE));
+	}
+	
+	/**
+	 * Returns {@code numberOfBits} bits, starting at the given index, as the least significant bits of a long value
+	 * (with the bit at {@code index} in the most significant position).
+	 * 
+	 * @param index
+	 * @param numberOfBits in range [0, 64]
+	 * @return long value holding the requested bits
+	 */
+	public long getBits(int index, int numberOfBits)
+	{
+		if(numberOfBits == 0)
+			return 0l;
+		return Long.reverse(getRawBits(index, numberOfBits)) >>> (Long.SIZE - numberOfBits);
+	}
+	
+	/**
+	 * Returns {@code numberOfBits} bits, starting at the given index, in the internal (LSB 0) order, meaning the bit at {@code index}
+	 * is in the least significant position and all bits above the {@code numberOfBits} least significant ones are 0.
+	 * 
+	 * @param index
+	 * @param numberOfBits in range [0, 64]
+	 * @return long value holding the requested bits
+	 */
+	long getRawBits(int index, int numberOfBits)
+	{
+		if(numberOfBits < 0 || numberOfBits > Long.SIZE)
+			throw new IllegalArgumentException("numberOfBits (" + numberOfBits + ") must be in range [0, " + Long.SIZE + "]!");
+		if(index < 0 || index + numberOfBits > length)
+			throw new IndexOutOfBoundsException("range [" + index + ", " + (index + numberOfBits - 1) + "] out of bounds [0, " + (length - 1) + "]!");
+		if(numberOfBits == 0)
+			return 0l;
+		int i = offset + index;
+		int w = i / Long.SIZE;
+		int shift = i % Long.SIZE;
+		long bits = words[w] >>> shift;
+		if(shift != 0 && shift + numberOfBits > Long.SIZE)
+			bits |= words[w + 1] << (Long.SIZE - shift);
+		return bits & mask(numberOfBits);
 	}
 	
 	@Override
@@ -153,9 +229,20 @@ public class BitArray implements Iterable<Boolean>
 	public byte[] toByteArray()
 	{
 		byte[] bytes = new byte[BinaryHelpers.bytesNeeded(length)];
-		for(int i = 0; i < length; i++)
-			if(bits.get(i))
-				bytes[i / Byte.SIZE] |= 1 << (7 - (i % 8)); // MSB is read first
+		int i = 0;
+		// Whole words (MSB is read first):
+		for(; i + Long.SIZE <= length; i += Long.SIZE)
+			BinaryHelpers.fromLong(getBits(i, Long.SIZE), bytes, i / Byte.SIZE);
+		// Remaining bits (left-aligned in last byte(s)):
+		if(i < length)
+		{
+			long last = getBits(i, length - i) << (Long.SIZE - (length - i));
+			for(int b = i / Byte.SIZE; b < bytes.length; b++)
+			{
+				bytes[b] = (byte) (last >>> (Long.SIZE - Byte.SIZE));
+				last <<= Byte.SIZE;
+			}
+		}
 		return bytes;
 	}
 	
@@ -167,18 +254,69 @@ public class BitArray implements Iterable<Boolean>
 	 */
 	public void writeTo(BitOutputStream bos) throws IOException
 	{
-		for(int i = 0; i < length; i++)
-			bos.write(bits.get(i));
+		if(bos.isByteAligned() && length % Byte.SIZE == 0)
+			bos.write(toByteArray()); // allows byte-aligned fast path
+		else
+		{
+			int i = 0;
+			for(; i + Long.SIZE <= length; i += Long.SIZE)
+				bos.writeBits(getBits(i, Long.SIZE), Long.SIZE);
+			bos.writeBits(getBits(i, length - i), length - i);
+		}
+	}
+	
+	/**
+	 * @return a copy of this BitArray, not sharing any storage with it
+	 */
+	public BitArray copy()
+	{
+		long[] copy = new long[(length + Long.SIZE - 1) / Long.SIZE];
+		copyTo(copy, 0);
+		return new BitArray(copy, 0, length);
+	}
+	
+	/**
+	 * @param that
+	 * @return a new BitArray holding the bits of this one followed by those of the given one
+	 */
+	public BitArray append(BitArray that)
+	{
+		long[] combined = new long[(this.length + that.length + Long.SIZE - 1) / Long.SIZE];
+		this.copyTo(combined, 0);
+		that.copyTo(combined, this.length);
+		return new BitArray(combined, 0, this.length + that.length);
+	}
+	
+	/**
+	 * OR-s the bits of this BitArray into the given (initially cleared) target words, starting at the given bit position.
+	 * 
+	 * @param target
+	 * @param position
+	 */
+	void copyTo(long[] target, int position)
+	{
+		for(int i = 0; i < length; i += Long.SIZE)
+		{
+			int n = Math.min(Long.SIZE, length - i);
+			long bits = getRawBits(i, n);
+			int p = position + i;
+			int w = p / Long.SIZE;
+			int shift = p % Long.SIZE;
+			target[w] |= bits << shift;
+			if(shift != 0 && shift + n > Long.SIZE)
+				target[w + 1] |= bits >>> (Long.SIZE - shift);
+		}
 	}
 	
 	public int hashCode()
 	{
 		int hash = 1;
 		hash = 31 * hash + length;
-		hash = 31 * hash + bits.hashCode();
-		/*// Less efficient alternative for line above:
-		for(int i = 0; i < length; i++)
-			hash = 31 * hash + (get(i) ? 0 : 1);*/
+		for(int i = 0; i < length; i += Long.SIZE)
+		{
+			long bits = getRawBits(i, Math.min(Long.SIZE, length - i));
+			hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+		}
 		return hash;
 	}
 	
@@ -191,17 +329,22 @@ public class BitArray implements Iterable<Boolean>
 			BitArray that = (BitArray) obj;
 			if(this.length != that.length)
 				return false;
-			return this.bits.equals(that.bits);
-			/*// Less efficient alternative for line above:
-			for(int i = 0; i < length; i++)
-				if(this.get(i) != that.get(i))
+			if(this.words == that.words && this.offset == that.offset)
+				return true;
+			for(int i = 0; i < length; i += Long.SIZE)
+			{
+				int n = Math.min(Long.SIZE, length - i);
+				if(this.getRawBits(i, n) != that.getRawBits(i, n))
 					return false;
-			return true;*/
+			}
+			return true;
 		}
 		return false;
 	}
 	
 	/**
+	 * Returns a view on a part of this BitArray. The returned BitArray is backed by this one, so changes made to one are reflected in the other.
+	 * 
 	 * @param offset
 	 * @param length
 	 * @return a subArray of this one starting with the bit at position offset and the given length or less
@@ -210,13 +353,9 @@ public class BitArray implements Iterable<Boolean>
 	{
 		if(offset < 0 || offset > this.length)
 			throw new IndexOutOfBoundsException("offset (" + offset + ") out of bounds [0, " + (this.length - 1) + "]!");
-		int to = offset + length;
-		if(to > this.length)
-			to = this.length;
-		BitArray sub = new BitArray(to - offset);
-		for(int i = offset; i < to; i++)
-			sub.set(i, this.get(i));
-		return sub;
+		if(length < 0)
+			throw new IllegalArgumentException("length cannot be negative!");
+		return new BitArray(words, this.offset + offset, Math.min(length, this.length - offset));
 	}
 	
 }
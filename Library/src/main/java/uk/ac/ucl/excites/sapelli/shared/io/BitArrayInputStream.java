@@ -21,6 +21,8 @@ package uk.ac.ucl.excites.sapelli.shared.io;
 import java.io.EOFException;
 import java.io.IOException;
 
+import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
+
 /**
  * A stream of bits that can be read. Provides read methods for various (primitive) types.<br/>
  * <br/>
@@ -61,6 +63,39 @@ public final class BitArrayInputStream extends BitInputStream
 		return bitArray.get(currentIndex++);
 	}
 	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitInputStream#doReadBits(int)
+	 */
+	@Override
+	protected long doReadBits(int numberOfBits) throws IOException, EOFException
+	{
+		if(currentIndex + numberOfBits > bitArray.length())
+		{
+			currentIndex = bitArray.length();
+			throw new EOFException("End of stream reached");
+		}
+		long bits = bitArray.getBits(currentIndex, numberOfBits);
+		currentIndex += numberOfBits;
+		return bits;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitInputStream#doReadBytes(byte[], int, int)
+	 */
+	@Override
+	protected int doReadBytes(byte[] buffer, int off, int len) throws IOException
+	{
+		int n = Math.min(len, bitsAvailable() / Byte.SIZE);
+		int i = 0;
+		// Read in chunks of 8 bytes:
+		for(; i + Long.SIZE / Byte.SIZE <= n; i += Long.SIZE / Byte.SIZE)
+			BinaryHelpers.fromLong(doReadBits(Long.SIZE), buffer, off + i);
+		// Read remaining bytes one by one:
+		for(; i < n; i++)
+			buffer[off + i] = (byte) doReadBits(Byte.SIZE);
+		return n;
+	}
+	
 	/**
 	 * The (estimated) number of bits left available for reading.
 	 * Calls atEnd().
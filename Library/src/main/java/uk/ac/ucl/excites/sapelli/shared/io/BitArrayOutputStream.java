@@ -19,18 +19,24 @@
 package uk.ac.ucl.excites.sapelli.shared.io;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
+ * A {@link BitOutputStream} which writes to an in-memory bit array, which can be retrieved as a {@link BitArray}.<br/>
+ * <br/>
+ * Bits are stored in a growing {@code long[]}, using the same layout as {@link BitSet#toLongArray()}, such that
+ * bulk writes (see {@link #doWriteBits(long, int)}) can be performed with word-level operations.
+ * 
  * @author mstevens
- *
  */
 public class BitArrayOutputStream extends BitOutputStream
 {
 
 	static public final int UNLIMITED = -1; 
+	static private final int INITIAL_WORDS = 4;
 	
-	private final BitSet bits;
+	private long[] words;
 	private final int maxLength;
 	
 	/**
@@ -48,12 +54,12 @@ public class BitArrayOutputStream extends BitOutputStream
 		super();
 		if(maxLength < UNLIMITED)
 			throw new IllegalArgumentException("maxLength cannot be < -1");
-		this.bits = new BitSet();
 		this.maxLength = maxLength;
+		this.words = new long[isLimited() ? Math.max(1, (maxLength + Long.SIZE - 1) / Long.SIZE) : INITIAL_WORDS];
 	}
 	
 	/**
-	 * Writes an individual bit (a boolean) to the underlying BitSet
+	 * Writes an individual bit (a boolean) to the underlying array
 	 * 
 	 * @param bit bit (true = 1; false = 0) to be written
 	 * @throws IOException if an I/O error occurs
@@ -61,7 +67,53 @@ public class BitArrayOutputStream extends BitOutputStream
 	@Override
 	protected void writeBit(boolean bit) throws IOException
 	{
-		bits.set(getNumberOfBitsWritten(), bit);
+		int index = getNumberOfBitsWritten();
+		ensureCapacity(index + 1);
+		if(bit)
+			words[index / Long.SIZE] |= 1l << (index % Long.SIZE);
+	}
+	
+	/**
+	 * Writes the given bits using (at most) two word-level operations.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream#doWriteBits(long, int)
+	 */
+	@Override
+	protected void doWriteBits(long bits, int numberOfBits) throws IOException
+	{
+		int index = getNumberOfBitsWritten();
+		ensureCapacity(index + numberOfBits);
+		// Reverse the bits such that the first bit to be written (the MSB) ends up in the least significant position (any bits above numberOfBits are shifted out):
+		long reversed = Long.reverse(bits << (Long.SIZE - numberOfBits));
+		int w = index / Long.SIZE;
+		int shift = index % Long.SIZE;
+		words[w] |= reversed << shift;
+		if(shift != 0 && shift + numberOfBits > Long.SIZE)
+			words[w + 1] |= reversed >>> (Long.SIZE - shift);
+	}
+	
+	/**
+	 * Appends the given bits using word-level copying.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream#doWriteBitArray(uk.ac.ucl.excites.sapelli.shared.io.BitArray)
+	 */
+	@Override
+	protected boolean doWriteBitArray(BitArray bits) throws IOException
+	{
+		int index = getNumberOfBitsWritten();
+		ensureCapacity(index + bits.length());
+		bits.copyTo(words, index);
+		return true;
+	}
+	
+	/**
+	 * @param numberOfBits
+	 */
+	private void ensureCapacity(int numberOfBits)
+	{
+		int wordsNeeded = (numberOfBits + Long.SIZE - 1) / Long.SIZE;
+		if(wordsNeeded > words.length)
+			words = Arrays.copyOf(words, Math.max(wordsNeeded, words.length * 2));
 	}
 	
 	/**
@@ -78,7 +130,8 @@ public class BitArrayOutputStream extends BitOutputStream
 	 */
 	public BitArray toBitArray(boolean useMaxLenth)
 	{
-		return new BitArray(bits, useMaxLenth && isLimited() ? maxLength : getNumberOfBitsWritten());
+		int length = useMaxLenth && isLimited() ? maxLength : getNumberOfBitsWritten();
+		return new BitArray(Arrays.copyOf(words, (length + Long.SIZE - 1) / Long.SIZE), 0, length);
 	}
 
 	/**
@@ -105,4 +158,13 @@ public class BitArrayOutputStream extends BitOutputStream
 		return isLimited() && getNumberOfBitsWritten() == maxLength;
 	}
 	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream#getRemainingCapacity()
+	 */
+	@Override
+	protected int getRemainingCapacity()
+	{
+		return isLimited() ? maxLength - getNumberOfBitsWritten() : Integer.MAX_VALUE;
+	}
+	
 }
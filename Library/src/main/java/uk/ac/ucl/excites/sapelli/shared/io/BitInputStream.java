@@ -67,6 +67,78 @@ public abstract class BitInputStream extends InputStream
 	}
 	
 	protected abstract boolean doReadBit() throws IOException, EOFException;
+	
+	/**
+	 * Reads {@code numberOfBits} bits (at most 64) from the stream and returns them as the least significant bits of a long value,
+	 * with the first bit that was read in the most significant position (i.e. using "MSB 0" bit numbering).<br/>
+	 * <br/>
+	 * This is the bulk alternative to calling {@link #readBit()} {@code numberOfBits} times.
+	 * 
+	 * @param numberOfBits number of bits to read, in range [0, 64]
+	 * @return long value holding the bits that were read (all bits above the {@code numberOfBits} least significant ones are 0)
+	 * @throws IOException if the stream is closed or another I/O error occurs
+	 * @throws EOFException when not enough bits could be read because the end of stream is reached
+	 */
+	public long readBitsAsLong(int numberOfBits) throws IOException, EOFException
+	{
+		if(numberOfBits < 0 || numberOfBits > Long.SIZE)
+			throw new IllegalArgumentException("numberOfBits (" + numberOfBits + ") must be in range [0, " + Long.SIZE + "]!");
+		if(numberOfBits == 0)
+			return 0l;
+		long bits = doReadBits(numberOfBits);
+		numberOfBitsRead += numberOfBits;
+		return bits;
+	}
+	
+	/**
+	 * Reads {@code numberOfBits} bits and returns them as the least significant bits of a long value, first bit read in the most significant position.<br/>
+	 * Subclasses are expected to override this with a more efficient (e.g. word-buffered) implementation.
+	 * 
+	 * @param numberOfBits number of bits to read, in range [1, 64]
+	 * @return long value holding the bits that were read (all bits above the {@code numberOfBits} least significant ones must be 0)
+	 * @throws IOException if the stream is closed or another I/O error occurs
+	 * @throws EOFException when not enough bits could be read because the end of stream is reached
+	 */
+	protected long doReadBits(int numberOfBits) throws IOException, EOFException
+	{
+		long bits = 0l;
+		for(int i = 0; i < numberOfBits; i++)
+			bits = (bits << 1) | (doReadBit() ? 1l : 0l);
+		return bits;
+	}
+	
+	/**
+	 * Reads up to {@code len} whole bytes into the given buffer, stopping only when the end of the stream is reached.<br/>
+	 * Subclasses can override this to provide a fast path for when the stream is at a byte boundary (see {@link #isByteAligned()}).
+	 * 
+	 * @param buffer the buffer to read into
+	 * @param off offset in the buffer
+	 * @param len number of bytes to read (> 0)
+	 * @return the number of bytes actually read
+	 * @throws IOException if the stream is closed or another I/O error occurs
+	 */
+	protected int doReadBytes(byte[] buffer, int off, int len) throws IOException
+	{
+		int i = 0;
+		try
+		{
+			for(; i < len; i++)
+				buffer[off + i] = (byte) doReadBits(Byte.SIZE);
+		}
+		catch(EOFException eof)
+		{
+			// not all bytes could be read
+		}
+		return i;
+	}
+	
+	/**
+	 * @return whether or not the number of bits read so far is a multiple of 8
+	 */
+	public boolean isByteAligned()
+	{
+		return numberOfBitsRead % Byte.SIZE == 0;
+	}
 
 	/**
 	 * Reads exactly {@code numberOfBits} of bits from the input stream, and returns them as a boolean[]. 
@@ -97,10 +169,12 @@ public abstract class BitInputStream extends InputStream
 	 */
 	public BitArray readBitArray(int length) throws EOFException, IOException
 	{
-		BitArray bits = new BitArray(length);
-		for(int i = 0; i < length; i++)
-			bits.set(i, readBit());
-		return bits;
+		BitArrayOutputStream bits = new BitArrayOutputStream(length);
+		int i = 0;
+		for(; i + Long.SIZE <= length; i += Long.SIZE)
+			bits.writeBits(readBitsAsLong(Long.SIZE), Long.SIZE);
+		bits.writeBits(readBitsAsLong(length - i), length - i);
+		return bits.toBitArray();
 	}
 	
 	/**
@@ -136,6 +210,15 @@ public abstract class BitInputStream extends InputStream
 		if(bitOffset < 0 || bitCount < 0 || bitOffset + bitCount > buffer.length)
 			throw new IndexOutOfBoundsException("bitOffset and/or bitCount cause out of bounds exception");
 		int i = 0;
+		// Read in chunks of (at most) 64 bits for as long as we know enough bits are available:
+		int chunk;
+		while((chunk = Math.min(Long.SIZE, bitCount - i)) > 0 && chunk <= bitsAvailable())
+		{
+			long bits = readBitsAsLong(chunk);
+			for(int b = chunk - 1; b >= 0; b--)
+				buffer[bitOffset + i++] = ((bits >>> b) & 1l) != 0;
+		}
+		// Read remaining bits one by one:
 		for(; i < bitCount; i++)
 		{
 			try
@@ -163,12 +246,41 @@ public abstract class BitInputStream extends InputStream
 	public byte[] readBytes(int numberOfBytes) throws IOException, EOFException
 	{	
 		byte[] bytes = new byte[numberOfBytes];
-		int n = read(bytes); //throws IOException (e.g. when stream is closed)
-		if(n < numberOfBytes)
-			throw new EOFException("Could not read enough bits (requested: " + numberOfBytes + "; read: " + Math.max(n, 0) + "), because end of stream was reached");
+		readFully(bytes);
 		return bytes;
 	}
 	
+	/**
+	 * Reads exactly {@code buffer.length} whole bytes from the input into the given buffer.
+	 * 
+	 * @param buffer the buffer to read into
+	 * @throws IOException if the stream is closed or another I/O error occurs
+	 * @throws EOFException could not read enough bytes
+	 * @see java.io.DataInput#readFully(byte[])
+	 */
+	public void readFully(byte[] buffer) throws IOException, EOFException
+	{
+		readFully(buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Reads exactly {@code len} whole bytes from the input into the given buffer, starting at offset {@code off}.
+	 * When the stream is at a byte boundary this is done without any bit-level operations.
+	 * 
+	 * @param buffer the buffer to read into
+	 * @param off offset in the buffer
+	 * @param len number of bytes to read
+	 * @throws IOException if the stream is closed or another I/O error occurs
+	 * @throws EOFException could not read enough bytes
+	 * @see java.io.DataInput#readFully(byte[], int, int)
+	 */
+	public void readFully(byte[] buffer, int off, int len) throws IOException, EOFException
+	{
+		int n = read(buffer, off, len); //throws IOException (e.g. when stream is closed)
+		if(n < len)
+			throw new EOFException("Could not read enough bits (requested: " + len + "; read: " + Math.max(n, 0) + "), because end of stream was reached");
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.io.InputStream#read(byte[])
 	 */
@@ -186,21 +298,11 @@ public abstract class BitInputStream extends InputStream
 			throw new NullPointerException("buffer cannot be null");
 		if(byteOffset < 0 || byteCount < 0 || byteOffset + byteCount > buffer.length)
 			throw new IndexOutOfBoundsException("byteOffset and/or byteCount cause out of bounds exception");
-		int i = 0;
-		for(; i < byteCount; i++)
-		{
-			try
-			{
-				buffer[i + byteOffset] = readByte();
-			}
-			catch(EOFException eof)
-			{
-				if(i == 0)
-					return -1; //not a single byte could be read
-				break;
-			}
-		}
-		return i; //number of bytes read
+		if(byteCount == 0)
+			return 0;
+		int n = doReadBytes(buffer, byteOffset, byteCount);
+		numberOfBitsRead += n * Byte.SIZE;
+		return n == 0 ? -1 /*not a single byte could be read*/ : n; //number of bytes read
 	}
 	
 	/**
@@ -237,7 +339,7 @@ public abstract class BitInputStream extends InputStream
 	 */
 	public byte readByte() throws IOException, EOFException
 	{
-		return (byte) readInteger(Byte.SIZE, false);
+		return (byte) readBitsAsLong(Byte.SIZE);
 		//Old version:
 		/*byte b = 0;
 		for(int i = 0; i < 8; i++)
@@ -302,7 +404,13 @@ public abstract class BitInputStream extends InputStream
 			throw new IllegalArgumentException("Cannot store more than 64 bits in a variable of type long; use readBigInteger() instead.");
 		if(numberOfBits == 64 && !signed)
 			throw new IllegalArgumentException("Cannot safely store unsigned values of more than 63 bits in a variable of type long; use readBigInteger() instead.");
-		return readBigInteger(numberOfBits, signed).longValue();
+		if(numberOfBits < 0)
+			throw new IllegalArgumentException("numberOfBits (" + numberOfBits + ") cannot be negative!");
+		long value = readBitsAsLong(numberOfBits);
+		// Sign extension (overflowing values become negative):
+		if(signed && numberOfBits > 0 && numberOfBits < Long.SIZE)
+			value = (value << (Long.SIZE - numberOfBits)) >> (Long.SIZE - numberOfBits);
+		return value;
 	}
 	
 	/**
@@ -330,16 +438,15 @@ public abstract class BitInputStream extends InputStream
 	{
 		if(numberOfBits < 0)
 			throw new IllegalArgumentException("numberOfBits (" + numberOfBits + ") cannot be negative!");
-		/* Read the value bit by bit...
-		 *	The most significant bit is read first ("MSB 0" bit numbering).
-		 *	But because  BigInteger uses "LSB 0" bit numbering internally we will always set its (numberOfBits - 1 - i)-th bit
-		 *	(i.e. in the BigInteger the most significant bit is at address numburOfBits-1). */
+		/* Read the value in chunks of (at most) 63 bits...
+		 *	The most significant bit is read first ("MSB 0" bit numbering), so each chunk is appended at the least significant end. */
 		BigInteger value = BigInteger.ZERO;
-		for(int i = 0; i < numberOfBits; i++)
-			if(readBit()) //throws IOException and EOFException 
-				value = value.setBit(numberOfBits - 1 - i);
-			//Alternative for the 2 lines above:
-			//	value = value.add(BigInteger.valueOf(bits[i] ? (1l << i) : 0l));
+		for(int remaining = numberOfBits; remaining > 0;)
+		{
+			int chunk = Math.min(Long.SIZE - 1, remaining);
+			value = value.shiftLeft(chunk).or(BigInteger.valueOf(readBitsAsLong(chunk))); //throws IOException and EOFException
+			remaining -= chunk;
+		}
 		// Overflowing values become negative:
 		BigInteger maxValue = BigIntegerUtils.GetMaxValue(numberOfBits, signed);
 		if(value.compareTo(maxValue) > 0) // is value bigger than maxValue?
@@ -498,6 +605,14 @@ public abstract class BitInputStream extends InputStream
 		if(n > 0)
 		{
 			long i = 0;
+			// Skip in chunks of (at most) 64 bits for as long as we know enough bits are available:
+			int chunk;
+			while((chunk = (int) Math.min(Long.SIZE, n - i)) > 0 && chunk <= bitsAvailable())
+			{
+				readBitsAsLong(chunk);
+				i += chunk;
+			}
+			// Skip remaining bits one by one:
 			for(; i < n; i++)
 			{
 				try
@@ -24,6 +24,7 @@ import java.math.BigInteger;
 import java.nio.charset.Charset;
 
 import uk.ac.ucl.excites.sapelli.shared.util.BigIntegerUtils;
+import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
 
 /**
  * A stream where bits can be written to. Provides write methods for various (primitive) types.<br/>
@@ -81,6 +82,88 @@ public abstract class BitOutputStream extends OutputStream
 	 */
 	protected abstract boolean isFull();
 	
+	/**
+	 * Returns the number of bits that can still be written before the output is "full".
+	 * The default implementation only relies on {@link #isFull()}, subclasses with a
+	 * known maximum length should override this.
+	 * 
+	 * @return the number of bits that can still be written, {@link Integer#MAX_VALUE} if unlimited
+	 */
+	protected int getRemainingCapacity()
+	{
+		return isFull() ? 0 : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Writes the {@code numberOfBits} least significant bits of the given {@code bits} value to the output,
+	 * the most significant one of those first (i.e. using "MSB 0" bit numbering).<br/>
+	 * <br/>
+	 * This is the bulk alternative to calling {@link #write(boolean)} {@code numberOfBits} times. If the output
+	 * does not have enough capacity left then as many bits as fit are written before a
+	 * {@link CapacityReachedException} is thrown (i.e. the same behaviour as bit-by-bit writing).
+	 * 
+	 * @param bits long value holding the bits to be written (any bits above the {@code numberOfBits} least significant ones are ignored)
+	 * @param numberOfBits number of bits to write, in range [0, 64]
+	 * @throws IOException if an I/O error occurs
+	 * @throws CapacityReachedException when the output is "full"
+	 */
+	public void writeBits(long bits, int numberOfBits) throws IOException, CapacityReachedException
+	{
+		if(numberOfBits < 0 || numberOfBits > Long.SIZE)
+			throw new IllegalArgumentException("numberOfBits (" + numberOfBits + ") must be in range [0, " + Long.SIZE + "]!");
+		if(closed)
+			throw new IOException("This stream is closed");
+		if(numberOfBits == 0)
+			return;
+		int fitting = Math.min(numberOfBits, getRemainingCapacity());
+		if(fitting > 0)
+		{
+			doWriteBits(bits >>> (numberOfBits - fitting), fitting); // only the most significant bits that fit
+			numberOfBitsWritten += fitting;
+		}
+		if(fitting < numberOfBits)
+			throw new CapacityReachedException();
+	}
+	
+	/**
+	 * Writes the {@code numberOfBits} least significant bits of the given {@code bits} value to the output, most significant one first.<br/>
+	 * Subclasses are expected to override this with a more efficient (e.g. word-buffered) implementation.<br/>
+	 * Capacity and closedness checks have already been performed when this method is called.
+	 * 
+	 * @param bits long value holding the bits to be written (any bits above the {@code numberOfBits} least significant ones must be ignored)
+	 * @param numberOfBits number of bits to write, in range [1, 64]
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected void doWriteBits(long bits, int numberOfBits) throws IOException
+	{
+		for(int i = numberOfBits - 1; i >= 0; i--) //MSB first
+			writeBit(((bits >>> i) & 1l) != 0);
+	}
+	
+	/**
+	 * Writes {@code len} whole bytes from the given array to the output, {@code bytes[off]} first.<br/>
+	 * Only called when the output is at a byte boundary (see {@link #isByteAligned()}), and after capacity and closedness
+	 * checks have been performed. Subclasses can override this to provide a fast path which avoids bit-level operations.
+	 * 
+	 * @param bytes byte array from which a sub-array need to be written
+	 * @param off offset
+	 * @param len number of bytes to be written
+	 * @return whether or not the bytes were written, the default implementation always returns {@code false}
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected boolean doWriteAlignedBytes(byte[] bytes, int off, int len) throws IOException
+	{
+		return false;
+	}
+	
+	/**
+	 * @return whether or not the number of bits written so far is a multiple of 8
+	 */
+	public boolean isByteAligned()
+	{
+		return numberOfBitsWritten % Byte.SIZE == 0;
+	}
+	
 	/**
 	 * Writes an array series of bits (booleans) to the output
 	 * 
@@ -101,7 +184,26 @@ public abstract class BitOutputStream extends OutputStream
 	 */
 	public void write(BitArray bits) throws IOException
 	{
-		bits.writeTo(this);
+		if(closed)
+			throw new IOException("This stream is closed");
+		if(bits.length() <= getRemainingCapacity() && doWriteBitArray(bits))
+			numberOfBitsWritten += bits.length();
+		else
+			bits.writeTo(this);
+	}
+	
+	/**
+	 * Writes all bits in the given {@link BitArray} to the output.<br/>
+	 * Subclasses can override this to provide a fast path (e.g. word-level copying).<br/>
+	 * Capacity and closedness checks have already been performed when this method is called.
+	 * 
+	 * @param bits BitArray to be written
+	 * @return whether or not the bits were written, the default implementation always returns {@code false}
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected boolean doWriteBitArray(BitArray bits) throws IOException
+	{
+		return false;
 	}
 	
 	/**
@@ -115,8 +217,7 @@ public abstract class BitOutputStream extends OutputStream
 	 */
 	public void write(byte b) throws IOException
 	{
-		for(int i = 7; i >= 0; i--) //MSB first
-			write((b & (1 << i)) != 0);
+		writeBits(b & 0xFF, Byte.SIZE); //MSB first
 	}
 	
 	/**
@@ -154,8 +255,22 @@ public abstract class BitOutputStream extends OutputStream
 			throw new IllegalArgumentException("Negative length");
 		if(off + len > bytes.length)
 			throw new ArrayIndexOutOfBoundsException();
-		for(int i = 0; i < len; i++)
-			write(bytes[off+i]);		
+		if(closed)
+			throw new IOException("This stream is closed");
+		int fitting = Math.min(len, getRemainingCapacity() / Byte.SIZE);
+		int i = 0;
+		// Bulk-write the bytes which fit, if possible:
+		if(fitting > 0 && isByteAligned() && doWriteAlignedBytes(bytes, off, fitting))
+		{
+			numberOfBitsWritten += fitting * Byte.SIZE;
+			i = fitting;
+		}
+		// Otherwise write them in chunks of 8 bytes...
+		for(; i + Long.SIZE / Byte.SIZE <= fitting; i += Long.SIZE / Byte.SIZE)
+			writeBits(BinaryHelpers.toLong(bytes, off + i), Long.SIZE);
+		// ... and then one by one (if there is a byte which does not fit entirely we write as many of its bits as possible and a CapacityReachedException will be thrown):
+		for(; i < len; i++)
+			write(bytes[off + i]);
 	}
 
 	/**
@@ -211,28 +326,27 @@ public abstract class BitOutputStream extends OutputStream
 	public void write(long value, int numberOfBits, boolean signed/*, ByteOrder order*/) throws IOException
 	{
 		//TODO add support for little-endian byte order (and perhaps LSB 0 bit numbering)
-		write(BigInteger.valueOf(value), numberOfBits, signed);
-		/*
-		//Version without conversion to BigInteger (works just as well; kept for reference only):
-		//Do checks:
-		if(numberOfBits < 1)
-			throw new IllegalArgumentException("Invalid number of bits (" + numberOfBits + ").");
-		if(signed)
-		{	//Signed
-			if(value < (long) (- Math.pow(2, numberOfBits - 1)) || value > (long) (Math.pow(2, numberOfBits - 1) - 1))
-				throw new IllegalArgumentException("Signed value (" + value + ") does not fit in " + numberOfBits + " bits.");
+		if(numberOfBits < 0 || numberOfBits > Long.SIZE)
+		{	// Let the BigInteger version deal with invalid and (sign-extended) > 64 bit values:
+			write(BigInteger.valueOf(value), numberOfBits, signed);
+			return;
 		}
+		//Do checks (without conversion to BigInteger):
+		boolean fits;
+		if(numberOfBits == 0)
+			fits =	value == 0l;
+		else if(signed)
+			fits =	numberOfBits == Long.SIZE ||
+					(value >= -(1l << (numberOfBits - 1)) && value <= (1l << (numberOfBits - 1)) - 1);
 		else
-		{	//Unsigned
-			if(value < 0l)
-				throw new IllegalArgumentException("Cannot write negative value as unsigned integer.");
-			if(value > (long) (Math.pow(2, numberOfBits) - 1))
-				throw new IllegalArgumentException("Unsigned value (" + value + ") does not fit in " + numberOfBits + " bits.");
+			fits =	value >= 0l && (numberOfBits >= Long.SIZE - 1 || value <= (1l << numberOfBits) - 1);
+		if(!fits)
+		{	// Let the BigInteger version throw the appropriate exception:
+			write(BigInteger.valueOf(value), numberOfBits, signed);
+			return;
 		}
-		//Write the bits (MSB first):
-		for(int i = numberOfBits - 1; i >= 0; i--)
-			write((value >> i) % 2l != 0);
-		*/
+		//Write the bits (MSB first, the Two's Complement representation is given by the numberOfBits least significant bits):
+		writeBits(value, numberOfBits);
 	}
 	
 	/**
@@ -269,9 +383,15 @@ public abstract class BitOutputStream extends OutputStream
 			throw new IllegalArgumentException((signed ? "S" : "Uns") + "igned value (" + value.toString() + ") does not fit in " + numberOfBits + " bits, values must be in range [" + minValue.toString() + "; " + maxValue.toString() + "] (inclusive).");
 		/*Write the bits
 		 *	The most significant bit is written first ("MSB 0" bit numbering).
-		 *	But we need to count backwards because BigInteger uses "LSB 0" bit numbering internally (i.e. the most significant bit is at address numburOfBits-1). */
-		for(int i = numberOfBits - 1; i >= 0; i--)
-			write(value.testBit(i));
+		 *	We do so in chunks of (at most) 64 bits, starting with the most significant chunk. Shifting right (with sign extension)
+		 *	and taking the long value gives us the Two's Complement representation of each chunk. */
+		int remaining = numberOfBits;
+		while(remaining > 0)
+		{
+			int chunk = remaining % Long.SIZE == 0 ? Long.SIZE : remaining % Long.SIZE;
+			remaining -= chunk;
+			writeBits(value.shiftRight(remaining).longValue(), chunk);
+		}
 	}
 	
 	/**
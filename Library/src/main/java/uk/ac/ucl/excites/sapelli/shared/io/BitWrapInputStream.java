@@ -23,22 +23,34 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
+import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
+
 /**
  * A stream of bits that can be read. Provides read methods for various (primitive) types.<br/>
  * <br/>
  * Heavily modified/extended version of original work by Nayuki Minase:<br/>
  * 		- Source: <a href="https://github.com/nayuki/Huffman-Coding/blob/master/src/nayuki/huffmancoding/BitInputStream.java">https://github.com/nayuki/Huffman-Coding/blob/master/src/nayuki/huffmancoding/BitInputStream.java</a><br/>
  * 		- License: MIT License<br/>
+ * <br/>
+ * Bits are served from a 64-bit word which is refilled from a buffer of bytes read ahead from the underlying {@link InputStream}.
+ * Hence, this class may consume more bytes from the underlying stream than it has returned as bits.
  * 
  * @author mstevens
  */
 public final class BitWrapInputStream extends BitInputStream
 {
 	
+	//STATIC
+	static private final int BYTES_PER_WORD = Long.SIZE / Byte.SIZE;
+	static private final int BYTE_BUFFER_SIZE = 64 * BYTES_PER_WORD;
+	
 	//DYNAMIC
 	private InputStream input;			// Underlying byte-based InputStream to read from
-	private int currentByte;			// Buffered bits stored as an int (either in the range 0x00 to 0xFF, or -1 if the end of stream is reached)
-	private int numBitsRemaining;		// Always between 0 and 7, inclusive
+	private long currentWord;			// Buffered bits stored in a long (the numBitsRemaining least significant bits have not been read yet)
+	private int numBitsRemaining;		// Always between 0 and 64, inclusive
+	private final byte[] byteBuffer;	// Bytes read ahead from the underlying stream
+	private int bufferPosition;			// Index of the next unread byte in byteBuffer
+	private int bufferLimit;			// Number of valid bytes in byteBuffer
 	private boolean isEndOfStream;
 
 	public BitWrapInputStream(InputStream input)
@@ -46,7 +58,11 @@ public final class BitWrapInputStream extends BitInputStream
 		if(input == null)
 			throw new NullPointerException("Underlying InputStream cannot be null!");
 		this.input = input;
+		currentWord = 0l;
 		numBitsRemaining = 0;
+		byteBuffer = new byte[BYTE_BUFFER_SIZE];
+		bufferPosition = 0;
+		bufferLimit = 0;
 		isEndOfStream = false;
 	}
 	
@@ -63,20 +79,54 @@ public final class BitWrapInputStream extends BitInputStream
 	{
 		if(closed)
 			throw new IOException("This stream is closed");
-		if(isEndOfStream && numBitsRemaining == 0)
-			return true;
 		if(numBitsRemaining == 0)
+			loadWord();
+		return numBitsRemaining == 0;
+	}
+	
+	/**
+	 * Makes sure there is at least 1 unread byte in the byteBuffer, unless the end of the underlying stream has been reached.
+	 * 
+	 * @return whether or not there is an unread byte in the buffer
+	 * @throws IOException if an I/O error occurs
+	 */
+	private boolean fillByteBuffer() throws IOException
+	{
+		while(bufferPosition == bufferLimit && !isEndOfStream)
 		{
-			currentByte = input.read();
-			if(currentByte == -1)
-			{
+			int n = input.read(byteBuffer, 0, BYTE_BUFFER_SIZE);
+			if(n == -1)
 				isEndOfStream = true;
-				return true;
-			}
 			else
-				numBitsRemaining = 8;
+			{
+				bufferPosition = 0;
+				bufferLimit = n;
+			}
+		}
+		return bufferPosition < bufferLimit;
+	}
+	
+	/**
+	 * Loads up to 8 bytes into the (empty) current word.
+	 * 
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void loadWord() throws IOException
+	{
+		if(bufferLimit - bufferPosition >= BYTES_PER_WORD)
+		{	// Fast path:
+			currentWord = BinaryHelpers.toLong(byteBuffer, bufferPosition);
+			bufferPosition += BYTES_PER_WORD;
+			numBitsRemaining = Long.SIZE;
+			return;
+		}
+		currentWord = 0l;
+		numBitsRemaining = 0;
+		while(numBitsRemaining < Long.SIZE && fillByteBuffer())
+		{
+			currentWord = (currentWord << Byte.SIZE) | (byteBuffer[bufferPosition++] & 0xFF);
+			numBitsRemaining += Byte.SIZE;
 		}
-		return false;
 	}
 
 	/**
@@ -89,10 +139,80 @@ public final class BitWrapInputStream extends BitInputStream
 	 */
 	protected boolean doReadBit() throws IOException, EOFException
 	{
-		if(atEnd()) //also reads a new byte from underlying stream if needed! (will also check for closedness)
+		if(atEnd()) //also reads a new word from underlying stream if needed! (will also check for closedness)
 			throw new EOFException("End of stream reached");
 		numBitsRemaining--;
-		return ((currentByte >>> numBitsRemaining) & 1) == 1;
+		return ((currentWord >>> numBitsRemaining) & 1l) == 1l;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitInputStream#doReadBits(int)
+	 */
+	@Override
+	protected long doReadBits(int numberOfBits) throws IOException, EOFException
+	{
+		if(closed)
+			throw new IOException("This stream is closed");
+		if(numberOfBits <= numBitsRemaining)
+		{	// All bits are in the current word:
+			numBitsRemaining -= numberOfBits;
+			return (currentWord >>> numBitsRemaining) & mask(numberOfBits);
+		}
+		// Take the remaining bits of the current word...
+		int need = numberOfBits - numBitsRemaining;
+		long bits = currentWord & mask(numBitsRemaining);
+		// ... and the rest from the next one:
+		loadWord();
+		if(numBitsRemaining < need)
+		{
+			numBitsRemaining = 0;
+			throw new EOFException("End of stream reached");
+		}
+		numBitsRemaining -= need;
+		return (need == Long.SIZE ? 0l : bits << need) | ((currentWord >>> numBitsRemaining) & mask(need));
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitInputStream#doReadBytes(byte[], int, int)
+	 */
+	@Override
+	protected int doReadBytes(byte[] buffer, int off, int len) throws IOException
+	{
+		if(closed)
+			throw new IOException("This stream is closed");
+		if(numBitsRemaining % Byte.SIZE != 0)
+			return super.doReadBytes(buffer, off, len); // not at a byte boundary, use bit-level path
+		int i = 0;
+		// Take whole bytes from the current word:
+		while(i < len && numBitsRemaining > 0)
+		{
+			numBitsRemaining -= Byte.SIZE;
+			buffer[off + i++] = (byte) (currentWord >>> numBitsRemaining);
+		}
+		// Take bytes from the byte buffer:
+		int fromBuffer = Math.min(len - i, bufferLimit - bufferPosition);
+		System.arraycopy(byteBuffer, bufferPosition, buffer, off + i, fromBuffer);
+		bufferPosition += fromBuffer;
+		i += fromBuffer;
+		// Read the rest straight from the underlying stream:
+		while(i < len && !isEndOfStream)
+		{
+			int n = input.read(buffer, off + i, len - i);
+			if(n == -1)
+				isEndOfStream = true;
+			else
+				i += n;
+		}
+		return i;
+	}
+	
+	/**
+	 * @param numberOfBits in range [0, 64]
+	 * @return a long with the given number of least significant bits set
+	 */
+	static private long mask(int numberOfBits)
+	{
+		return numberOfBits == Long.SIZE ? -1l : (1l << numberOfBits) - 1;
 	}
 	
 	/**
@@ -122,7 +242,7 @@ public final class BitWrapInputStream extends BitInputStream
 			if(atEnd())
 				return 0;
 			else
-				return numBitsRemaining + (input.available() * 8);
+				return numBitsRemaining + ((bufferLimit - bufferPosition + input.available()) * 8);
 		}
 		catch(IOException e)
 		{
@@ -137,7 +257,7 @@ public final class BitWrapInputStream extends BitInputStream
 	{
 		if(closed)
 			throw new IOException("This stream is closed");
-		return (numBitsRemaining == 8 ? 1 : 0) + input.available();
+		return (numBitsRemaining / Byte.SIZE) + (bufferLimit - bufferPosition) + input.available();
 	}
 		
 }
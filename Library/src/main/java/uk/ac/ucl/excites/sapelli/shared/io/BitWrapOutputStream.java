@@ -21,22 +21,34 @@ package uk.ac.ucl.excites.sapelli.shared.io;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
+
 /**
  * A stream where bits can be written to. Provides write methods for various (primitive) types.<br/>
  * <br/>
  * Heavily modified/extended version of original work by Nayuki Minase:<br/>
  * 		- Source: <a href="https://github.com/nayuki/Huffman-Coding/blob/master/src/nayuki/huffmancoding/BitOutputStream.java">https://github.com/nayuki/Huffman-Coding/blob/master/src/nayuki/huffmancoding/BitOutputStream.java</a><br/>
  * 		- License: MIT License<br/>
+ * <br/>
+ * Bits are accumulated in a 64-bit word and whole bytes are buffered before being passed on to the underlying
+ * {@link OutputStream}. Nothing is guaranteed to have reached the underlying stream until {@link #flush()} or
+ * {@link #close()} is called.
  * 
  * @author mstevens
  */
 public final class BitWrapOutputStream extends BitOutputStream
 {
 	
+	//STATIC
+	static private final int BYTES_PER_WORD = Long.SIZE / Byte.SIZE;
+	static private final int BYTE_BUFFER_SIZE = 64 * BYTES_PER_WORD;
+	
 	//DYNAMIC
 	private OutputStream output; 		// Underlying byte stream to write to
-	private int currentByte; 			// Buffered bits stored as an int (always in the range 0x00 to 0xFF)
-	private int numBitsInCurrentByte; 	// Always between 0 and 7, inclusive
+	private long currentWord; 			// Buffered bits stored (right-aligned) in a long
+	private int numBitsInCurrentWord; 	// Always between 0 and 63, inclusive
+	private final byte[] byteBuffer;	// Buffered whole bytes, waiting to be written to the underlying stream
+	private int numBytesInBuffer;		// Always between 0 and BYTE_BUFFER_SIZE, inclusive
 	
 	public BitWrapOutputStream(OutputStream out)
 	{
@@ -44,8 +56,10 @@ public final class BitWrapOutputStream extends BitOutputStream
 		if(out == null)
 			throw new NullPointerException("Underlying OutputStream cannot be null!");
 		output = out;
-		currentByte = 0;
-		numBitsInCurrentByte = 0;
+		currentWord = 0l;
+		numBitsInCurrentWord = 0;
+		byteBuffer = new byte[BYTE_BUFFER_SIZE];
+		numBytesInBuffer = 0;
 	}
 
 	/**
@@ -58,15 +72,108 @@ public final class BitWrapOutputStream extends BitOutputStream
 	 */
 	protected void writeBit(boolean bit) throws IOException
 	{
-		currentByte <<= 1;
+		currentWord <<= 1;
 		if(bit)
-			currentByte++;
-		numBitsInCurrentByte++;
-		if(numBitsInCurrentByte == 8)
+			currentWord++;
+		if(++numBitsInCurrentWord == Long.SIZE)
+			writeCurrentWord();
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream#doWriteBits(long, int)
+	 */
+	@Override
+	protected void doWriteBits(long bits, int numberOfBits) throws IOException
+	{
+		if(numberOfBits < Long.SIZE)
+			bits &= (1l << numberOfBits) - 1; // clear the bits we are not supposed to write
+		int free = Long.SIZE - numBitsInCurrentWord; // always >= 1
+		if(numberOfBits < free)
+		{	// All bits fit in the current word:
+			currentWord = (currentWord << numberOfBits) | bits;
+			numBitsInCurrentWord += numberOfBits;
+		}
+		else
+		{	// Complete the current word with the most significant bits...
+			int rest = numberOfBits - free; // always < 64
+			currentWord = (free == Long.SIZE ? 0l : currentWord << free) | (bits >>> rest);
+			numBitsInCurrentWord = Long.SIZE;
+			writeCurrentWord();
+			// ... and keep the rest:
+			currentWord = rest == 0 ? 0l : bits & ((1l << rest) - 1);
+			numBitsInCurrentWord = rest;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream#doWriteAlignedBytes(byte[], int, int)
+	 */
+	@Override
+	protected boolean doWriteAlignedBytes(byte[] bytes, int off, int len) throws IOException
+	{
+		// At byte boundary, move the whole bytes in current word to the byte buffer:
+		drainCurrentWord();
+		if(len <= BYTE_BUFFER_SIZE - numBytesInBuffer)
+		{	// Copy into the buffer:
+			System.arraycopy(bytes, off, byteBuffer, numBytesInBuffer, len);
+			numBytesInBuffer += len;
+			if(numBytesInBuffer == BYTE_BUFFER_SIZE)
+				writeByteBuffer();
+		}
+		else
+		{	// Bypass the buffer:
+			writeByteBuffer();
+			output.write(bytes, off, len);
+		}
+		return true;
+	}
+	
+	/**
+	 * Moves a completed word (64 bits) to the byte buffer.
+	 * 
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeCurrentWord() throws IOException
+	{
+		if(numBytesInBuffer > BYTE_BUFFER_SIZE - BYTES_PER_WORD)
+			writeByteBuffer();
+		BinaryHelpers.fromLong(currentWord, byteBuffer, numBytesInBuffer);
+		numBytesInBuffer += BYTES_PER_WORD;
+		currentWord = 0l;
+		numBitsInCurrentWord = 0;
+	}
+	
+	/**
+	 * Moves all whole bytes in the current word to the byte buffer, leaving at most 7 bits in the current word.
+	 * 
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void drainCurrentWord() throws IOException
+	{
+		while(numBitsInCurrentWord >= Byte.SIZE)
+		{
+			if(numBytesInBuffer == BYTE_BUFFER_SIZE)
+				writeByteBuffer();
+			numBitsInCurrentWord -= Byte.SIZE;
+			byteBuffer[numBytesInBuffer++] = (byte) (currentWord >>> numBitsInCurrentWord);
+		}
+		if(numBitsInCurrentWord == 0)
+			currentWord = 0l;
+		else
+			currentWord &= (1l << numBitsInCurrentWord) - 1;
+	}
+	
+	/**
+	 * Writes the contents of the byte buffer to the underlying OutputStream.
+	 * 
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeByteBuffer() throws IOException
+	{
+		if(numBytesInBuffer > 0)
 		{
-			output.write(currentByte);
-			currentByte = 0;
-			numBitsInCurrentByte = 0;
+			output.write(byteBuffer, 0, numBytesInBuffer);
+			numBytesInBuffer = 0;
 		}
 	}
 
@@ -88,6 +195,8 @@ public final class BitWrapOutputStream extends BitOutputStream
 		if(!isClosed())
 		{
 			writePadding();
+			drainCurrentWord();
+			writeByteBuffer();
 			output.close();
 			super.close();
 		}
@@ -100,8 +209,8 @@ public final class BitWrapOutputStream extends BitOutputStream
 	 */
 	private void writePadding() throws IOException
 	{
-		while(numBitsInCurrentByte != 0)
-			write(false);
+		if(numBitsInCurrentWord % Byte.SIZE != 0)
+			writeBits(0l, Byte.SIZE - (numBitsInCurrentWord % Byte.SIZE));
 	}
 
 	/**
@@ -114,6 +223,8 @@ public final class BitWrapOutputStream extends BitOutputStream
 	public void flush() throws IOException
 	{
 		writePadding();
+		drainCurrentWord();
+		writeByteBuffer();
 		output.flush();
 		super.flush();
 	}
@@ -100,6 +100,37 @@ public final class BinaryHelpers
 		return (bits + 7) / 8;
 	}
 
+	/**
+	 * Reads 8 bytes, starting at the given offset, as a big-endian long value.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @return the long value
+	 */
+	static public long toLong(byte[] bytes, int offset)
+	{
+		long value = 0l;
+		for(int i = 0; i < Long.SIZE / Byte.SIZE; i++)
+			value = (value << Byte.SIZE) | (bytes[offset + i] & 0xFF);
+		return value;
+	}
+	
+	/**
+	 * Stores the given long value, in big-endian order, as 8 bytes in the given array, starting at the given offset.
+	 * 
+	 * @param value
+	 * @param bytes
+	 * @param offset
+	 */
+	static public void fromLong(long value, byte[] bytes, int offset)
+	{
+		for(int i = Long.SIZE / Byte.SIZE - 1; i >= 0; i--)
+		{
+			bytes[offset + i] = (byte) value;
+			value >>>= Byte.SIZE;
+		}
+	}
+
 	/**
 	 * Returns the number of bits needed to represent the {@code long} value.
 	 * Note: always returns 64 for negative values due to 2's complement representation!
@@ -150,6 +150,30 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	private final BigInteger hiBound;
 	
+	/**
+	 * Whether or not the effective logical range and the raw range both fit in a (signed 64 bit) long,
+	 * in which case the primitive (allocation-free) fields and code paths below are used.<br/>
+	 * Will be {@code false} on instances deserialised from a version of this class which did not have these fields.
+	 */
+	private final boolean longMapping;
+	
+	/**
+	 * The lower bound of the range as a long (only valid if {@link #longMapping} is {@code true}).
+	 */
+	private final long loBoundLong;
+	
+	/**
+	 * The strict upper bound of the range as a long (only valid if {@link #longMapping} is {@code true}).
+	 */
+	private final long hiBoundLong;
+	
+	/**
+	 * The effective upper bound of the range as a long (only valid if {@link #longMapping} is {@code true}).
+	 * 
+	 * @see #highBound(boolean)
+	 */
+	private final long effectiveHiBoundLong;
+	
 	/**
 	 * Creates an {@link IntegerRangeMapping} [x, y] (inclusive!) with x = 0 and y = {@code hiBound}.
 	 * 
@@ -220,6 +244,12 @@ public class IntegerRangeMapping implements Serializable
 		BigInteger max = hiBound.subtract(loBound);
 		size = max.bitLength(); // will be 0 if loBound = hiBound (only allowed when allowEmpty = true)
 		// Without BigInteger: size = Long.SIZE - Long.numberOfLeadingZeros(max); //gets the numbers of bits needed to store a positive non-0 integer (log2(x))
+		// Precompute long versions of the bounds if possible (i.e. if raw values fit in 63 bits and all logical values fit in a long):
+		BigInteger effectiveHiBound = highBound(false);
+		longMapping = size < Long.SIZE && loBound.bitLength() < Long.SIZE && effectiveHiBound.bitLength() < Long.SIZE;
+		loBoundLong = longMapping ? loBound.longValue() : 0l;
+		hiBoundLong = longMapping ? hiBound.longValue() : 0l;
+		effectiveHiBoundLong = longMapping ? effectiveHiBound.longValue() : 0l;
 	}
 	
 	/**
@@ -345,6 +375,8 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public boolean inRange(long logicalValue, boolean strict)
 	{
+		if(longMapping)
+			return loBoundLong <= logicalValue && logicalValue <= (strict ? hiBoundLong : effectiveHiBoundLong);
 		return inRange(BigInteger.valueOf(logicalValue), strict);
 	}
 	
@@ -416,7 +448,14 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public void write(long logicalValue, BitOutputStream to) throws IllegalArgumentException, IOException
 	{
-		write(BigInteger.valueOf(logicalValue), to);
+		if(longMapping)
+		{	// Primitive path:
+			if(logicalValue < loBoundLong || logicalValue > effectiveHiBoundLong)
+				throw new IllegalArgumentException("Logical value (" + logicalValue + ") does not fit in effective logical range: " + getRangeString(false));
+			to.writeBits(logicalValue - loBoundLong, size); // raw value is always in [0, 2^size - 1]
+		}
+		else
+			write(BigInteger.valueOf(logicalValue), to);
 	}
 
 	/**
@@ -449,6 +488,8 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public long readLong(BitInputStream from) throws IOException
 	{
+		if(longMapping)
+			return loBoundLong + from.readBitsAsLong(size); // primitive path
 		return read(from).longValue();
 	}
 	
@@ -459,7 +500,7 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public int readInt(BitInputStream from) throws IOException
 	{
-		return read(from).intValue();
+		return (int) readLong(from);
 	}
 	
 	/**
@@ -469,7 +510,7 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public short readShort(BitInputStream from) throws IOException
 	{
-		return read(from).shortValue();
+		return (short) readLong(from);
 	}
 	
 	/**
@@ -479,7 +520,7 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public byte readByte(BitInputStream from) throws IOException
 	{
-		return read(from).byteValue();
+		return (byte) readLong(from);
 	}
 	
 	public String toString()
@@ -0,0 +1,50 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage;
+
+import java.util.List;
+
+import uk.ac.ucl.excites.sapelli.storage.StorageClient.RecordOperation;
+import uk.ac.ucl.excites.sapelli.storage.db.RecordStore;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordReference;
+
+/**
+ * Base class for {@link StorageObserver}s which can be informed about the same operation on several records at once
+ * (e.g. after a bulk insert). Other observers receive such events one by one.
+ * 
+ * @author mstevens
+ */
+public abstract class BulkStorageObserver implements StorageObserver
+{
+	
+	/**
+	 * Reports the same operation on several records at once.
+	 * Default implementation passes the events to {@link #storageEvent(RecordOperation, RecordReference, RecordStore)} one by one, may be overridden.
+	 * 
+	 * @param operation
+	 * @param recordRefs
+	 * @param recordStore
+	 */
+	public void storageEvents(RecordOperation operation, List<RecordReference> recordRefs, RecordStore recordStore)
+	{
+		for(RecordReference recordRef : recordRefs)
+			storageEvent(operation, recordRef, recordStore);
+	}
+	
+}
@@ -26,6 +26,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -135,6 +136,13 @@ public abstract class StorageClient implements StorageObserver, Console
 	 */
 	static public final int SCHEMA_FLAGS_STORAGE_INTERNAL =	SCHEMA_FLAG_STORAGE_LAYER;
 	
+	/**
+	 * ID for the reserved Storage Management Model ({@link RecordStore#STORAGE_MANAGEMENT_MODEL})
+	 * 
+	 * Note: IDs 0 & 1 are used by the reserved models of the Transmission & Collector layers
+	 */
+	static public final long STORAGE_MANAGEMENT_MODEL_ID = 2;
+	
 	/**
 	 * Method to test in the given int flags value matches the given flags (bit) pattern.
 	 * 
@@ -274,6 +282,12 @@ public abstract class StorageClient implements StorageObserver, Console
 		}
 	});
 	
+	public StorageClient()
+	{
+		// Add reserved model (not done in a static block because the static initialisation of RecordStore depends on that of Model, which depends on ours):
+		AddReservedModel(RecordStore.STORAGE_MANAGEMENT_MODEL);
+	}
+	
 	/**
 	 * Creates a new RecordStore instance
 	 * 
@@ -544,6 +558,42 @@ public abstract class StorageClient implements StorageObserver, Console
 				observer.storageEvent(operation, recordRef, recordStore);
 	}
 	
+	/**
+	 * Informs observers about the same operation on several records at once. {@link BulkStorageObserver}s receive them
+	 * in one go, other observers one by one.
+	 * 
+	 * @param operation
+	 * @param recordRefs
+	 * @param recordStore
+	 */
+	public final void storageEvents(RecordOperation operation, List<RecordReference> recordRefs, RecordStore recordStore)
+	{
+		if(recordRefs.isEmpty() || observers.isEmpty() || !recordStore.isInitialised())
+			return;
+		// Only forward events about records whose Schema has track changes enabled:
+		List<RecordReference> tracked = null;
+		for(int r = 0; r < recordRefs.size(); r++)
+		{
+			RecordReference recordRef = recordRefs.get(r);
+			if(recordRef.getReferencedSchema().hasFlags(SCHEMA_FLAG_TRACK_CHANGES))
+			{
+				if(tracked != null)
+					tracked.add(recordRef);
+			}
+			else if(tracked == null)
+				tracked = new ArrayList<RecordReference>(recordRefs.subList(0, r)); // copy the tracked ones so far
+		}
+		if(tracked == null)
+			tracked = recordRefs; // all of them are tracked
+		if(!tracked.isEmpty())
+			for(StorageObserver observer : observers)
+				if(observer instanceof BulkStorageObserver)
+					((BulkStorageObserver) observer).storageEvents(operation, tracked, recordStore);
+				else
+					for(RecordReference recordRef : tracked)
+						observer.storageEvent(operation, recordRef, recordStore);
+	}
+	
 	@Override
 	public final void logError(String msg)
 	{
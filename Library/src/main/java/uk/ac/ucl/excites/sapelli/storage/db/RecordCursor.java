@@ -0,0 +1,178 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+
+/**
+ * Forward-only, closeable iterator over the {@link Record}s resulting from a query.
+ *
+ * Unlike {@link RecordStore#retrieveRecords(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)}, which always
+ * materialises the full result in a {@link List}, implementations are free to fetch records lazily from the underlying
+ * database (e.g. one row at a time from an SQLite cursor), and may even hand out the same (mutable) {@link Record}
+ * instance for every row. In the latter case ("reuse mode") callers must not hold on to returned records beyond the next
+ * call of {@link #next()} (they should {@link Record#copy()} them if needed).
+ *
+ * Cursors close themselves once they are exhausted, but callers must always call {@link #close()} when they stop
+ * iterating early, preferably in a {@code finally} block. Cursors must be used and closed on the thread that created them.
+ *
+ * The cursor is also {@link Iterable} (returning itself, only once), so it can be used in for-each loops.
+ *
+ * @author mstevens
+ *
+ * @see RecordStore#retrieveRecordCursor(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery, boolean)
+ */
+public abstract class RecordCursor implements Iterator<Record>, Iterable<Record>, Closeable
+{
+
+	// STATIC -------------------------------------------------------
+	/**
+	 * Returns a {@link RecordCursor} which iterates over the given (already retrieved) records.
+	 *
+	 * @param records may be {@code null}
+	 * @return
+	 */
+	static public RecordCursor Over(List<Record> records)
+	{
+		final Iterator<Record> iterator = (records != null ? records : Collections.<Record> emptyList()).iterator();
+		return new RecordCursor()
+		{
+			@Override
+			protected Record fetchNext()
+			{
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+
+			@Override
+			protected void release()
+			{
+				// does nothing
+			}
+		};
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	private Record next;
+	private boolean fetched = false;
+	private boolean closed = false;
+
+	/**
+	 * Fetches the next record from the underlying source.
+	 *
+	 * @return the next record, or {@code null} if there are no more records
+	 * @throws DBException
+	 */
+	protected abstract Record fetchNext() throws DBException;
+
+	/**
+	 * Releases any resources held on to by the cursor. Called at most once.
+	 */
+	protected abstract void release();
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 *
+	 * @throws IllegalStateException (wrapping a {@link DBException}) when the next record could not be fetched, the cursor will be closed
+	 */
+	@Override
+	public boolean hasNext() throws IllegalStateException
+	{
+		if(closed)
+			return false;
+		if(!fetched)
+		{
+			try
+			{
+				next = fetchNext();
+			}
+			catch(DBException dbE)
+			{
+				close();
+				throw new IllegalStateException("Error upon fetching next record", dbE);
+			}
+			fetched = true;
+			if(next == null)
+				close(); // exhausted
+		}
+		return next != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public Record next() throws NoSuchElementException, IllegalStateException
+	{
+		if(!hasNext())
+			throw new NoSuchElementException();
+		Record record = next;
+		next = null;
+		fetched = false;
+		return record;
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("RecordCursor does not support removal");
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Record> iterator()
+	{
+		return this;
+	}
+
+	/**
+	 * @return whether or not the cursor has been closed (explicitly, or because it was exhausted or an error occurred)
+	 */
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close()
+	{
+		if(closed)
+			return;
+		closed = true;
+		next = null;
+		release();
+	}
+
+}
@@ -19,10 +19,15 @@
 package uk.ac.ucl.excites.sapelli.storage.db;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -37,12 +42,25 @@ import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.RecordReference;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.ByteArrayColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.ForeignKeyColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.indexes.AutoIncrementingPrimaryKey;
+import uk.ac.ucl.excites.sapelli.storage.model.indexes.PrimaryKey;
+import uk.ac.ucl.excites.sapelli.storage.queries.Order;
 import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
 import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.EqualityConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.OrConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint.Comparison;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
 
 /**
  * Abstract superclass for Record storage back-ends
@@ -58,9 +76,58 @@ public abstract class RecordStore extends Store
 	static public final String DATABASE_NAME_SUFFIX = "-RecordStore";
 	static public final String BACKUP_SUFFIX = "_Backup_"; // to be followed by a timestamp
 	
+	/**
+	 * Modes for {@link RecordStore#store(List, BulkMode)}
+	 */
+	static public enum BulkMode
+	{
+		/**
+		 * Records that already exist are updated, others are inserted (as in {@link RecordStore#store(Record)}).
+		 */
+		STORE,
+		
+		/**
+		 * Records that do not exist yet are inserted, existing ones are left untouched.
+		 * Implementations may skip the per-record existence check by relying on the database to ignore duplicate keys.
+		 */
+		INSERT_ONLY,
+		
+		/**
+		 * All records are known to be new and are inserted without any existence check.
+		 * If one of them does already exist the whole operation fails.
+		 */
+		INSERT_NEW
+	}
+	
+	// Storage management model:
+	//	Model:
+	static public final Model STORAGE_MANAGEMENT_MODEL = new Model(StorageClient.STORAGE_MANAGEMENT_MODEL_ID, "StorageManagement", StorageClient.SCHEMA_FLAGS_STORAGE_INTERNAL);
+	//	Change log schema & columns (see setChangeLogEnabled(boolean)):
+	static public final Schema CHANGE_LOG_SCHEMA = new Schema(STORAGE_MANAGEMENT_MODEL, "ChangeLog");
+	static public final IntegerColumn CHANGE_LOG_COLUMN_SEQUENCE = CHANGE_LOG_SCHEMA.addColumn(new IntegerColumn("Sequence", false, true, Long.SIZE));
+	static public final ForeignKeyColumn CHANGE_LOG_COLUMN_SCHEMA = CHANGE_LOG_SCHEMA.addColumn(new ForeignKeyColumn(Model.SCHEMA_SCHEMA, false));
+	static public final ByteArrayColumn CHANGE_LOG_COLUMN_PK_VALUES = CHANGE_LOG_SCHEMA.addColumn(new ByteArrayColumn("PKValueBytes", false));
+	static public final IntegerColumn CHANGE_LOG_COLUMN_OPERATION = CHANGE_LOG_SCHEMA.addColumn(new IntegerColumn("Operation", false, 0, RecordOperation.values().length - 1));
+	//	Auxiliary index schema & columns (tracks indexes created through the index advisor of SQL-based stores):
+	static public final Schema AUXILIARY_INDEX_SCHEMA = new Schema(STORAGE_MANAGEMENT_MODEL, "AuxiliaryIndex");
+	static public final StringColumn AUXILIARY_INDEX_COLUMN_NAME = AUXILIARY_INDEX_SCHEMA.addColumn(StringColumn.ForCharacterCount("Name", false, Schema.MAX_SCHEMA_NAME_LENGTH * 4));
+	static public final StringColumn AUXILIARY_INDEX_COLUMN_TABLE_NAME = AUXILIARY_INDEX_SCHEMA.addColumn(StringColumn.ForCharacterCount("TableName", false, Schema.MAX_SCHEMA_NAME_LENGTH * 2));
+	static public final StringColumn AUXILIARY_INDEX_COLUMN_COLUMNS = AUXILIARY_INDEX_SCHEMA.addColumn(StringColumn.ForCharacterCount("Columns", false, Schema.MAX_SCHEMA_NAME_LENGTH * 8));
+	//	Set primary keys & seal schemata and model:
+	static
+	{
+		CHANGE_LOG_SCHEMA.setPrimaryKey(new AutoIncrementingPrimaryKey(CHANGE_LOG_SCHEMA.getName() + "_PK", CHANGE_LOG_COLUMN_SEQUENCE), true /*seal!*/);
+		AUXILIARY_INDEX_SCHEMA.setPrimaryKey(PrimaryKey.WithColumnNames(AUXILIARY_INDEX_COLUMN_NAME), true /*seal!*/);
+		STORAGE_MANAGEMENT_MODEL.seal();
+	}
+	//	ColumnPointers:
+	static private final ColumnPointer<IntegerColumn> CHANGE_LOG_CP_MODEL_ID = new ColumnPointer<IntegerColumn>(CHANGE_LOG_SCHEMA, Model.MODEL_ID_COLUMN);
+	static private final ColumnPointer<IntegerColumn> CHANGE_LOG_CP_SCHEMA_NUMBER = new ColumnPointer<IntegerColumn>(CHANGE_LOG_SCHEMA, Model.SCHEMA_SCHEMA_NUMBER_COLUMN);
+	
 	// DYNAMIC ----------------------------------------------------------------
 	protected final StorageClient client;
 	protected boolean loggingEnabled = false;
+	private boolean changeLogEnabled = false;
 	
 	/**
 	 * Few DBMSs support nested transactions, but this counter allows us to simulate them,
@@ -73,6 +140,11 @@ public abstract class RecordStore extends Store
 	 */
 	private final Stack<List<RollbackTask>> rollbackTasks;
 	
+	/**
+	 * Storage events held back since {@link #holdStorageEvents()} was called, or {@code null} if events are not being held back
+	 */
+	private List<HeldStorageEvents> heldStorageEvents = null;
+	
 	/**
 	 * @param client
 	 * @param useRollbackTasks whether or not the subclass will/might make use of roll-back tasks 
@@ -231,6 +303,81 @@ public abstract class RecordStore extends Store
 		return openTransactions;
 	}
 	
+	/**
+	 * Holds back the storage events produced by subsequent operations, instead of reporting them to the client right away,
+	 * until either {@link #releaseStorageEvents()} or {@link #discardStorageEvents()} is called. This allows events about
+	 * operations performed within a transaction to be reported only once that transaction has been committed.
+	 */
+	public final void holdStorageEvents()
+	{
+		if(heldStorageEvents == null)
+			heldStorageEvents = new ArrayList<HeldStorageEvents>();
+	}
+	
+	/**
+	 * Reports the storage events held back since {@link #holdStorageEvents()} was called to the client, in the order in which
+	 * they happened, and stops holding back events.
+	 */
+	public final void releaseStorageEvents()
+	{
+		List<HeldStorageEvents> held = heldStorageEvents;
+		heldStorageEvents = null; // stop holding back before informing the client
+		if(held != null)
+			for(HeldStorageEvents events : held)
+				if(events.recordRefs.size() == 1)
+					client.storageEvent(events.operation, events.recordRefs.get(0), this);
+				else
+					client.storageEvents(events.operation, events.recordRefs, this);
+	}
+	
+	/**
+	 * Forgets about the storage events held back since {@link #holdStorageEvents()} was called (e.g. because the transaction
+	 * in which they happened was rolled back), and stops holding back events.
+	 */
+	public final void discardStorageEvents()
+	{
+		heldStorageEvents = null;
+	}
+	
+	/**
+	 * Informs the client about an operation on a single record, unless events are being held back.
+	 * 
+	 * @param operation
+	 * @param recordRef
+	 */
+	protected final void storageEvent(RecordOperation operation, RecordReference recordRef)
+	{
+		if(heldStorageEvents != null)
+			holdStorageEvents(operation, Collections.singletonList(recordRef));
+		else
+			client.storageEvent(operation, recordRef, this);
+	}
+	
+	/**
+	 * Informs the client about the same operation on several records, unless events are being held back.
+	 * 
+	 * @param operation
+	 * @param recordRefs
+	 */
+	protected final void storageEvents(RecordOperation operation, List<RecordReference> recordRefs)
+	{
+		if(heldStorageEvents != null)
+			holdStorageEvents(operation, recordRefs);
+		else
+			client.storageEvents(operation, recordRefs, this);
+	}
+	
+	private void holdStorageEvents(RecordOperation operation, List<RecordReference> recordRefs)
+	{
+		if(recordRefs.isEmpty())
+			return;
+		// Merge with the last held events if they are about the same operation:
+		HeldStorageEvents last = heldStorageEvents.isEmpty() ? null : heldStorageEvents.get(heldStorageEvents.size() - 1);
+		if(last == null || last.operation != operation)
+			heldStorageEvents.add(last = new HeldStorageEvents(operation));
+		last.recordRefs.addAll(recordRefs);
+	}
+	
 	/**
 	 * Verifies if a given record can be stored.
 	 * 
@@ -276,22 +423,37 @@ public abstract class RecordStore extends Store
 		if(!isStorable(record))
 			throw new IllegalArgumentException(String.format("Record (%s) cannot be stored!", record.toString(false)));
 		Boolean insert = null;
+		boolean logChange = isChangeLogged(record.getSchema());
 		try
 		{
+			if(logChange)
+				startTransaction(); // the change must be logged in the same transaction
 			insert = doStore(record);
+			if(logChange)
+			{
+				if(insert != null)
+					logChanges(insert ? RecordOperation.Inserted : RecordOperation.Updated, Collections.singletonList(record.getReference()));
+				commitTransaction();
+			}
 		}
 		catch(DBException e)
 		{
 			rollbackTransactions(); // !!!
 			throw e;
 		}
+		catch(RuntimeException e)
+		{
+			if(logChange)
+				rollbackTransactions(); // don't leave the transaction we started open
+			throw e;
+		}
 		// Inform client:
 		if(insert == null)
 			return; // record was unchanged
 		else if(insert)
-			client.storageEvent(RecordOperation.Inserted, record.getReference(), this);
+			storageEvent(RecordOperation.Inserted, record.getReference());
 		else
-			client.storageEvent(RecordOperation.Updated, record.getReference(), this);
+			storageEvent(RecordOperation.Updated, record.getReference());
 	}
 	
 	/**
@@ -311,18 +473,33 @@ public abstract class RecordStore extends Store
 		if(!isStorable(record))
 			throw new IllegalArgumentException(String.format("Record (%s) cannot be inserted!", record.toString(false)));
 		boolean inserted = false;
+		boolean logChange = isChangeLogged(record.getSchema());
 		try
 		{
+			if(logChange)
+				startTransaction(); // the change must be logged in the same transaction
 			inserted = doInsert(record);
+			if(logChange)
+			{
+				if(inserted)
+					logChanges(RecordOperation.Inserted, Collections.singletonList(record.getReference()));
+				commitTransaction();
+			}
 		}
 		catch(DBException e)
 		{
 			rollbackTransactions(); // !!!
 			throw e;
 		}
+		catch(RuntimeException e)
+		{
+			if(logChange)
+				rollbackTransactions(); // don't leave the transaction we started open
+			throw e;
+		}
 		// Inform client if a real insert happened:
 		if(inserted)
-			client.storageEvent(RecordOperation.Inserted, record.getReference(), this);
+			storageEvent(RecordOperation.Inserted, record.getReference());
 	}
 	
 	/**
@@ -333,19 +510,45 @@ public abstract class RecordStore extends Store
 	 * @throws DBException in case of a database problem
 	 * @throws IllegalArgumentException when the given record cannot be stored
 	 * @throws IllegalStateException when the columns that are part of the primary key have not all been assigned a value
+	 * @see #store(List, BulkMode)
 	 */
 	public void store(List<Record> records) throws DBException, IllegalArgumentException, IllegalStateException
 	{
-		Boolean[] insert = new Boolean[records.size()]; 
+		store(records, BulkMode.STORE);
+	}
+	
+	/**
+	 * Store a list of records, in the given {@link BulkMode}. A transaction will be used. If there is a problem with storing one 
+	 * of the records the whole operation will be rolled back.
+	 * Storage events are reported to the client in (at most) one batch per {@link RecordOperation}.
+	 * 
+	 * @param records - the records to store
+	 * @param mode - determines how records that may already exist are dealt with
+	 * @throws DBException in case of a database problem
+	 * @throws IllegalArgumentException when the given record cannot be stored
+	 * @throws IllegalStateException when the columns that are part of the primary key have not all been assigned a value
+	 */
+	public void store(List<Record> records, BulkMode mode) throws DBException, IllegalArgumentException, IllegalStateException
+	{
+		List<RecordReference> inserted = new ArrayList<RecordReference>(records.size());
+		List<RecordReference> updated = new ArrayList<RecordReference>();
 		startTransaction();
-		int r = 0;
 		try
 		{
 			for(Record record : records)
-				if(isStorable(record))
-					insert[r++] = doStore(record);
-				else
+				if(!isStorable(record))
 					throw new IllegalArgumentException(String.format("Record (%s) cannot be stored!", record.toString(false)));
+			Boolean[] insert = doStore(records, mode);
+			int r = 0;
+			for(Record record : records)
+			{
+				Boolean ins = insert[r++];
+				if(ins == null)
+					continue; // record was unchanged
+				(ins ? inserted : updated).add(record.getReference());
+			}
+			logChanges(RecordOperation.Inserted, inserted);
+			logChanges(RecordOperation.Updated, updated);
 		}
 		catch(Exception e)
 		{
@@ -354,17 +557,63 @@ public abstract class RecordStore extends Store
 		}
 		commitTransaction();
 		// Inform client:
-		r = 0;
-		for(Record record : records)
+		storageEvents(RecordOperation.Inserted, inserted);
+		storageEvents(RecordOperation.Updated, updated);
+	}
+	
+	/**
+	 * Store a batch of records. A record that already exists will be updated. A transaction will be used. If there is a problem with storing one 
+	 * of the records the whole operation will be rolled back.
+	 * Each record is materialised in turn (see {@link RecordBatch#iterator()}), so the batch is never expanded to a full {@code List<Record>}.
+	 * Values assigned to an auto-incrementing primary key column upon insertion are written back into the batch.
+	 * 
+	 * @param batch - the records to store or update
+	 * @throws DBException in case of a database problem
+	 * @throws IllegalArgumentException when one of the records cannot be stored
+	 * @throws IllegalStateException when the columns that are part of the primary key have not all been assigned a value
+	 */
+	public void store(RecordBatch batch) throws DBException, IllegalArgumentException, IllegalStateException
+	{
+		Boolean[] insert = new Boolean[batch.size()];
+		RecordReference[] references = new RecordReference[batch.size()];
+		boolean autoKey = batch.getSchema().getAutoIncrementingPrimaryKeyColumn() != null;
+		List<RecordReference> inserted = new ArrayList<RecordReference>(insert.length);
+		List<RecordReference> updated = new ArrayList<RecordReference>();
+		startTransaction();
+		int r = 0;
+		try
 		{
-			Boolean inserted = insert[r++];
-			if(inserted == null)
-				continue; // record was unchanged
-			else if(inserted)
-				client.storageEvent(RecordOperation.Inserted, record.getReference(), this);
-			else
-				client.storageEvent(RecordOperation.Updated, record.getReference(), this);
+			for(Record record : batch)
+			{
+				if(!isStorable(record))
+					throw new IllegalArgumentException(String.format("Record (%s) cannot be stored!", record.toString(false)));
+				insert[r] = doStore(record);
+				if(insert[r] != null)
+				{
+					if(autoKey && insert[r])
+						batch.set(r, record); // write back auto-incremented key value
+					references[r] = record.getReference();
+				}
+				r++;
+			}
+			for(r = 0; r < insert.length; r++)
+			{
+				if(insert[r] == null)
+					continue; // record was unchanged
+				(insert[r] ? inserted : updated).add(references[r]);
+			}
+			logChanges(RecordOperation.Inserted, inserted);
+			logChanges(RecordOperation.Updated, updated);
 		}
+		catch(Exception e)
+		{
+			rollbackTransactions();
+			throw new DBException(e);
+		}
+		commitTransaction();
+		// Inform client:
+		storageEvents(RecordOperation.Inserted, inserted);
+		storageEvents(RecordOperation.Updated, updated);
 	}
 	
 	/**
@@ -378,6 +627,43 @@ public abstract class RecordStore extends Store
 	 */
 	protected abstract Boolean doStore(Record record) throws DBConstraintException, DBException, IllegalStateException;
 	
+	/**
+	 * Stores a list of records in the given {@link BulkMode}. Will only be called from within a transaction.
+	 * 
+	 * The default implementation handles the records one by one, subclasses may override this to use a more efficient strategy.
+	 * 
+	 * @param records - the records to store; can be assumed to be non-null and not of an internal schema
+	 * @param mode
+	 * @return an array holding, for each record (in the same order), whether it was inserted ({@code true}), updated ({@code false}), or neither ({@code null})
+	 * @throws DBPrimaryKeyException when, in {@link BulkMode#INSERT_NEW} mode, one of the records already exists
+	 * @throws DBConstraintException when a table/index constraint is violated
+	 * @throws DBException in case of a database problem
+	 * @throws IllegalStateException when the columns that are part of the primary key have not all been assigned a value
+	 */
+	protected Boolean[] doStore(List<Record> records, BulkMode mode) throws DBPrimaryKeyException, DBConstraintException, DBException, IllegalStateException
+	{
+		Boolean[] results = new Boolean[records.size()];
+		int r = 0;
+		for(Record record : records)
+		{
+			switch(mode)
+			{
+				case STORE :
+					results[r] = doStore(record);
+					break;
+				case INSERT_ONLY :
+					if(!record.isReferenceable() /*also checks autoIncrPK*/ || retrieveRecord(record.getRecordQuery()) == null)
+						results[r] = doInsert(record) ? Boolean.TRUE : null;
+					break;
+				case INSERT_NEW :
+					results[r] = doInsert(record) ? Boolean.TRUE : null;
+					break;
+			}
+			r++;
+		}
+		return results;
+	}
+	
 	/**
 	 * Inserts a record, throws a DuplicateException if it already exists.
 	 * 
@@ -438,6 +724,104 @@ public abstract class RecordStore extends Store
 	 */
 	public abstract List<RecordReference> retrieveRecordReferences(RecordsQuery query);
 	
+	/**
+	 * Count the {@link Record}s matching the given query, taking into account its limit (if any).
+	 * 
+	 * The default implementation simply counts the result of {@link #retrieveRecordReferences(RecordsQuery)},
+	 * subclasses should override it to let the underlying database do the counting.
+	 * 
+	 * @param query
+	 * @return the number of matching records
+	 */
+	public long retrieveRecordCount(RecordsQuery query)
+	{
+		long count = retrieveRecordReferences(query).size();
+		return query.isLimited() ? Math.min(count, query.getLimit()) : count;
+	}
+	
+	/**
+	 * Retrieve rows of (aggregated) values by query.
+	 * 
+	 * The default implementation executes the query in memory, on the result of {@link #retrieveRecords(RecordsQuery)},
+	 * subclasses should override it to let the underlying database compute the values.
+	 * 
+	 * @param query
+	 * @return a {@link List} of rows, possibly empty, never {@code null}
+	 * @see ValueQuery
+	 */
+	public List<Object[]> retrieveValues(ValueQuery query)
+	{
+		return query.execute(retrieveRecords(query.getRecordSelectionQuery()));
+	}
+
+	/**
+	 * Retrieve {@link Record}s by query, through a {@link RecordCursor}.
+	 * 
+	 * @param query
+	 * @return a {@link RecordCursor}, never {@code null}, to be closed by the caller
+	 * @see #retrieveRecordCursor(RecordsQuery, boolean)
+	 */
+	public RecordCursor retrieveRecordCursor(RecordsQuery query)
+	{
+		return retrieveRecordCursor(query, false);
+	}
+	
+	/**
+	 * Retrieve {@link Record}s by query, through a {@link RecordCursor}.
+	 * 
+	 * The default implementation simply iterates over the result of {@link #retrieveRecords(RecordsQuery)} (and ignores {@code reuseRecord}),
+	 * subclasses should override it to fetch records lazily from the underlying database.
+	 * 
+	 * @param query
+	 * @param reuseRecord when {@code true} the cursor may return the same (mutable) {@link Record} instance for each row, which is cheaper but means callers must not hold on to returned records
+	 * @return a {@link RecordCursor}, never {@code null}, to be closed by the caller
+	 */
+	public RecordCursor retrieveRecordCursor(RecordsQuery query, boolean reuseRecord)
+	{
+		return RecordCursor.Over(retrieveRecords(query));
+	}
+	
+	/**
+	 * Passes each {@link Record} resulting from the given query to the given {@link RecordHandler}, without materialising the full result.
+	 * 
+	 * @param query
+	 * @param handler
+	 * @throws DBException when the records could not be (fully) retrieved, in which case the handler may already have received some of them
+	 * @see #forEach(RecordsQuery, boolean, RecordHandler)
+	 */
+	public void forEach(RecordsQuery query, RecordHandler handler) throws DBException
+	{
+		forEach(query, false, handler);
+	}
+	
+	/**
+	 * Passes each {@link Record} resulting from the given query to the given {@link RecordHandler}, without materialising the full result.
+	 * 
+	 * @param query
+	 * @param reuseRecord when {@code true} the same (mutable) {@link Record} instance may be passed for every row, so the handler must not hold on to it
+	 * @param handler
+	 * @throws DBException when the records could not be (fully) retrieved, in which case the handler may already have received some of them
+	 */
+	public void forEach(RecordsQuery query, boolean reuseRecord, RecordHandler handler) throws DBException
+	{
+		RecordCursor cursor = retrieveRecordCursor(query, reuseRecord);
+		try
+		{
+			for(Record record : cursor)
+				handler.handle(record);
+		}
+		catch(IllegalStateException ise)
+		{
+			if(ise.getCause() instanceof DBException)
+				throw (DBException) ise.getCause(); // cursor error
+			throw ise;
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+	
 	/**
 	 * Retrieve a single record by SingleRecordQuery.
 	 * 
@@ -479,17 +863,32 @@ public abstract class RecordStore extends Store
 	{
 		if(!isStorable(record))
 			return;
+		boolean logChange = isChangeLogged(record.getSchema());
 		try
 		{
-			doDelete(record);
+			if(logChange)
+				startTransaction(); // the change must be logged in the same transaction
+			boolean deleted = doDelete(record);
+			if(logChange)
+			{
+				if(deleted)
+					logChanges(RecordOperation.Deleted, Collections.singletonList(record.getReference()));
+				commitTransaction();
+			}
 		}
 		catch(DBException e)
 		{
 			rollbackTransactions(); // !!!
 			throw e;
 		}
+		catch(RuntimeException e)
+		{
+			if(logChange)
+				rollbackTransactions(); // don't leave the transaction we started open
+			throw e;
+		}
 		// Inform client:
-		client.storageEvent(RecordOperation.Deleted, record.getReference(), this);
+		storageEvent(RecordOperation.Deleted, record.getReference());
 	}
 	
 	/**
@@ -542,15 +941,16 @@ public abstract class RecordStore extends Store
 	public void delete(Collection<Record> records) throws DBException
 	{
 		startTransaction();
-		List<Record> deleted = new ArrayList<Record>(records.size());
+		List<RecordReference> deleted = new ArrayList<RecordReference>(records.size());
 		try
 		{
 			for(Record record : records)
 				if(isStorable(record))
 				{
 					if(doDelete(record))
-						deleted.add(record);
+						deleted.add(record.getReference());
 				}
+			logChanges(RecordOperation.Deleted, deleted);
 		}
 		catch(DBException e)
 		{
@@ -559,8 +959,8 @@ public abstract class RecordStore extends Store
 		}
 		commitTransaction();
 		// Inform client:
-		for(Record record : deleted)
-			client.storageEvent(RecordOperation.Deleted, record.getReference(), this);
+		for(RecordReference recordRef : deleted)
+			storageEvent(RecordOperation.Deleted, recordRef);
 	}
 	
 	/**
@@ -594,6 +994,216 @@ public abstract class RecordStore extends Store
 	 */
 	protected abstract boolean doDelete(Record record) throws DBException;
 	
+	/**
+	 * @return whether or not the change log is enabled
+	 * @see #setChangeLogEnabled(boolean)
+	 */
+	public boolean isChangeLogEnabled()
+	{
+		return changeLogEnabled;
+	}
+	
+	/**
+	 * Enables or disables the change log. When it is enabled every insert, update and delete of a record whose schema has
+	 * change tracking enabled (see {@link StorageClient#SCHEMA_FLAG_TRACK_CHANGES}) is recorded, in the same transaction,
+	 * as an entry in the {@link #CHANGE_LOG_SCHEMA} table, which holds a reference to the record, the operation and a
+	 * sequence number which increases with every change. This allows sync and export jobs to retrieve only what changed
+	 * since they last ran, using {@link #retrieveChangesSince(long, int)}.
+	 * 
+	 * Note that changes made while the change log is disabled are not recorded, so consumers which need a complete picture
+	 * should make sure it is always enabled (e.g. upon creation of the store).
+	 * 
+	 * @param changeLogEnabled
+	 */
+	public void setChangeLogEnabled(boolean changeLogEnabled)
+	{
+		this.changeLogEnabled = changeLogEnabled;
+	}
+	
+	/**
+	 * @param schema
+	 * @return whether or not changes to records of the given schema are to be recorded in the change log
+	 */
+	protected final boolean isChangeLogged(Schema schema)
+	{
+		return	changeLogEnabled &&
+				isInitialised() && // don't log changes during db upgrades (in line with StorageClient#storageEvent())
+				schema.hasFlags(StorageClient.SCHEMA_FLAG_TRACK_CHANGES);
+	}
+	
+	/**
+	 * Records the given changes in the change log, if it is enabled (and only for records of schemata with change tracking).
+	 * Must be called from within the transaction in which the changes were made.
+	 * 
+	 * @param operation
+	 * @param recordRefs references to the changed records
+	 * @throws DBException
+	 */
+	protected final void logChanges(RecordOperation operation, List<RecordReference> recordRefs) throws DBException
+	{
+		if(!changeLogEnabled || recordRefs.isEmpty())
+			return;
+		List<Record> entries = new ArrayList<Record>(recordRefs.size());
+		try
+		{
+			for(RecordReference recordRef : recordRefs)
+				if(isChangeLogged(recordRef.getReferencedSchema()))
+					entries.add(CHANGE_LOG_SCHEMA.createRecord(
+						// Sequence column (assigned upon insertion):
+						null,
+						// Schema column (= Model ID + Schema#):
+						recordRef.getReferencedSchema().getMetaRecordReference(),
+						// PKValues column:
+						recordRef.toBytes(true),
+						// Operation column:
+						Long.valueOf(operation.ordinal())));
+		}
+		catch(IOException ioE)
+		{
+			throw new DBException("Failed to serialise record reference", ioE);
+		}
+		if(entries.size() == 1)
+			doInsert(entries.get(0));
+		else if(!entries.isEmpty())
+			doStore(entries, BulkMode.INSERT_NEW);
+	}
+	
+	/**
+	 * Retrieves the changes which were recorded in the change log after the one with the given sequence number, in the order in
+	 * which they happened. To process all changes incrementally a consumer should keep the sequence number of the last change
+	 * it has processed (its "watermark") and pass it to the next call, starting from 0.
+	 * 
+	 * @param sequence the sequence number of the last change which was already processed (or 0 to start from the beginning)
+	 * @param limit maximum number of changes to return, or {@link RecordsQuery#NO_LIMIT}
+	 * @return a list of changes, possibly empty, never {@code null}
+	 * @see #setChangeLogEnabled(boolean)
+	 */
+	public List<Change> retrieveChangesSince(long sequence, int limit)
+	{
+		List<Record> entries = retrieveRecords(new RecordsQuery(Source.From(CHANGE_LOG_SCHEMA),
+																Order.AscendingBy(CHANGE_LOG_COLUMN_SEQUENCE),
+																limit,
+																new RuleConstraint(CHANGE_LOG_COLUMN_SEQUENCE, Comparison.GREATER, sequence)));
+		List<Change> changes = new ArrayList<Change>(entries.size());
+		Schema schema = null;
+		for(Record entry : entries)
+		{
+			// Get schema (recycle the previous one if possible):
+			long modelID = ((Long) CHANGE_LOG_CP_MODEL_ID.retrieveValue(entry)).longValue();
+			int schemaNumber = ((Long) CHANGE_LOG_CP_SCHEMA_NUMBER.retrieveValue(entry)).intValue();
+			if(schema == null || schema.getModelID() != modelID || schema.getModelSchemaNumber() != schemaNumber)
+			{
+				try
+				{
+					schema = client.getSchema(modelID, schemaNumber);
+				}
+				catch(Exception e)
+				{
+					client.logError("Failed to get schema for change log entry: " + entry.toString(false), e);
+					schema = null;
+				}
+			}
+			// Get reference to changed record:
+			RecordReference recordRef = null;
+			if(schema != null)
+			{
+				try
+				{
+					recordRef = schema.createRecordReference(CHANGE_LOG_COLUMN_PK_VALUES.retrieveValue(entry));
+				}
+				catch(Exception e)
+				{
+					client.logError("Failed to get record reference for change log entry: " + entry.toString(false), e);
+				}
+			}
+			changes.add(new Change(	CHANGE_LOG_COLUMN_SEQUENCE.retrieveValue(entry).longValue(),
+									RecordOperation.values()[CHANGE_LOG_COLUMN_OPERATION.retrieveValue(entry).intValue()],
+									recordRef));
+		}
+		return changes;
+	}
+	
+	/**
+	 * Compacts the change log by removing every entry which is followed by a later one about the same record. Consumers which
+	 * retrieve changes since any sequence number (see {@link #retrieveChangesSince(long, int)}) will still learn about the final
+	 * state of every record that changed since then, but they may receive an update about a record without having seen its
+	 * insertion, so inserts and updates should be treated alike (i.e. as "upserts").
+	 * 
+	 * @return the number of removed entries
+	 * @throws DBException
+	 */
+	public int compactChangeLog() throws DBException
+	{
+		Map<RecordReference, Set<ByteBuffer>> seen = new HashMap<RecordReference, Set<ByteBuffer>>();
+		List<Long> superseded = new ArrayList<Long>();
+		// Walk through the entries from the latest to the oldest:
+		RecordCursor cursor = retrieveRecordCursor(new RecordsQuery(CHANGE_LOG_SCHEMA, Order.DescendingBy(CHANGE_LOG_COLUMN_SEQUENCE)), true);
+		try
+		{
+			for(Record entry : cursor)
+			{
+				RecordReference schemaRef = CHANGE_LOG_COLUMN_SCHEMA.retrieveValue(entry);
+				Set<ByteBuffer> seenPKs = seen.get(schemaRef);
+				if(seenPKs == null)
+				{
+					seenPKs = new HashSet<ByteBuffer>();
+					seen.put(new RecordReference(schemaRef) /*copy, as the entry record is reused*/, seenPKs);
+				}
+				if(!seenPKs.add(ByteBuffer.wrap(CHANGE_LOG_COLUMN_PK_VALUES.retrieveValue(entry))))
+					superseded.add(CHANGE_LOG_COLUMN_SEQUENCE.retrieveValue(entry));
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+		// Delete superseded entries:
+		if(superseded.isEmpty())
+			return 0;
+		startTransaction();
+		try
+		{
+			deleteChangeLogEntries(superseded);
+		}
+		catch(DBException e)
+		{
+			rollbackTransactions();
+			throw e;
+		}
+		commitTransaction();
+		return superseded.size();
+	}
+	
+	/**
+	 * Deletes the change log entries with the given sequence numbers. The client is not informed about this, as change log
+	 * entries are internal records. Only called within a transaction.
+	 * 
+	 * Default implementation, may be overridden.
+	 * 
+	 * @param sequences
+	 * @throws DBException
+	 */
+	protected void deleteChangeLogEntries(List<Long> sequences) throws DBException
+	{
+		OrConstraint bySequence = new OrConstraint();
+		for(Long sequence : sequences)
+			bySequence.addConstraint(new EqualityConstraint(CHANGE_LOG_COLUMN_SEQUENCE, sequence));
+		for(Record entry : retrieveRecords(new RecordsQuery(CHANGE_LOG_SCHEMA, bySequence)))
+			doDelete(entry);
+	}
+	
+	/**
+	 * Removes all change log entries up to and including the one with the given sequence number, e.g. once all consumers have
+	 * processed them.
+	 * 
+	 * @param sequence
+	 * @throws DBException
+	 */
+	public void discardChangesUpTo(long sequence) throws DBException
+	{
+		delete(new RecordsQuery(CHANGE_LOG_SCHEMA, new RuleConstraint(CHANGE_LOG_COLUMN_SEQUENCE, Comparison.SMALLER_OR_EQUAL, sequence)));
+	}
+	
 	/**
 	 * Subclasses may override this but *must* call super implementation.
 	 * TODO somehow force the super call using annotations?
@@ -664,6 +1274,95 @@ public abstract class RecordStore extends Store
 		this.loggingEnabled = loggingEnabled;
 	}
 
+	/**
+	 * A change recorded in the change log (see {@link RecordStore#retrieveChangesSince(long, int)})
+	 * 
+	 * @author mstevens
+	 */
+	static public class Change
+	{
+		
+		private final long sequence;
+		private final RecordOperation operation;
+		private final RecordReference recordReference;
+		
+		/**
+		 * @param sequence
+		 * @param operation
+		 * @param recordReference
+		 */
+		public Change(long sequence, RecordOperation operation, RecordReference recordReference)
+		{
+			this.sequence = sequence;
+			this.operation = operation;
+			this.recordReference = recordReference;
+		}
+
+		/**
+		 * @return the sequence number of the change, which is greater than those of all earlier changes
+		 */
+		public long getSequence()
+		{
+			return sequence;
+		}
+
+		/**
+		 * @return the operation
+		 */
+		public RecordOperation getOperation()
+		{
+			return operation;
+		}
+
+		/**
+		 * @return a reference to the changed record, or {@code null} if its schema is (no longer) known to the client
+		 */
+		public RecordReference getRecordReference()
+		{
+			return recordReference;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString()
+		{
+			return sequence + ": " + operation + " " + (recordReference != null ? recordReference.toString(false) : "?");
+		}
+		
+	}
+	
+	/**
+	 * Storage events about the same operation, held back (see {@link RecordStore#holdStorageEvents()})
+	 * 
+	 * @author mstevens
+	 */
+	static private final class HeldStorageEvents
+	{
+		
+		final RecordOperation operation;
+		final List<RecordReference> recordRefs = new ArrayList<RecordReference>();
+		
+		HeldStorageEvents(RecordOperation operation)
+		{
+			this.operation = operation;
+		}
+		
+	}
+	
+	/**
+	 * Callback interface for {@link RecordStore#forEach(RecordsQuery, RecordHandler)}
+	 * 
+	 * @author mstevens
+	 */
+	public interface RecordHandler
+	{
+		
+		public void handle(Record record);
+		
+	}
+	
 	/**
 	 * A task to execute upon roll-back of open transaction(s)
 	 * 
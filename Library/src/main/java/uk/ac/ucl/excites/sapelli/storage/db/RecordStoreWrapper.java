@@ -19,6 +19,9 @@
 package uk.ac.ucl.excites.sapelli.storage.db;
 
 import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import uk.ac.ucl.excites.sapelli.shared.db.Store;
 import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
@@ -46,6 +49,42 @@ public class RecordStoreWrapper<C extends StorageClient> extends Store implement
 		this.recordStore = client.recordStoreHandle.getStore(this);
 	}
 	
+	/**
+	 * Obtains the RecordStore on the thread of the given executor rather than on the calling thread. Meant for wrappers which
+	 * only use the RecordStore on that thread, as some RecordStores (e.g. JavaSQLiteRecordStore) are confined to the thread
+	 * which opened them. Must not be called from the executor's thread.
+	 * 
+	 * @param client
+	 * @param opener executor on which the RecordStore is to be obtained
+	 * @throws DBException
+	 */
+	protected RecordStoreWrapper(final C client, ExecutorService opener) throws DBException
+	{
+		this.client = client;
+		try
+		{
+			this.recordStore = opener.submit(new Callable<RecordStore>()
+			{
+				@Override
+				public RecordStore call() throws DBException
+				{
+					return client.recordStoreHandle.getStore(RecordStoreWrapper.this);
+				}
+			}).get();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new DBException("Interrupted while obtaining record store", ie);
+		}
+		catch(ExecutionException ee)
+		{
+			if(ee.getCause() instanceof DBException)
+				throw (DBException) ee.getCause();
+			throw new DBException("Error upon obtaining record store", ee.getCause());
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.shared.db.Store#finalise()
 	 */
@@ -0,0 +1,573 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.storage.StorageClient;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordReference;
+
+/**
+ * Asynchronous write-behind wrapper around a {@link RecordStore}.
+ * 
+ * Stores and deletes submitted from any number of threads are queued and executed on a single writer thread, in
+ * "group commits": each batch of queued writes is executed within one transaction, rather than each write being
+ * committed (and synced to disk) separately. A batch is committed once it reaches the maximum batch size, or once the
+ * oldest write in it has waited for the maximum delay. Each write returns a {@link Future} which completes when the
+ * batch it belongs to has been committed (or when the write has failed). When the maximum number of pending writes is
+ * reached, submitting threads block until there is room again (back-pressure). {@link #flush()} acts as durability barrier.
+ * 
+ * If a batch fails, its writes are retried in separate transactions, such that a single bad write does not cause
+ * others to fail. Observers are informed about writes only once the transaction they belong to has been committed. Records must not be modified by the caller until the {@link Future} of their write has completed.
+ * 
+ * The wrapped store must not be written to directly while writes are pending. The wrapped store is obtained, written to,
+ * and released on the writer thread, such that stores which confine their connection to the thread that opened it
+ * (e.g. JavaSQLiteRecordStore) can be used. When such a store is shared with other code, the writer thread must be the one
+ * on which it was opened, which can be achieved by passing in an executor (see {@link #WriteBehindRecordStore(StorageClient, ScheduledExecutorService, int, long, int)}).
+ * 
+ * @author mstevens
+ */
+public class WriteBehindRecordStore<C extends StorageClient> extends RecordStoreWrapper<C>
+{
+
+	// STATIC -------------------------------------------------------
+	static public final int DEFAULT_MAX_BATCH_SIZE = 500;
+	static public final long DEFAULT_MAX_DELAY_MS = 10;
+	static public final int DEFAULT_MAX_PENDING = 10000;
+	
+	static private final Runnable NO_OP = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			// does nothing
+		}
+	};
+	
+	// DYNAMIC ------------------------------------------------------
+	private final ScheduledExecutorService writer;
+	private final boolean ownWriter;
+	private final int maxBatchSize;
+	private final long maxDelayMS;
+	
+	/**
+	 * Limits the number of pending (submitted but not yet committed or failed) writes
+	 */
+	private final Semaphore pendingPermits;
+	private final Queue<Write> pending = new ArrayDeque<Write>();
+	private boolean commitScheduled = false;
+	private boolean immediateCommitQueued = false;
+	private boolean closing = false;
+	
+	/**
+	 * The thread on which the writer executor last ran one of our tasks
+	 */
+	private volatile Thread writerThread;
+	
+	private final Runnable commitTask = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			writerThread = Thread.currentThread();
+			commitPending();
+		}
+	};
+	
+	/**
+	 * Creates a WriteBehindRecordStore with its own writer thread and default limits.
+	 * 
+	 * @param client
+	 * @throws DBException
+	 */
+	public WriteBehindRecordStore(C client) throws DBException
+	{
+		this(client, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_PENDING);
+	}
+	
+	/**
+	 * Creates a WriteBehindRecordStore with its own writer thread.
+	 * 
+	 * @param client
+	 * @param maxBatchSize maximum number of writes per transaction
+	 * @param maxDelayMS maximum time (in ms) a write waits before the batch it belongs to is committed
+	 * @param maxPending maximum number of pending writes, beyond which submitting threads are blocked
+	 * @throws DBException
+	 */
+	public WriteBehindRecordStore(C client, int maxBatchSize, long maxDelayMS, int maxPending) throws DBException
+	{
+		this(client, Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "WriteBehindRecordStore-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}), true, maxBatchSize, maxDelayMS, maxPending);
+	}
+	
+	/**
+	 * Creates a WriteBehindRecordStore which uses the given executor to perform all writes.
+	 * Must not be called from the executor's thread.
+	 * 
+	 * @param client
+	 * @param writer a single-threaded executor, which will not be shut down by the WriteBehindRecordStore
+	 * @param maxBatchSize maximum number of writes per transaction
+	 * @param maxDelayMS maximum time (in ms) a write waits before the batch it belongs to is committed
+	 * @param maxPending maximum number of pending writes, beyond which submitting threads are blocked
+	 * @throws DBException
+	 */
+	public WriteBehindRecordStore(C client, ScheduledExecutorService writer, int maxBatchSize, long maxDelayMS, int maxPending) throws DBException
+	{
+		this(client, writer, false, maxBatchSize, maxDelayMS, maxPending);
+	}
+	
+	private WriteBehindRecordStore(C client, ScheduledExecutorService writer, boolean ownWriter, int maxBatchSize, long maxDelayMS, int maxPending) throws DBException
+	{
+		super(client, CheckArguments(writer, maxBatchSize, maxDelayMS, maxPending)); // obtains the store on the writer thread
+		this.writer = writer;
+		this.ownWriter = ownWriter;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayMS = maxDelayMS;
+		this.pendingPermits = new Semaphore(maxPending);
+		runOnWriter(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writerThread = Thread.currentThread(); // so flush() & close() can recognise it
+			}
+		}, "starting");
+	}
+	
+	static private ScheduledExecutorService CheckArguments(ScheduledExecutorService writer, int maxBatchSize, long maxDelayMS, int maxPending)
+	{
+		if(writer == null)
+			throw new NullPointerException("writer cannot be null!");
+		if(maxBatchSize < 1 || maxDelayMS < 0 || maxPending < 1)
+			throw new IllegalArgumentException("Invalid batch size, delay or number of pending writes");
+		return writer;
+	}
+	
+	/**
+	 * Queues the storing of the given record (as in {@link RecordStore#store(Record)}).
+	 * 
+	 * @param record the record to store, must not be modified until the returned {@link Future} has completed
+	 * @return a {@link Future} which completes when the record has been committed
+	 * @throws DBException when the store is closed, or the calling thread was interrupted while waiting for room in the queue
+	 * @throws IllegalArgumentException when the given record cannot be stored
+	 */
+	public Future<Void> store(final Record record) throws DBException, IllegalArgumentException
+	{
+		if(!recordStore.isStorable(record))
+			throw new IllegalArgumentException(String.format("Record (%s) cannot be stored!", record == null ? null : record.toString(false)));
+		return submit(new Write()
+		{
+			@Override
+			protected void execute(RecordStore recordStore) throws DBException
+			{
+				recordStore.store(record);
+			}
+		});
+	}
+	
+	/**
+	 * Queues the deletion of the given record (as in {@link RecordStore#delete(Record)}).
+	 * 
+	 * @param record
+	 * @return a {@link Future} which completes when the deletion has been committed
+	 * @throws DBException when the store is closed, or the calling thread was interrupted while waiting for room in the queue
+	 */
+	public Future<Void> delete(final Record record) throws DBException
+	{
+		return submit(new Write()
+		{
+			@Override
+			protected void execute(RecordStore recordStore) throws DBException
+			{
+				recordStore.delete(record);
+			}
+		});
+	}
+	
+	/**
+	 * Queues the deletion of the record pointed to by the given reference (as in {@link RecordStore#delete(RecordReference)}).
+	 * 
+	 * @param recordRef
+	 * @return a {@link Future} which completes when the deletion has been committed
+	 * @throws DBException when the store is closed, or the calling thread was interrupted while waiting for room in the queue
+	 */
+	public Future<Void> delete(final RecordReference recordRef) throws DBException
+	{
+		return submit(new Write()
+		{
+			@Override
+			protected void execute(RecordStore recordStore) throws DBException
+			{
+				recordStore.delete(recordRef);
+			}
+		});
+	}
+	
+	/**
+	 * Blocks until all writes submitted before the call have been committed (or have failed).
+	 * When called from the writer thread the pending writes are committed directly.
+	 * 
+	 * @throws DBException when the store is closed, or the calling thread was interrupted while waiting
+	 */
+	public void flush() throws DBException
+	{
+		runOnWriter(commitTask, "flushing writes");
+	}
+	
+	/**
+	 * Runs the given task on the writer thread and waits for it to finish, or runs it directly if called from the writer thread.
+	 * 
+	 * @param task
+	 * @param description
+	 * @throws DBException
+	 */
+	private void runOnWriter(Runnable task, String description) throws DBException
+	{
+		if(Thread.currentThread() == writerThread)
+		{
+			task.run();
+			return;
+		}
+		try
+		{
+			writer.submit(task).get();
+		}
+		catch(RejectedExecutionException ree)
+		{
+			throw new DBException("Writer is shut down, cannot complete " + description, ree);
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new DBException("Interrupted while " + description, ie);
+		}
+		catch(ExecutionException ee)
+		{
+			if(ee.getCause() instanceof DBException)
+				throw (DBException) ee.getCause();
+			throw new DBException("Error upon " + description, ee.getCause());
+		}
+	}
+	
+	/**
+	 * @return the number of submitted writes which have not been committed yet
+	 */
+	public int getPendingCount()
+	{
+		synchronized(pending)
+		{
+			return pending.size();
+		}
+	}
+	
+	private Future<Void> submit(Write write) throws DBException
+	{
+		synchronized(pending)
+		{
+			if(closing)
+				throw new DBException("WriteBehindRecordStore is closed");
+		}
+		// Back-pressure:
+		try
+		{
+			pendingPermits.acquire();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new DBException("Interrupted while waiting to queue write", ie);
+		}
+		// Queue write & schedule commit if needed:
+		synchronized(pending)
+		{
+			if(closing) // closed while waiting for a permit
+			{
+				pendingPermits.release();
+				throw new DBException("WriteBehindRecordStore is closed");
+			}
+			pending.add(write);
+			try
+			{
+				if(pending.size() >= maxBatchSize && !immediateCommitQueued)
+				{
+					writer.execute(commitTask); // commit as soon as possible
+					immediateCommitQueued = true;
+					commitScheduled = true;
+				}
+				else if(!commitScheduled)
+				{
+					writer.schedule(commitTask, maxDelayMS, TimeUnit.MILLISECONDS);
+					commitScheduled = true;
+				}
+			}
+			catch(RejectedExecutionException ree)
+			{	// the writer executor was shut down:
+				pending.remove(write);
+				pendingPermits.release();
+				DBException dbE = new DBException("Writer is shut down, cannot queue write", ree);
+				write.failed(dbE);
+				throw dbE;
+			}
+		}
+		return write;
+	}
+	
+	/**
+	 * Commits all pending writes in batches of at most {@link #maxBatchSize}. Runs on the writer thread.
+	 */
+	private void commitPending()
+	{
+		List<Write> batch = new ArrayList<Write>(maxBatchSize);
+		while(true)
+		{
+			// Take next batch:
+			synchronized(pending)
+			{
+				immediateCommitQueued = false; // any further full batch needs a new commit task
+				while(batch.size() < maxBatchSize && !pending.isEmpty())
+					batch.add(pending.poll());
+				if(batch.isEmpty())
+				{
+					commitScheduled = false;
+					return;
+				}
+			}
+			// Commit it:
+			try
+			{
+				commit(batch);
+			}
+			finally
+			{
+				pendingPermits.release(batch.size());
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Executes the given writes in a single transaction. If that fails each write is retried in a transaction of its own.
+	 * 
+	 * @param batch
+	 */
+	private void commit(List<Write> batch)
+	{
+		try
+		{
+			execute(batch);
+			for(Write write : batch)
+				write.succeeded();
+			return;
+		}
+		catch(Exception e)
+		{
+			if(batch.size() == 1)
+			{
+				batch.get(0).failed(e);
+				return;
+			}
+		}
+		// Isolate failing write(s):
+		for(Write write : batch)
+		{
+			try
+			{
+				execute(Collections.singletonList(write));
+				write.succeeded();
+			}
+			catch(Exception e)
+			{
+				write.failed(e);
+			}
+		}
+	}
+	
+	/**
+	 * Executes the given writes in a single transaction, which is rolled back if one of them fails. The storage events the
+	 * writes produce are held back until the transaction has been committed, and discarded if it is rolled back, such that
+	 * observers are only informed about writes which really took effect (and only once).
+	 * 
+	 * @param writes
+	 * @throws Exception
+	 */
+	private void execute(List<Write> writes) throws Exception
+	{
+		boolean committed = false;
+		recordStore.holdStorageEvents();
+		try
+		{
+			recordStore.startTransaction();
+			for(Write write : writes)
+				write.execute(recordStore);
+			recordStore.commitTransaction();
+			committed = true;
+		}
+		finally
+		{
+			if(!committed)
+			{
+				recordStore.discardStorageEvents();
+				rollback();
+			}
+		}
+		recordStore.releaseStorageEvents();
+	}
+	
+	private void rollback()
+	{
+		try
+		{
+			recordStore.rollbackTransactions();
+		}
+		catch(Exception e)
+		{
+			client.logError("Error upon rolling back write-behind transaction", e);
+		}
+	}
+	
+	/**
+	 * Pending writes are committed before the back-up is made.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStoreWrapper#backup(uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper, java.io.File)
+	 */
+	@Override
+	public void backup(StoreBackupper backuper, File destinationFolder) throws DBException
+	{
+		flush();
+		super.backup(backuper, destinationFolder);
+	}
+	
+	/**
+	 * No further writes are accepted. Pending writes are committed, and the wrapped store is released, on the writer thread.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStoreWrapper#doClose()
+	 */
+	@Override
+	public void doClose() throws DBException
+	{
+		synchronized(pending)
+		{
+			closing = true;
+		}
+		try
+		{
+			runOnWriter(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					writerThread = Thread.currentThread();
+					try
+					{
+						commitPending();
+					}
+					finally
+					{
+						releaseStore();
+					}
+				}
+			}, "closing");
+		}
+		catch(DBException dbE)
+		{
+			if(dbE.getCause() instanceof RejectedExecutionException)
+			{	// there is no writer thread anymore, fail pending writes and release the store on this thread:
+				synchronized(pending)
+				{
+					for(Write write : pending)
+						write.failed(dbE);
+					pendingPermits.release(pending.size());
+					pending.clear();
+				}
+				releaseStore();
+			}
+			throw dbE;
+		}
+		finally
+		{
+			if(ownWriter)
+				writer.shutdown();
+		}
+	}
+	
+	private void releaseStore()
+	{
+		try
+		{
+			super.doClose();
+		}
+		catch(DBException e)
+		{
+			client.logError("Error upon releasing record store", e);
+		}
+	}
+	
+	/**
+	 * A queued write, which doubles as its own {@link Future}.
+	 * 
+	 * @author mstevens
+	 */
+	static private abstract class Write extends FutureTask<Void>
+	{
+	
+		public Write()
+		{
+			super(NO_OP, null); // never run, completed through succeeded()/failed()
+		}
+		
+		protected abstract void execute(RecordStore recordStore) throws DBException;
+		
+		public void succeeded()
+		{
+			set(null);
+		}
+		
+		public void failed(Throwable cause)
+		{
+			setException(cause);
+		}
+		
+	}
+
+}
@@ -0,0 +1,569 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.shared.util.StringUtils;
+import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
+
+/**
+ * Advises on, and manages, auxiliary indexes for the tables of an {@link SQLRecordStore}, based on the observed query workload.
+ * 
+ * While the advisor is enabled (see {@link SQLRecordStore#setIndexAdvisorEnabled(boolean)}) each SELECT query generated for a
+ * {@link RecordsQuery} reports which columns it constrains and orders by. Only constraints which an index could serve are taken
+ * into account, i.e. equality/null comparisons and range comparisons which are part of the top-level conjunction of the query
+ * (not those nested in a disjunction or negation). Queries with the same usage are counted together as an "access pattern".
+ * 
+ * For each access pattern a candidate index is derived: the equality columns, followed by the (first) range column or, if
+ * there is none, by the order columns (which saves sorting). Patterns which already make use of an index (according to the
+ * query plan, if the store can explain it) are skipped. Candidates are ranked by their estimated savings, being the number of
+ * times the pattern was seen multiplied by the number of rows which would no longer have to be examined per query. The rows
+ * examined with the index are estimated as the row count divided by the number of distinct values of the equality columns,
+ * divided by 4 for a range comparison (SQLite's own default guess), or as the limit for ordered & limited queries.
+ * 
+ * Auxiliary indexes are tracked in a side table (see {@link uk.ac.ucl.excites.sapelli.storage.db.RecordStore#AUXILIARY_INDEX_SCHEMA}),
+ * and are recreated when their table is (re)created, e.g. by an {@link SQLRecordStoreUpgrader}, and upon initialisation of the store.
+ * 
+ * @author mstevens
+ */
+public class IndexAdvisor
+{
+	
+	// STATICS ------------------------------------------------------
+	/**
+	 * Assumed reduction factor of a range comparison
+	 */
+	static private final int RANGE_SELECTIVITY = 4;
+	
+	static private final String COLUMN_SEPARATOR = ", ";
+	
+	/**
+	 * @param step a step of a query plan
+	 * @param unsanitisedTableName
+	 * @return whether or not the step scans the whole table
+	 */
+	static private boolean isFullScan(String step, String unsanitisedTableName)
+	{
+		return step.startsWith("SCAN TABLE " + unsanitisedTableName) || step.startsWith("SCAN " + unsanitisedTableName);
+	}
+	
+	/**
+	 * @param step a step of a query plan
+	 * @return whether or not the step sorts the results
+	 */
+	static private boolean isSort(String step)
+	{
+		return step.contains("TEMP B-TREE FOR ORDER BY");
+	}
+	
+	// DYNAMIC ------------------------------------------------------
+	private final SQLRecordStore<?, ?, ?> store;
+	
+	private final Map<AccessPattern, AccessPattern> patterns = new HashMap<AccessPattern, AccessPattern>();
+	
+	/**
+	 * @param store
+	 */
+	IndexAdvisor(SQLRecordStore<?, ?, ?> store)
+	{
+		this.store = store;
+	}
+	
+	/**
+	 * Records an execution of a query with the given access pattern.
+	 * 
+	 * @param usage
+	 */
+	synchronized void record(Usage usage)
+	{
+		if(usage.equalityColumns.isEmpty() && usage.rangeColumn == null && (usage.orderColumns.isEmpty() || usage.limit < 0))
+			return; // no index could help
+		AccessPattern key = new AccessPattern(usage);
+		AccessPattern pattern = patterns.get(key);
+		if(pattern == null)
+		{
+			pattern = key;
+			patterns.put(pattern, pattern);
+		}
+		pattern.uses++;
+	}
+	
+	/**
+	 * @return the number of distinct access patterns seen so far
+	 */
+	public synchronized int getNumberOfAccessPatterns()
+	{
+		return patterns.size();
+	}
+	
+	/**
+	 * Forgets all observed access patterns.
+	 */
+	public synchronized void reset()
+	{
+		patterns.clear();
+	}
+	
+	/**
+	 * Ranks the candidate indexes for the observed workload. Note that this may take a while on large tables
+	 * because the number of distinct values of the columns involved is counted.
+	 * 
+	 * @return the recommended indexes, in descending order of estimated savings
+	 * @throws DBException
+	 */
+	public List<Recommendation> getRecommendations() throws DBException
+	{
+		List<AccessPattern> observed;
+		synchronized(this)
+		{
+			observed = new ArrayList<AccessPattern>(patterns.values());
+		}
+		Map<String, Long> rowCounts = new HashMap<String, Long>();
+		Map<List<String>, Long> distinctCounts = new HashMap<List<String>, Long>();
+		Map<String, Recommendation> recommendations = new LinkedHashMap<String, Recommendation>();
+		for(AccessPattern pattern : observed)
+		{
+			if(!store.doesTableExist(pattern.schema.tableName) || !needsIndex(pattern))
+				continue;
+			// Count rows:
+			Long rows = rowCounts.get(pattern.schema.tableName);
+			if(rows == null)
+			{
+				rows = store.retrieveRecordCount(new RecordsQuery(pattern.schema));
+				rowCounts.put(pattern.schema.tableName, rows);
+			}
+			// Estimate the number of rows examined when using the index:
+			double examined = rows;
+			if(!pattern.equalityColumns.isEmpty())
+			{
+				List<String> distinctKey = new ArrayList<String>(pattern.equalityColumns);
+				distinctKey.add(0, pattern.schema.tableName);
+				Long distinct = distinctCounts.get(distinctKey);
+				if(distinct == null)
+				{
+					distinct = store.countDistinctValues(pattern.schema, pattern.equalityColumns);
+					distinctCounts.put(distinctKey, distinct);
+				}
+				examined /= Math.max(distinct, 1);
+			}
+			if(pattern.rangeColumn != null)
+				examined /= RANGE_SELECTIVITY;
+			else if(pattern.equalityColumns.isEmpty())
+				examined = Math.min(pattern.limit, rows); // ordered & limited
+			long savedPerQuery = (long) Math.max(rows - examined, 0);
+			if(savedPerQuery == 0)
+				continue;
+			// Add or merge recommendation:
+			List<String> columns = pattern.getCandidateColumns();
+			String key = pattern.schema.tableName + ":" + columns;
+			Recommendation recommendation = recommendations.get(key);
+			if(recommendation == null)
+			{
+				recommendation = new Recommendation(pattern.schema, columns);
+				recommendations.put(key, recommendation);
+			}
+			recommendation.uses += pattern.uses;
+			recommendation.estimatedSavings += pattern.uses * savedPerQuery;
+		}
+		List<Recommendation> ranked = new ArrayList<Recommendation>(recommendations.values());
+		Collections.sort(ranked, new Comparator<Recommendation>()
+		{
+			@Override
+			public int compare(Recommendation lhs, Recommendation rhs)
+			{
+				return lhs.estimatedSavings < rhs.estimatedSavings ? 1 : (lhs.estimatedSavings == rhs.estimatedSavings ? 0 : -1);
+			}
+		});
+		return ranked;
+	}
+	
+	/**
+	 * @param pattern
+	 * @return whether the query plan of a query with the given access pattern scans the whole table or sorts (if it is ordered & limited), or {@code true} if the plan is unknown
+	 * @throws DBException
+	 */
+	private boolean needsIndex(AccessPattern pattern) throws DBException
+	{
+		List<String> plan = store.explainQueryPlan(pattern.getSampleQuery(store));
+		if(plan == null)
+			return true; // unknown
+		boolean orderOnly = pattern.equalityColumns.isEmpty() && pattern.rangeColumn == null;
+		for(String step : plan)
+			if(orderOnly ? isSort(step) : isFullScan(step, pattern.schema.tableName))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Creates an auxiliary index as recommended (unless there is one on the same columns already).
+	 * 
+	 * @param recommendation
+	 * @return the new (or existing) auxiliary index
+	 * @throws DBException
+	 */
+	public AuxiliaryIndex createIndex(Recommendation recommendation) throws DBException
+	{
+		return store.createAuxiliaryIndex(recommendation.schema, recommendation.columns);
+	}
+	
+	/**
+	 * Creates the highest ranked recommended indexes.
+	 * 
+	 * @param minEstimatedSavings minimum estimated savings (in rows examined) of an index to be created
+	 * @param maxIndexes maximum number of indexes to create
+	 * @return the new auxiliary indexes
+	 * @throws DBException
+	 */
+	public List<AuxiliaryIndex> createRecommendedIndexes(long minEstimatedSavings, int maxIndexes) throws DBException
+	{
+		List<AuxiliaryIndex> created = new ArrayList<AuxiliaryIndex>();
+		for(Recommendation recommendation : getRecommendations())
+		{
+			if(created.size() == maxIndexes || recommendation.estimatedSavings < minEstimatedSavings)
+				break;
+			created.add(createIndex(recommendation));
+		}
+		return created;
+	}
+	
+	/**
+	 * @return all auxiliary indexes
+	 */
+	public List<AuxiliaryIndex> getIndexes()
+	{
+		return store.getAuxiliaryIndexes();
+	}
+	
+	/**
+	 * Drops the given auxiliary index.
+	 * 
+	 * @param index
+	 * @throws DBException
+	 */
+	public void dropIndex(AuxiliaryIndex index) throws DBException
+	{
+		store.dropAuxiliaryIndex(index);
+	}
+	
+	/**
+	 * Drops auxiliary indexes which are not used by the query plan of any of the access patterns observed on their table.
+	 * Indexes on tables for which no access patterns have been observed are left alone, as are all indexes if the store
+	 * cannot explain query plans.
+	 * 
+	 * @return the dropped indexes
+	 * @throws DBException
+	 */
+	public List<AuxiliaryIndex> dropUnusedIndexes() throws DBException
+	{
+		List<AccessPattern> observed;
+		synchronized(this)
+		{
+			observed = new ArrayList<AccessPattern>(patterns.values());
+		}
+		// Gather the steps of the plans of all observed patterns, per table:
+		Map<String, List<String>> stepsByTable = new HashMap<String, List<String>>();
+		for(AccessPattern pattern : observed)
+		{
+			if(!store.doesTableExist(pattern.schema.tableName))
+				continue;
+			List<String> plan = store.explainQueryPlan(pattern.getSampleQuery(store));
+			if(plan == null)
+				return Collections.<AuxiliaryIndex> emptyList(); // plans cannot be explained
+			List<String> steps = stepsByTable.get(pattern.schema.tableName);
+			if(steps == null)
+			{
+				steps = new ArrayList<String>();
+				stepsByTable.put(pattern.schema.tableName, steps);
+			}
+			steps.addAll(plan);
+		}
+		// Drop indexes which do not occur in any plan of their table:
+		List<AuxiliaryIndex> dropped = new ArrayList<AuxiliaryIndex>();
+		for(AuxiliaryIndex index : store.getAuxiliaryIndexes())
+		{
+			List<String> steps = stepsByTable.get(index.tableName);
+			if(steps == null)
+				continue; // no patterns observed on this table
+			boolean used = false;
+			for(String step : steps)
+				if(step.contains("INDEX " + index.name + " ") || step.endsWith("INDEX " + index.name))
+				{
+					used = true;
+					break;
+				}
+			if(!used)
+			{
+				store.dropAuxiliaryIndex(index);
+				dropped.add(index);
+			}
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Collects the usage of columns by a single query while its SQL is being generated.
+	 * 
+	 * @author mstevens
+	 */
+	static class Usage
+	{
+		
+		private final Schema schema;
+		private final Set<String> equalityColumns = new TreeSet<String>(); // sorted, such that the order of the constraints does not matter
+		private String rangeColumn;
+		private final List<String> orderColumns = new ArrayList<String>();
+		private int limit = -1;
+		
+		Usage(Schema schema)
+		{
+			this.schema = schema;
+		}
+		
+		/**
+		 * @param sanitisedColumnName
+		 * @param equality whether the column is compared for equality to a value (or null), or otherwise to a range bound
+		 */
+		void addConstrainedColumn(String sanitisedColumnName, boolean equality)
+		{
+			if(equality)
+				equalityColumns.add(sanitisedColumnName);
+			else if(rangeColumn == null)
+				rangeColumn = sanitisedColumnName;
+		}
+		
+		void addOrderColumn(String sanitisedColumnName)
+		{
+			if(!orderColumns.contains(sanitisedColumnName))
+				orderColumns.add(sanitisedColumnName);
+		}
+		
+		void setLimit(int limit)
+		{
+			this.limit = limit;
+		}
+		
+	}
+	
+	/**
+	 * An observed way of accessing a table.
+	 * 
+	 * @author mstevens
+	 */
+	static private class AccessPattern
+	{
+		
+		private final Schema schema;
+		private final List<String> equalityColumns;
+		private final String rangeColumn;
+		private final List<String> orderColumns;
+		private final int limit;
+		private long uses = 0;
+		
+		private AccessPattern(Usage usage)
+		{
+			this.schema = usage.schema;
+			this.equalityColumns = new ArrayList<String>(usage.equalityColumns);
+			this.rangeColumn = usage.rangeColumn != null && usage.equalityColumns.contains(usage.rangeColumn) ? null : usage.rangeColumn;
+			this.orderColumns = new ArrayList<String>(usage.orderColumns);
+			this.orderColumns.removeAll(equalityColumns); // these have a single value among the results
+			this.limit = usage.limit;
+		}
+		
+		/**
+		 * @return the columns of the index which would serve this pattern
+		 */
+		public List<String> getCandidateColumns()
+		{
+			List<String> columns = new ArrayList<String>(equalityColumns);
+			if(rangeColumn != null)
+				columns.add(rangeColumn);
+			else
+				columns.addAll(orderColumns);
+			return columns;
+		}
+		
+		/**
+		 * @param store
+		 * @return a (parameterised) SELECT query with this access pattern, to be explained
+		 */
+		public String getSampleQuery(SQLRecordStore<?, ?, ?> store)
+		{
+			StringBuilder bldr = new StringBuilder("SELECT * FROM ").append(store.sanitiseIdentifier(schema.tableName));
+			List<String> conjuncts = new ArrayList<String>();
+			for(String column : equalityColumns)
+				conjuncts.add(column + " = ?");
+			if(rangeColumn != null)
+				conjuncts.add(rangeColumn + " > ?");
+			if(!conjuncts.isEmpty())
+				bldr.append(" WHERE ").append(StringUtils.join(conjuncts, " AND "));
+			if(!orderColumns.isEmpty())
+				bldr.append(" ORDER BY ").append(StringUtils.join(orderColumns, COLUMN_SEPARATOR));
+			if(limit >= 0)
+				bldr.append(" LIMIT ").append(limit);
+			return bldr.append(";").toString();
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			int hash = 1;
+			hash = 31 * hash + schema.hashCode();
+			hash = 31 * hash + equalityColumns.hashCode();
+			hash = 31 * hash + (rangeColumn == null ? 0 : rangeColumn.hashCode());
+			hash = 31 * hash + orderColumns.hashCode();
+			hash = 31 * hash + limit;
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if(this == obj)
+				return true;
+			if(!(obj instanceof AccessPattern))
+				return false;
+			AccessPattern that = (AccessPattern) obj;
+			return	this.schema.equals(that.schema) &&
+					this.equalityColumns.equals(that.equalityColumns) &&
+					(this.rangeColumn == null ? that.rangeColumn == null : this.rangeColumn.equals(that.rangeColumn)) &&
+					this.orderColumns.equals(that.orderColumns) &&
+					this.limit == that.limit;
+		}
+		
+	}
+	
+	/**
+	 * A recommended index.
+	 * 
+	 * @author mstevens
+	 */
+	static public class Recommendation
+	{
+		
+		private final Schema schema;
+		private final List<String> columns;
+		private long uses = 0;
+		private long estimatedSavings = 0;
+		
+		private Recommendation(Schema schema, List<String> columns)
+		{
+			this.schema = schema;
+			this.columns = Collections.unmodifiableList(columns);
+		}
+		
+		/**
+		 * @return the schema of the table to index
+		 */
+		public Schema getSchema()
+		{
+			return schema;
+		}
+		
+		/**
+		 * @return the (sanitised) names of the columns to index, in order
+		 */
+		public List<String> getColumns()
+		{
+			return columns;
+		}
+		
+		/**
+		 * @return the number of observed queries which the index would serve
+		 */
+		public long getUses()
+		{
+			return uses;
+		}
+		
+		/**
+		 * @return the estimated number of row examinations the index would have saved on the observed queries
+		 */
+		public long getEstimatedSavings()
+		{
+			return estimatedSavings;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("Index on %s (%s) [uses: %d; estimated savings: %d rows]", schema.tableName, StringUtils.join(columns, COLUMN_SEPARATOR), uses, estimatedSavings);
+		}
+		
+	}
+	
+	/**
+	 * An index which was created in addition to those declared by the {@link Schema}.
+	 * 
+	 * @author mstevens
+	 */
+	static public class AuxiliaryIndex
+	{
+		
+		public final String name;
+		public final String tableName;
+		private final List<String> columns;
+		
+		/**
+		 * @param name the (unsanitised) name of the index
+		 * @param tableName the (unsanitised) name of the indexed table
+		 * @param columns the (sanitised) names of the indexed columns, in order
+		 */
+		AuxiliaryIndex(String name, String tableName, List<String> columns)
+		{
+			this.name = name;
+			this.tableName = tableName;
+			this.columns = Collections.unmodifiableList(columns);
+		}
+		
+		/**
+		 * @return the (sanitised) names of the indexed columns, in order
+		 */
+		public List<String> getColumns()
+		{
+			return columns;
+		}
+		
+		/**
+		 * @return the columns as stored in the side table
+		 */
+		String getColumnsString()
+		{
+			return StringUtils.join(columns, COLUMN_SEPARATOR);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("Auxiliary index %s on %s (%s)", name, tableName, getColumnsString());
+		}
+		
+	}
+
+}
@@ -0,0 +1,648 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db.sql;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import uk.ac.ucl.excites.sapelli.shared.util.TimeUtils;
+
+/**
+ * Collects performance statistics about the SQL statements executed by an {@link SQLRecordStore}.
+ * 
+ * Statistics are kept per statement "shape", i.e. per parameterised SQL expression (queries which only differ in the
+ * values bound to their parameters share a shape), and are aggregated per table. For each shape we keep the number of
+ * executions, the total and maximum latency, a latency histogram (with power-of-2 microsecond buckets, from which
+ * approximate percentiles are derived), the number of rows returned (SELECTs) or affected (other statements) and the
+ * number of times a compiled statement was prepared versus reused. The durations of (outer) transactions are recorded too.
+ * 
+ * Executions which take at least the slow query threshold are kept in a bounded slow query log, along with the
+ * query plan of the statement if the store is able to explain it (e.g. SQLite's {@code EXPLAIN QUERY PLAN} output),
+ * which makes it possible to spot full table scans caused by missing indexes.
+ * 
+ * The statistics can be read programmatically (all getters return snapshots), and as a textual report through
+ * {@link #dump()}. If a dump interval is set the store periodically logs such a report (as part of the next statement
+ * execution once the interval has elapsed, no extra thread is involved).
+ * 
+ * Instances are thread-safe. Subclasses may override the {@code statement*()}, {@link #slowQuery(String, long, int, List)}
+ * and {@link #transactionEnded(long, boolean)} methods (calling the super implementation) to forward measurements elsewhere.
+ * 
+ * @author mstevens
+ * 
+ * @see SQLRecordStore#setQueryMetrics(QueryMetrics)
+ */
+public class QueryMetrics
+{
+	
+	// STATICS ------------------------------------------------------
+	static public final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 100;
+	static public final int DEFAULT_SLOW_QUERY_LOG_SIZE = 50;
+	
+	/**
+	 * Bucket 0 holds latencies below 1 µs, bucket b > 0 those in [2^(b-1), 2^b) µs, the last bucket also holds everything longer.
+	 */
+	static public final int HISTOGRAM_BUCKETS = 32;
+	
+	static private final Pattern TABLE_PATTERN = Pattern.compile("\\b(?:FROM|INTO|UPDATE)\\s+([^\\s(,;]+)", Pattern.CASE_INSENSITIVE);
+	static private final String UNKNOWN_TABLE = "?";
+	
+	static private final double NANOS_PER_MS = 1000000d;
+	
+	/**
+	 * @param sql
+	 * @return the (sanitised) name of the table the given SQL statement is about, i.e. the first one after a FROM, INTO or UPDATE keyword, or "?" if there is none
+	 */
+	static public String getTableName(String sql)
+	{
+		Matcher matcher = TABLE_PATTERN.matcher(sql);
+		return matcher.find() ? matcher.group(1) : UNKNOWN_TABLE;
+	}
+	
+	/**
+	 * @param sql
+	 * @return whether the given SQL statement is a SELECT query
+	 */
+	static public boolean isSelect(String sql)
+	{
+		return sql.trim().regionMatches(true, 0, "SELECT", 0, 6);
+	}
+	
+	static private int getBucket(long nanos)
+	{
+		long micros = nanos / 1000;
+		return Math.min(micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1);
+	}
+	
+	static private double toMS(long nanos)
+	{
+		return nanos / NANOS_PER_MS;
+	}
+	
+	// DYNAMIC ------------------------------------------------------
+	private final Map<String, StatementStatistics> statementStats = new HashMap<String, StatementStatistics>();
+	private final Map<String, Statistics> tableStats = new HashMap<String, Statistics>();
+	private final Statistics transactionStats = new Statistics("Transactions");
+	private long rolledBackTransactions = 0;
+	
+	private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<SlowQuery>();
+	private final int slowQueryLogSize;
+	private long slowQueryThresholdNanos;
+	
+	private long dumpIntervalMS = 0;
+	private long lastDumpMS;
+	
+	public QueryMetrics()
+	{
+		this(DEFAULT_SLOW_QUERY_THRESHOLD_MS, DEFAULT_SLOW_QUERY_LOG_SIZE);
+	}
+	
+	/**
+	 * @param slowQueryThresholdMS minimum duration (in ms) of executions which are to be logged as slow
+	 * @param slowQueryLogSize maximum number of slow executions held on to (older ones are forgotten first)
+	 */
+	public QueryMetrics(long slowQueryThresholdMS, int slowQueryLogSize)
+	{
+		if(slowQueryLogSize < 0)
+			throw new IllegalArgumentException("Slow query log size cannot be negative");
+		this.slowQueryLogSize = slowQueryLogSize;
+		setSlowQueryThresholdMS(slowQueryThresholdMS);
+		this.lastDumpMS = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Records that a statement with the given SQL was compiled.
+	 * 
+	 * @param sql
+	 */
+	public synchronized void statementPrepared(String sql)
+	{
+		getStatementStatistics(sql).prepared++;
+	}
+	
+	/**
+	 * Records that a previously compiled statement with the given SQL was reused.
+	 * 
+	 * @param sql
+	 */
+	public synchronized void statementReused(String sql)
+	{
+		getStatementStatistics(sql).reused++;
+	}
+	
+	/**
+	 * Records an execution of the statement with the given SQL.
+	 * 
+	 * @param sql
+	 * @param nanos duration of the execution (for SELECTs: including the stepping through the results)
+	 * @param rows number of rows returned (SELECTs) or affected (other statements)
+	 * @return whether or not the execution was slow, in which case the caller is expected to call {@link #slowQuery(String, long, int, List)}
+	 */
+	public synchronized boolean statementExecuted(String sql, long nanos, int rows)
+	{
+		StatementStatistics stats = getStatementStatistics(sql);
+		stats.record(nanos, rows);
+		Statistics tStats = tableStats.get(stats.table);
+		if(tStats == null)
+		{
+			tStats = new Statistics(stats.table);
+			tableStats.put(stats.table, tStats);
+		}
+		tStats.record(nanos, rows);
+		return nanos >= slowQueryThresholdNanos;
+	}
+	
+	/**
+	 * Adds an entry to the slow query log.
+	 * 
+	 * @param sql
+	 * @param nanos
+	 * @param rows
+	 * @param queryPlan the query plan of the statement, one step per line, may be {@code null}
+	 * @return the new slow query log entry
+	 */
+	public synchronized SlowQuery slowQuery(String sql, long nanos, int rows, List<String> queryPlan)
+	{
+		SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), sql, nanos, rows, queryPlan);
+		if(slowQueryLogSize > 0)
+		{
+			if(slowQueries.size() == slowQueryLogSize)
+				slowQueries.removeFirst();
+			slowQueries.addLast(slowQuery);
+		}
+		return slowQuery;
+	}
+	
+	/**
+	 * Records the end of an (outer) transaction.
+	 * 
+	 * @param nanos time elapsed since the transaction was started
+	 * @param committed {@code true} if the transaction was committed, {@code false} if it was rolled back
+	 */
+	public synchronized void transactionEnded(long nanos, boolean committed)
+	{
+		transactionStats.record(nanos, 0);
+		if(!committed)
+			rolledBackTransactions++;
+	}
+	
+	private StatementStatistics getStatementStatistics(String sql)
+	{
+		StatementStatistics stats = statementStats.get(sql);
+		if(stats == null)
+		{
+			stats = new StatementStatistics(sql);
+			statementStats.put(sql, stats);
+		}
+		return stats;
+	}
+	
+	/**
+	 * @return snapshots of the statistics of all statement shapes, sorted by descending total time
+	 */
+	public synchronized List<StatementStatistics> getStatementStatistics()
+	{
+		List<StatementStatistics> snapshot = new ArrayList<StatementStatistics>(statementStats.size());
+		for(StatementStatistics stats : statementStats.values())
+			snapshot.add(new StatementStatistics(stats));
+		Collections.sort(snapshot, Statistics.BY_DESCENDING_TOTAL_TIME);
+		return snapshot;
+	}
+	
+	/**
+	 * @return snapshots of the statistics per table, sorted by descending total time
+	 */
+	public synchronized Map<String, Statistics> getTableStatistics()
+	{
+		List<Statistics> sorted = new ArrayList<Statistics>(tableStats.size());
+		for(Statistics stats : tableStats.values())
+			sorted.add(new Statistics(stats));
+		Collections.sort(sorted, Statistics.BY_DESCENDING_TOTAL_TIME);
+		Map<String, Statistics> snapshot = new LinkedHashMap<String, Statistics>();
+		for(Statistics stats : sorted)
+			snapshot.put(stats.name, stats);
+		return snapshot;
+	}
+	
+	/**
+	 * @return snapshot of the transaction duration statistics (rows are always 0)
+	 */
+	public synchronized Statistics getTransactionStatistics()
+	{
+		return new Statistics(transactionStats);
+	}
+	
+	/**
+	 * @return the number of transactions which were rolled back rather than committed
+	 */
+	public synchronized long getRolledBackTransactionCount()
+	{
+		return rolledBackTransactions;
+	}
+	
+	/**
+	 * @return the slow query log, oldest entry first
+	 */
+	public synchronized List<SlowQuery> getSlowQueries()
+	{
+		return new ArrayList<SlowQuery>(slowQueries);
+	}
+	
+	/**
+	 * @return the slowQueryThreshold in ms
+	 */
+	public synchronized long getSlowQueryThresholdMS()
+	{
+		return slowQueryThresholdNanos / 1000000;
+	}
+	
+	/**
+	 * @param slowQueryThresholdMS the slowQueryThreshold to set in ms
+	 */
+	public synchronized void setSlowQueryThresholdMS(long slowQueryThresholdMS)
+	{
+		if(slowQueryThresholdMS < 0)
+			throw new IllegalArgumentException("Slow query threshold cannot be negative");
+		this.slowQueryThresholdNanos = slowQueryThresholdMS * 1000000;
+	}
+	
+	/**
+	 * @param dumpIntervalMS minimum time (in ms) between periodic dumps, 0 disables them (the default)
+	 */
+	public synchronized void setDumpInterval(long dumpIntervalMS)
+	{
+		if(dumpIntervalMS < 0)
+			throw new IllegalArgumentException("Dump interval cannot be negative");
+		this.dumpIntervalMS = dumpIntervalMS;
+		this.lastDumpMS = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Checks whether a periodic dump is due, if so the interval starts over.
+	 * 
+	 * @return whether or not a periodic dump is due
+	 */
+	public synchronized boolean isDumpDue()
+	{
+		if(dumpIntervalMS == 0)
+			return false;
+		long now = System.currentTimeMillis();
+		if(now - lastDumpMS < dumpIntervalMS)
+			return false;
+		lastDumpMS = now;
+		return true;
+	}
+	
+	/**
+	 * Forgets all statistics and the slow query log.
+	 */
+	public synchronized void reset()
+	{
+		statementStats.clear();
+		tableStats.clear();
+		transactionStats.clear();
+		rolledBackTransactions = 0;
+		slowQueries.clear();
+	}
+	
+	/**
+	 * @return a textual report of all statistics
+	 */
+	public synchronized String dump()
+	{
+		StringBuilder bldr = new StringBuilder("Query metrics:");
+		bldr.append("\n Transactions: ").append(transactionStats.toTimingString()).append("; rolled back: ").append(rolledBackTransactions);
+		bldr.append("\n Tables:");
+		for(Statistics stats : getTableStatistics().values())
+			bldr.append("\n  - ").append(stats);
+		bldr.append("\n Statements:");
+		for(StatementStatistics stats : getStatementStatistics())
+			bldr.append("\n  - ").append(stats);
+		bldr.append("\n Slow queries (>= ").append(getSlowQueryThresholdMS()).append(" ms): ").append(slowQueries.size());
+		for(SlowQuery slowQuery : slowQueries)
+			bldr.append("\n  - ").append(slowQuery.toString().replace("\n", "\n    "));
+		return bldr.toString();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return dump();
+	}
+	
+	/**
+	 * Execution statistics of a table or statement shape.
+	 * 
+	 * @author mstevens
+	 */
+	static public class Statistics
+	{
+		
+		static private final Comparator<Statistics> BY_DESCENDING_TOTAL_TIME = new Comparator<Statistics>()
+		{
+			@Override
+			public int compare(Statistics lhs, Statistics rhs)
+			{
+				return lhs.totalNanos < rhs.totalNanos ? 1 : (lhs.totalNanos == rhs.totalNanos ? 0 : -1);
+			}
+		};
+		
+		protected final String name;
+		private long count;
+		private long totalNanos;
+		private long maxNanos;
+		private long rows;
+		private final long[] histogram;
+		
+		private Statistics(String name)
+		{
+			this.name = name;
+			this.histogram = new long[HISTOGRAM_BUCKETS];
+		}
+		
+		/**
+		 * Copy constructor
+		 * 
+		 * @param other
+		 */
+		private Statistics(Statistics other)
+		{
+			this.name = other.name;
+			this.count = other.count;
+			this.totalNanos = other.totalNanos;
+			this.maxNanos = other.maxNanos;
+			this.rows = other.rows;
+			this.histogram = other.histogram.clone();
+		}
+		
+		void record(long nanos, int rows)
+		{
+			count++;
+			totalNanos += nanos;
+			if(nanos > maxNanos)
+				maxNanos = nanos;
+			this.rows += rows;
+			histogram[getBucket(nanos)]++;
+		}
+		
+		void clear()
+		{
+			count = 0;
+			totalNanos = 0;
+			maxNanos = 0;
+			rows = 0;
+			for(int b = 0; b < HISTOGRAM_BUCKETS; b++)
+				histogram[b] = 0;
+		}
+		
+		/**
+		 * @return the name of the table (or the SQL of the statement)
+		 */
+		public String getName()
+		{
+			return name;
+		}
+		
+		/**
+		 * @return the number of executions
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+		
+		public double getTotalTimeMS()
+		{
+			return toMS(totalNanos);
+		}
+		
+		public double getMeanTimeMS()
+		{
+			return count == 0 ? 0 : toMS(totalNanos) / count;
+		}
+		
+		public double getMaxTimeMS()
+		{
+			return toMS(maxNanos);
+		}
+		
+		/**
+		 * Returns an upper bound for the given percentile of the execution times, based on the histogram.
+		 * Because the histogram buckets are powers of 2 the returned value may be up to twice the actual percentile,
+		 * but it never exceeds the maximum.
+		 * 
+		 * @param percentile between 0 and 100
+		 * @return the percentile in ms
+		 */
+		public double getPercentileTimeMS(double percentile)
+		{
+			if(count == 0)
+				return 0;
+			long rank = (long) Math.ceil(count * percentile / 100d);
+			long seen = 0;
+			for(int b = 0; b < HISTOGRAM_BUCKETS; b++)
+			{
+				seen += histogram[b];
+				if(seen >= rank && seen > 0)
+					return Math.min((1L << b) / 1000d, toMS(maxNanos));
+			}
+			return toMS(maxNanos);
+		}
+		
+		/**
+		 * @return the total number of rows returned (SELECTs) or affected (other statements)
+		 */
+		public long getRows()
+		{
+			return rows;
+		}
+		
+		/**
+		 * @return a copy of the latency histogram, see {@link QueryMetrics#HISTOGRAM_BUCKETS}
+		 */
+		public long[] getHistogram()
+		{
+			return histogram.clone();
+		}
+		
+		protected String toTimingString()
+		{
+			return String.format("count: %d; total: %.3f ms; mean: %.3f ms; p50: %.3f ms; p95: %.3f ms; p99: %.3f ms; max: %.3f ms",
+								 count, getTotalTimeMS(), getMeanTimeMS(), getPercentileTimeMS(50), getPercentileTimeMS(95), getPercentileTimeMS(99), getMaxTimeMS());
+		}
+		
+		@Override
+		public String toString()
+		{
+			return name + " [" + toTimingString() + "; rows: " + rows + "]";
+		}
+		
+	}
+	
+	/**
+	 * Execution statistics of a statement shape.
+	 * 
+	 * @author mstevens
+	 */
+	static public class StatementStatistics extends Statistics
+	{
+		
+		private final String table;
+		private long prepared;
+		private long reused;
+		
+		private StatementStatistics(String sql)
+		{
+			super(sql);
+			this.table = getTableName(sql);
+		}
+		
+		/**
+		 * Copy constructor
+		 * 
+		 * @param other
+		 */
+		private StatementStatistics(StatementStatistics other)
+		{
+			super(other);
+			this.table = other.table;
+			this.prepared = other.prepared;
+			this.reused = other.reused;
+		}
+		
+		/**
+		 * @return the parameterised SQL
+		 */
+		public String getSQL()
+		{
+			return name;
+		}
+		
+		/**
+		 * @return the table
+		 */
+		public String getTable()
+		{
+			return table;
+		}
+		
+		/**
+		 * @return the number of times the statement was compiled
+		 */
+		public long getPreparedCount()
+		{
+			return prepared;
+		}
+		
+		/**
+		 * @return the number of times a compiled statement was reused
+		 */
+		public long getReusedCount()
+		{
+			return reused;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return name + " [" + toTimingString() + "; rows: " + getRows() + "; prepared: " + prepared + "; reused: " + reused + "]";
+		}
+		
+	}
+	
+	/**
+	 * An entry in the slow query log.
+	 * 
+	 * @author mstevens
+	 */
+	static public class SlowQuery
+	{
+		
+		private final long timestamp;
+		private final String sql;
+		private final long nanos;
+		private final int rows;
+		private final List<String> queryPlan;
+		
+		private SlowQuery(long timestamp, String sql, long nanos, int rows, List<String> queryPlan)
+		{
+			this.timestamp = timestamp;
+			this.sql = sql;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.queryPlan = queryPlan != null ? Collections.unmodifiableList(new ArrayList<String>(queryPlan)) : null;
+		}
+		
+		/**
+		 * @return the time at which the execution ended (ms since the epoch)
+		 */
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+		
+		/**
+		 * @return the parameterised SQL
+		 */
+		public String getSQL()
+		{
+			return sql;
+		}
+		
+		public double getTimeMS()
+		{
+			return toMS(nanos);
+		}
+		
+		/**
+		 * @return the number of rows returned (SELECTs) or affected (other statements)
+		 */
+		public int getRows()
+		{
+			return rows;
+		}
+		
+		/**
+		 * @return the query plan, one step per line, or {@code null} if it is unknown
+		 */
+		public List<String> getQueryPlan()
+		{
+			return queryPlan;
+		}
+		
+		@Override
+		public String toString()
+		{
+			StringBuilder bldr = new StringBuilder(String.format("Slow query (%.3f ms, %d rows) at %s: %s", getTimeMS(), rows, TimeUtils.getISOTimestamp(timestamp, false), sql));
+			if(queryPlan != null)
+				for(String step : queryPlan)
+					bldr.append("\n  Plan: ").append(step);
+			return bldr.toString();
+		}
+		
+	}
+
+}
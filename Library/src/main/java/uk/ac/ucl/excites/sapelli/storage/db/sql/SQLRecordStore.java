@@ -19,23 +19,29 @@
 package uk.ac.ucl.excites.sapelli.storage.db.sql;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
 import uk.ac.ucl.excites.sapelli.shared.util.CollectionUtils;
+import uk.ac.ucl.excites.sapelli.shared.util.ExceptionHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.shared.util.TransactionalStringBuilder;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient.RecordOperation;
+import uk.ac.ucl.excites.sapelli.storage.db.RecordCursor;
 import uk.ac.ucl.excites.sapelli.storage.db.RecordStore;
 import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBConstraintException;
 import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBPrimaryKeyException;
@@ -53,8 +59,10 @@ import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.VirtualColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanListColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.ByteArrayListColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.ForeignKeyColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerListColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.StringListColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.Index;
 import uk.ac.ucl.excites.sapelli.storage.queries.ExtremeValueRecordQuery;
@@ -64,22 +72,30 @@ import uk.ac.ucl.excites.sapelli.storage.queries.Query;
 import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
 import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery;
 import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery.Executor;
+import uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery.Projection;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.AndConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.BitFlagConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.CompositeConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.DummyConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.EqualityConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.ListContainsConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.ListSizeConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.NotConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.OrConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint.Comparison;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.TextMatchConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.WithinDistanceConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.SourceByFlags;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.SourceBySchemata;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.SourceResolver;
 import uk.ac.ucl.excites.sapelli.storage.types.LineColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.Location;
 import uk.ac.ucl.excites.sapelli.storage.types.LocationColumn;
 import uk.ac.ucl.excites.sapelli.storage.types.OrientationColumn;
 import uk.ac.ucl.excites.sapelli.storage.types.PolygonColumn;
@@ -136,6 +152,12 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	 */
 	private final Map<RecordReference, STable> tables;
 	
+	/**
+	 * Identity-based front cache for {@link #tables}, avoids having to construct (and hash) a schema meta record reference on every lookup.
+	 * Entries are forgotten whenever tables are removed from {@link #tables}.
+	 */
+	private final Map<Schema, STable> tablesBySchema;
+	
 	/**
 	 * If non-null (all) SQL statements/queries will use parameters instead of literal values
 	 */
@@ -146,6 +168,21 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	 */
 	private final Set<String> protectedTables = new HashSet<String>();
 	
+	/**
+	 * Collects statement execution statistics if non-null
+	 */
+	private volatile QueryMetrics queryMetrics;
+	
+	/**
+	 * Observes the query workload if non-null
+	 */
+	private volatile IndexAdvisor indexAdvisor;
+	
+	/**
+	 * Auxiliary indexes (see {@link IndexAdvisor}) by (unsanitised) table name, loaded upon initialisation
+	 */
+	private final Map<String, List<IndexAdvisor.AuxiliaryIndex>> auxiliaryIndexes = new HashMap<String, List<IndexAdvisor.AuxiliaryIndex>>();
+	
 	/**
 	 * @param client
 	 * @param valuePlaceHolder - may be null if no parameters are to be used on (all) SQL statements/queries (only literal values)
@@ -154,6 +191,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	{
 		super(client, true); // make use of roll-back tasks
 		this.tables = new HashMap<RecordReference, STable>();
+		this.tablesBySchema = new IdentityHashMap<Schema, STable>();
 		this.valuePlaceHolder = valuePlaceHolder;
 	}
 	
@@ -243,6 +281,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			else
 				// Set version on new database:
 				setVersion(initArgs.targetVersion);
+			
+			// Load auxiliary indexes & recreate any which were lost (e.g. during an upgrade):
+			restoreAuxiliaryIndexes();
 		}
 		catch(DBException e)
 		{
@@ -283,6 +324,242 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		return super.isStorable(record, isInitialising()); // allow storing of meta records only during initialisation/upgrade
 	}
 	
+	/**
+	 * @return the QueryMetrics instance which collects statistics about the statements executed by this store, or {@code null} if none are being collected
+	 */
+	public QueryMetrics getQueryMetrics()
+	{
+		return queryMetrics;
+	}
+	
+	/**
+	 * Starts (or stops) the collection of statistics about the statements executed by this store.
+	 * Any compiled statements are released, such that all statements are measured from now on (or no longer are).
+	 * 
+	 * @param queryMetrics the QueryMetrics instance to record statistics in, or {@code null} to stop collecting (the default)
+	 */
+	public synchronized void setQueryMetrics(QueryMetrics queryMetrics)
+	{
+		this.queryMetrics = queryMetrics;
+		release();
+	}
+	
+	/**
+	 * Records an execution of a statement in the given QueryMetrics instance. If the execution was slow its query plan is
+	 * captured (see {@link #explainQueryPlan(String)}) and it is added to the slow query log. Also logs the periodic dump if it is due.
+	 * 
+	 * @param metrics
+	 * @param sql
+	 * @param nanos
+	 * @param rows
+	 */
+	protected void recordExecution(QueryMetrics metrics, String sql, long nanos, int rows)
+	{
+		if(metrics.statementExecuted(sql, nanos, rows))
+		{
+			List<String> queryPlan = null;
+			if(QueryMetrics.isSelect(sql))
+				try
+				{
+					queryPlan = explainQueryPlan(sql);
+				}
+				catch(Exception e)
+				{
+					queryPlan = Collections.singletonList("Failed to explain query plan: " + ExceptionHelpers.getMessageAndCause(e));
+				}
+			client.logWarning(metrics.slowQuery(sql, nanos, rows, queryPlan).toString());
+		}
+		if(metrics.isDumpDue())
+			client.logInfo(metrics.dump());
+	}
+	
+	/**
+	 * Explains how the given query is (or would be) executed, e.g. which indexes are used.
+	 * Parameters in the query are left unbound. The default implementation returns {@code null}, meaning unsupported.
+	 * 
+	 * @param sql a SELECT query
+	 * @return the steps of the query plan, or {@code null} if unsupported
+	 * @throws DBException
+	 */
+	protected List<String> explainQueryPlan(String sql) throws DBException
+	{
+		return null;
+	}
+	
+	/**
+	 * @return the index advisor which observes the query workload, or {@code null} if it is disabled
+	 */
+	public IndexAdvisor getIndexAdvisor()
+	{
+		return indexAdvisor;
+	}
+	
+	/**
+	 * Enables or disables the index advisor. Disabling it discards the access patterns observed so far,
+	 * but auxiliary indexes which were created on its recommendation are kept.
+	 * 
+	 * @param enabled
+	 */
+	public synchronized void setIndexAdvisorEnabled(boolean enabled)
+	{
+		if(enabled && indexAdvisor == null)
+			indexAdvisor = new IndexAdvisor(this);
+		else if(!enabled)
+			indexAdvisor = null;
+	}
+	
+	/**
+	 * Counts the distinct value combinations of the given columns of the table of the given schema.
+	 * The default implementation returns -1, meaning unknown.
+	 * 
+	 * @param schema
+	 * @param sanitisedColumnNames
+	 * @return the number of distinct value combinations, or -1 if unknown
+	 * @throws DBException
+	 */
+	protected long countDistinctValues(Schema schema, List<String> sanitisedColumnNames) throws DBException
+	{
+		return -1;
+	}
+	
+	/**
+	 * @return all auxiliary indexes
+	 */
+	protected synchronized List<IndexAdvisor.AuxiliaryIndex> getAuxiliaryIndexes()
+	{
+		List<IndexAdvisor.AuxiliaryIndex> all = new ArrayList<IndexAdvisor.AuxiliaryIndex>();
+		for(List<IndexAdvisor.AuxiliaryIndex> indexes : auxiliaryIndexes.values())
+			all.addAll(indexes);
+		return all;
+	}
+	
+	/**
+	 * Creates an auxiliary index on the given columns of the table of the given schema, and tracks it in the side table.
+	 * If there already is an auxiliary index on the same columns (in the same order) that index is returned instead.
+	 * 
+	 * @param schema
+	 * @param sanitisedColumnNames
+	 * @return the new (or existing) index
+	 * @throws DBException
+	 */
+	protected synchronized IndexAdvisor.AuxiliaryIndex createAuxiliaryIndex(Schema schema, List<String> sanitisedColumnNames) throws DBException
+	{
+		if(!doesTableExist(schema))
+			throw new DBException("Cannot index table " + schema.tableName + " because it does not exist");
+		StringBuilder name = new StringBuilder(schema.tableName).append("_aux");
+		for(String column : sanitisedColumnNames)
+			name.append('_').append(column.replaceAll("[^0-9A-Za-z_]", ""));
+		for(IndexAdvisor.AuxiliaryIndex existing : getAuxiliaryIndexes(schema.tableName))
+		{
+			if(existing.getColumns().equals(sanitisedColumnNames))
+				return existing;
+			if(existing.name.equals(name.toString()))
+				throw new DBException("Cannot create auxiliary index on " + schema.tableName + " because its name is taken by: " + existing);
+		}
+		IndexAdvisor.AuxiliaryIndex index = new IndexAdvisor.AuxiliaryIndex(name.toString(), schema.tableName, new ArrayList<String>(sanitisedColumnNames));
+		startTransaction();
+		try
+		{
+			executeSQL(generateCreateAuxiliaryIndexStatement(index));
+			store(RecordStore.AUXILIARY_INDEX_SCHEMA.createRecord(index.name, index.tableName, index.getColumnsString()));
+			commitTransaction();
+		}
+		catch(DBException e)
+		{
+			rollbackTransactions();
+			throw e;
+		}
+		getAuxiliaryIndexes(index.tableName).add(index);
+		return index;
+	}
+	
+	/**
+	 * Drops the given auxiliary index and removes it from the side table.
+	 * 
+	 * @param index
+	 * @throws DBException
+	 */
+	protected synchronized void dropAuxiliaryIndex(IndexAdvisor.AuxiliaryIndex index) throws DBException
+	{
+		startTransaction();
+		try
+		{
+			executeSQL(String.format("DROP INDEX IF EXISTS %s;", sanitiseIdentifier(index.name)));
+			delete(RecordStore.AUXILIARY_INDEX_SCHEMA.createRecordReference((Object) index.name));
+			commitTransaction();
+		}
+		catch(DBException e)
+		{
+			rollbackTransactions();
+			throw e;
+		}
+		getAuxiliaryIndexes(index.tableName).remove(index);
+	}
+	
+	private List<IndexAdvisor.AuxiliaryIndex> getAuxiliaryIndexes(String unsanitisedTableName)
+	{
+		List<IndexAdvisor.AuxiliaryIndex> indexes = auxiliaryIndexes.get(unsanitisedTableName);
+		if(indexes == null)
+		{
+			indexes = new ArrayList<IndexAdvisor.AuxiliaryIndex>();
+			auxiliaryIndexes.put(unsanitisedTableName, indexes);
+		}
+		return indexes;
+	}
+	
+	/**
+	 * @param index
+	 * @return sql statement to create the auxiliary index (unless it exists)
+	 */
+	protected String generateCreateAuxiliaryIndexStatement(IndexAdvisor.AuxiliaryIndex index)
+	{
+		return String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s);", sanitiseIdentifier(index.name), sanitiseIdentifier(index.tableName), index.getColumnsString());
+	}
+	
+	/**
+	 * Loads the auxiliary indexes from the side table and recreates those which are missing from existing tables.
+	 * Indexes which can no longer be created (e.g. because the columns have changed) are forgotten.
+	 * 
+	 * @throws DBException
+	 */
+	private void restoreAuxiliaryIndexes() throws DBException
+	{
+		auxiliaryIndexes.clear();
+		if(!doesTableExist(RecordStore.AUXILIARY_INDEX_SCHEMA))
+			return;
+		for(Record record : retrieveRecords(RecordStore.AUXILIARY_INDEX_SCHEMA))
+		{
+			IndexAdvisor.AuxiliaryIndex index = new IndexAdvisor.AuxiliaryIndex(
+				RecordStore.AUXILIARY_INDEX_COLUMN_NAME.retrieveValue(record),
+				RecordStore.AUXILIARY_INDEX_COLUMN_TABLE_NAME.retrieveValue(record),
+				Arrays.asList(RecordStore.AUXILIARY_INDEX_COLUMN_COLUMNS.retrieveValue(record).split(", ")));
+			if(!doesTableExist(index.tableName) || restoreAuxiliaryIndex(index))
+				getAuxiliaryIndexes(index.tableName).add(index); // tables which do not exist (yet) get the index when they are created
+			else
+				delete(record);
+		}
+	}
+	
+	/**
+	 * Creates the given auxiliary index unless it exists.
+	 * 
+	 * @param index
+	 * @return whether or not the index exists now
+	 */
+	private boolean restoreAuxiliaryIndex(IndexAdvisor.AuxiliaryIndex index)
+	{
+		try
+		{
+			executeSQL(generateCreateAuxiliaryIndexStatement(index));
+			return true;
+		}
+		catch(DBException e)
+		{
+			client.logWarning("Could not restore " + index + ": " + ExceptionHelpers.getMessageAndCause(e));
+			return false;
+		}
+	}
+	
 	protected abstract void executeSQL(String sql) throws DBException;
 	
 	protected abstract int executeSQLReturnAffectedRows(String sql) throws DBException;
@@ -308,6 +585,19 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	 */
 	protected abstract boolean doesTableExist(String unsanitisedTableName);
 
+	/**
+	 * Whether or not the current thread accesses the database through a read-only connection (e.g. one of a pool of
+	 * concurrent readers) which may see an older snapshot of the database than the connection used for writing.
+	 * Information obtained that way must not be cached in shared state (e.g. whether or not a table exists), nor can
+	 * such threads rely on information cached by the writing thread (e.g. about a table created in an open transaction).
+	 * 
+	 * @return whether the current thread reads from a snapshot, default is {@code false}
+	 */
+	protected boolean isReadingFromSnapshot()
+	{
+		return false;
+	}
+
 	/**
 	 * @param schema
 	 * @param createWhenNotInDB
@@ -345,18 +635,24 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				table = schemataTable; // may still be null if getTable() was called from initialise()
 		}
 		else
-		{
-			schemaMetaRecordRef = schema.getMetaRecordReference(); // get reference to schemaMetaRecord
-			table = tables.get(schemaMetaRecordRef); // lookup in tables cache
-		}
+			synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
+			{
+				if((table = tablesBySchema.get(schema)) == null) // lookup in identity cache first
+				{
+					schemaMetaRecordRef = schema.getMetaRecordReference(); // get reference to schemaMetaRecord
+					table = tables.get(schemaMetaRecordRef); // lookup in tables cache
+					if(table == null)
+					{	// Not found, generate new SQLTable object for the Schema:
+						table = getTableFactory().generateTable(schema);
+						tables.put(schemaMetaRecordRef, table); // the "tables" map is only for tables of "real" (non-meta) schemata!
+					}
+					tablesBySchema.put(schema, table);
+				}
+			}
 		
-		// If not found, generate new SQLTable object for the Schema:
+		// If not found, generate new SQLTable object for the (meta) Schema:
 		if(table == null)
-		{
 			table = getTableFactory().generateTable(schema);
-			if(!Model.META_MODEL.contains(schema)) // the "tables" map is only for tables of "real" (non-meta) schemata!
-				tables.put(schemaMetaRecordRef, table);
-		}
 		
 		// If requested then create the actual table in the database if it is not there:
 		if(createWhenNotInDB && !table.isInDB())
@@ -399,18 +695,25 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		if(loggingEnabled)
 			client.logInfo(getClass().getSimpleName() + ": cleaning up...");
 		
+		// Take a copy of the tables map (the db is queried below, which we don't want to do while holding its lock):
+		Map<RecordReference, STable> tablesCopy;
+		synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
+		{
+			tablesCopy = new HashMap<RecordReference, STable>(tables);
+		}
+		
 		// Find empty tables & release all table resources:
 		List<Map.Entry<RecordReference, STable>> emptyTables = null;
-		for(Iterator<Map.Entry<RecordReference, STable>> tablesIt = tables.entrySet().iterator(); tablesIt.hasNext();)
+		List<RecordReference> forgottenTables = new ArrayList<RecordReference>();
+		for(Map.Entry<RecordReference, STable> tableEntry : tablesCopy.entrySet())
 		{
-			Map.Entry<RecordReference, STable> tableEntry = tablesIt.next();
 			STable table = tableEntry.getValue();
 			try
 			{
 				// Check if this table exists in the db:
 				if(!table.isInDB(true)) // true: really check against db
 				{	// The table doesn't exist in the db, so forget about it:
-					tablesIt.remove(); // removes entry from tables map
+					forgottenTables.add(tableEntry.getKey());
 				}
 				// When the table does exist, check if table if it is empty:
 				else if(table.isEmpty())
@@ -420,7 +723,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 						emptyTables = new ArrayList<Map.Entry<RecordReference, STable>>();
 					emptyTables.add(tableEntry);
 					// we can already remove its entry from tables map
-					tablesIt.remove();
+					forgottenTables.add(tableEntry.getKey());
 				}
 				// Release table resources:
 				table.release();
@@ -432,6 +735,13 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			}
 		}
 		
+		// Remove the entries of missing & empty tables from the tables map:
+		synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
+		{
+			tablesBySchema.clear();
+			tables.keySet().removeAll(forgottenTables);
+		}
+		
 		// Release resources on "system tables":
 		schemataTable.release();
 		modelsTable.release();
@@ -571,7 +881,11 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			{
 				Schema schema;
 				// First consult the tables cache:
-				STable table = tables.get(schemaMetaRecord);
+				STable table;
+				synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
+				{
+					table = tables.get(schemaMetaRecord);
+				}
 				if(table != null)
 				{	// Got table corresponding to schemaMetaRecord, get Schema object from it 
 					schema = table.schema;
@@ -643,6 +957,42 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		return getTable(record.getSchema(), true).store(record, true); // getTable() will create table in db if it is not there
 	}
 	
+	/**
+	 * Records are grouped per schema and handed to the corresponding table in one go.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#doStore(java.util.List, uk.ac.ucl.excites.sapelli.storage.db.RecordStore.BulkMode)
+	 */
+	@Override
+	protected Boolean[] doStore(List<Record> records, BulkMode mode) throws DBPrimaryKeyException, DBConstraintException, DBException, IllegalStateException
+	{
+		// Group record positions per schema (in order of first appearance):
+		Map<Schema, List<Integer>> positionsBySchema = new LinkedHashMap<Schema, List<Integer>>();
+		int r = 0;
+		for(Record record : records)
+		{
+			List<Integer> positions = positionsBySchema.get(record.getSchema());
+			if(positions == null)
+				positionsBySchema.put(record.getSchema(), positions = new ArrayList<Integer>());
+			positions.add(r++);
+		}
+		// Single schema (the common case):
+		if(positionsBySchema.size() == 1)
+			return getTable(records.get(0).getSchema(), true).store(records, mode); // getTable() will create table in db if it is not there
+		// Several schemata:
+		Boolean[] results = new Boolean[records.size()];
+		for(Map.Entry<Schema, List<Integer>> entry : positionsBySchema.entrySet())
+		{
+			List<Record> schemaRecords = new ArrayList<Record>(entry.getValue().size());
+			for(Integer position : entry.getValue())
+				schemaRecords.add(records.get(position));
+			Boolean[] schemaResults = getTable(entry.getKey(), true).store(schemaRecords, mode); // getTable() will create table in db if it is not there
+			r = 0;
+			for(Integer position : entry.getValue())
+				results[position] = schemaResults[r++];
+		}
+		return results;
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#doInsert(uk.ac.ucl.excites.sapelli.storage.model.Record)
 	 */
@@ -676,8 +1026,35 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	public void delete(RecordReference recordRef) throws DBException
 	{
 		STable table = getTable(recordRef.getReferencedSchema(), false); // no need to create the table in the db if it isn't there!
-		if(table.isInDB() && table.delete(recordRef))
-			client.storageEvent(RecordOperation.Deleted, recordRef, this); // inform client
+		if(!table.isInDB())
+			return;
+		boolean logChange = isChangeLogged(recordRef.getReferencedSchema());
+		boolean deleted;
+		try
+		{
+			if(logChange)
+				startTransaction(); // the change must be logged in the same transaction
+			deleted = table.delete(recordRef);
+			if(logChange)
+			{
+				if(deleted)
+					logChanges(RecordOperation.Deleted, Collections.singletonList(recordRef));
+				commitTransaction();
+			}
+		}
+		catch(DBException e)
+		{
+			rollbackTransactions(); // !!!
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			if(logChange)
+				rollbackTransactions(); // don't leave the transaction we started open
+			throw e;
+		}
+		if(deleted)
+			storageEvent(RecordOperation.Deleted, recordRef); // inform client
 	}
 	
 	/**
@@ -701,10 +1078,24 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 					// Efficient but does not allow to report which records were deleted:
 					table.delete(query);
 				else
-				{	// Less efficient, but allows to inform client:
-					for(RecordReference recordRef : retrieveRecordReferences(new RecordsQuery(schema, query.getConstraints())))
-						if(table.delete(recordRef))
-							client.storageEvent(RecordOperation.Deleted, recordRef, this); // inform client
+				{	// Less efficient, but allows to inform client (and log the changes):
+					List<RecordReference> deleted = new ArrayList<RecordReference>();
+					startTransaction();
+					try
+					{
+						for(RecordReference recordRef : retrieveRecordReferences(new RecordsQuery(schema, query.getConstraints())))
+							if(table.delete(recordRef))
+								deleted.add(recordRef);
+						logChanges(RecordOperation.Deleted, deleted);
+					}
+					catch(DBException e)
+					{
+						rollbackTransactions();
+						throw e;
+					}
+					commitTransaction();
+					for(RecordReference recordRef : deleted)
+						storageEvent(RecordOperation.Deleted, recordRef); // inform client
 				}
 			}
 			catch(DBException dbE)
@@ -714,6 +1105,25 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		}
 	}
 	
+	/**
+	 * Deletes all the entries in a single "DELETE ... WHERE [sequence] IN (...)" statement.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#deleteChangeLogEntries(java.util.List)
+	 */
+	@Override
+	protected void deleteChangeLogEntries(List<Long> sequences) throws DBException
+	{
+		STable table = getTable(CHANGE_LOG_SCHEMA, false);
+		if(sequences.isEmpty() || !table.isInDB())
+			return;
+		StringBuilder bldr = new StringBuilder("DELETE FROM ");
+		bldr.append(table.sanitisedName).append(" WHERE ").append(table.getSQLColumn(CHANGE_LOG_COLUMN_SEQUENCE).sanitisedName).append(" IN (");
+		for(int s = 0; s < sequences.size(); s++)
+			bldr.append(s == 0 ? "" : ", ").append(sequences.get(s).longValue());
+		bldr.append(");");
+		executeSQL(bldr.toString());
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecords(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
 	 */
@@ -723,15 +1133,12 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		// Get schemata:
 		Collection<Schema> schemata = getSchemata(query.getSource());
 		
-		// Retrieve records:
-		List<Record> records = retrieveRecordValueSets(query, schemata, recordSelectRunner);
-		
-		// Apply cross-schema sorting if needed:
+		// Cross-schema ordering requires merging:
 		if(query.isOrdered() && schemata.size() > 1)
-			query.getOrder().sort(records);
+			return retrieveMergedRecords(query, schemata);
 		
-		// Return result:
-		return records;
+		// Retrieve records:
+		return retrieveRecordValueSets(query, schemata, recordSelectRunner);
 	}
 	
 	/* (non-Javadoc)
@@ -746,9 +1153,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		// Check if cross-schema sorting is needed:
 		if(query.isOrdered() && schemata.size() > 1)
 		{	// if we need cross-schema ordering we need to query for records first because the ordering may apply to non-PK columns
-			List<Record> records = retrieveRecordValueSets(query, schemata, recordSelectRunner);
-			// Apply cross-schema sorting:
-			query.getOrder().sort(records);
+			List<Record> records = retrieveMergedRecords(query, schemata);
 			// Get & return references:
 			List<RecordReference> recordRefs = new ArrayList<RecordReference>(records.size());
 			for(Record r : records)
@@ -760,89 +1165,427 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	}
 	
 	/**
-	 * @author mstevens
-	 *
-	 * @param <R>
+	 * Counts are obtained using SELECT COUNT(*) queries on each table.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecordCount(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
 	 */
-	private interface SelectRunner<R extends RecordValueSet<?>, STable>
-	{
-		
-		public List<R> run(STable table, RecordsQuery query) throws DBException;
-		
-	}
-	
-	private <R extends RecordValueSet<?>> List<R> retrieveRecordValueSets(RecordsQuery query, Collection<Schema> schemata, SelectRunner<R, STable> selectRunner)
+	@Override
+	public long retrieveRecordCount(RecordsQuery query)
 	{
-		List<R> resultAcc = null;
-		// Run subqueries for each schema in the query, or all known schemata (if the query is for "any" schema):
-		for(Schema s : schemata)
+		long count = 0;
+		for(Schema s : getSchemata(query.getSource()))
 		{
 			try
 			{
 				STable table = getTable(s, false);
 				if(!table.isInDB())
-					continue; // table does no exist in DB, so there are no records to retrieve
-				List<R> subResult = selectRunner.run(table, query);
-				if(!subResult.isEmpty())
-				{
-					if(resultAcc == null)
-						resultAcc = new ArrayList<R>(subResult.size());
-					resultAcc.addAll(subResult);
-				}
+					continue; // table does no exist in DB, so there are no records to count
+				count += table.getRecordCount(query);
 			}
 			catch(DBException dbE)
 			{
-				client.logError("Error in retrieveRecordValueSets()", dbE);
+				client.logError("Error in retrieveRecordCount()", dbE);
 			}
 		}
-		return resultAcc != null ? resultAcc : Collections.<R> emptyList();
+		return query.isLimited() ? Math.min(count, query.getLimit()) : count;
 	}
-
-	/* (non-Javadoc)
-	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecord(uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery)
+	
+	/**
+	 * Projections, aggregates and grouping are computed by SELECT queries on each table, of which the resulting (partial)
+	 * rows are then combined (see {@link ValueQuery#combine(List)}). Only plain (non-distinct, non-aggregating) queries
+	 * which are ordered and span multiple schemata are executed in memory, on the matching records.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveValues(uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery)
 	 */
 	@Override
-	public Record retrieveRecord(SingleRecordQuery query)
+	public List<Object[]> retrieveValues(ValueQuery query)
 	{
-		List<Record> candidates = null;
-		// Run subqueries for each schema in the query, or all known schemata (if the query is for "any" schema):
-		RecordsQuery recsQuery = query.getRecordsQuery();
-		for(Schema s : getSchemata(recsQuery.getSource()))
+		// Get schemata:
+		Collection<Schema> schemata = getSchemata(query.getSource());
+		
+		// Plain, ordered, multi-schema query (the order cannot be guaranteed by merely combining per-table results):
+		if(query.isPlain() && query.isOrdered() && schemata.size() > 1)
+			return super.retrieveValues(query);
+		
+		// Collect (partial) rows from each table:
+		List<Object[]> partialRows = new ArrayList<Object[]>();
+		for(Schema s : schemata)
 		{
 			try
 			{
 				STable table = getTable(s, false);
 				if(!table.isInDB())
-					continue; // table does no exist in DB, so there are no records to retrieve
-				Record candidate = table.select(query);
-				if(candidate != null)
-				{
-					if(candidates == null)
-						candidates = new ArrayList<Record>();
-					candidates.add(candidate);
-				}
+					continue; // table does no exist in DB, so there are no values to select
+				partialRows.addAll(table.selectValues(query));
 			}
 			catch(DBException dbE)
 			{
-				client.logError("Error in retrieveRecord(SingleRecordQuery)", dbE);
+				client.logError("Error in retrieveValues()", dbE);
 			}
 		}
-		return query.execute(candidates, false); // reduce to 1 record (execute() will return null when passed a null list)
+		
+		// Combine:
+		return query.combine(partialRows);
 	}
 	
-	protected abstract String getNullString();
-	
-	protected abstract char getQuoteChar();
-	
-	protected abstract String getQuoteEscapeString();
-	
 	/**
-	 * Get subclasses may need to override this because some SQL dialects use != instead of <> (Note: SQLite supports both)
+	 * Retrieves the records resulting from a query which is ordered and spans multiple schemata, applying its order and limit across all of them.
 	 * 
-	 * @param comparison
-	 * @return
+	 * The ordered (and, if applicable, limited) query is run on each table and the resulting cursors are merged (see {@link MergingRecordCursor}),
+	 * so no more than the limit is read from any table. If a table turns out not to return its records in the order imposed by the query's
+	 * {@link Order} (e.g. due to differences between database collation and Java comparison) we fall back to retrieving all matching records
+	 * and sorting them in memory.
+	 * 
+	 * @param query
+	 * @param schemata
+	 * @return a {@link List} of {@link Record}s, possibly empty, never {@code null}
 	 */
-	protected String getComparisonOperator(RuleConstraint.Comparison comparison)
+	private List<Record> retrieveMergedRecords(RecordsQuery query, Collection<Schema> schemata)
+	{
+		MergingRecordCursor cursor = new MergingRecordCursor(query, schemata, true);
+		List<Record> records = new ArrayList<Record>(query.isLimited() ? query.getLimit() : 10);
+		try
+		{
+			for(Record record : cursor)
+				records.add(record);
+		}
+		finally
+		{
+			cursor.close();
+		}
+		if(!cursor.isOrderViolated())
+			return records;
+		
+		// Fall back to in-memory sorting:
+		records = retrieveRecordValueSets(new RecordsQuery(query.getSource(), query.getOrder(), query.getConstraints()) /*without limit*/, schemata, recordSelectRunner);
+		query.getOrder().sort(records);
+		return query.isLimited() && records.size() > query.getLimit() ? new ArrayList<Record>(records.subList(0, query.getLimit())) : records;
+	}
+	
+	/**
+	 * Records are streamed table by table, each table's cursor only being opened once the previous one is exhausted.
+	 * When cross-schema ordering is required the cursors of all tables are merged (see {@link MergingRecordCursor}).
+	 * In both cases the limit of the query (if any) is applied across all tables.
+	 * Errors are not skipped but reported by the cursor (see {@link RecordCursor#hasNext()}), such that callers never mistake a partial result for a complete one.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecordCursor(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery, boolean)
+	 */
+	@Override
+	public RecordCursor retrieveRecordCursor(final RecordsQuery query, final boolean reuseRecord)
+	{
+		// Get schemata:
+		Collection<Schema> schemata = getSchemata(query.getSource());
+		
+		// Cross-schema sorting requires merging:
+		if(query.isOrdered() && schemata.size() > 1)
+			return new MergingRecordCursor(query, schemata, false);
+		
+		// Chain the cursors of each table:
+		final Iterator<Schema> schemaIter = schemata.iterator();
+		return new RecordCursor()
+		{
+			private RecordCursor tableCursor;
+			private int count = 0;
+			
+			@Override
+			protected Record fetchNext() throws DBException
+			{
+				while(true)
+				{
+					if(query.isLimited() && count >= query.getLimit())
+						return null;
+					if(tableCursor != null && HasNext(tableCursor))
+					{
+						count++;
+						return tableCursor.next();
+					}
+					tableCursor = null; // exhausted (and therefore closed)
+					if(!schemaIter.hasNext())
+						return null;
+					STable table = getTable(schemaIter.next(), false);
+					if(table.isInDB()) // otherwise there are no records to retrieve
+						tableCursor = table.selectCursor(query, reuseRecord);
+				}
+			}
+			
+			@Override
+			protected void release()
+			{
+				if(tableCursor != null)
+					tableCursor.close();
+			}
+		};
+	}
+	
+	/**
+	 * @param cursor
+	 * @return whether or not the given cursor has a next record
+	 * @throws DBException when the next record could not be fetched
+	 */
+	static private boolean HasNext(RecordCursor cursor) throws DBException
+	{
+		try
+		{
+			return cursor.hasNext();
+		}
+		catch(IllegalStateException ise)
+		{
+			if(ise.getCause() instanceof DBException)
+				throw (DBException) ise.getCause();
+			throw ise;
+		}
+	}
+	
+	/**
+	 * {@link RecordCursor} which merges the (sorted) cursors obtained by running an ordered {@link RecordsQuery} on each of a number of tables,
+	 * returning records in the order imposed by the query's {@link Order} and applying its limit (if any) across all tables.
+	 * 
+	 * Only one record per table is held on to at any time. Tables which cannot be queried are either logged and skipped, or cause the cursor to
+	 * fail (see {@link RecordCursor#hasNext()}).
+	 * If a table cursor produces records which are out of order (according to the {@link Order}) this is recorded (see {@link #isOrderViolated()})
+	 * but the merge carries on, meaning the result order may be somewhat off.
+	 * 
+	 * @author mstevens
+	 */
+	private class MergingRecordCursor extends RecordCursor
+	{
+		
+		private final Order order;
+		private final int limit;
+		private final boolean skipFailingTables;
+		private final List<RecordCursor> tableCursors;
+		private final PriorityQueue<MergeHead> heads;
+		private MergeHead returnedHead;
+		private int count = 0;
+		private boolean orderViolated = false;
+		private DBException openingError;
+		
+		/**
+		 * @param query
+		 * @param schemata
+		 * @param skipFailingTables whether tables which cannot be queried are to be logged and skipped ({@code true}), or cause the cursor to fail ({@code false})
+		 */
+		public MergingRecordCursor(RecordsQuery query, Collection<Schema> schemata, boolean skipFailingTables)
+		{
+			this.order = query.getOrder();
+			this.limit = query.getLimit();
+			this.skipFailingTables = skipFailingTables;
+			this.tableCursors = new ArrayList<RecordCursor>(schemata.size());
+			this.heads = new PriorityQueue<MergeHead>(Math.max(1, schemata.size()), new Comparator<MergeHead>()
+			{
+				@Override
+				public int compare(MergeHead lhs, MergeHead rhs)
+				{
+					int comparison = order.compare(lhs.record, rhs.record);
+					return comparison != 0 ? comparison : Integer.valueOf(lhs.index).compareTo(rhs.index); // ties are resolved in schema order (Integer#compare(int, int) requires Android API level 19)
+				}
+			});
+			// Open table cursors & get their first records:
+			for(Schema s : schemata)
+			{
+				try
+				{
+					STable table = getTable(s, false);
+					if(!table.isInDB())
+						continue; // table does no exist in DB, so there are no records to retrieve
+					RecordCursor tableCursor = table.selectCursor(query, false); // records are held on to, so they cannot be reused
+					tableCursors.add(tableCursor);
+					advance(new MergeHead(tableCursor, tableCursors.size()));
+				}
+				catch(DBException dbE)
+				{
+					if(!skipFailingTables)
+					{
+						openingError = dbE; // reported upon the first fetch
+						return;
+					}
+					client.logError("Error in MergingRecordCursor()", dbE);
+				}
+			}
+		}
+		
+		/**
+		 * Moves the given head to the next record of its table cursor and (re)queues it, unless the cursor is exhausted.
+		 * 
+		 * @param head
+		 * @throws DBException when the next record could not be fetched and failing tables are not to be skipped
+		 */
+		private void advance(MergeHead head) throws DBException
+		{
+			try
+			{
+				if(!HasNext(head.cursor))
+					return; // (table cursor closes itself)
+			}
+			catch(DBException dbE)
+			{
+				if(!skipFailingTables)
+					throw dbE;
+				client.logError("Error in MergingRecordCursor.advance()", dbE);
+				return;
+			}
+			Record next = head.cursor.next();
+			if(head.record != null && order.compare(head.record, next) > 0)
+				orderViolated = true;
+			head.record = next;
+			heads.add(head);
+		}
+		
+		@Override
+		protected Record fetchNext() throws DBException
+		{
+			if(openingError != null)
+				throw openingError;
+			if(returnedHead != null)
+			{	// Move to the next record of the table cursor which produced the previously returned record:
+				MergeHead head = returnedHead;
+				returnedHead = null;
+				advance(head);
+			}
+			if((limit != RecordsQuery.NO_LIMIT && count >= limit) || heads.isEmpty())
+				return null;
+			count++;
+			returnedHead = heads.poll();
+			return returnedHead.record;
+		}
+		
+		@Override
+		protected void release()
+		{
+			heads.clear();
+			for(RecordCursor tableCursor : tableCursors)
+				tableCursor.close();
+		}
+		
+		/**
+		 * @return whether or not any of the table cursors returned records out of order
+		 */
+		public boolean isOrderViolated()
+		{
+			return orderViolated;
+		}
+		
+	}
+	
+	/**
+	 * The current record of a table cursor that is being merged by a {@link MergingRecordCursor}.
+	 * 
+	 * @author mstevens
+	 */
+	static private class MergeHead
+	{
+		
+		final RecordCursor cursor;
+		final int index;
+		Record record;
+		
+		public MergeHead(RecordCursor cursor, int index)
+		{
+			this.cursor = cursor;
+			this.index = index;
+		}
+		
+	}
+	
+	/**
+	 * @author mstevens
+	 *
+	 * @param <R>
+	 */
+	private interface SelectRunner<R extends RecordValueSet<?>, STable>
+	{
+		
+		public List<R> run(STable table, RecordsQuery query) throws DBException;
+		
+	}
+	
+	private <R extends RecordValueSet<?>> List<R> retrieveRecordValueSets(RecordsQuery query, Collection<Schema> schemata, SelectRunner<R, STable> selectRunner)
+	{
+		List<R> resultAcc = null;
+		// Run subqueries for each schema in the query, or all known schemata (if the query is for "any" schema):
+		for(Schema s : schemata)
+		{
+			try
+			{
+				STable table = getTable(s, false);
+				if(!table.isInDB())
+					continue; // table does no exist in DB, so there are no records to retrieve
+				List<R> subResult = selectRunner.run(table, query);
+				if(!subResult.isEmpty())
+				{
+					if(resultAcc == null)
+						resultAcc = new ArrayList<R>(subResult.size());
+					resultAcc.addAll(subResult);
+					// Apply limit across tables:
+					if(query.isLimited() && resultAcc.size() >= query.getLimit())
+					{
+						if(resultAcc.size() > query.getLimit())
+							resultAcc.subList(query.getLimit(), resultAcc.size()).clear();
+						break;
+					}
+				}
+			}
+			catch(DBException dbE)
+			{
+				client.logError("Error in retrieveRecordValueSets()", dbE);
+			}
+		}
+		return resultAcc != null ? resultAcc : Collections.<R> emptyList();
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecord(uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery)
+	 */
+	@Override
+	public Record retrieveRecord(SingleRecordQuery query)
+	{
+		List<Record> candidates = null;
+		// Run subqueries for each schema in the query, or all known schemata (if the query is for "any" schema):
+		RecordsQuery recsQuery = query.getRecordsQuery();
+		for(Schema s : getSchemata(recsQuery.getSource()))
+		{
+			try
+			{
+				STable table = getTable(s, false);
+				if(!table.isInDB())
+					continue; // table does no exist in DB, so there are no records to retrieve
+				Record candidate = table.select(query);
+				if(candidate != null)
+				{
+					if(candidates == null)
+						candidates = new ArrayList<Record>();
+					candidates.add(candidate);
+				}
+			}
+			catch(DBException dbE)
+			{
+				client.logError("Error in retrieveRecord(SingleRecordQuery)", dbE);
+			}
+		}
+		return query.execute(candidates, false); // reduce to 1 record (execute() will return null when passed a null list)
+	}
+	
+	protected abstract String getNullString();
+	
+	/**
+	 * @return the binary operator which tests whether two values differ, treating {@code NULL}s as comparable values
+	 */
+	protected String getNullSafeInequalityOperator()
+	{
+		return "IS DISTINCT FROM"; // SQL:1999
+	}
+	
+	protected abstract char getQuoteChar();
+	
+	protected abstract String getQuoteEscapeString();
+	
+	/**
+	 * Get subclasses may need to override this because some SQL dialects use != instead of <> (Note: SQLite supports both)
+	 * 
+	 * @param comparison
+	 * @return
+	 */
+	protected String getComparisonOperator(RuleConstraint.Comparison comparison)
 	{
 		switch(comparison)
 		{
@@ -928,15 +1671,19 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	 */
 	protected STable forgetTable(String unsanitisedTableName) throws DBException
 	{
-		// Look for table in tables map:
-		Iterator<Map.Entry<RecordReference, STable>> tableIt = tables.entrySet().iterator();
-		while(tableIt.hasNext())
+		synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
 		{
-			STable table = tableIt.next().getValue();
-			if(table.getUnsanitisedName().equals(unsanitisedTableName))
+			// Look for table in tables map:
+			Iterator<Map.Entry<RecordReference, STable>> tableIt = tables.entrySet().iterator();
+			while(tableIt.hasNext())
 			{
-				tableIt.remove(); // delete from tables map
-				return table;
+				STable table = tableIt.next().getValue();
+				if(table.getUnsanitisedName().equals(unsanitisedTableName))
+				{
+					tablesBySchema.clear();
+					tableIt.remove(); // delete from tables map
+					return table;
+				}
 			}
 		}
 		return null;
@@ -976,19 +1723,32 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				schemataTable.update(oldSchemaMetaRecord);
 				
 				// Delete table from tables map:
-				tables.remove(oldSchemaMetaRecord.getReference()); // new STable will be constructed & added to the tables map when the renamed table is first accessed				
+				synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
+				{
+					tablesBySchema.clear();
+					tables.remove(oldSchemaMetaRecord.getReference()); // new STable will be constructed & added to the tables map when the renamed table is first accessed
+				}
 			}
 			
 			// Update tables map entries:
-			Iterator<Map.Entry<RecordReference, STable>> tableIt = tables.entrySet().iterator();
-			while(tableIt.hasNext())
+			List<STable> renamedTables = new ArrayList<STable>();
+			synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
 			{
-				STable table = tableIt.next().getValue();
-				if(table.getUnsanitisedName().equals(oldTableName)) // in case this didn't happen above
-					tableIt.remove();
-				else if(table.getUnsanitisedName().equals(newTableName))
-					table.isInDB(true); // force checking if table exists!
+				Iterator<Map.Entry<RecordReference, STable>> tableIt = tables.entrySet().iterator();
+				while(tableIt.hasNext())
+				{
+					STable table = tableIt.next().getValue();
+					if(table.getUnsanitisedName().equals(oldTableName)) // in case this didn't happen above
+					{
+						tablesBySchema.clear();
+						tableIt.remove();
+					}
+					else if(table.getUnsanitisedName().equals(newTableName))
+						renamedTables.add(table);
+				}
 			}
+			for(STable table : renamedTables)
+				table.isInDB(true); // force checking if table exists! (outside of lock as this queries the db)
 		}
 		else
 			throw new DBException("Cannot rename protected table '" + oldTableName + "'!");
@@ -1007,7 +1767,12 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			modelsTable.release();
 		if(schemataTable != null)
 			schemataTable.release();
-		for(STable table : tables.values())
+		List<STable> tablesCopy;
+		synchronized(tables) // tables may be looked up concurrently by reading threads (see isReadingFromSnapshot())
+		{
+			tablesCopy = new ArrayList<STable>(tables.values());
+		}
+		for(STable table : tablesCopy)
 			table.release();
 	}
 	
@@ -1039,7 +1804,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		@SuppressWarnings("unchecked")
 		protected final RecordReferenceSelectionProjection recordReferenceSelectionProjection = new RecordReferenceSelectionProjection((STable) this);
 		
-		private Boolean existsInDB;
+		private volatile Boolean existsInDB;
 		private TableCreationHelper creator;
 		
 		/**
@@ -1114,6 +1879,8 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		
 		public boolean isInDB(boolean forceCheck)
 		{
+			if(isReadingFromSnapshot())
+				return doesTableExist(getUnsanitisedName()); // check against the snapshot itself, which may not reflect what the writing connection knows (and don't cache the result)
 			if(existsInDB == null || forceCheck)
 				existsInDB = doesTableExist(getUnsanitisedName());
 			return existsInDB;
@@ -1219,6 +1986,49 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				return update(record) ? false : null;
 		}
 		
+		/**
+		 * Stores a list of records (all of this table's schema) in the given {@link BulkMode}.
+		 * Assumes the table exists in the database and that a transaction is open!
+		 * 
+		 * The default implementation handles the records one by one, subclasses may override this to use a more efficient strategy.
+		 * 
+		 * @param records
+		 * @param mode
+		 * @return an array holding, for each record (in the same order), whether it was inserted ({@code true}), updated ({@code false}), or neither ({@code null})
+		 * @throws DBPrimaryKeyException
+		 * @throws DBConstraintException
+		 * @throws DBException
+		 * @throws IllegalStateException when the columns that are part of the primary key have not all been assigned a value
+		 * @see RecordStore#doStore(List, BulkMode)
+		 */
+		public Boolean[] store(List<Record> records, BulkMode mode) throws DBPrimaryKeyException, DBConstraintException, DBException, IllegalStateException
+		{
+			Boolean[] results = new Boolean[records.size()];
+			int r = 0;
+			for(Record record : records)
+			{
+				switch(mode)
+				{
+					case STORE :
+						results[r] = store(record, true);
+						break;
+					case INSERT_ONLY :
+						if(!isRecordInDB(record))
+						{
+							insert(record);
+							results[r] = Boolean.TRUE;
+						}
+						break;
+					case INSERT_NEW :
+						insert(record);
+						results[r] = Boolean.TRUE;
+						break;
+				}
+				r++;
+			}
+			return results;
+		}
+		
 		/**
 		 * Returns the currently stored version of the given Record or indicated by the given RecordReference.
 		 * 
@@ -1276,15 +2086,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		 * 
 		 * May be overridden.
 		 * 
-		 * Note:
-		 * 	Currently the detection of _actual_ changes to the record does *not* work.
-		 * 	If the UPDATE statement's WHERE clause matches an existing row that row will (at least in SQLite) be considered
-		 * 	as changed/affected (i.e. this method will return true) even if the actual values remained unchanged.
-		 * 	The only obvious way to fix this is to generate UPDATE statements in which the WHERE clause checks whether
-		 * 	values _need_ to be updated. E.g. "UPDATE table SET col1 = "newVal1", col2 = "newVal2" WHERE id = X AND (col1 IS NOT 'newVal1' OR col2 IS NOT 'newVal2');"
-		 * 	We could implement such a solution in RecordUpdateHelper but will wait until we are certain this feature will be required.
+		 * The UPDATE statement's WHERE clause only matches the row if at least one of its (non-key) values differs from
+		 * those of the given record (see {@link RecordUpdateHelper}), so unchanged rows are not counted as affected.
 		 * @see <a href="http://stackoverflow.com/questions/26372449">http://stackoverflow.com/questions/26372449</a>
-		 * TODO implement solution to detect actual record value changes
 		 * 
 		 * @param record
 		 * @return whether the record was really updated or stayed unchanged (because the record that was passed is identical to the stored one)
@@ -1326,6 +2130,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		@SuppressWarnings("unchecked")
 		public int delete(RecordsQuery query) throws DBException
 		{
+			SplitQuery splitQuery = splitQuery(query);
+			if(splitQuery != null)
+				return splitQuery.delete();
 			return executeSQLReturnAffectedRows(new RecordsDeleteHelper((STable) this, query).getQuery());
 		}
 		
@@ -1337,10 +2144,22 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		 * @return a {@link List} of {@link Record}s, possibly empty, never {@code null}
 		 * @throws DBException
 		 */
-		@SuppressWarnings("unchecked")
 		public List<Record> select(RecordsQuery query) throws DBException
 		{
-			return executeRecordSelection(new RecordValueSetSelectHelper<Record>((STable) this, recordSelectionProjection, query));
+			SplitQuery splitQuery = splitQuery(query);
+			if(splitQuery != null)
+				return splitQuery.select();
+			return executeRecordSelection(getRecordSelectHelper(query));
+		}
+		
+		/**
+		 * @param query
+		 * @return a {@link RecordValueSetSelectHelper} to select full {@link Record}s from this table
+		 */
+		@SuppressWarnings("unchecked")
+		protected RecordValueSetSelectHelper<Record> getRecordSelectHelper(RecordsQuery query)
+		{
+			return new RecordValueSetSelectHelper<Record>((STable) this, recordSelectionProjection, query);
 		}
 		
 		/**
@@ -1354,9 +2173,34 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		@SuppressWarnings("unchecked")
 		public List<RecordReference> selectReferences(RecordsQuery query) throws DBException
 		{
+			SplitQuery splitQuery = splitQuery(query);
+			if(splitQuery != null)
+			{
+				List<Record> records = splitQuery.select();
+				List<RecordReference> recordRefs = new ArrayList<RecordReference>(records.size());
+				for(Record record : records)
+					recordRefs.add(record.getReference());
+				return recordRefs;
+			}
 			return executeRecordSelection(new RecordValueSetSelectHelper<RecordReference>((STable) this, recordReferenceSelectionProjection, query));
 		}
 		
+		/**
+		 * Selects {@link Record}s from the database table based on a {@link RecordsQuery}, returning them through a {@link RecordCursor}.
+		 * Assumes the table exists in the database!
+		 * 
+		 * The default implementation wraps the result of {@link #select(RecordsQuery)}, subclasses should override this to stream rows lazily.
+		 * 
+		 * @param query
+		 * @param reuseRecord whether or not the same {@link Record} instance may be returned for every row
+		 * @return a {@link RecordCursor}, never {@code null}
+		 * @throws DBException
+		 */
+		public RecordCursor selectCursor(RecordsQuery query, boolean reuseRecord) throws DBException
+		{
+			return RecordCursor.Over(select(query));
+		}
+		
 		/**
 		 * Selects a single record from the database table based on a SingleRecordQuery.
 		 * Assumes the table exists in the database!
@@ -1373,6 +2217,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				@Override
 				public List<Record> execute(ExtremeValueRecordQuery extremeValueRecordQuery) throws DBException
 				{
+					SplitQuery splitQuery = splitQuery(extremeValueRecordQuery.getRecordsQuery());
+					if(splitQuery != null)
+						return Collections.singletonList(extremeValueRecordQuery.execute(splitQuery.select(), false));
 					return executeRecordSelection(new ExtremeValueRecordSelectHelper((STable) SQLTable.this, extremeValueRecordQuery)); 
 				}
 				
@@ -1388,75 +2235,332 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		}
 		
 		/**
-		 * @return true if the table is empty (i.e. containing 0 records) or does not exist in the DB
-		 * @throws DBException
+		 * @return true if the table is empty (i.e. containing 0 records) or does not exist in the DB
+		 * @throws DBException
+		 */
+		public boolean isEmpty() throws DBException
+		{
+			return !isInDB() || getRecordCount() == 0;
+		}
+		
+		/**
+		 * Counts the number of records currently in the database table.
+		 * Assumes the table exists in the database!
+		 * 
+		 * @return the number of records in the table
+		 * @throws DBException 
+		 */
+		public abstract long getRecordCount() throws DBException;
+		
+		/**
+		 * @param query
+		 * @return the number of records in the table which match the given query, taking into account its limit (if any)
+		 * @throws DBException
+		 */
+		public abstract long getRecordCount(RecordsQuery query) throws DBException;
+		
+		/**
+		 * @param query
+		 * @return the (partial) rows computed from the records in the table for the given query (see {@link ValueQuery#getPartialProjections()}), possibly empty, never {@code null}
+		 * @throws DBException
+		 */
+		public abstract List<Object[]> selectValues(ValueQuery query) throws DBException;
+		
+		/**
+		 * Drop the table from the database.
+		 * Assumes the table exists in the database!
+		 * 
+		 * May be overridden.
+		 * 
+		 * @throws DBException
+		 */
+		public void drop() throws DBException
+		{
+			// Release resources:
+			release();
+			
+			if(isInTransaction())
+			{	// this means the drop operation might be rolled-back...
+				addRollbackTask(new RollbackTask()
+				{
+					@Override
+					public void run() throws DBException
+					{	// If this code run that means the table wasn't dropped after all, so...
+						existsInDB = true;
+					}
+				});
+			}
+			
+			// Perform the DROP operation:
+			executeSQL(generateDropTableStatement(getUnsanitisedName()));
+			// Note: if there is an exception the line below will not be executed but the roll-back task above will...
+			
+			// Now the table is gone...
+			existsInDB = false; // !!!
+		}
+		
+		/**
+		 * @param recordValueSetSelectHelper
+		 * @return a {@link List} of {@link RecordValueSet}s (i.e. {@link Record}s or {@link RecordReference}s), possibly empty, never {@code null}
+		 * @throws DBException
+		 */
+		protected abstract <R extends RecordValueSet<?>> List<R> executeRecordSelection(RecordValueSetSelectHelper<R> recordValueSetSelectHelper) throws DBException;
+		
+		/**
+		 * Release any resources associated with this table
+		 */
+		public abstract void release();
+		
+		/**
+		 * Checks whether the constraints of the given query can all be evaluated in SQL on this table, which is not the case for constraints which
+		 * depend on a side table that does not exist (see {@link SQLEvaluabilityChecker}). If they cannot, the query is split into a {@link SplitQuery}.
+		 * 
+		 * Subclasses which override any of the query methods must call this before generating SQL (the query methods of this class already do so).
+		 * 
+		 * @param query
+		 * @return a {@link SplitQuery}, or {@code null} if all constraints can be evaluated in SQL
+		 * @throws DBException
+		 */
+		@SuppressWarnings("unchecked")
+		protected SplitQuery splitQuery(RecordsQuery query) throws DBException
+		{
+			Constraint constraints = query.getConstraints();
+			if(constraints == null)
+				return null;
+			SQLEvaluabilityChecker checker = new SQLEvaluabilityChecker((STable) this);
+			if(checker.isEvaluable(constraints))
+				return null;
+			// Split the conjuncts:
+			AndConstraint sqlConstraints = new AndConstraint();
+			AndConstraint inMemoryConstraints = new AndConstraint();
+			for(Constraint conjunct : constraints instanceof AndConstraint ? ((AndConstraint) constraints).getSubConstraints() : Collections.singletonList(constraints))
+				(checker.isEvaluable(conjunct) ? sqlConstraints : inMemoryConstraints).addConstraint(conjunct);
+			return new SplitQuery(new RecordsQuery(schema, query.getOrder(), sqlConstraints.reduce()), inMemoryConstraints.reduce(), query.getLimit());
+		}
+		
+		/**
+		 * A {@link RecordsQuery} split into a query (with the same order, but without limit) holding those conjuncts of its constraints which can
+		 * be evaluated in SQL on the table, and the remaining conjuncts, which are evaluated in memory on the records resulting from the former,
+		 * after which the limit is applied. The results are therefore the same as those of the original query, but at the cost of reading more
+		 * rows than will be returned.
+		 * 
+		 * @author mstevens
+		 */
+		protected class SplitQuery
+		{
+			
+			public final RecordsQuery sqlQuery;
+			public final Constraint inMemoryConstraints;
+			public final int limit;
+			
+			/**
+			 * @param sqlQuery
+			 * @param inMemoryConstraints
+			 * @param limit
+			 */
+			public SplitQuery(RecordsQuery sqlQuery, Constraint inMemoryConstraints, int limit)
+			{
+				this.sqlQuery = sqlQuery;
+				this.inMemoryConstraints = inMemoryConstraints;
+				this.limit = limit;
+			}
+			
+			/**
+			 * @return the records matching the original query, in its order and limited to its limit
+			 * @throws DBException
+			 */
+			public List<Record> select() throws DBException
+			{
+				List<Record> records = inMemoryConstraints.filter(SQLTable.this.select(sqlQuery));
+				return limit != RecordsQuery.NO_LIMIT && records.size() > limit ? new ArrayList<Record>(records.subList(0, limit)) : records;
+			}
+			
+			/**
+			 * Deletes the records matching the original query one by one.
+			 * 
+			 * @return the number of deleted records
+			 * @throws DBException
+			 */
+			public int delete() throws DBException
+			{
+				int deleted = 0;
+				startTransaction();
+				try
+				{
+					for(Record record : select())
+						if(SQLTable.this.delete(record))
+							deleted++;
+				}
+				catch(DBException e)
+				{
+					rollbackTransactions();
+					throw e;
+				}
+				commitTransaction();
+				return deleted;
+			}
+			
+		}
+		
+		/**
+		 * May be overridden by subclasses which maintain spatial indexes.
+		 * 
+		 * @param geometryColumnPointer pointer to a {@link LocationColumn}, {@link LineColumn} or {@link PolygonColumn}
+		 * @return the {@link SpatialIndex} for the given column, or {@code null} if there is none (default)
+		 * @throws DBException
+		 */
+		public SpatialIndex getSpatialIndex(ColumnPointer<?> geometryColumnPointer) throws DBException
+		{
+			return null;
+		}
+		
+		/**
+		 * May be overridden by subclasses which maintain full-text indexes.
+		 * 
+		 * @param textColumnPointer pointer to a {@link StringColumn}
+		 * @return the {@link FullTextIndex} covering the given column, or {@code null} if there is none (default)
+		 * @throws DBException
+		 */
+		public FullTextIndex getFullTextIndex(ColumnPointer<?> textColumnPointer) throws DBException
+		{
+			return null;
+		}
+		
+		/**
+		 * May be overridden by subclasses which store the elements of lists in side tables.
+		 * 
+		 * @param listColumnPointer pointer to a {@link ListColumn}
+		 * @return the {@link ListTable} holding the elements of the lists in the given column, or {@code null} if there is none (default)
+		 * @throws DBException
+		 */
+		public ListTable getListTable(ColumnPointer<?> listColumnPointer) throws DBException
+		{
+			return null;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString()
+		{
+			return "Database table '" + getUnsanitisedName() + "'";
+		}
+		
+	}
+	
+	/**
+	 * Describes a side table which indexes the bounding boxes of the values in a {@link LocationColumn}, {@link LineColumn} or
+	 * {@link PolygonColumn} of an {@link SQLTable}, allowing {@link BoundingBoxConstraint}s to be resolved without a full table scan.
+	 * The side table must hold a row for every row of the indexed table which has a non-null (and non-empty) value in the column.
+	 * 
+	 * @author mstevens
+	 */
+	public class SpatialIndex
+	{
+		
+		public final String sanitisedTableName;
+		
+		/**
+		 * SQL expression identifying a row of the indexed table, the values of which are held in the {@link #idColumn}
 		 */
-		public boolean isEmpty() throws DBException
+		public final String rowKeyExpression;
+		
+		public final SColumn idColumn;
+		public final SColumn minLatitudeColumn;
+		public final SColumn maxLatitudeColumn;
+		public final SColumn minLongitudeColumn;
+		public final SColumn maxLongitudeColumn;
+		
+		/**
+		 * @param sanitisedTableName
+		 * @param rowKeyExpression
+		 * @param idColumn
+		 * @param minLatitudeColumn
+		 * @param maxLatitudeColumn
+		 * @param minLongitudeColumn
+		 * @param maxLongitudeColumn
+		 */
+		public SpatialIndex(String sanitisedTableName, String rowKeyExpression, SColumn idColumn, SColumn minLatitudeColumn, SColumn maxLatitudeColumn, SColumn minLongitudeColumn, SColumn maxLongitudeColumn)
 		{
-			return !isInDB() || getRecordCount() == 0;
+			this.sanitisedTableName = sanitisedTableName;
+			this.rowKeyExpression = rowKeyExpression;
+			this.idColumn = idColumn;
+			this.minLatitudeColumn = minLatitudeColumn;
+			this.maxLatitudeColumn = maxLatitudeColumn;
+			this.minLongitudeColumn = minLongitudeColumn;
+			this.maxLongitudeColumn = maxLongitudeColumn;
 		}
 		
+	}
+	
+	/**
+	 * Describes a (virtual) side table which indexes the words in one or more {@link StringColumn}s of an {@link SQLTable}, allowing
+	 * {@link TextMatchConstraint}s to be resolved without a full table scan. The side table must have a column with the same name
+	 * as each indexed column, support the MATCH operator on those columns, and hold the values of the {@link #rowKeyExpression}
+	 * of the indexed table in its rowid column.
+	 * 
+	 * @author mstevens
+	 */
+	public class FullTextIndex
+	{
+		
+		public final String sanitisedTableName;
+		
 		/**
-		 * Counts the number of records currently in the database table.
-		 * Assumes the table exists in the database!
-		 * 
-		 * @return the number of records in the table
-		 * @throws DBException 
+		 * SQL expression identifying a row of the indexed table, the values of which are held in the rowid column of the side table
 		 */
-		public abstract long getRecordCount() throws DBException;
+		public final String rowKeyExpression;
 		
 		/**
-		 * Drop the table from the database.
-		 * Assumes the table exists in the database!
-		 * 
-		 * May be overridden.
-		 * 
-		 * @throws DBException
+		 * @param sanitisedTableName
+		 * @param rowKeyExpression
 		 */
-		public void drop() throws DBException
+		public FullTextIndex(String sanitisedTableName, String rowKeyExpression)
 		{
-			// Release resources:
-			release();
-			
-			if(isInTransaction())
-			{	// this means the drop operation might be rolled-back...
-				addRollbackTask(new RollbackTask()
-				{
-					@Override
-					public void run() throws DBException
-					{	// If this code run that means the table wasn't dropped after all, so...
-						existsInDB = true;
-					}
-				});
-			}
-			
-			// Perform the DROP operation:
-			executeSQL(generateDropTableStatement(getUnsanitisedName()));
-			// Note: if there is an exception the line below will not be executed but the roll-back task above will...
-			
-			// Now the table is gone...
-			existsInDB = false; // !!!
+			this.sanitisedTableName = sanitisedTableName;
+			this.rowKeyExpression = rowKeyExpression;
 		}
 		
-		/**
-		 * @param recordValueSetSelectHelper
-		 * @return a {@link List} of {@link RecordValueSet}s (i.e. {@link Record}s or {@link RecordReference}s), possibly empty, never {@code null}
-		 * @throws DBException
-		 */
-		protected abstract <R extends RecordValueSet<?>> List<R> executeRecordSelection(RecordValueSetSelectHelper<R> recordValueSetSelectHelper) throws DBException;
+	}
+	
+	/**
+	 * Describes a side table which holds the elements of the lists in a {@link ListColumn} of an {@link SQLTable}, one row per element,
+	 * allowing {@link ListContainsConstraint}s and {@link ListSizeConstraint}s to be resolved without deserialising the lists.
+	 * The side table must hold a row for every element of every non-null list in the column, in which the {@link #parentColumn} holds
+	 * the value of the {@link #rowKeyExpression} of the row of the list and the {@link #positionColumn} holds the 0-based position
+	 * of the element in the list.
+	 * 
+	 * @author mstevens
+	 */
+	public class ListTable
+	{
+		
+		public final String sanitisedTableName;
 		
 		/**
-		 * Release any resources associated with this table
+		 * SQL expression identifying a row of the table which holds the lists, the values of which are held in the {@link #parentColumn}
 		 */
-		public abstract void release();
+		public final String rowKeyExpression;
 		
-		/* (non-Javadoc)
-		 * @see java.lang.Object#toString()
+		public final SColumn parentColumn;
+		public final SColumn positionColumn;
+		public final SColumn elementColumn;
+		
+		/**
+		 * @param sanitisedTableName
+		 * @param rowKeyExpression
+		 * @param parentColumn
+		 * @param positionColumn
+		 * @param elementColumn
 		 */
-		@Override
-		public String toString()
+		public ListTable(String sanitisedTableName, String rowKeyExpression, SColumn parentColumn, SColumn positionColumn, SColumn elementColumn)
 		{
-			return "Database table '" + getUnsanitisedName() + "'";
+			this.sanitisedTableName = sanitisedTableName;
+			this.rowKeyExpression = rowKeyExpression;
+			this.parentColumn = parentColumn;
+			this.positionColumn = positionColumn;
+			this.elementColumn = elementColumn;
 		}
 		
 	}
@@ -1502,6 +2606,15 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			return sqlToLiteral(value != null ? mapping.toSQLType(value) : null, quotedIfNeeded);
 		}
 		
+		/**
+		 * @param value
+		 * @return the corresponding Sapelli value, or {@code null} if value is {@code null}
+		 */
+		public SapType sqlToSapelli(SQLType value)
+		{
+			return value != null ? mapping.toSapelliType(value) : null;
+		}
+		
 		/**
 		 * @param sapValue
 		 * @return
@@ -1523,6 +2636,30 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			return sqlToLiteral(sapelliOjectToSQL(sapValue), quotedIfNeeded);
 		}
 		
+		/**
+		 * To be overridden by columns whose SQL values hold more information than what is used to compare the Sapelli
+		 * values they represent (i.e. distinct SQL values may represent Sapelli values which compare as equal). Comparisons
+		 * with a value (see {@link RuleConstraint}) are then made against the lowest and highest of the SQL values which
+		 * represent a Sapelli value that compares as equal to the given one, so they can still make use of indexes.
+		 * 
+		 * @param sapValue non-null
+		 * @return an array holding the Sapelli values corresponding to the lowest and highest SQL value which compare as equal to the given value, or {@code null} if SQL values compare in the same way as the Sapelli values (default)
+		 */
+		public Object[] getComparisonBounds(Object sapValue)
+		{
+			return null;
+		}
+		
+		/**
+		 * To be overridden together with {@link #getComparisonBounds(Object)}.
+		 * 
+		 * @return SQL expression yielding the comparable part of the values in the column, used for comparisons with another column
+		 */
+		public String getComparisonExpression()
+		{
+			return sanitisedName;
+		}
+		
 		/**
 		 * @param recordOrReference
 		 * @param quotedIfNeeded
@@ -1995,6 +3132,12 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			// Create explicit indexes:
 			for(Index idx : explicitIndexes)
 				executeSQL(generateCreateIndexStatement(idx));
+			// Recreate auxiliary indexes:
+			List<IndexAdvisor.AuxiliaryIndex> auxIndexes = auxiliaryIndexes.get(table.getUnsanitisedName());
+			if(auxIndexes != null)
+				for(Iterator<IndexAdvisor.AuxiliaryIndex> auxIdxIter = auxIndexes.iterator(); auxIdxIter.hasNext();)
+					if(!restoreAuxiliaryIndex(auxIdxIter.next()))
+						auxIdxIter.remove(); // will be removed from the side table upon next initialisation
 		}
 		
 		/**
@@ -2149,6 +3292,22 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		 * @param record a record instance (when the statement is not parameterised) or null (when it is parameterised)
 		 */
 		public RecordInsertHelper(STable table, Record record)
+		{
+			this(table, record, 1);
+		}
+		
+		/**
+		 * Parameterised, possibly multi-row
+		 * 
+		 * @param table
+		 * @param numberOfRows the number of rows the statement will insert at once (each with its own set of parameters)
+		 */
+		public RecordInsertHelper(STable table, int numberOfRows)
+		{
+			this(table, null, numberOfRows);
+		}
+		
+		private RecordInsertHelper(STable table, Record record, int numberOfRows)
 		{
 			// Initialise
 			super(table);
@@ -2163,18 +3322,22 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				bldr.append(sqlCol.sanitisedName);
 			bldr.commitTransaction(false);
 			// Values:
-			bldr.append(") VALUES (", false);
-			bldr.openTransaction(", ");
-			for(SColumn sqlCol : table.sqlColumns.values())
-				if(isParameterised())
-				{
-					bldr.append(valuePlaceHolder);
-					addParameterColumn(sqlCol);
-				}
-				else
-					bldr.append(sqlCol.retrieveAsLiteral(record, true));
-			bldr.commitTransaction(false);
-			bldr.append(")", false);
+			bldr.append(") VALUES ", false);
+			for(int row = 0; row < numberOfRows; row++)
+			{
+				bldr.append(row == 0 ? "(" : ", (", false);
+				bldr.openTransaction(", ");
+				for(SColumn sqlCol : table.sqlColumns.values())
+					if(isParameterised())
+					{
+						bldr.append(valuePlaceHolder);
+						addParameterColumn(sqlCol);
+					}
+					else
+						bldr.append(sqlCol.retrieveAsLiteral(record, true));
+				bldr.commitTransaction(false);
+				bldr.append(")", false);
+			}
 		}
 		
 	}
@@ -2230,6 +3393,44 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			bldr.commitTransaction();
 			// WHERE clause:
 			appendWhereClause(record);
+			// Change detection (only update the row if at least one value differs):
+			appendChangeDetection(record);
+		}
+		
+		/**
+		 * Appends a condition which only holds if at least one of the non-key columns of the row holds a different value than the record.
+		 * Assumes a WHERE clause has already been appended.
+		 * 
+		 * @param record a record instance (when the statement is not parameterised) or null (when it is parameterised)
+		 */
+		protected void appendChangeDetection(Record record)
+		{
+			bldr.openTransaction();
+			bldr.append("AND (");
+			bldr.openTransaction(" OR ");
+			for(SColumn sqlCol : table.sqlColumns.values())
+				if(!table.getKeyPartSQLColumns().contains(sqlCol))
+				{
+					bldr.openTransaction(SPACE);
+					bldr.append(sqlCol.sanitisedName);
+					bldr.append(getNullSafeInequalityOperator());
+					if(isParameterised())
+					{
+						bldr.append(valuePlaceHolder);
+						addParameterColumn(sqlCol);
+					}
+					else
+						bldr.append(sqlCol.retrieveAsLiteral(record, true));
+					bldr.commitTransaction();
+				}
+			if(!bldr.isCurrentTransactionEmpty())
+			{
+				bldr.commitTransaction();
+				bldr.append(")");
+				bldr.commitTransaction();
+			}
+			else
+				bldr.rollbackTransactions(2); // there are no non-key columns
 		}
 		
 	}
@@ -2270,6 +3471,151 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		
 	}
 	
+	/**
+	 * Determines whether constraints can be evaluated in SQL on a given table. This is the case for all constraints except for:
+	 * <ul>
+	 * <li>{@link BoundingBoxConstraint}s (and {@link WithinDistanceConstraint}s) on Lines and Polygons, if there is no {@link SpatialIndex} on the column;</li>
+	 * <li>{@link ListContainsConstraint}s and {@link ListSizeConstraint}s, if there is no {@link ListTable} for the column.</li>
+	 * </ul>
+	 * A composite or negated constraint can be evaluated in SQL if all of its subconstraints can.
+	 * 
+	 * @see SQLTable#splitQuery(RecordsQuery)
+	 * @author mstevens
+	 */
+	protected class SQLEvaluabilityChecker implements ConstraintVisitor
+	{
+		
+		private final STable table;
+		private boolean evaluable;
+		
+		/**
+		 * @param table
+		 */
+		public SQLEvaluabilityChecker(STable table)
+		{
+			this.table = table;
+		}
+		
+		/**
+		 * @param constraint
+		 * @return whether the given constraint can be evaluated in SQL on the table
+		 */
+		public boolean isEvaluable(Constraint constraint)
+		{
+			evaluable = true;
+			constraint.accept(this);
+			return evaluable;
+		}
+		
+		@Override
+		public void visit(AndConstraint andConstr)
+		{
+			visitSubConstraints(andConstr);
+		}
+		
+		@Override
+		public void visit(OrConstraint orConstr)
+		{
+			visitSubConstraints(orConstr);
+		}
+		
+		private void visitSubConstraints(CompositeConstraint compositeConstr)
+		{
+			for(Constraint subConstr : compositeConstr.getSubConstraints())
+				if(evaluable)
+					subConstr.accept(this);
+		}
+		
+		@Override
+		public void visit(NotConstraint notConstr)
+		{
+			notConstr.getNegatedConstraint().accept(this);
+		}
+		
+		@Override
+		public void visit(EqualityConstraint equalityConstr)
+		{
+			// evaluable
+		}
+		
+		@Override
+		public void visit(RuleConstraint ruleConstr)
+		{
+			// evaluable
+		}
+		
+		@Override
+		public void visit(BitFlagConstraint bitFlagConstr)
+		{
+			// evaluable
+		}
+		
+		@Override
+		public void visit(BoundingBoxConstraint boundingBoxConstr)
+		{
+			visitBoundingBox(boundingBoxConstr);
+		}
+		
+		@Override
+		public void visit(WithinDistanceConstraint withinDistanceConstr)
+		{
+			visitBoundingBox(withinDistanceConstr);
+		}
+		
+		private void visitBoundingBox(BoundingBoxConstraint bbConstr)
+		{
+			if(bbConstr.isOnPoints())
+				return; // always evaluable (with or without spatial index)
+			try
+			{
+				evaluable = table.getSpatialIndex(bbConstr.getGeometryColumnPointer()) != null;
+			}
+			catch(DBException dbE)
+			{
+				client.logError("Could not get spatial index, falling back to in-memory evaluation", dbE);
+				evaluable = false;
+			}
+		}
+		
+		@Override
+		public void visit(TextMatchConstraint textMatchConstr)
+		{
+			// evaluable (with or without full-text index)
+		}
+		
+		@Override
+		public void visit(ListContainsConstraint listContainsConstr)
+		{
+			visitList(listContainsConstr.getListColumnPointer());
+		}
+		
+		@Override
+		public void visit(ListSizeConstraint listSizeConstr)
+		{
+			visitList(listSizeConstr.getListColumnPointer());
+		}
+		
+		private void visitList(ColumnPointer<?> listColumnPointer)
+		{
+			try
+			{
+				evaluable = table.getListTable(listColumnPointer) != null;
+			}
+			catch(DBException dbE)
+			{
+				client.logError("Could not get list table, falling back to in-memory evaluation", dbE);
+				evaluable = false;
+			}
+		}
+		
+		@Override
+		public void visit(DummyConstraint dummyConstr)
+		{
+			// evaluable
+		}
+		
+	}
+	
 	/**
 	 * Abstract super class for operations that operate on a collection of records identified using a {@link RecordsQuery}
 	 * 
@@ -2287,7 +3633,22 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	protected abstract class RecordsByConstraintsHelper extends StatementHelper implements ConstraintVisitor
 	{
 		
-		private final List<Object> sapArguments;
+		/**
+		 * GLOB character class which matches a single word separator of a {@link TextMatchConstraint} (i.e. any ASCII character but a lower-case letter or a digit)
+		 */
+		static private final String WORD_SEPARATOR_GLOB = "[^0-9a-z\u0080-\uDBFF\uDFFF]";
+		
+		private final List<Object> sapArguments;
+		
+		/**
+		 * Collects the columns used by the query for the index advisor, {@code null} unless the advisor is enabled
+		 */
+		protected IndexAdvisor.Usage usage;
+		
+		/**
+		 * Number of disjunctions and negations the visitor is currently in
+		 */
+		private int nonConjunctiveDepth = 0;
 		
 		/**
 		 * @param table
@@ -2334,6 +3695,19 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			}
 		}
 		
+		/**
+		 * Reports the use of a column in a comparison to the index advisor, but only if the comparison is part of the top-level conjunction
+		 * and the column belongs to the queried table (rather than to a side table, e.g. of a {@link SpatialIndex}).
+		 * 
+		 * @param sqlCol
+		 * @param equality
+		 */
+		private void addConstrainedColumn(SColumn sqlCol, boolean equality)
+		{
+			if(usage != null && nonConjunctiveDepth == 0 && sqlCol.isSapelliColumn())
+				usage.addConstrainedColumn(sqlCol.sanitisedName, equality);
+		}
+		
 		protected void addParameterColumnAndValue(SColumn column, Object sapValue)
 		{
 			addParameterColumn(column);
@@ -2364,6 +3738,8 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		{
 			bldr.append("(");
 			bldr.openTransaction(" " + (and ? "AND" : "OR") + " "); // open outer transaction for subConstraints & AND/OR connectives
+			if(!and)
+				nonConjunctiveDepth++;
 			
 			// Loop over subconstraints:
 			Iterator<Constraint> iterConstr = subConstraints.iterator();
@@ -2374,6 +3750,8 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				bldr.commitTransaction(); // commit inner transaction, result is added to outer transaction with connective (AND/OR) inserted as needed
 			}
 
+			if(!and)
+				nonConjunctiveDepth--;
 			bldr.commitTransaction(false); // commit outer transaction, without inserting connective (i.e. no space after '(')
 			bldr.append(")", false); // no connective inserted (i.e. no space before ')')
 		}
@@ -2385,7 +3763,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			bldr.openTransaction(SPACE); // open transaction for negated constraint
 			
 			// Visit negated constraint:
+			nonConjunctiveDepth++;
 			notConstr.getNegatedConstraint().accept(this);
+			nonConjunctiveDepth--;
 			
 			bldr.commitTransaction(false); // commit transaction, without inserting connective (i.e. no space after '(')
 			bldr.append(")", false); // no connective inserted (i.e. no space before ')')
@@ -2415,6 +3795,8 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				else
 				{	// Equality constraint on non-composite (leaf) column (general case), or null comparison on a composite column represented by a boolean SColumn:
 					bldr.append(sqlCol.sanitisedName);
+					if(equalityConstr.isEqual())
+						addConstrainedColumn(sqlCol, true); // includes null comparisons
 					if(sapValue != null || (table.getKeyPartSQLColumns().contains(sqlCol) && isParameterised()))
 					{	// Value is not null, or null but part of the PK and this is a parameterised statement
 						bldr.append(getComparisonOperator(equalityConstr.isEqual() ? Comparison.EQUAL : Comparison.NOT_EQUAL));
@@ -2464,23 +3846,386 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			}
 			// All other cases:
 			SColumn lhsSCol = table.getSQLColumn(ruleConstr.getLHSColumnPointer());
-			bldr.append(lhsSCol.sanitisedName);
-			bldr.append(getComparisonOperator(ruleConstr.getComparison()));
 			if(ruleConstr.isRHSColumn())
-				bldr.append(table.getSQLColumn(ruleConstr.getRHSColumnPointer()).sanitisedName);
+			{
+				bldr.append(lhsSCol.getComparisonExpression());
+				bldr.append(getComparisonOperator(ruleConstr.getComparison()));
+				bldr.append(table.getSQLColumn(ruleConstr.getRHSColumnPointer()).getComparisonExpression());
+				return;
+			}
+			Object[] bounds = lhsSCol.getComparisonBounds(ruleConstr.getRHSValue());
+			if(bounds == null)
+			{
+				appendValueComparison(lhsSCol, ruleConstr.getComparison(), ruleConstr.getRHSValue());
+				return;
+			}
+			// Compare with the bounds of the range of SQL values which compare as equal to the value (like a plain comparison this yields null if the column is null):
+			switch(ruleConstr.getComparison())
+			{
+				case SMALLER :
+					appendValueComparison(lhsSCol, Comparison.SMALLER, bounds[0]);
+					break;
+				case SMALLER_OR_EQUAL :
+					appendValueComparison(lhsSCol, Comparison.SMALLER_OR_EQUAL, bounds[1]);
+					break;
+				case GREATER_OR_EQUAL :
+					appendValueComparison(lhsSCol, Comparison.GREATER_OR_EQUAL, bounds[0]);
+					break;
+				case GREATER :
+					appendValueComparison(lhsSCol, Comparison.GREATER, bounds[1]);
+					break;
+				case EQUAL :
+				case NOT_EQUAL :
+					boolean equal = ruleConstr.getComparison() == Comparison.EQUAL;
+					bldr.append("(");
+					bldr.openTransaction(" " + (equal ? "AND" : "OR") + " ");
+					bldr.openTransaction(SPACE);
+					appendValueComparison(lhsSCol, equal ? Comparison.GREATER_OR_EQUAL : Comparison.SMALLER, bounds[0]);
+					bldr.commitTransaction();
+					bldr.openTransaction(SPACE);
+					appendValueComparison(lhsSCol, equal ? Comparison.SMALLER_OR_EQUAL : Comparison.GREATER, bounds[1]);
+					bldr.commitTransaction();
+					bldr.commitTransaction(false);
+					bldr.append(")", false);
+					break;
+			}
+		}
+		
+		private void appendValueComparison(SColumn sqlCol, Comparison comparison, Object sapValue)
+		{
+			if(comparison != Comparison.NOT_EQUAL)
+				addConstrainedColumn(sqlCol, comparison == Comparison.EQUAL);
+			bldr.append(sqlCol.sanitisedName);
+			bldr.append(getComparisonOperator(comparison));
+			appendValue(sqlCol, sapValue, true);
+		}
+		
+		private void appendValue(SColumn sqlCol, Object sapValue, boolean insertConnective)
+		{
+			if(isParameterised())
+			{
+				bldr.append(valuePlaceHolder, insertConnective);
+				addParameterColumnAndValue(sqlCol, sapValue);
+			}
 			else
+				bldr.append(sqlCol.sapelliObjectToLiteral(sapValue, true), insertConnective);
+		}
+		
+		/**
+		 * Appends a value comparison as part of a conjunction (i.e. in its own builder transaction).
+		 */
+		private void appendConjunct(SColumn sqlCol, Comparison comparison, Object sapValue)
+		{
+			bldr.openTransaction(SPACE);
+			appendValueComparison(sqlCol, comparison, sapValue);
+			bldr.commitTransaction();
+		}
+		
+		@Override
+		public void visit(BoundingBoxConstraint boundingBoxConstr)
+		{
+			visitBoundingBox(boundingBoxConstr, null);
+		}
+		
+		@Override
+		public void visit(WithinDistanceConstraint withinDistanceConstr)
+		{
+			visitBoundingBox(withinDistanceConstr, withinDistanceConstr);
+		}
+		
+		/**
+		 * Candidates are looked up in the spatial index, if there is one. The bounds of {@link Location}s are then checked
+		 * exactly against the latitude and longitude columns (spatial indexes may store rounded bounds), which also serves
+		 * as the (full-scan) fallback in absence of a spatial index. Lines and Polygons cannot be checked in SQL without one,
+		 * such constraints are evaluated in memory instead (see {@link SQLTable#splitQuery(RecordsQuery)}).
+		 * 
+		 * @param bbConstr
+		 * @param wdConstr the same as bbConstr if it is a {@link WithinDistanceConstraint}, {@code null} otherwise
+		 */
+		@SuppressWarnings("unchecked")
+		private void visitBoundingBox(BoundingBoxConstraint bbConstr, WithinDistanceConstraint wdConstr)
+		{
+			SpatialIndex spatialIndex;
+			try
 			{
-				Object sapValue = ruleConstr.getRHSValue();
-				if(isParameterised())
-				{
-					bldr.append(valuePlaceHolder);
-					addParameterColumnAndValue(lhsSCol, sapValue);
+				spatialIndex = table.getSpatialIndex(bbConstr.getGeometryColumnPointer());
+			}
+			catch(DBException dbE)
+			{
+				exception = dbE;
+				return;
+			}
+			if(spatialIndex == null && !bbConstr.isOnPoints())
+			{	// should have been avoided by SQLTable#splitQuery(RecordsQuery):
+				exception = new DBException("Failed to generate SQL for " + bbConstr.getClass().getSimpleName() + " on column " + bbConstr.getGeometryColumnPointer().getQualifiedColumnName(table.schema) + " without spatial index");
+				return;
+			}
+			
+			bldr.append("(");
+			bldr.openTransaction(" AND ");
+			
+			// Look-up in spatial index:
+			if(spatialIndex != null)
+			{
+				bldr.openTransaction(SPACE);
+				bldr.append(spatialIndex.rowKeyExpression);
+				bldr.append("IN (SELECT");
+				bldr.append(spatialIndex.idColumn.sanitisedName);
+				bldr.append("FROM");
+				bldr.append(spatialIndex.sanitisedTableName);
+				bldr.append("WHERE");
+				bldr.openTransaction(" AND ");
+				appendConjunct(spatialIndex.maxLatitudeColumn, Comparison.GREATER_OR_EQUAL, bbConstr.getMinLatitude());
+				appendConjunct(spatialIndex.minLatitudeColumn, Comparison.SMALLER_OR_EQUAL, bbConstr.getMaxLatitude());
+				appendConjunct(spatialIndex.maxLongitudeColumn, Comparison.GREATER_OR_EQUAL, bbConstr.getMinLongitude());
+				appendConjunct(spatialIndex.minLongitudeColumn, Comparison.SMALLER_OR_EQUAL, bbConstr.getMaxLongitude());
+				bldr.commitTransaction();
+				bldr.append(")", false);
+				bldr.commitTransaction();
+			}
+			
+			// Exact check on Locations:
+			if(bbConstr.isOnPoints())
+			{
+				ColumnPointer<LocationColumn> locCP = (ColumnPointer<LocationColumn>) bbConstr.getGeometryColumnPointer();
+				SColumn latCol = table.getSQLColumn(new ColumnPointer<FloatColumn>(locCP, Location.COLUMN_LATITUDE));
+				SColumn lonCol = table.getSQLColumn(new ColumnPointer<FloatColumn>(locCP, Location.COLUMN_LONGITUDE));
+				if(spatialIndex == null)
+					appendIsNotNullConjunct(latCol);
+				appendConjunct(latCol, Comparison.GREATER_OR_EQUAL, bbConstr.getMinLatitude());
+				appendConjunct(latCol, Comparison.SMALLER_OR_EQUAL, bbConstr.getMaxLatitude());
+				appendConjunct(lonCol, Comparison.GREATER_OR_EQUAL, bbConstr.getMinLongitude());
+				appendConjunct(lonCol, Comparison.SMALLER_OR_EQUAL, bbConstr.getMaxLongitude());
+				if(wdConstr != null)
+				{	// (lat - centreLat)² + (lon - centreLon)² * longitudeFactor <= squaredDistanceInDegrees
+					bldr.openTransaction(SPACE);
+					appendSquaredDifference(latCol, wdConstr.getCentreLatitude());
+					bldr.append("+");
+					appendSquaredDifference(lonCol, wdConstr.getCentreLongitude());
+					bldr.append("*");
+					appendValue(latCol, wdConstr.getLongitudeFactor(), true);
+					bldr.append(getComparisonOperator(Comparison.SMALLER_OR_EQUAL));
+					appendValue(latCol, wdConstr.getSquaredDistanceInDegrees(), true);
+					bldr.commitTransaction();
 				}
-				else
-					bldr.append(lhsSCol.sapelliObjectToLiteral(sapValue, true));
+			}
+			
+			bldr.commitTransaction(false);
+			bldr.append(")", false);
+		}
+		
+		/**
+		 * Appends "[column] IS NOT NULL" as part of a conjunction, which ensures the whole conjunction is false, rather than NULL
+		 * (which would remain NULL when negated), for null values.
+		 */
+		private void appendIsNotNullConjunct(SColumn sqlCol)
+		{
+			bldr.openTransaction(SPACE);
+			bldr.append(sqlCol.sanitisedName);
+			bldr.append("IS NOT");
+			bldr.append(getNullString());
+			bldr.commitTransaction();
+		}
+		
+		private void appendSquaredDifference(SColumn sqlCol, double value)
+		{
+			for(int i = 0; i < 2; i++)
+			{
+				if(i > 0)
+					bldr.append("*");
+				bldr.append("(" + sqlCol.sanitisedName);
+				bldr.append("-");
+				appendValue(sqlCol, value, true);
+				bldr.append(")", false);
 			}
 		}
 
+		/**
+		 * Matching records are looked up in the full-text index, if there is one. Otherwise each search term is checked with a GLOB
+		 * pattern (which requires SQLite) on the lower-cased value, padded with spaces, e.g. for "foo": "*[separator]foo[separator]*".
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor#visit(uk.ac.ucl.excites.sapelli.storage.queries.constraints.TextMatchConstraint)
+		 */
+		@Override
+		public void visit(TextMatchConstraint textMatchConstr)
+		{
+			SColumn sqlCol = table.getSQLColumn(textMatchConstr.getColumnPointer());
+			FullTextIndex fullTextIndex;
+			try
+			{
+				fullTextIndex = table.getFullTextIndex(textMatchConstr.getColumnPointer());
+			}
+			catch(DBException dbE)
+			{
+				throw new IllegalStateException("Could not get full-text index", dbE);
+			}
+			
+			bldr.append("(");
+			bldr.openTransaction(" AND ");
+			if(fullTextIndex != null)
+			{
+				bldr.openTransaction(SPACE);
+				bldr.append(fullTextIndex.rowKeyExpression);
+				bldr.append("IN (SELECT rowid FROM");
+				bldr.append(fullTextIndex.sanitisedTableName);
+				bldr.append("WHERE");
+				bldr.append(sqlCol.sanitisedName);
+				bldr.append("MATCH");
+				appendValue(sqlCol, textMatchConstr.getMatchExpression(), true);
+				bldr.append(")", false);
+				bldr.commitTransaction();
+			}
+			else
+			{
+				appendIsNotNullConjunct(sqlCol);
+				for(String term : textMatchConstr.getTerms())
+				{
+					bldr.openTransaction(SPACE);
+					bldr.append("(' ' || LOWER(" + sqlCol.sanitisedName + ") || ' ')");
+					bldr.append("GLOB");
+					appendValue(sqlCol, TextMatchConstraint.IsPrefixTerm(term) ?
+											"*" + WORD_SEPARATOR_GLOB + term :
+											"*" + WORD_SEPARATOR_GLOB + term + WORD_SEPARATOR_GLOB + "*", true);
+					bldr.commitTransaction();
+				}
+			}
+			bldr.commitTransaction(false);
+			bldr.append(")", false);
+		}
+		
+		/**
+		 * Matching records are looked up in the list table: "[rowKey] IN (SELECT [parent] FROM [list table] WHERE [element] = ?)".
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor#visit(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ListContainsConstraint)
+		 */
+		@Override
+		public void visit(ListContainsConstraint listContainsConstr)
+		{
+			ListTable listTable = getListTable(listContainsConstr, listContainsConstr.getListColumnPointer());
+			if(listTable == null)
+				return;
+			bldr.append(listTable.rowKeyExpression);
+			bldr.append("IN (SELECT");
+			bldr.append(listTable.parentColumn.sanitisedName);
+			bldr.append("FROM");
+			bldr.append(listTable.sanitisedTableName);
+			bldr.append("WHERE");
+			appendValueComparison(listTable.elementColumn, Comparison.EQUAL, listContainsConstr.getElement());
+			bldr.append(")", false);
+		}
+		
+		/**
+		 * The size of a list is checked by testing whether it has elements at certain positions (see {@link #appendMinimumSize(ListTable, int, boolean)}),
+		 * e.g. "size = 2" becomes: "(list IS NOT NULL AND EXISTS ([element at position 1]) AND NOT EXISTS ([element at position 2]))".
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor#visit(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ListSizeConstraint)
+		 */
+		@Override
+		public void visit(ListSizeConstraint listSizeConstr)
+		{
+			ListTable listTable = getListTable(listSizeConstr, listSizeConstr.getListColumnPointer());
+			if(listTable == null)
+				return;
+			int size = listSizeConstr.getSize();
+			
+			bldr.append("(");
+			bldr.openTransaction(" AND ");
+			appendIsNotNullConjunct(table.getSQLColumn(listSizeConstr.getListColumnPointer())); // null lists have no size
+			switch(listSizeConstr.getComparison())
+			{
+				case SMALLER :
+					appendMinimumSize(listTable, size, false);
+					break;
+				case SMALLER_OR_EQUAL :
+					appendMinimumSize(listTable, size + 1, false);
+					break;
+				case EQUAL :
+					appendMinimumSize(listTable, size, true);
+					appendMinimumSize(listTable, size + 1, false);
+					break;
+				case NOT_EQUAL :
+					bldr.openTransaction(SPACE);
+					bldr.append("(");
+					bldr.openTransaction(" OR ");
+					appendMinimumSize(listTable, size, false);
+					appendMinimumSize(listTable, size + 1, true);
+					bldr.commitTransaction(false);
+					bldr.append(")", false);
+					bldr.commitTransaction();
+					break;
+				case GREATER_OR_EQUAL :
+					appendMinimumSize(listTable, size, true);
+					break;
+				case GREATER :
+					appendMinimumSize(listTable, size + 1, true);
+					break;
+			}
+			bldr.commitTransaction(false);
+			bldr.append(")", false);
+		}
+		
+		/**
+		 * Constraints on lists cannot be checked in SQL without list table, such constraints are evaluated in memory instead
+		 * (see {@link SQLTable#splitQuery(RecordsQuery)}).
+		 * 
+		 * @param listConstr
+		 * @param listColumnPointer
+		 * @return the list table, or {@code null} if there is none (in which case {@link #exception} is set)
+		 */
+		private ListTable getListTable(Constraint listConstr, ColumnPointer<?> listColumnPointer)
+		{
+			ListTable listTable;
+			try
+			{
+				listTable = table.getListTable(listColumnPointer);
+			}
+			catch(DBException dbE)
+			{
+				exception = dbE;
+				return null;
+			}
+			if(listTable == null) // should have been avoided by SQLTable#splitQuery(RecordsQuery):
+				exception = new DBException("Failed to generate SQL for " + listConstr.getClass().getSimpleName() + " on column " + listColumnPointer.getQualifiedColumnName(table.schema) + " without list table");
+			return listTable;
+		}
+		
+		/**
+		 * Appends a condition (as part of a conjunction or disjunction) which holds if the list has at least, or if {@code atLeast}
+		 * is {@code false} less than, the given number of elements, i.e.: "[NOT] EXISTS (SELECT 1 FROM [list table] WHERE [parent] = [table].[rowKey] AND [position] = size - 1)".
+		 * 
+		 * @param listTable
+		 * @param size
+		 * @param atLeast
+		 */
+		private void appendMinimumSize(ListTable listTable, int size, boolean atLeast)
+		{
+			bldr.openTransaction(SPACE);
+			if(size <= 0)
+			{	// every list has at least 0 elements:
+				bldr.append(Integer.toString(atLeast ? 1 : 0));
+				bldr.append(getComparisonOperator(Comparison.EQUAL));
+				bldr.append(Integer.toString(1));
+			}
+			else
+			{
+				if(!atLeast)
+					bldr.append("NOT");
+				bldr.append("EXISTS (SELECT 1 FROM");
+				bldr.append(listTable.sanitisedTableName);
+				bldr.append("WHERE");
+				bldr.openTransaction(" AND ");
+				bldr.openTransaction(SPACE);
+				bldr.append(listTable.parentColumn.sanitisedName);
+				bldr.append(getComparisonOperator(Comparison.EQUAL));
+				bldr.append(table.sanitisedName + "." + listTable.rowKeyExpression);
+				bldr.commitTransaction();
+				appendConjunct(listTable.positionColumn, Comparison.EQUAL, Long.valueOf(size - 1));
+				bldr.commitTransaction();
+				bldr.append(")", false);
+			}
+			bldr.commitTransaction();
+		}
+		
 		/**
 		 * Produces: "(flagsColumn & flagsPatter) = CAST(flagsPattern AS [type])"
 		 * 
@@ -2616,6 +4361,11 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		
 		protected void buildQuery(Query<?> query)
 		{
+			// Observe column usage if the index advisor is enabled:
+			IndexAdvisor advisor = indexAdvisor;
+			if(advisor != null && query != null)
+				usage = new IndexAdvisor.Usage(table.schema);
+			
 			// Build query:
 			bldr.append("SELECT");
 			bldr.append(projection.getProjectionString());
@@ -2632,7 +4382,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				return;
 			//else:
 			// 	GROUP BY
-			//		not supported (for now)
+			appendGroupBy();
 			//	ORDER BY
 			Order order = query.getOrder();
 			if(order.isDefined())
@@ -2670,10 +4420,21 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				bldr.append("LIMIT");
 				bldr.append(Integer.toString(query.getLimit()));
 			}
+			
+			// Report column usage to the index advisor:
+			if(usage != null)
+			{
+				if(query.isLimited())
+					usage.setLimit(query.getLimit());
+				advisor.record(usage);
+				usage = null;
+			}
 		}
 		
 		private void addOrderBy(SColumn sqlCol, boolean asc)
 		{
+			if(usage != null)
+				usage.addOrderColumn(sqlCol.sanitisedName);
 			bldr.openTransaction();
 			bldr.append(sqlCol.sanitisedName);
 			bldr.append(asc ? "ASC" : "DESC");
@@ -2686,6 +4447,14 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				addOrderBy(subSqlCol, asc);
 		}
 		
+		/**
+		 * Can be overridden to append a GROUP BY clause.
+		 */
+		protected void appendGroupBy()
+		{
+			// does nothing by default
+		}
+		
 		/**
 		 * Can be overridden with a method returning {@code true}, in which case {@link #appendWhereClause(Constraint)} will be called even when the {@link Query} is {@code null}.
 		 * 
@@ -2830,6 +4599,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	/**
 	 * A {@link SelectHelper} class for the execution of SELECT COUNT(*) queries.
 	 * 
+	 * The order of the {@link RecordsQuery} (if any) is ignored. If the query is limited the count is taken over a subquery
+	 * with the same LIMIT (i.e. "SELECT COUNT(*) FROM (SELECT 1 FROM ... LIMIT n)") so that counting stops after n matching rows.
+	 * 
 	 * @author mstevens
 	 */
 	protected class RecordCountHelper extends SelectHelper<SelectProjection>
@@ -2847,7 +4619,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		 * @param table
 		 * @param recordsQuery
 		 */
-		public RecordCountHelper(STable table, RecordsQuery recordsQuery)
+		public RecordCountHelper(STable table, final RecordsQuery recordsQuery)
 		{
 			super(	table,
 					new SelectProjection()
@@ -2855,10 +4627,140 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 						@Override
 						public String getProjectionString()
 						{
-							return "COUNT(*)";
+							return recordsQuery != null && recordsQuery.isLimited() ? "1" : "COUNT(*)";
 						}
 					},
-					recordsQuery);
+					false);
+			
+			if(recordsQuery == null)
+				buildQuery(null);
+			else
+			{
+				RecordsQuery unorderedQuery = new RecordsQuery(recordsQuery.getSource(), recordsQuery.getLimit(), recordsQuery.getConstraints());
+				if(recordsQuery.isLimited())
+				{
+					bldr.append("SELECT COUNT(*) FROM (");
+					bldr.openTransaction();
+					buildQuery(unorderedQuery);
+					bldr.commitTransaction(false);
+					bldr.append(")", false);
+				}
+				else
+					buildQuery(unorderedQuery);
+			}
+		}
+		
+	}
+	
+	/**
+	 * A {@link SelectProjection} class for the execution of SELECT queries that result in the (partial) rows of a {@link ValueQuery}.
+	 * 
+	 * Projections on columns which do not exist in the table are replaced by NULL, so the table still produces rows of the expected width.
+	 * 
+	 * @author mstevens
+	 */
+	protected class ValueSelectionProjection implements SelectProjection
+	{
+		
+		public final boolean distinct;
+		public final List<Projection> projections;
+		
+		/**
+		 * Contains one entry per projection, which is {@code null} for COUNT(*) and for columns which do not exist in the table
+		 */
+		public final List<SColumn> sqlColumns;
+		
+		public ValueSelectionProjection(STable table, ValueQuery query)
+		{
+			this.distinct = query.isDistinct() && !query.isAggregating();
+			this.projections = query.getPartialProjections();
+			this.sqlColumns = new ArrayList<SColumn>(projections.size());
+			for(Projection projection : projections)
+			{
+				SColumn sqlCol = null;
+				if(projection.columnPointer != null)
+				{
+					try
+					{
+						sqlCol = table.getSQLColumn(projection.columnPointer);
+					}
+					catch(IllegalArgumentException iae)
+					{
+						// column does not exist in the table's schema
+					}
+				}
+				sqlColumns.add(sqlCol);
+			}
+		}
+		
+		@Override
+		public String getProjectionString()
+		{
+			TransactionalStringBuilder projectionBldr = new TransactionalStringBuilder(", ");
+			for(int p = 0; p < projections.size(); p++)
+			{
+				Projection projection = projections.get(p);
+				SColumn sqlCol = sqlColumns.get(p);
+				String name = sqlCol != null ? sqlCol.sanitisedName : (projection.columnPointer == null ? "*" : getNullString());
+				switch(projection.function)
+				{
+					case VALUE :
+						projectionBldr.append(name);
+						break;
+					case COUNT :
+					case SUM :
+					case MIN :
+					case MAX :
+						projectionBldr.append(projection.function.name() + "(" + name + ")");
+						break;
+					default :
+						throw new IllegalArgumentException("Unsupported partial projection: " + projection); // AVG is split up in SUM & COUNT
+				}
+			}
+			return (distinct ? "DISTINCT " : "") + projectionBldr.toString();
+		}
+		
+	}
+	
+	/**
+	 * A {@link SelectHelper} class for the execution of SELECT queries resulting in the (partial) rows of a {@link ValueQuery}.
+	 * 
+	 * For plain (non-distinct, non-aggregating) queries the order and limit are passed on to the database,
+	 * otherwise only the constraints are, followed by a GROUP BY clause when the query is aggregating.
+	 * 
+	 * @author mstevens
+	 */
+	protected class ValueSelectHelper extends SelectHelper<ValueSelectionProjection>
+	{
+		
+		private final ValueQuery valueQuery;
+		
+		/**
+		 * @param table
+		 * @param valueQuery
+		 */
+		public ValueSelectHelper(STable table, ValueQuery valueQuery)
+		{
+			super(table, new ValueSelectionProjection(table, valueQuery), false);
+			this.valueQuery = valueQuery;
+			
+			// Build SELECT query:
+			buildQuery(valueQuery.getRecordSelectionQuery());
+		}
+		
+		@Override
+		protected void appendGroupBy()
+		{
+			if(!valueQuery.isAggregating() || valueQuery.getGroupBy().isEmpty())
+				return;
+			bldr.append("GROUP BY");
+			bldr.openTransaction(", ");
+			for(int g = 0; g < valueQuery.getGroupBy().size(); g++)
+			{	// GROUP BY columns are the first partial projections:
+				SColumn sqlCol = projection.sqlColumns.get(g);
+				bldr.append(sqlCol != null ? sqlCol.sanitisedName : getNullString());
+			}
+			bldr.commitTransaction();
 		}
 		
 	}
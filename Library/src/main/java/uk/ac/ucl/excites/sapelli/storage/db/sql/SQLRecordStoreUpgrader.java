@@ -22,6 +22,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,7 @@ import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.TableFactory;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.AutoIncrementingPrimaryKey;
@@ -370,21 +372,45 @@ public abstract class SQLRecordStoreUpgrader
 			// else:
 			List<Record> newRecords = new ArrayList<Record>(oldRecords.size());
 			for(Record oldRecord : oldRecords)
+				newRecords.add(convertRecord(oldRecord, newSchema.createRecord()));
+			return newRecords;
+		}
+		
+		/**
+		 * Batch version of {@link #convertRecords(List)}, the old records are materialised one at a time.
+		 * 
+		 * @param oldRecords
+		 * @return a batch of new records (or the given one if the conversion is transparent)
+		 */
+		public RecordBatch convertRecords(RecordBatch oldRecords)
+		{
+			if(isTransparent())
+				return oldRecords;
+			// else:
+			RecordBatch newRecords = new RecordBatch(newSchema, Math.max(oldRecords.size(), 1));
+			Record newRecord = newSchema.createRecord(); // reused
+			for(Iterator<Record> it = oldRecords.iterator(true); it.hasNext();)
+				newRecords.add(convertRecord(it.next(), newRecord));
+			return newRecords;
+		}
+		
+		/**
+		 * @param oldRecord
+		 * @param newRecord
+		 * @return the newRecord, with values copied or converted from the oldRecord
+		 */
+		private Record convertRecord(Record oldRecord, Record newRecord)
+		{
+			// Copy or convert values:
+			for(Column<?> newColumn : newSchema.getColumns(false))
 			{
-				// Create new record:
-				Record newRecord = newSchema.createRecord();
-				newRecords.add(newRecord);
-				// Copy or convert values:
-				for(Column<?> newColumn : newSchema.getColumns(false))
-				{
-					ColumnReplacer cr = getColumnReplacer(newColumn);
-					if(cr == null)
-						newColumn.copyValue(oldRecord, newRecord);
-					else
-						newColumn.storeObject(newRecord, cr.convertValue(newColumn, oldRecord));
-				}
+				ColumnReplacer cr = getColumnReplacer(newColumn);
+				if(cr == null)
+					newColumn.copyValue(oldRecord, newRecord);
+				else
+					newColumn.storeObject(newRecord, cr.convertValue(newColumn, oldRecord));
 			}
-			return newRecords;
+			return newRecord;
 		}
 		
 		/**
@@ -21,9 +21,12 @@ package uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite;
 import java.io.Closeable;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
@@ -37,15 +40,20 @@ import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.shared.util.StringUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.TimeUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.TransactionalStringBuilder;
+import uk.ac.ucl.excites.sapelli.shared.util.VersionComparator;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient;
+import uk.ac.ucl.excites.sapelli.storage.db.RecordCursor;
 import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBConstraintException;
 import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBPrimaryKeyException;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.QueryMetrics;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteBlobColumn;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteBooleanColumn;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteDoubleColumn;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteIntegerColumn;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteStringColumn;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteTimeStampColumn;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.upgrades.IntegerTimeStampsUpgradeStep;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
@@ -53,6 +61,7 @@ import uk.ac.ucl.excites.sapelli.storage.model.Record;
 import uk.ac.ucl.excites.sapelli.storage.model.RecordValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.ByteArrayColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
@@ -62,7 +71,18 @@ import uk.ac.ucl.excites.sapelli.storage.model.indexes.AutoIncrementingPrimaryKe
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.Index;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.PrimaryKey;
 import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery.Projection;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.ListContainsConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.ListSizeConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.TextMatchConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.WithinDistanceConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
+import uk.ac.ucl.excites.sapelli.storage.types.LineColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.Location;
+import uk.ac.ucl.excites.sapelli.storage.types.LocationColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.PolygonColumn;
 import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
 import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
 import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
@@ -96,6 +116,25 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	
 	static private final boolean LOG_QUALIFIED_QUERIES = false;
 	
+	/**
+	 * The maximum number of parameters in a single statement (SQLITE_MAX_VARIABLE_NUMBER, which defaults to 999 in SQLite versions prior to 3.32.0)
+	 * 
+	 * @see https://www.sqlite.org/limits.html#max_variable_number
+	 */
+	static public final int MAX_VARIABLE_NUMBER = 999;
+	
+	/**
+	 * The maximum number of rows to insert with a single multi-row INSERT statement
+	 */
+	static public final int MAX_ROWS_PER_INSERT = 64;
+	
+	/**
+	 * The first SQLite version to support "UPSERT" (i.e. INSERT ... ON CONFLICT ... DO UPDATE/NOTHING)
+	 * 
+	 * @see https://www.sqlite.org/lang_UPSERT.html
+	 */
+	static public final String UPSERT_MINIMUM_VERSION = "3.24.0";
+	
 	/**
 	 * Test method
 	 */
@@ -111,6 +150,36 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	// Dynamics---------------------------------------------
 	private final SQLiteTableFactory factory;
 	
+	private Boolean upsertSupported;
+	
+	private Boolean rTreeSupported;
+	
+	private String fullTextSearchModule;
+	
+	/**
+	 * The columns for which full-text indexes were requested, per schema (see {@link #enableFullTextSearch(Schema, StringColumn...)})
+	 */
+	private final Map<Schema, List<StringColumn>> fullTextColumns = new HashMap<Schema, List<StringColumn>>();
+	
+	/**
+	 * The columns for which spatial indexes were requested, per schema (see {@link #enableSpatialIndexes(Schema, Column...)})
+	 */
+	private final Map<Schema, List<Column<?>>> spatialIndexColumns = new HashMap<Schema, List<Column<?>>>();
+	
+	/**
+	 * The columns for which list tables were requested, per schema (see {@link #enableListTables(Schema, ListColumn...)})
+	 */
+	private final Map<Schema, List<ListColumn<?, ?>>> listTableColumns = new HashMap<Schema, List<ListColumn<?, ?>>>();
+	
+	private final SQLiteStatementCache statementCache = new SQLiteStatementCache();
+	
+	private boolean integerTimeStamps = false;
+	
+	/**
+	 * Start time (from {@link System#nanoTime()}) of the current outer transaction
+	 */
+	private long transactionStartNanos;
+	
 	/**
 	 * @param client
 	 */
@@ -132,6 +201,134 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		super.doInitialise(); // !!!
 	}
 
+	/**
+	 * Enables or disables the storage of {@link TimeStamp}s as INTEGERs (see {@link SQLiteTimeStampColumn}) instead of
+	 * as Strings, in tables which are created from now on. Existing tables keep their layout, which is recognised from the
+	 * declared types of their columns, regardless of this setting. To convert existing tables use the {@link IntegerTimeStampsUpgradeStep}.
+	 * 
+	 * @param enable
+	 * @throws DBException when the store has already been initialised (and it is not being upgraded)
+	 */
+	public void setIntegerTimeStamps(boolean enable) throws DBException
+	{
+		if(isInitialised() && !isInitialising())
+			throw new DBException("Changing 'integerTimeStamps' is only allowed before or during initialisation/upgrade!");
+		integerTimeStamps = enable;
+	}
+	
+	/**
+	 * @return whether {@link TimeStamp}s are stored as INTEGERs in newly created tables
+	 */
+	public boolean isUsingIntegerTimeStamps()
+	{
+		return integerTimeStamps;
+	}
+	
+	/**
+	 * Enables spatial indexes on the given top-level {@link LineColumn}s, {@link PolygonColumn}s and {@link LocationColumn}s of the given schema,
+	 * meaning {@link BoundingBoxConstraint}s (and {@link WithinDistanceConstraint}s) on those columns will be resolved using a side table which
+	 * holds the bounding box of each value (see {@link SQLiteSpatialIndex}). Indexes on Locations are only created if the SQLite engine supports
+	 * R*Trees (see {@link #isRTreeSupported()}), otherwise such constraints are resolved using the latitude and longitude columns.
+	 * The side tables are created along with the schema's table, or, if that table exists already, upon the first query which needs them.
+	 * Once created a spatial index is maintained, and used, until its table is dropped, also by sessions in which it is not enabled.
+	 * Constraints on Lines and Polygons without spatial index are evaluated in memory, on the records which match the query's other constraints.
+	 * 
+	 * @param schema
+	 * @param columns
+	 * @throws IllegalArgumentException when a column is not part of the schema, or is not a LineColumn, PolygonColumn or LocationColumn
+	 */
+	public void enableSpatialIndexes(Schema schema, Column<?>... columns) throws IllegalArgumentException
+	{
+		for(Column<?> column : columns)
+		{
+			if(!schema.containsColumn(column))
+				throw new IllegalArgumentException("Column " + column.name + " is not part of schema " + schema.getName());
+			if(!(column instanceof LineColumn || column instanceof PolygonColumn || column instanceof LocationColumn))
+				throw new IllegalArgumentException("Column " + column.name + " is not a geometry column");
+		}
+		if(columns.length > 0)
+			spatialIndexColumns.put(schema, Collections.unmodifiableList(Arrays.<Column<?>> asList(columns)));
+		else
+			spatialIndexColumns.remove(schema);
+	}
+	
+	/**
+	 * Enables full-text search on the given top-level {@link StringColumn}s of the given schema, meaning {@link TextMatchConstraint}s on
+	 * those columns will be resolved using an FTS virtual table which is kept in sync with the schema's table by triggers. The FTS table
+	 * is created along with the schema's table, or, if that table exists already, upon the first query which needs it. Calling this
+	 * method again with a different set of columns causes the FTS table to be rebuilt.
+	 * Does nothing if the SQLite engine has no FTS support (see {@link #getFullTextSearchModule()}), in which case (as well as for
+	 * columns without full-text search) {@link TextMatchConstraint}s are resolved by scanning the table.
+	 * 
+	 * @param schema
+	 * @param columns
+	 * @throws IllegalArgumentException when a column is not part of the schema
+	 */
+	public void enableFullTextSearch(Schema schema, StringColumn... columns) throws IllegalArgumentException
+	{
+		for(StringColumn column : columns)
+			if(!schema.containsColumn(column))
+				throw new IllegalArgumentException("Column " + column.name + " is not part of schema " + schema.getName());
+		if(columns.length > 0)
+			fullTextColumns.put(schema, Collections.unmodifiableList(Arrays.asList(columns)));
+		else
+			fullTextColumns.remove(schema);
+	}
+	
+	/**
+	 * Enables list tables for the given top-level {@link ListColumn}s of the given schema, meaning the elements of the lists in
+	 * those columns are (also) stored in a side table, one row per element, keyed by the ROWID of the record and the position of
+	 * the element in the list. This allows {@link ListContainsConstraint}s and {@link ListSizeConstraint}s on those columns to be
+	 * resolved using the indexes of the list table, rather than by deserialising every list (such constraints on columns without
+	 * list table are evaluated in memory, on the records which match the query's other constraints). The lists themselves are still
+	 * stored, and retrieved, as before (see {@link SQLiteTableFactory#visitListColumn(ListColumn, boolean)}).
+	 * The list tables are created along with the schema's table, or, if that table exists already, upon the first query which
+	 * needs them. They are kept up-to-date by the {@link SQLiteTable} after each insert or update, deletions are handled by a trigger.
+	 * Once created a list table is maintained, and used, until its table is dropped, also by sessions in which it is not enabled.
+	 * 
+	 * @param schema
+	 * @param columns
+	 * @throws IllegalArgumentException when a column is not part of the schema, or when list tables cannot hold its elements (see {@link #createListElementColumn(Column, String)})
+	 */
+	public void enableListTables(Schema schema, ListColumn<?, ?>... columns) throws IllegalArgumentException
+	{
+		for(ListColumn<?, ?> column : columns)
+		{
+			if(!schema.containsColumn(column))
+				throw new IllegalArgumentException("Column " + column.name + " is not part of schema " + schema.getName());
+			if(createListElementColumn(column.getSingleColumn(), column.getSingleColumn().name) == null)
+				throw new IllegalArgumentException("List table cannot hold elements of type " + column.getSingleColumn().getTypeString());
+		}
+		if(columns.length > 0)
+			listTableColumns.put(schema, Collections.unmodifiableList(Arrays.<ListColumn<?, ?>> asList(columns)));
+		else
+			listTableColumns.remove(schema);
+	}
+	
+	/**
+	 * Creates an {@link SQLiteColumn} for the element column of a list table. Only elements which are stored in a single SQLite
+	 * column with a type which supports equality comparisons are supported, being those of {@link IntegerColumn}s,
+	 * {@link FloatColumn}s, {@link StringColumn}s, {@link BooleanColumn}s and {@link ByteArrayColumn}s.
+	 * 
+	 * @param elementColumn
+	 * @param name
+	 * @return the column, or {@code null} if the elements of the given column cannot be stored in a list table
+	 */
+	protected SQLiteColumn<?, ?> createListElementColumn(Column<?> elementColumn, String name)
+	{
+		if(elementColumn instanceof IntegerColumn)
+			return new SQLiteIntegerColumn<Long>(this, name, null, null);
+		if(elementColumn instanceof FloatColumn)
+			return new SQLiteDoubleColumn<Double>(this, name, null, null);
+		if(elementColumn instanceof StringColumn)
+			return new SQLiteStringColumn<String>(this, name, null, null);
+		if(elementColumn instanceof BooleanColumn)
+			return new SQLiteBooleanColumn.Simple(this, name, null);
+		if(elementColumn instanceof ByteArrayColumn)
+			return new SQLiteBlobColumn<byte[]>(this, name, null, null);
+		return null;
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#getTableFactory()
 	 */
@@ -158,6 +355,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			try
 			{
 				executeSQL("BEGIN TRANSACTION;");
+				transactionStartNanos = System.nanoTime();
 			}
 			catch(Exception ex)
 			{
@@ -172,6 +370,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			try
 			{
 				executeSQL("COMMIT TRANSACTION;");
+				recordTransaction(true);
 			}
 			catch(Exception ex)
 			{
@@ -186,6 +385,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			try
 			{
 				executeSQL("ROLLBACK TRANSACTION;");
+				recordTransaction(false);
 			}
 			catch(DBException ex)
 			{
@@ -193,6 +393,22 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			}
 	}
 	
+	/**
+	 * Records the duration of the outer transaction which has just ended, if query metrics are being collected.
+	 * 
+	 * @param committed
+	 */
+	private void recordTransaction(boolean committed)
+	{
+		QueryMetrics metrics = getQueryMetrics();
+		if(metrics != null)
+		{
+			metrics.transactionEnded(System.nanoTime() - transactionStartNanos, committed);
+			if(metrics.isDumpDue())
+				client.logInfo(metrics.dump());
+		}
+	}
+	
 	/**
 	 * 
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#sanitiseIdentifier(java.lang.String)
@@ -231,6 +447,53 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		}
 	}
 	
+	/**
+	 * @param unsanitisedTableName
+	 * @return the SQL statement by which the table with the given name was created, or {@code null} if there is no such table
+	 * @throws DBException
+	 */
+	protected String getTableDefinition(String unsanitisedTableName) throws DBException
+	{
+		SQLiteCursor cursor = null;
+		try
+		{
+			cursor = executeQuery(	"SELECT sql FROM sqlite_master WHERE type='table' AND name=?;",
+									Collections.<SQLiteColumn<?, ?>> singletonList(new SQLiteStringColumn<String>(this, "name", null, null)),
+									Collections.<String> singletonList(unsanitisedTableName));
+			return cursor != null && cursor.moveToNext() ? cursor.getString(0) : null;
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/**
+	 * @param unsanitisedTableName
+	 * @return a map with the declared type of every column of the table with the given name, keyed by unsanitised column name (empty if there is no such table)
+	 * @throws DBException
+	 */
+	protected Map<String, String> getDeclaredColumnTypes(String unsanitisedTableName) throws DBException
+	{
+		Map<String, String> types = new HashMap<String, String>();
+		SQLiteCursor cursor = null;
+		try
+		{
+			cursor = executeQuery(	"PRAGMA table_info(" + sanitiseIdentifier(unsanitisedTableName) + ");",
+									Collections.<SQLiteColumn<?, ?>> emptyList(),
+									Collections.<String> emptyList());
+			while(cursor != null && cursor.moveToNext())
+				types.put(cursor.getString(1), cursor.getString(2)); // columns: cid, name, type, notnull, dflt_value, pk
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+		return types;
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#getAllTableNames()
 	 */
@@ -262,6 +525,46 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		}
 	}
 
+	/**
+	 * The side tables of the table (i.e. of its spatial indexes, list tables and FTS table) and the triggers which maintain them are dropped first,
+	 * as their names are derived from that of the table. They will be recreated (under the new name) if they are enabled for the schema.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#renameTable(java.lang.String, java.lang.String)
+	 */
+	@Override
+	protected void renameTable(String oldTableName, String newTableName) throws DBException
+	{
+		// Find triggers on the table (these all belong to side tables, each of which has a "[side table]_delete" trigger):
+		List<String> triggerNames = new ArrayList<String>();
+		SQLiteCursor cursor = null;
+		try
+		{
+			SQLiteStringColumn<String> nameCol = new SQLiteStringColumn<String>(this, "name", null, null);
+			cursor = executeQuery(	"SELECT name FROM sqlite_master WHERE type='trigger' AND tbl_name=?;",
+									Collections.<SQLiteColumn<?, ?>> singletonList(nameCol),
+									Collections.<String> singletonList(oldTableName));
+			if(cursor != null)
+				while(cursor.moveToNext())
+					CollectionUtils.addIgnoreNull(triggerNames, nameCol.getValueOrNull(cursor, 0));
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+		
+		// Drop triggers & side tables:
+		release(); // SQLite won't drop tables which open statements refer to
+		for(String triggerName : triggerNames)
+		{
+			executeSQL(String.format("DROP TRIGGER IF EXISTS %s;", sanitiseIdentifier(triggerName)));
+			if(triggerName.endsWith("_delete"))
+				executeSQL(String.format("DROP TABLE IF EXISTS %s;", sanitiseIdentifier(triggerName.substring(0, triggerName.length() - "_delete".length()))));
+		}
+		
+		super.renameTable(oldTableName, newTableName);
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#hasFullIndexSupport()
 	 */
@@ -289,6 +592,109 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		return QUOTE_ESCAPE_STRING;
 	}
 	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#getNullSafeInequalityOperator()
+	 */
+	@Override
+	protected String getNullSafeInequalityOperator()
+	{
+		return "IS NOT";
+	}
+	
+	/**
+	 * @return the version of the SQLite engine in use (e.g. "3.8.7")
+	 * @throws DBException
+	 */
+	public String getSQLiteVersion() throws DBException
+	{
+		SQLiteCursor cursor = null;
+		try
+		{
+			cursor = executeQuery("SELECT sqlite_version();", Collections.<SQLiteColumn<?, ?>> emptyList(), Collections.emptyList());
+			return cursor != null && cursor.moveToNext() ? cursor.getString(0) : null;
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/**
+	 * @return whether or not the SQLite engine in use supports "UPSERT" (i.e. INSERT ... ON CONFLICT ... DO UPDATE/NOTHING)
+	 * @throws DBException
+	 */
+	public boolean isUpsertSupported() throws DBException
+	{
+		if(upsertSupported == null)
+			upsertSupported = VersionComparator.isAtLeast(getSQLiteVersion(), UPSERT_MINIMUM_VERSION);
+		return upsertSupported;
+	}
+	
+	/**
+	 * @return whether or not the SQLite engine in use was compiled with the R*Tree module
+	 * @throws DBException
+	 * 
+	 * @see https://www.sqlite.org/rtree.html
+	 * @see https://www.sqlite.org/compile.html#enable_rtree
+	 */
+	public boolean isRTreeSupported() throws DBException
+	{
+		if(rTreeSupported == null)
+		{
+			SQLiteCursor cursor = null;
+			try
+			{
+				cursor = executeQuery("SELECT sqlite_compileoption_used('ENABLE_RTREE');", Collections.<SQLiteColumn<?, ?>> emptyList(), Collections.emptyList());
+				rTreeSupported = cursor != null && cursor.moveToNext() && cursor.getLong(0) == 1;
+			}
+			finally
+			{
+				if(cursor != null)
+					cursor.close();
+			}
+		}
+		return rTreeSupported;
+	}
+	
+	/**
+	 * @return the name of the most recent full-text search module supported by the SQLite engine in use ("fts5" or "fts4"), or {@code null} if there is none
+	 * @throws DBException
+	 * 
+	 * @see https://www.sqlite.org/fts5.html
+	 * @see https://www.sqlite.org/fts3.html
+	 */
+	public String getFullTextSearchModule() throws DBException
+	{
+		if(fullTextSearchModule == null)
+		{
+			SQLiteCursor cursor = null;
+			try
+			{	// Note: FTS4 is enabled along with FTS3
+				cursor = executeQuery("SELECT sqlite_compileoption_used('ENABLE_FTS5'), sqlite_compileoption_used('ENABLE_FTS4') OR sqlite_compileoption_used('ENABLE_FTS3');", Collections.<SQLiteColumn<?, ?>> emptyList(), Collections.emptyList());
+				if(cursor != null && cursor.moveToNext())
+					fullTextSearchModule = cursor.getLong(0) == 1 ? "fts5" : (cursor.getLong(1) == 1 ? "fts4" : "");
+			}
+			finally
+			{
+				if(cursor != null)
+					cursor.close();
+			}
+		}
+		return fullTextSearchModule == null || fullTextSearchModule.isEmpty() ? null : fullTextSearchModule;
+	}
+	
+	/**
+	 * Returns the ROWID of the last row inserted through the database connection, if this can be determined cheaply (i.e. without running a query).
+	 * 
+	 * @return the last inserted ROWID or {@code null} if it cannot be (cheaply) determined
+	 * @throws DBException
+	 */
+	protected Long getLastInsertROWID() throws DBException
+	{
+		return null;
+	}
+	
 	/**
 	 * @param sql
 	 * @param paramCols list of SQLiteColumns which the parameters (?s) in the sql correspond to
@@ -381,15 +787,199 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	protected abstract SQLiteStatement generateStatement(String sql, List<SQLiteColumn<?, ?>> paramCols) throws DBException;
 	
 	/**
+	 * Whether or not the {@link SQLiteStatement}s returned by {@link #generateStatement(String, List)} support {@link SQLiteStatement#executeSelectRows()}.
+	 * If they do SELECT queries on {@link RecordsQuery}s make use of the {@link #getStatementCache() statement cache}, otherwise they go through {@link #executeQuery(String, List, List)}.
 	 * 
-	 * @author mstevens
+	 * @return whether or not SELECT queries can be executed using (cached) statements, default is {@code false}
 	 */
-	public class SQLiteTable extends SQLRecordStore<SQLiteRecordStore, SQLiteRecordStore.SQLiteTable, SQLiteRecordStore.SQLiteColumn<?, ?>>.SQLTable
+	protected boolean isSelectStatementSupported()
 	{
-
-		private final StatementHandle ROWIDStatementHandle = new StatementHandle(/*SelectROWIDHelper.class*/)
+		return false;
+	}
+	
+	/**
+	 * May be overridden by subclasses which use more than one connection, as compiled statements can only be used with the connection they belong to.
+	 * 
+	 * @return the cache of compiled statements used for SELECT, COUNT and DELETE queries on {@link RecordsQuery}s by the current connection (exposes hit/miss counts)
+	 */
+	public SQLiteStatementCache getStatementCache()
+	{
+		return statementCache;
+	}
+	
+	/**
+	 * Clears the statement cache(s), must be called when tables are dropped or released.
+	 * May be overridden by subclasses which keep a statement cache for each of their connections.
+	 */
+	protected void clearStatementCaches()
+	{
+		statementCache.clear();
+	}
+	
+	/**
+	 * Returns a cached statement for the given SQL, or compiles a new one if none is available.
+	 * The statement must be handed back through {@link #releaseCachedStatement(String, SQLiteStatement)} (or closed) after use.
+	 * 
+	 * @param sql
+	 * @param paramCols - may be null
+	 * @return
+	 * @throws DBException
+	 */
+	protected SQLiteStatement getCachedStatement(String sql, List<SQLiteColumn<?, ?>> paramCols) throws DBException
+	{
+		SQLiteStatement statement = getStatementCache().checkOut(sql);
+		if(statement == null)
+			statement = prepareStatement(sql, paramCols);
+		else if(getQueryMetrics() != null)
+			getQueryMetrics().statementReused(sql);
+		return statement;
+	}
+	
+	/**
+	 * Compiles a new statement using {@link #generateStatement(String, List)}. If query metrics are being collected
+	 * the compilation is recorded and the statement is wrapped such that its executions are measured.
+	 * 
+	 * @param sql
+	 * @param paramCols - may be null
+	 * @return
+	 * @throws DBException
+	 */
+	protected SQLiteStatement prepareStatement(String sql, List<SQLiteColumn<?, ?>> paramCols) throws DBException
+	{
+		SQLiteStatement statement = generateStatement(sql, paramCols);
+		QueryMetrics metrics = getQueryMetrics();
+		if(metrics == null)
+			return statement;
+		metrics.statementPrepared(sql);
+		return new MeasuredStatement(sql, statement);
+	}
+	
+	/**
+	 * Resets the given statement (also clearing its bindings) and returns it to the cache.
+	 * 
+	 * @param sql
+	 * @param statement
+	 */
+	protected void releaseCachedStatement(String sql, SQLiteStatement statement)
+	{
+		statement.clearAllBindings(); // also resets the statement, such that it no longer holds on to any locks
+		getStatementCache().checkIn(sql, statement);
+	}
+	
+	/**
+	 * Executes a SELECT query using a cached statement if possible (see {@link #isSelectStatementSupported()}), or using {@link #executeQuery(String, List, List)} otherwise.
+	 * The statement is returned to the cache when the returned cursor is closed.
+	 * If query metrics are being collected the time it takes to execute the query and to step through the results is
+	 * measured, the measurement is recorded when the returned cursor is closed.
+	 * 
+	 * @param sql
+	 * @param paramCols list of SQLiteColumns which the parameters (?s) in the sql correspond to
+	 * @param sapArguments list of SapType object which are the values to be bound to the parameters
+	 * @return an cursor to iterate over the results
+	 * @throws DBException
+	 */
+	protected SQLiteCursor executeCachedQuery(String sql, List<SQLiteColumn<?, ?>> paramCols, List<? extends Object> sapArguments) throws DBException
+	{
+		QueryMetrics metrics = getQueryMetrics();
+		long startNanos = metrics != null ? System.nanoTime() : 0;
+		SQLiteCursor cursor;
+		if(!isSelectStatementSupported())
 		{
-			@Override
+			if(metrics != null)
+				metrics.statementPrepared(sql); // executeQuery() compiles a new statement every time
+			cursor = executeQuery(sql, paramCols, sapArguments);
+		}
+		else
+		{
+			// Get statement:
+			SQLiteStatement selectStatement = getCachedStatement(sql, paramCols);
+			try
+			{
+				// Bind parameters:
+				selectStatement.bindAll(sapArguments);
+				
+				// Log query & arguments:
+				if(isLoggingEnabled())
+					client.logInfo("SQLite> " + getQueryLogMessage(sql, paramCols, sapArguments));
+				
+				// Execute and get cursor:
+				cursor = new CachedStatementCursor(sql, selectStatement, selectStatement.executeSelectRows());
+			}
+			catch(DBException | RuntimeException e)
+			{
+				selectStatement.close(); // don't return it to the cache
+				throw e;
+			}
+		}
+		return metrics != null && cursor != null ? new MeasuredCursor(metrics, sql, cursor, System.nanoTime() - startNanos) : cursor;
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#explainQueryPlan(java.lang.String)
+	 */
+	@Override
+	protected List<String> explainQueryPlan(String sql) throws DBException
+	{
+		SQLiteCursor cursor = null;
+		try
+		{
+			cursor = executeQuery("EXPLAIN QUERY PLAN " + sql, Collections.<SQLiteColumn<?, ?>> emptyList(), Collections.emptyList());
+			List<String> steps = new ArrayList<String>();
+			if(cursor != null)
+				while(cursor.moveToNext())
+					steps.add(cursor.getString(3)); // the "detail" column
+			return steps;
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#countDistinctValues(uk.ac.ucl.excites.sapelli.storage.model.Schema, java.util.List)
+	 */
+	@Override
+	protected long countDistinctValues(Schema schema, List<String> sanitisedColumnNames) throws DBException
+	{
+		SQLiteCursor cursor = null;
+		try
+		{
+			cursor = executeQuery(	"SELECT COUNT(*) FROM (SELECT DISTINCT " + StringUtils.join(sanitisedColumnNames, ", ") + " FROM " + sanitiseIdentifier(schema.tableName) + ");",
+									Collections.<SQLiteColumn<?, ?>> emptyList(),
+									Collections.emptyList());
+			if(cursor != null && cursor.moveToNext())
+				return cursor.getLong(0);
+			return -1;
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore#release()
+	 */
+	@Override
+	protected void release()
+	{
+		clearStatementCaches();
+		super.release();
+	}
+	
+	/**
+	 * 
+	 * @author mstevens
+	 */
+	public class SQLiteTable extends SQLRecordStore<SQLiteRecordStore, SQLiteRecordStore.SQLiteTable, SQLiteRecordStore.SQLiteColumn<?, ?>>.SQLTable
+	{
+
+		private final StatementHandle ROWIDStatementHandle = new StatementHandle(/*SelectROWIDHelper.class*/)
+		{
+			@Override
 			protected StatementHelper getHelper()
 			{
 				return new SelectROWIDHelper(SQLiteTable.this);
@@ -403,6 +993,30 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 				return new RecordInsertHelper(SQLiteTable.this);
 			}
 		};
+		private final StatementHandle upsertStatementHandle = new StatementHandle()
+		{
+			@Override
+			protected StatementHelper getHelper()
+			{
+				return new RecordUpsertHelper(SQLiteTable.this, true);
+			}
+		};
+		private final StatementHandle insertIfAbsentStatementHandle = new StatementHandle()
+		{
+			@Override
+			protected StatementHelper getHelper()
+			{
+				return new RecordUpsertHelper(SQLiteTable.this, false);
+			}
+		};
+		private final StatementHandle multiRowInsertStatementHandle = new StatementHandle()
+		{
+			@Override
+			protected StatementHelper getHelper()
+			{
+				return new RecordInsertHelper(SQLiteTable.this, getRowsPerMultiRowInsert());
+			}
+		};
 		private final StatementHandle updateStatementHandle = new StatementHandle(/*RecordUpdateHelper.class*/)
 		{
 			@Override
@@ -436,6 +1050,24 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		 * @see https://www.sqlite.org/autoinc.html
 		 */
 		private SQLiteIntegerColumn<?> rowidAliasColumn;
+		
+		/**
+		 * Potential spatial indexes on the geometry columns of the table (see {@link #getPotentialSpatialIndexes()}), and those which are
+		 * enabled or exist in the database (see {@link #getSpatialIndexes()}), initialised on first use, and the columns they were initialised for.
+		 */
+		private List<SQLiteSpatialIndex> potentialSpatialIndexes;
+		private List<SQLiteSpatialIndex> spatialIndexes;
+		private List<Column<?>> spatialIndexesColumns;
+		
+		private SQLiteFullTextIndex fullTextIndex;
+		
+		/**
+		 * Potential list tables of the table (see {@link #getPotentialListTables()}), and those which are enabled or exist in
+		 * the database (see {@link #getListTables()}), initialised on first use, and the columns they were initialised for.
+		 */
+		private List<SQLiteListTable> potentialListTables;
+		private List<SQLiteListTable> listTables;
+		private List<ListColumn<?, ?>> listTablesColumns;
 
 		public SQLiteTable(Schema schema)
 		{
@@ -509,12 +1141,15 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			// Check if the value of the ROWID is bound:
 			Long boundROWID = rowidAliasColumn != null ? rowidAliasColumn.retrieve(record) : null;
 			
-			if(boundROWID == null && schema.getAutoIncrementingPrimaryKeyColumn() != null)
-				// If the is an "auto-incrementing" primary key column (which is always the ROWID alias as well),
+			boolean ownTransaction = false;
+			if(boundROWID == null && schema.getAutoIncrementingPrimaryKeyColumn() != null && !isInTransaction())
+			{	// If the is an "auto-incrementing" primary key column (which is always the ROWID alias as well),
 				//	and its value isn't bound yet, then SQLite will determine the value. But we must be careful
 				//	because the value may not fit in the IntegerColumn. If it doesn't we must be able to undo
-				//	the insertion. Hence we start a transaction:
+				//	the insertion. Hence we start a transaction (unless one is open already, e.g. during a bulk insert):
 				startTransaction();
+				ownTransaction = true;
+			}
 			
 			// Execute:
 			long rowID = insertStatement.executeInsert();
@@ -548,22 +1183,117 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 						rollbackTransactions(); // Undo the INSERT!
 						throw new DBPrimaryKeyException(insertStatement.formatMessageWithSQL("Execution of INSERT statement (%s) failed: auto-incrementing PK value invalid"), ive);
 					}
-					// AutoIncr value was valid, commit transaction:
-					commitTransaction();
+					// AutoIncr value was valid, commit transaction (if we opened one):
+					if(ownTransaction)
+						commitTransaction();
 				}
 			}
+			
+			updateSideTables(record, rowID);
 		}
 
 		/**
-		 * Note:
-		 * 	Currently the detection of _actual_ changes to the record does *not* work.
-		 * 	If the UPDATE statement's WHERE clause matches an existing row that row will (at least in SQLite) be considered
-		 * 	as changed/affected (i.e. this method will return true) even if the actual values remained unchanged.
-		 * 	The only obvious way to fix this is to generate UPDATE statements in which the WHERE clause checks whether
-		 * 	values _need_ to be updated. E.g. "UPDATE table SET col1 = "newVal1", col2 = "newVal2" WHERE id = X AND (col1 IS NOT 'newVal1' OR col2 IS NOT 'newVal2');"
-		 * 	We could implement such a solution in RecordUpdateHelper but will wait until we are certain this feature will be required.
-		 * @see See: <a href="http://stackoverflow.com/questions/26372449">http://stackoverflow.com/questions/26372449</a>
-		 * TODO implement solution to detect actual record value changes
+		 * @return the number of rows to insert per multi-row INSERT statement, such that the number of parameters stays within {@link SQLiteRecordStore#MAX_VARIABLE_NUMBER}
+		 */
+		protected int getRowsPerMultiRowInsert()
+		{
+			return Math.max(1, Math.min(MAX_ROWS_PER_INSERT, MAX_VARIABLE_NUMBER / sqlColumns.size()));
+		}
+		
+		/**
+		 * Bulk inserts skip the existence check ("SELECT ROWID") performed by {@link #store(Record, boolean)} where possible:
+		 * <ul>
+		 * <li>in {@link BulkMode#INSERT_ONLY} mode each record is inserted with a (reused) "INSERT ... ON CONFLICT([PK columns]) DO NOTHING" statement, and the number of changed rows tells us whether it was new;
+		 * 	SQLite versions without UPSERT support lack a way to ignore <em>only</em> primary key conflicts ("INSERT OR IGNORE" would also suppress NOT NULL, CHECK and other UNIQUE violations),
+		 * 	so there the existence check is kept and new records are inserted with a plain INSERT;</li>
+		 * <li>in {@link BulkMode#INSERT_NEW} mode records are inserted in groups of {@link #getRowsPerMultiRowInsert()} with a (reused) multi-row INSERT statement.</li>
+		 * </ul>
+		 * Records whose auto-incrementing primary key value is yet to be determined are always inserted one by one, using {@link #insert(Record)}.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#store(java.util.List, uk.ac.ucl.excites.sapelli.storage.db.RecordStore.BulkMode)
+		 */
+		@Override
+		public synchronized Boolean[] store(List<Record> records, BulkMode mode) throws DBPrimaryKeyException, DBConstraintException, DBException, IllegalStateException
+		{
+			if(mode == BulkMode.STORE)
+				return super.store(records, mode);
+			
+			Boolean[] results = new Boolean[records.size()];
+			IntegerColumn autoKeyCol = schema.getAutoIncrementingPrimaryKeyColumn();
+			int rowsPerInsert = mode == BulkMode.INSERT_NEW ? getRowsPerMultiRowInsert() : 1;
+			List<Record> pending = new ArrayList<Record>(rowsPerInsert);
+			int r = 0;
+			for(Record record : records)
+			{
+				if(autoKeyCol != null && !autoKeyCol.isValuePresent(record))
+				{	// SQLite will determine the key value:
+					insertPending(pending);
+					insert(record);
+					results[r] = Boolean.TRUE;
+				}
+				else if(mode == BulkMode.INSERT_ONLY && !isUpsertSupported())
+				{
+					if(getROWID(record) == null) // otherwise the record exists and is left untouched
+					{
+						insert(record); // any constraint violation is thrown
+						results[r] = Boolean.TRUE;
+					}
+				}
+				else if(mode == BulkMode.INSERT_ONLY)
+				{
+					SQLiteStatement insertIfAbsentStatement = insertIfAbsentStatementHandle.getStatement();
+					insertIfAbsentStatement.retrieveAndBindAll(record);
+					if(insertIfAbsentStatement.executeUpdate() == 1) // otherwise the record existed and was left untouched
+					{
+						results[r] = Boolean.TRUE;
+						updateSideTables(record, null);
+					}
+				}
+				else
+				{
+					pending.add(record);
+					results[r] = Boolean.TRUE;
+					if(pending.size() == rowsPerInsert)
+						insertPending(pending);
+				}
+				r++;
+			}
+			insertPending(pending);
+			return results;
+		}
+		
+		/**
+		 * Inserts the given records, all at once if there are exactly {@link #getRowsPerMultiRowInsert()} of them, otherwise one by one.
+		 * The list is cleared afterwards.
+		 * 
+		 * @param records
+		 * @throws DBPrimaryKeyException
+		 * @throws DBConstraintException
+		 * @throws DBException
+		 */
+		private void insertPending(List<Record> records) throws DBPrimaryKeyException, DBConstraintException, DBException
+		{
+			if(records.isEmpty())
+				return;
+			if(records.size() == getRowsPerMultiRowInsert() && records.size() > 1)
+			{
+				SQLiteStatement multiRowInsertStatement = multiRowInsertStatementHandle.getStatement();
+				multiRowInsertStatement.retrieveAndBindAll(records);
+				multiRowInsertStatement.executeInsert(); // a conflict aborts the whole statement, so if we get here all rows were inserted...
+				if(multiRowInsertStatement.mustLastInsertBeVerified() && !isRecordInDB(records.get(records.size() - 1))) // ... unless the driver is unsure
+					throw new DBException(multiRowInsertStatement.formatMessageWithSQL("Execution of multi-row INSERT statement (%s) failed: last record not found"));
+				for(Record record : records)
+					updateSideTables(record, null);
+			}
+			else
+				for(Record record : records)
+					insert(record);
+			records.clear();
+		}
+		
+		/**
+		 * Thanks to the change detection in the WHERE clause (see {@link RecordUpdateHelper#appendChangeDetection(Record)})
+		 * this returns {@code false} if the stored row already held the exact same values.
 		 * 
 		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#update(uk.ac.ucl.excites.sapelli.storage.model.Record)
 		 */
@@ -577,13 +1307,76 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			updateStatement.retrieveAndBindAll(record);
 			
 			// Execute:
-			return updateStatement.executeUpdate() == 1;
+			if(updateStatement.executeUpdate() != 1)
+				return false;
+			
+			updateSideTables(record, null);
+			return true;
+		}
+		
+		/**
+		 * On SQLite versions which support UPSERT this avoids the "SELECT ROWID" existence check done by the default implementation.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#store(uk.ac.ucl.excites.sapelli.storage.model.Record, boolean)
+		 */
+		@Override
+		public Boolean store(Record record, boolean updateAllowed) throws DBPrimaryKeyException, DBConstraintException, DBException, IllegalStateException
+		{
+			if(updateAllowed && isUpsertSupported())
+				return upsert(record);
+			else
+				return super.store(record, updateAllowed);
 		}
 		
-		public synchronized void upsert(Record record) throws DBException
+		/**
+		 * Inserts the record if it is new, or updates it if it exists and any of its values differ from the stored ones, using SQLite's UPSERT syntax
+		 * (requires {@link SQLiteRecordStore#isUpsertSupported()}).
+		 * 
+		 * If the table's primary key is an alias for the ROWID and the last inserted ROWID can be determined cheaply this takes a single
+		 * "INSERT ... ON CONFLICT DO UPDATE ... WHERE [values differ]" statement: the number of changed rows tells us whether anything happened,
+		 * and the last inserted ROWID tells us whether it was an INSERT (an UPDATE leaves it untouched).
+		 * Otherwise an "INSERT ... ON CONFLICT DO NOTHING" statement is followed, for existing records, by an UPDATE with change detection.
+		 * 
+		 * @param record
+		 * @return whether the record was new (i.e. it was INSERTed; returns {@code true}), modified (i.e. UPDATEd; returns {@code false}), or neither (i.e. the exact same record was already stored; returns {@code null})
+		 * @throws DBPrimaryKeyException
+		 * @throws DBConstraintException
+		 * @throws DBException
+		 * 
+		 * @see https://www.sqlite.org/lang_UPSERT.html
+		 * @see https://www.sqlite.org/c3ref/last_insert_rowid.html
+		 */
+		public synchronized Boolean upsert(Record record) throws DBPrimaryKeyException, DBConstraintException, DBException
 		{
-			// TODO first read http://stackoverflow.com/questions/3634984/insert-if-not-exists-else-update 
-			// and http://stackoverflow.com/questions/418898/sqlite-upsert-not-insert-or-replace
+			// If SQLite is to determine the (auto-incrementing) key value the record must be new:
+			if(!record.isReferenceable() /*also checks autoIncrPK*/)
+			{
+				insert(record);
+				return Boolean.TRUE;
+			}
+			
+			// Single statement:
+			Long key = rowidAliasColumn != null ? rowidAliasColumn.retrieve(record) : null;
+			Long lastROWIDBefore = key != null ? getLastInsertROWID() : null;
+			if(lastROWIDBefore != null && !lastROWIDBefore.equals(key)) // (if they are equal we would not be able to tell an INSERT from an UPDATE)
+			{
+				SQLiteStatement upsertStatement = upsertStatementHandle.getStatement();
+				upsertStatement.retrieveAndBindAll(record);
+				if(upsertStatement.executeUpdate() == 0)
+					return null; // the exact same record was already stored
+				updateSideTables(record, key);
+				return key.equals(getLastInsertROWID()) ? Boolean.TRUE : Boolean.FALSE;
+			}
+			
+			// Two statements:
+			SQLiteStatement insertIfAbsentStatement = insertIfAbsentStatementHandle.getStatement();
+			insertIfAbsentStatement.retrieveAndBindAll(record);
+			if(insertIfAbsentStatement.executeUpdate() == 1)
+			{
+				updateSideTables(record, null);
+				return Boolean.TRUE;
+			}
+			return update(record) ? Boolean.FALSE : null;
 		}
 
 		/* (non-Javadoc)
@@ -607,20 +1400,25 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		 */
 		public synchronized int delete(RecordsQuery query) throws DBException
 		{
+			SplitQuery splitQuery = splitQuery(query);
+			if(splitQuery != null)
+				return splitQuery.delete();
 			RecordsDeleteHelper deleteHelper = new RecordsDeleteHelper(this, query);
-			SQLiteStatement deleteByQStatement = generateStatement(deleteHelper.getQuery(), deleteHelper.getParameterColumns());
-			
-			// Bind parameters:
-			deleteByQStatement.bindAll(deleteHelper.getSapArguments());
-			
-			// Execute:
-			int affected = deleteByQStatement.executeDelete();
-			
-			// Close statement:
-			deleteByQStatement.close();
-			
-			// Return number of affected rows:
-			return affected;
+			String sql = deleteHelper.getQuery();
+			SQLiteStatement deleteByQStatement = getCachedStatement(sql, deleteHelper.getParameterColumns());
+			try
+			{
+				// Bind parameters:
+				deleteByQStatement.bindAll(deleteHelper.getSapArguments());
+				
+				// Execute & return number of affected rows:
+				return deleteByQStatement.executeDelete();
+			}
+			finally
+			{
+				// Return statement to cache:
+				releaseCachedStatement(sql, deleteByQStatement);
+			}
 		}
 
 		/* (non-Javadoc)
@@ -633,7 +1431,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			try
 			{
 				// Execute query (also binds parameters) to get cursor:
-				cursor = executeQuery(recordValueSetSelectHelper.getQuery(), recordValueSetSelectHelper.getParameterColumns(), recordValueSetSelectHelper.getSapArguments());
+				cursor = executeCachedQuery(recordValueSetSelectHelper.getQuery(), recordValueSetSelectHelper.getParameterColumns(), recordValueSetSelectHelper.getSapArguments());
 				// Deal with cursor:
 				if(cursor == null || !cursor.hasRow())
 					// No results:
@@ -659,6 +1457,57 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			}
 		}
 		
+		/**
+		 * Streams rows straight from the {@link SQLiteCursor}, converting each to a {@link Record} only when it is requested.
+		 * When {@code reuseRecord} is {@code true} a single Record instance is cleared and refilled for every row.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#selectCursor(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery, boolean)
+		 */
+		@Override
+		public RecordCursor selectCursor(RecordsQuery query, final boolean reuseRecord) throws DBException
+		{
+			SplitQuery splitQuery = splitQuery(query);
+			if(splitQuery != null)
+				return RecordCursor.Over(splitQuery.select());
+			final RecordValueSetSelectHelper<Record> selectHelper = getRecordSelectHelper(query);
+			
+			// Execute query (also binds parameters) to get cursor:
+			final SQLiteCursor cursor = executeCachedQuery(selectHelper.getQuery(), selectHelper.getParameterColumns(), selectHelper.getSapArguments());
+			if(cursor == null || !cursor.hasRow())
+			{	// No results:
+				if(cursor != null)
+					cursor.close(); // !!!
+				return RecordCursor.Over(null);
+			}
+			
+			// Wrap cursor:
+			return new RecordCursor()
+			{
+				private Record record;
+				
+				@Override
+				protected Record fetchNext() throws DBException
+				{
+					if(!cursor.moveToNext())
+						return null;
+					if(record == null || !reuseRecord)
+						record = selectHelper.projection.createRecordValueSet();
+					else
+						record.clear(); // wipe values of previous row (including any subrecords)
+					int i = 0;
+					for(SQLiteColumn<?, ?> sqliteCol : selectHelper.projection.getProjectionColumns())
+						sqliteCol.store(record, cursor, i++);
+					return record;
+				}
+				
+				@Override
+				protected void release()
+				{
+					cursor.close(); // !!!
+				}
+			};
+		}
+		
 		/* (non-Javadoc)
 		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#getRecordCount()
 		 */
@@ -668,11 +1517,313 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			return countStatementHandle.getStatement().executeLongQuery();
 		}
 		
+		/* (non-Javadoc)
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#getRecordCount(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
+		 */
+		@Override
+		public long getRecordCount(RecordsQuery query) throws DBException
+		{
+			SplitQuery splitQuery = splitQuery(query);
+			if(splitQuery != null)
+				return splitQuery.select().size();
+			RecordCountHelper countHelper = new RecordCountHelper(this, query);
+			String sql = countHelper.getQuery();
+			SQLiteStatement countByQStatement = getCachedStatement(sql, countHelper.getParameterColumns());
+			try
+			{
+				// Bind parameters:
+				countByQStatement.bindAll(countHelper.getSapArguments());
+				
+				// Execute & return count:
+				Long count = countByQStatement.executeLongQuery();
+				return count != null ? count : 0;
+			}
+			finally
+			{
+				// Return statement to cache:
+				releaseCachedStatement(sql, countByQStatement);
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#selectValues(uk.ac.ucl.excites.sapelli.storage.queries.ValueQuery)
+		 */
+		@Override
+		public List<Object[]> selectValues(ValueQuery query) throws DBException
+		{
+			SplitQuery splitQuery = splitQuery(query.getRecordSelectionQuery());
+			if(splitQuery != null)
+				return query.getPartialRows(splitQuery.select());
+			ValueSelectHelper selectHelper = new ValueSelectHelper(this, query);
+			SQLiteCursor cursor = null;
+			try
+			{
+				// Execute query (also binds parameters) to get cursor:
+				cursor = executeCachedQuery(selectHelper.getQuery(), selectHelper.getParameterColumns(), selectHelper.getSapArguments());
+				if(cursor == null || !cursor.hasRow())
+					// No results:
+					return Collections.<Object[]> emptyList();
+				// Process cursor rows:
+				List<Projection> projections = selectHelper.projection.projections;
+				List<SQLiteColumn<?, ?>> sqlColumns = selectHelper.projection.sqlColumns;
+				List<Object[]> rows = new ArrayList<Object[]>();
+				while(cursor.moveToNext())
+				{
+					Object[] row = new Object[projections.size()];
+					for(int p = 0; p < row.length; p++)
+					{
+						SQLiteColumn<?, ?> sqliteCol = sqlColumns.get(p);
+						switch(projections.get(p).function)
+						{
+							case COUNT :
+								row[p] = cursor.getLong(p);
+								break;
+							case SUM :
+								if(!cursor.isNull(p))
+									row[p] = projections.get(p).getColumn() instanceof IntegerColumn ? (Object) cursor.getLong(p) : (Object) cursor.getDouble(p);
+								break;
+							default : // VALUE, MIN & MAX
+								if(sqliteCol != null)
+									row[p] = sqliteCol.getSapelliValueOrNull(cursor, p);
+						}
+					}
+					rows.add(row);
+				}
+				return rows;
+			}
+			finally
+			{
+				if(cursor != null)
+					cursor.close(); // !!!
+			}
+		}
+		
+		/**
+		 * Returns the spatial indexes this table could have on its geometry columns: one for every {@link LineColumn} and {@link PolygonColumn},
+		 * and, if the SQLite engine supports R*Trees, one for every {@link LocationColumn}. Only top-level columns and columns nested in
+		 * {@link ValueSetColumn}s are considered (not the elements of {@link ListColumn}s).
+		 * 
+		 * @return the (possibly empty) list of potential spatial indexes
+		 * @throws DBException
+		 * 
+		 * @see SQLiteSpatialIndex
+		 */
+		protected List<SQLiteSpatialIndex> getPotentialSpatialIndexes() throws DBException
+		{
+			if(potentialSpatialIndexes == null)
+			{
+				List<SQLiteSpatialIndex> indexes = new ArrayList<SQLiteSpatialIndex>();
+				for(Map.Entry<ColumnPointer<?>, SQLiteColumn<?, ?>> entry : sqlColumns.entrySet())
+				{
+					ColumnPointer<?> sourceCP = entry.getKey();
+					if(sourceCP.getColumn() instanceof LineColumn || sourceCP.getColumn() instanceof PolygonColumn)
+						indexes.add(new SQLiteSpatialIndex(this, sourceCP, null, null));
+					else if(sourceCP.getColumn() == Location.COLUMN_LATITUDE && sourceCP.isSubColumn() && sourceCP.getParentPointer().getColumn() instanceof LocationColumn && isRTreeSupported())
+						indexes.add(new SQLiteSpatialIndex(this, sourceCP.getParentPointer(), entry.getValue(), getSQLColumn(new ColumnPointer<FloatColumn>(sourceCP.getParentPointer(), Location.COLUMN_LONGITUDE))));
+				}
+				potentialSpatialIndexes = indexes;
+			}
+			return potentialSpatialIndexes;
+		}
+		
+		/**
+		 * Returns the spatial indexes this table has, or should have: those which are enabled (see {@link SQLiteRecordStore#enableSpatialIndexes(Schema, Column...)})
+		 * and those of which the side table exists in the database (i.e. which were enabled when the side table was created).
+		 * 
+		 * @return the (possibly empty) list of spatial indexes
+		 * @throws DBException
+		 */
+		protected List<SQLiteSpatialIndex> getSpatialIndexes() throws DBException
+		{
+			List<Column<?>> columns = spatialIndexColumns.get(schema);
+			if(spatialIndexes == null || spatialIndexesColumns != columns)
+			{
+				List<SQLiteSpatialIndex> indexes = new ArrayList<SQLiteSpatialIndex>();
+				for(SQLiteSpatialIndex spatialIndex : getPotentialSpatialIndexes())
+					if((columns != null && spatialIndex.geometryColumnPointer.isTopLevelColumn() && columns.contains(spatialIndex.geometryColumnPointer.getColumn())) || spatialIndex.isInDB())
+						indexes.add(spatialIndex);
+				if(isReadingFromSnapshot())
+					return indexes; // don't cache what may be an outdated view of the database
+				spatialIndexes = indexes;
+				spatialIndexesColumns = columns;
+			}
+			return spatialIndexes;
+		}
+		
+		/**
+		 * The side table of the spatial index is created (and populated) if it does not exist yet, unless the current thread
+		 * reads from a snapshot (in which case {@code null} is returned if it does not exist).
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#getSpatialIndex(uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer)
+		 */
+		@Override
+		public SpatialIndex getSpatialIndex(ColumnPointer<?> geometryColumnPointer) throws DBException
+		{
+			for(SQLiteSpatialIndex spatialIndex : getSpatialIndexes())
+				if(spatialIndex.geometryColumnPointer.equals(geometryColumnPointer))
+				{
+					if(isReadingFromSnapshot())
+						return spatialIndex.isInDB() ? spatialIndex : null;
+					spatialIndex.ensureInDB();
+					return spatialIndex;
+				}
+			return null;
+		}
+		
+		/**
+		 * Brings the spatial indexes which are not maintained by triggers, and the list tables, up-to-date with the given, just inserted or updated, record.
+		 * 
+		 * @param record
+		 * @param rowID the ROWID of the record, or {@code null} if it is to be looked up
+		 * @throws DBException
+		 */
+		private void updateSideTables(Record record, Long rowID) throws DBException
+		{
+			for(SQLiteSpatialIndex spatialIndex : getSpatialIndexes())
+				if(!spatialIndex.isMaintainedByTriggers())
+				{
+					spatialIndex.ensureInDB();
+					if(rowID == null)
+						rowID = getROWID(record);
+					spatialIndex.update(record, rowID);
+				}
+			for(SQLiteListTable listTable : getListTables())
+			{
+				listTable.ensureInDB();
+				if(rowID == null)
+					rowID = getROWID(record);
+				listTable.update(record, rowID);
+			}
+		}
+		
+		/**
+		 * @return the (possibly empty) list of list tables this table could have: one for every top-level {@link ListColumn} of which list tables can hold the elements
+		 */
+		protected List<SQLiteListTable> getPotentialListTables()
+		{
+			if(potentialListTables == null)
+			{
+				List<SQLiteListTable> tables = new ArrayList<SQLiteListTable>();
+				for(Column<?> column : schema.getColumns(false))
+					if(column instanceof ListColumn && createListElementColumn(((ListColumn<?, ?>) column).getSingleColumn(), "element") != null)
+						tables.add(new SQLiteListTable(this, new ColumnPointer<ListColumn<?, ?>>((ListColumn<?, ?>) column)));
+				potentialListTables = tables;
+			}
+			return potentialListTables;
+		}
+		
+		/**
+		 * Returns the list tables this table has, or should have: those which are enabled (see {@link SQLiteRecordStore#enableListTables(Schema, ListColumn...)})
+		 * and those which exist in the database (i.e. which were enabled when they were created), so that the latter never go stale.
+		 * 
+		 * @return the (possibly empty) list of list tables
+		 */
+		protected List<SQLiteListTable> getListTables()
+		{
+			List<ListColumn<?, ?>> columns = listTableColumns.get(schema);
+			if(listTables == null || listTablesColumns != columns)
+			{
+				List<SQLiteListTable> tables = new ArrayList<SQLiteListTable>();
+				for(SQLiteListTable listTable : getPotentialListTables())
+					if((columns != null && columns.contains(listTable.listColumnPointer.getColumn())) || listTable.isInDB())
+						tables.add(listTable);
+				if(isReadingFromSnapshot())
+					return tables; // don't cache what may be an outdated view of the database
+				listTables = tables;
+				listTablesColumns = columns;
+			}
+			return listTables;
+		}
+		
+		/**
+		 * The list table is created (and populated) if it does not exist yet, unless the current thread reads from
+		 * a snapshot (in which case {@code null} is returned if it does not exist).
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#getListTable(uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer)
+		 */
+		@Override
+		public ListTable getListTable(ColumnPointer<?> listColumnPointer) throws DBException
+		{
+			for(SQLiteListTable listTable : getListTables())
+				if(listTable.listColumnPointer.equals(listColumnPointer))
+				{
+					if(isReadingFromSnapshot())
+						return listTable.isInDB() ? listTable : null;
+					listTable.ensureInDB();
+					return listTable;
+				}
+			return null;
+		}
+		
+		/**
+		 * @return the full-text index of the table, or {@code null} if full-text search is not enabled for its schema (see {@link SQLiteRecordStore#enableFullTextSearch(Schema, StringColumn...)}) or not supported
+		 * @throws DBException
+		 */
+		protected SQLiteFullTextIndex getSQLiteFullTextIndex() throws DBException
+		{
+			List<StringColumn> columns = fullTextColumns.get(schema);
+			if(columns == null || getFullTextSearchModule() == null)
+				return null;
+			if(fullTextIndex == null || fullTextIndex.columns != columns)
+				fullTextIndex = new SQLiteFullTextIndex(this, columns, getFullTextSearchModule());
+			return fullTextIndex;
+		}
+		
+		/**
+		 * @return the unsanitised name of the FTS table which belongs to this table (whether or not it exists)
+		 */
+		protected String getFullTextTableName()
+		{
+			return getUnsanitisedName() + "_fts";
+		}
+		
+		/**
+		 * The FTS table is created (and populated), or rebuilt if it covers different columns, unless the current thread
+		 * reads from a snapshot (in which case {@code null} is returned if there is no up-to-date FTS table).
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#getFullTextIndex(uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer)
+		 */
+		@Override
+		public FullTextIndex getFullTextIndex(ColumnPointer<?> textColumnPointer) throws DBException
+		{
+			SQLiteFullTextIndex fullTextIndex = getSQLiteFullTextIndex();
+			if(fullTextIndex == null || !fullTextIndex.covers(textColumnPointer))
+				return null;
+			if(isReadingFromSnapshot())
+				return fullTextIndex.isInDB() ? fullTextIndex : null;
+			fullTextIndex.ensureInDB();
+			return fullTextIndex;
+		}
+		
+		/**
+		 * Also drops the side tables of any spatial indexes, the list tables and the FTS table (if there is one).
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLTable#drop()
+		 */
+		@Override
+		public void drop() throws DBException
+		{
+			super.drop();
+			for(SQLiteSpatialIndex spatialIndex : getPotentialSpatialIndexes())
+				spatialIndex.drop();
+			spatialIndexes = null; // dropped indexes are no longer in use, unless enabled
+			for(SQLiteListTable listTable : getPotentialListTables())
+				listTable.drop();
+			listTables = null; // dropped list tables are no longer in use, unless enabled
+			executeSQL(String.format("DROP TABLE IF EXISTS %s;", sanitiseIdentifier(getFullTextTableName())));
+			if(fullTextIndex != null)
+				fullTextIndex.existsInDB = null;
+		}
+		
 		@Override
 		public synchronized void release()
 		{
+			clearStatementCaches(); // cached statements may refer to this table
 			ROWIDStatementHandle.close();
 			insertStatementHandle.close();
+			upsertStatementHandle.close();
+			insertIfAbsentStatementHandle.close();
+			multiRowInsertStatementHandle.close();
 			updateStatementHandle.close();
 			deleteStatementHandle.close();
 			countStatementHandle.close();
@@ -689,6 +1840,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			
 			//private final Class<? extends SQLRecordStore.StatementHelper> helperClass;
 			private SQLiteStatement statement;
+			private String sql;
 			
 			/*
 			 * @param helperClass Class of a StatementHelper subtype which (a) is contained in SQLiteRecordStore or SQLRecordStore, and (b) which has a constructor that takes only a SQL(ite)Table and creates a parameterised StatementHelper instance, if {@code null} is passed the getHelper() method must be overridden instead
@@ -709,10 +1861,15 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 				if(statement == null)
 				{
 					StatementHelper helper = getHelper();
-					statement = generateStatement(helper.getQuery(), helper.getParameterColumns());
+					sql = helper.getQuery();
+					statement = prepareStatement(sql, helper.getParameterColumns());
 				}
 				else
+				{
 					statement.clearAllBindings(); // clear bindings for reuse
+					if(getQueryMetrics() != null)
+						getQueryMetrics().statementReused(sql);
+				}
 				// Return:
 				return statement;
 			}
@@ -722,11 +1879,491 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			{
 				if(statement != null)
 				{
-					statement.close();
-					statement = null;
+					statement.close();
+					statement = null;
+				}
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * A {@link SpatialIndex} kept in a side table of an {@link SQLiteTable}, holding the bounding box of the value in one of its geometry columns.
+	 * If the SQLite engine supports it (see {@link SQLiteRecordStore#isRTreeSupported()}) the side table is an R*Tree virtual table,
+	 * otherwise it is a regular table with an index on the latitude bounds.
+	 * 
+	 * Indexes on {@link LocationColumn}s are kept up-to-date by triggers. SQLite cannot compute the bounding boxes of Lines and Polygons
+	 * (which are stored as lists), so indexes on {@link LineColumn}s and {@link PolygonColumn}s are updated by the {@link SQLiteTable} after
+	 * each insert or update, only deletions are handled by a trigger.
+	 * 
+	 * Note that R*Trees store bounds as 32-bit floats (rounded outwards), hence a look-up may yield some Lines or Polygons which lie just
+	 * outside of the queried box. Locations are always checked exactly (see {@link SQLRecordStore.RecordsByConstraintsHelper}).
+	 * Spatial indexes are opt-in (see {@link SQLiteRecordStore#enableSpatialIndexes(Schema, Column...)}) and are dropped when the indexed table
+	 * is renamed (see {@link SQLiteRecordStore#renameTable(String, String)}).
+	 * 
+	 * @author mstevens
+	 * 
+	 * @see https://www.sqlite.org/rtree.html
+	 */
+	public class SQLiteSpatialIndex extends SQLRecordStore<SQLiteRecordStore, SQLiteRecordStore.SQLiteTable, SQLiteRecordStore.SQLiteColumn<?, ?>>.SpatialIndex
+	{
+		
+		public final ColumnPointer<?> geometryColumnPointer;
+		
+		private final SQLiteTable table;
+		private final String unsanitisedTableName;
+		private final boolean rTree;
+		
+		/**
+		 * Latitude and longitude columns of the indexed table, only used for Locations ({@code null} otherwise) 
+		 */
+		private final SQLiteColumn<?, ?> latitudeColumn;
+		private final SQLiteColumn<?, ?> longitudeColumn;
+		
+		private final String replaceSQL;
+		private final String deleteSQL;
+		
+		private Boolean existsInDB;
+		
+		/**
+		 * @param table the indexed table
+		 * @param geometryColumnPointer
+		 * @param latitudeColumn latitude column of the indexed table in case of a {@link LocationColumn}, {@code null} otherwise
+		 * @param longitudeColumn longitude column of the indexed table in case of a {@link LocationColumn}, {@code null} otherwise
+		 * @throws DBException
+		 */
+		public SQLiteSpatialIndex(SQLiteTable table, ColumnPointer<?> geometryColumnPointer, SQLiteColumn<?, ?> latitudeColumn, SQLiteColumn<?, ?> longitudeColumn) throws DBException
+		{
+			super(	sanitiseIdentifier(table.getUnsanitisedName() + "_" + geometryColumnPointer.getQualifiedColumnName() + "_sidx"),
+					"ROWID",
+					new SQLiteIntegerColumn<Long>(SQLiteRecordStore.this, "id", null, null),
+					new SQLiteDoubleColumn<Double>(SQLiteRecordStore.this, "minLat", null, null),
+					new SQLiteDoubleColumn<Double>(SQLiteRecordStore.this, "maxLat", null, null),
+					new SQLiteDoubleColumn<Double>(SQLiteRecordStore.this, "minLon", null, null),
+					new SQLiteDoubleColumn<Double>(SQLiteRecordStore.this, "maxLon", null, null));
+			this.geometryColumnPointer = geometryColumnPointer;
+			this.table = table;
+			this.unsanitisedTableName = table.getUnsanitisedName() + "_" + geometryColumnPointer.getQualifiedColumnName() + "_sidx";
+			this.rTree = isRTreeSupported();
+			this.latitudeColumn = latitudeColumn;
+			this.longitudeColumn = longitudeColumn;
+			this.replaceSQL = String.format("INSERT OR REPLACE INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?);", sanitisedTableName, idColumn.sanitisedName, minLatitudeColumn.sanitisedName, maxLatitudeColumn.sanitisedName, minLongitudeColumn.sanitisedName, maxLongitudeColumn.sanitisedName);
+			this.deleteSQL = String.format("DELETE FROM %s WHERE %s = ?;", sanitisedTableName, idColumn.sanitisedName);
+		}
+		
+		/**
+		 * @return whether the index is kept up-to-date by triggers (i.e. without intervention of the {@link SQLiteTable})
+		 */
+		public boolean isMaintainedByTriggers()
+		{
+			return latitudeColumn != null;
+		}
+		
+		public boolean isInDB()
+		{
+			if(isReadingFromSnapshot())
+				return doesTableExist(unsanitisedTableName); // check against the snapshot itself, which may not reflect what the writing connection knows (and don't cache the result)
+			if(existsInDB == null)
+				existsInDB = doesTableExist(unsanitisedTableName);
+			return existsInDB;
+		}
+		
+		/**
+		 * Creates the side table (and triggers) and fills it with the bounding boxes of the records already in the indexed table,
+		 * unless this has happened before.
+		 * 
+		 * @throws DBException
+		 */
+		public void ensureInDB() throws DBException
+		{
+			if(isInDB())
+				return;
+			
+			if(isInTransaction())
+			{	// this means the creation might be rolled-back...
+				addRollbackTask(new RollbackTask()
+				{
+					@Override
+					public void run() throws DBException
+					{
+						existsInDB = null;
+					}
+				});
+			}
+			
+			// Create side table:
+			if(rTree)
+				executeSQL(String.format("CREATE VIRTUAL TABLE %s USING rtree(%s, %s, %s, %s, %s);", sanitisedTableName, idColumn.sanitisedName, minLatitudeColumn.sanitisedName, maxLatitudeColumn.sanitisedName, minLongitudeColumn.sanitisedName, maxLongitudeColumn.sanitisedName));
+			else
+			{
+				executeSQL(String.format("CREATE TABLE %s (%s %s PRIMARY KEY, %s %s, %s %s, %s %s, %s %s);", sanitisedTableName, idColumn.sanitisedName, idColumn.type, minLatitudeColumn.sanitisedName, minLatitudeColumn.type, maxLatitudeColumn.sanitisedName, maxLatitudeColumn.type, minLongitudeColumn.sanitisedName, minLongitudeColumn.type, maxLongitudeColumn.sanitisedName, maxLongitudeColumn.type));
+				executeSQL(String.format("CREATE INDEX %s ON %s (%s, %s);", sanitiseIdentifier(unsanitisedTableName + "_bounds"), sanitisedTableName, minLatitudeColumn.sanitisedName, maxLatitudeColumn.sanitisedName));
+			}
+			
+			// Triggers:
+			executeSQL(String.format("CREATE TRIGGER %s AFTER DELETE ON %s BEGIN DELETE FROM %s WHERE %s = OLD.ROWID; END;", sanitiseIdentifier(unsanitisedTableName + "_delete"), table.sanitisedName, sanitisedTableName, idColumn.sanitisedName));
+			if(isMaintainedByTriggers())
+			{
+				String lat = latitudeColumn.sanitisedName;
+				String lon = longitudeColumn.sanitisedName;
+				executeSQL(String.format("CREATE TRIGGER %1$s AFTER INSERT ON %2$s WHEN NEW.%4$s IS NOT NULL AND NEW.%5$s IS NOT NULL BEGIN INSERT OR REPLACE INTO %3$s VALUES (NEW.ROWID, NEW.%4$s, NEW.%4$s, NEW.%5$s, NEW.%5$s); END;", sanitiseIdentifier(unsanitisedTableName + "_insert"), table.sanitisedName, sanitisedTableName, lat, lon));
+				executeSQL(String.format("CREATE TRIGGER %1$s AFTER UPDATE OF %4$s, %5$s ON %2$s BEGIN DELETE FROM %3$s WHERE %6$s = OLD.ROWID; INSERT INTO %3$s SELECT NEW.ROWID, NEW.%4$s, NEW.%4$s, NEW.%5$s, NEW.%5$s WHERE NEW.%4$s IS NOT NULL AND NEW.%5$s IS NOT NULL; END;", sanitiseIdentifier(unsanitisedTableName + "_update"), table.sanitisedName, sanitisedTableName, lat, lon, idColumn.sanitisedName));
+			}
+			
+			// Populate:
+			if(isMaintainedByTriggers())
+				executeSQL(String.format("INSERT INTO %1$s SELECT ROWID, %3$s, %3$s, %4$s, %4$s FROM %2$s WHERE %3$s IS NOT NULL AND %4$s IS NOT NULL;", sanitisedTableName, table.sanitisedName, latitudeColumn.sanitisedName, longitudeColumn.sanitisedName));
+			else
+			{
+				RecordCursor cursor = table.selectCursor(new RecordsQuery(table.schema), true);
+				try
+				{
+					for(Record record : cursor)
+						update(record, table.getROWID(record));
+				}
+				finally
+				{
+					cursor.close();
+				}
+			}
+			
+			existsInDB = true;
+		}
+		
+		/**
+		 * Stores (or removes) the bounding box of the geometry held by the given record, which must exist in the indexed table.
+		 * 
+		 * @param record
+		 * @param rowID the ROWID of the record in the indexed table
+		 * @throws DBException
+		 */
+		public void update(Record record, long rowID) throws DBException
+		{
+			double[] bounds = BoundingBoxConstraint.GetBounds(geometryColumnPointer.retrieveValue(record));
+			if(bounds != null)
+				execute(replaceSQL, Arrays.<SQLiteColumn<?, ?>> asList(idColumn, minLatitudeColumn, maxLatitudeColumn, minLongitudeColumn, maxLongitudeColumn), Arrays.<Object> asList(rowID, bounds[0], bounds[1], bounds[2], bounds[3]));
+			else
+				execute(deleteSQL, Collections.<SQLiteColumn<?, ?>> singletonList(idColumn), Collections.<Object> singletonList(rowID));
+		}
+		
+		private void execute(String sql, List<SQLiteColumn<?, ?>> paramCols, List<Object> sapArguments) throws DBException
+		{
+			SQLiteStatement statement = getCachedStatement(sql, paramCols);
+			try
+			{
+				statement.bindAll(sapArguments);
+				statement.executeUpdate();
+			}
+			finally
+			{
+				releaseCachedStatement(sql, statement);
+			}
+		}
+		
+		/**
+		 * Drops the side table (if it exists). Any triggers on the indexed table must be dropped separately (or along with the table).
+		 * 
+		 * @throws DBException
+		 */
+		public void drop() throws DBException
+		{
+			clearStatementCaches(); // cached statements may refer to the side table
+			executeSQL(String.format("DROP TABLE IF EXISTS %s;", sanitisedTableName));
+			existsInDB = null;
+		}
+		
+	}
+	
+	/**
+	 * A {@link FullTextIndex} in the form of an FTS virtual table which holds a copy of the values in the full-text searchable columns of an
+	 * {@link SQLiteTable} (see {@link SQLiteRecordStore#enableFullTextSearch(Schema, StringColumn...)}), kept in sync by triggers.
+	 * The tokenizer ("simple" for FTS4, "ascii" for FTS5) splits words the way {@link TextMatchConstraint} does.
+	 * 
+	 * @author mstevens
+	 * 
+	 * @see https://www.sqlite.org/fts3.html
+	 * @see https://www.sqlite.org/fts5.html
+	 */
+	public class SQLiteFullTextIndex extends SQLRecordStore<SQLiteRecordStore, SQLiteRecordStore.SQLiteTable, SQLiteRecordStore.SQLiteColumn<?, ?>>.FullTextIndex
+	{
+		
+		private final SQLiteTable table;
+		private final List<StringColumn> columns;
+		private final List<SQLiteColumn<?, ?>> sqlColumns;
+		private final String unsanitisedTableName;
+		private final String createSQL;
+		
+		private Boolean existsInDB;
+		
+		/**
+		 * @param table the indexed table
+		 * @param columns top-level columns of the indexed table
+		 * @param module "fts5" or "fts4"
+		 */
+		public SQLiteFullTextIndex(SQLiteTable table, List<StringColumn> columns, String module)
+		{
+			super(sanitiseIdentifier(table.getFullTextTableName()), "ROWID");
+			this.table = table;
+			this.columns = columns;
+			this.sqlColumns = new ArrayList<SQLiteColumn<?, ?>>(columns.size());
+			for(StringColumn column : columns)
+				sqlColumns.add(table.getSQLColumn(column));
+			this.unsanitisedTableName = table.getFullTextTableName();
+			TransactionalStringBuilder bldr = new TransactionalStringBuilder(", ");
+			for(SQLiteColumn<?, ?> sqlCol : sqlColumns)
+				bldr.append(sqlCol.sanitisedName);
+			bldr.append("fts5".equals(module) ? "tokenize='ascii'" : "tokenize=simple");
+			this.createSQL = String.format("CREATE VIRTUAL TABLE %s USING %s(%s)", sanitisedTableName, module, bldr.toString());
+		}
+		
+		/**
+		 * @param textColumnPointer
+		 * @return whether the given column is indexed
+		 */
+		public boolean covers(ColumnPointer<?> textColumnPointer)
+		{
+			return textColumnPointer.isTopLevelColumn() && columns.contains(textColumnPointer.getColumn());
+		}
+		
+		/**
+		 * @return whether the FTS table exists and covers the requested columns
+		 * @throws DBException
+		 */
+		public boolean isInDB() throws DBException
+		{
+			if(isReadingFromSnapshot())
+				return createSQL.equals(getTableDefinition(unsanitisedTableName)); // check against the snapshot itself, which may not reflect what the writing connection knows (and don't cache the result)
+			if(existsInDB == null)
+				existsInDB = createSQL.equals(getTableDefinition(unsanitisedTableName));
+			return existsInDB;
+		}
+		
+		/**
+		 * Creates the FTS table and its triggers and fills it with the values already in the indexed table, unless this has happened before.
+		 * An existing FTS table which covers other columns is replaced.
+		 * 
+		 * @throws DBException
+		 */
+		public void ensureInDB() throws DBException
+		{
+			if(isInDB())
+				return;
+			
+			if(isInTransaction())
+			{	// this means the creation might be rolled-back...
+				addRollbackTask(new RollbackTask()
+				{
+					@Override
+					public void run() throws DBException
+					{
+						existsInDB = null;
+					}
+				});
+			}
+			
+			// Drop outdated FTS table and triggers (if any):
+			clearStatementCaches(); // cached statements may refer to the FTS table
+			executeSQL(String.format("DROP TABLE IF EXISTS %s;", sanitisedTableName));
+			for(String trigger : new String[] { "_insert", "_update", "_delete" })
+				executeSQL(String.format("DROP TRIGGER IF EXISTS %s;", sanitiseIdentifier(unsanitisedTableName + trigger)));
+			
+			// Create FTS table:
+			executeSQL(createSQL + ";");
+			
+			// Triggers:
+			TransactionalStringBuilder names = new TransactionalStringBuilder(", ");
+			TransactionalStringBuilder newValues = new TransactionalStringBuilder(", ");
+			TransactionalStringBuilder changes = new TransactionalStringBuilder(" OR ");
+			for(SQLiteColumn<?, ?> sqlCol : sqlColumns)
+			{
+				names.append(sqlCol.sanitisedName);
+				newValues.append("NEW." + sqlCol.sanitisedName);
+				changes.append(String.format("OLD.%1$s IS NOT NEW.%1$s", sqlCol.sanitisedName));
+			}
+			String insert = String.format("INSERT INTO %s(rowid, %s) VALUES (NEW.ROWID, %s);", sanitisedTableName, names, newValues);
+			String delete = String.format("DELETE FROM %s WHERE rowid = OLD.ROWID;", sanitisedTableName);
+			executeSQL(String.format("CREATE TRIGGER %s AFTER INSERT ON %s BEGIN %s END;", sanitiseIdentifier(unsanitisedTableName + "_insert"), table.sanitisedName, insert));
+			executeSQL(String.format("CREATE TRIGGER %s AFTER UPDATE OF %s ON %s WHEN %s BEGIN %s %s END;", sanitiseIdentifier(unsanitisedTableName + "_update"), names, table.sanitisedName, changes, delete, insert));
+			executeSQL(String.format("CREATE TRIGGER %s AFTER DELETE ON %s BEGIN %s END;", sanitiseIdentifier(unsanitisedTableName + "_delete"), table.sanitisedName, delete));
+			
+			// Populate:
+			executeSQL(String.format("INSERT INTO %s(rowid, %s) SELECT ROWID, %s FROM %s;", sanitisedTableName, names, names, table.sanitisedName));
+			
+			existsInDB = true;
+		}
+		
+	}
+	
+	/**
+	 * A {@link ListTable} holding the elements of the lists in a top-level {@link ListColumn} of an {@link SQLiteTable} (see
+	 * {@link SQLiteRecordStore#enableListTables(Schema, ListColumn...)}). Its primary key consists of the parent and position columns,
+	 * and there is an index on the element and parent columns, so that both the records whose list contains a given element, and the
+	 * element at a given position of a given list, can be looked up without scanning.
+	 * 
+	 * SQLite cannot split the serialised lists, so the list table is updated by the {@link SQLiteTable} after each insert or update,
+	 * only deletions are handled by a trigger. The list table is dropped when the table which holds the lists is renamed (see
+	 * {@link SQLiteRecordStore#renameTable(String, String)}).
+	 * 
+	 * @author mstevens
+	 */
+	public class SQLiteListTable extends SQLRecordStore<SQLiteRecordStore, SQLiteRecordStore.SQLiteTable, SQLiteRecordStore.SQLiteColumn<?, ?>>.ListTable
+	{
+		
+		public final ColumnPointer<? extends ListColumn<?, ?>> listColumnPointer;
+		
+		private final SQLiteTable table;
+		private final String unsanitisedTableName;
+		
+		private final String insertSQL;
+		private final String deleteSQL;
+		
+		private Boolean existsInDB;
+		
+		/**
+		 * @param table the table which holds the lists
+		 * @param listColumnPointer pointer to a top-level column of the table
+		 */
+		public SQLiteListTable(SQLiteTable table, ColumnPointer<? extends ListColumn<?, ?>> listColumnPointer)
+		{
+			super(	sanitiseIdentifier(table.getUnsanitisedName() + "_" + listColumnPointer.getQualifiedColumnName() + "_list"),
+					"ROWID",
+					new SQLiteIntegerColumn<Long>(SQLiteRecordStore.this, "parent", null, null),
+					new SQLiteIntegerColumn<Long>(SQLiteRecordStore.this, "position", null, null),
+					createListElementColumn(listColumnPointer.getColumn().getSingleColumn(), "element"));
+			this.listColumnPointer = listColumnPointer;
+			this.table = table;
+			this.unsanitisedTableName = table.getUnsanitisedName() + "_" + listColumnPointer.getQualifiedColumnName() + "_list";
+			this.insertSQL = String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?);", sanitisedTableName, parentColumn.sanitisedName, positionColumn.sanitisedName, elementColumn.sanitisedName);
+			this.deleteSQL = String.format("DELETE FROM %s WHERE %s = ?;", sanitisedTableName, parentColumn.sanitisedName);
+		}
+		
+		public boolean isInDB()
+		{
+			if(isReadingFromSnapshot())
+				return doesTableExist(unsanitisedTableName); // check against the snapshot itself, which may not reflect what the writing connection knows (and don't cache the result)
+			if(existsInDB == null)
+				existsInDB = doesTableExist(unsanitisedTableName);
+			return existsInDB;
+		}
+		
+		/**
+		 * Creates the list table (and trigger) and fills it with the elements of the lists already in the table, unless this has happened before.
+		 * 
+		 * @throws DBException
+		 */
+		public void ensureInDB() throws DBException
+		{
+			if(isInDB())
+				return;
+			
+			if(isInTransaction())
+			{	// this means the creation might be rolled-back...
+				addRollbackTask(new RollbackTask()
+				{
+					@Override
+					public void run() throws DBException
+					{
+						existsInDB = null;
+					}
+				});
+			}
+			
+			// Create list table & index:
+			executeSQL(String.format("CREATE TABLE %s (%s %s NOT NULL, %s %s NOT NULL, %s %s, PRIMARY KEY (%s, %s));", sanitisedTableName, parentColumn.sanitisedName, parentColumn.type, positionColumn.sanitisedName, positionColumn.type, elementColumn.sanitisedName, elementColumn.type, parentColumn.sanitisedName, positionColumn.sanitisedName));
+			executeSQL(String.format("CREATE INDEX %s ON %s (%s, %s);", sanitiseIdentifier(unsanitisedTableName + "_element"), sanitisedTableName, elementColumn.sanitisedName, parentColumn.sanitisedName));
+			
+			// Trigger:
+			executeSQL(String.format("CREATE TRIGGER %s AFTER DELETE ON %s BEGIN DELETE FROM %s WHERE %s = OLD.ROWID; END;", sanitiseIdentifier(unsanitisedTableName + "_delete"), table.sanitisedName, sanitisedTableName, parentColumn.sanitisedName));
+			
+			// Populate (in a single transaction, to avoid committing every element separately):
+			startTransaction();
+			try
+			{
+				RecordCursor cursor = table.selectCursor(new RecordsQuery(table.schema), true);
+				try
+				{
+					for(Record record : cursor)
+						insert(listColumnPointer.retrieveValue(record), table.getROWID(record));
+				}
+				finally
+				{
+					cursor.close();
 				}
+				commitTransaction();
+			}
+			catch(DBException e)
+			{
+				rollbackTransactions();
+				throw e;
 			}
 			
+			existsInDB = true;
+		}
+		
+		/**
+		 * Replaces the elements of the list held by the given record, which must exist in the table.
+		 * 
+		 * @param record
+		 * @param rowID the ROWID of the record in the table
+		 * @throws DBException
+		 */
+		public void update(Record record, long rowID) throws DBException
+		{
+			startTransaction(); // avoids committing every element separately
+			try
+			{
+				execute(deleteSQL, Collections.<SQLiteColumn<?, ?>> singletonList(parentColumn), Collections.<Object> singletonList(rowID));
+				insert(listColumnPointer.retrieveValue(record), rowID);
+				commitTransaction();
+			}
+			catch(DBException e)
+			{
+				rollbackTransactions();
+				throw e;
+			}
+		}
+		
+		/**
+		 * @param list a List or {@code null}
+		 * @param rowID
+		 * @throws DBException
+		 */
+		private void insert(Object list, long rowID) throws DBException
+		{
+			if(list == null)
+				return;
+			List<SQLiteColumn<?, ?>> paramCols = Arrays.<SQLiteColumn<?, ?>> asList(parentColumn, positionColumn, elementColumn);
+			long position = 0;
+			for(Object element : (List<?>) list)
+				execute(insertSQL, paramCols, Arrays.<Object> asList(rowID, position++, element));
+		}
+		
+		private void execute(String sql, List<SQLiteColumn<?, ?>> paramCols, List<Object> sapArguments) throws DBException
+		{
+			SQLiteStatement statement = getCachedStatement(sql, paramCols);
+			try
+			{
+				statement.bindAll(sapArguments);
+				statement.executeUpdate();
+			}
+			finally
+			{
+				releaseCachedStatement(sql, statement);
+			}
+		}
+		
+		/**
+		 * Drops the list table and its trigger (if they exist).
+		 * 
+		 * @throws DBException
+		 */
+		public void drop() throws DBException
+		{
+			clearStatementCaches(); // cached statements may refer to the list table
+			executeSQL(String.format("DROP TRIGGER IF EXISTS %s;", sanitiseIdentifier(unsanitisedTableName + "_delete")));
+			executeSQL(String.format("DROP TABLE IF EXISTS %s;", sanitisedTableName));
+			existsInDB = null;
 		}
 		
 	}
@@ -819,6 +2456,17 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			return getValue(cursor, columnIdx);
 		}
 		
+		/**
+		 * @param cursor
+		 * @param columnIdx
+		 * @return the value at the given index of the cursor's current row, converted to the Sapelli type, or {@code null}
+		 * @throws DBException
+		 */
+		public SapType getSapelliValueOrNull(SQLiteCursor cursor, int columnIdx) throws DBException
+		{
+			return sqlToSapelli(getValueOrNull(cursor, columnIdx));
+		}
+		
 		/**
 		 * @param cursor
 		 * @param columnIdx
@@ -836,9 +2484,15 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	protected class SQLiteTableFactory extends BasicTableFactory
 	{
 		
+		/**
+		 * The declared column types of the existing database table of the schema being generated (empty if there is no such table yet)
+		 */
+		private Map<String, String> existingColumnTypes = Collections.<String, String> emptyMap();
+		
 		@Override
 		protected SQLiteTable createTable(Schema schema) throws DBException
 		{
+			existingColumnTypes = getDeclaredColumnTypes(schema.tableName);
 			return new SQLiteTable(schema);
 		}
 
@@ -891,10 +2545,22 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			table.addColumn(new SQLiteBooleanColumn.Simple(SQLiteRecordStore.this, getColumnPointer(boolCol)));
 		}
 		
+		/**
+		 * The layout is decided by the declared type of the column if the table exists already, and by {@link SQLiteRecordStore#integerTimeStamps} otherwise.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.visitors.ColumnVisitor#visit(uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn)
+		 */
 		@Override
 		public void visit(final TimeStampColumn timeStampCol)
 		{
-			table.addColumn(new SQLiteStringColumn<TimeStamp>(SQLiteRecordStore.this, getColumnPointer(timeStampCol), new TypeMapping<String, TimeStamp>()
+			ColumnPointer<TimeStampColumn> columnPointer = getColumnPointer(timeStampCol);
+			String declaredType = existingColumnTypes.get(columnPointer.getQualifiedColumnName(SQLiteColumn.QUALIFIED_COLUMN_NAME_SEPARATOR));
+			if(declaredType != null ? declaredType.equalsIgnoreCase(SQLiteIntegerColumn.SQLITE_DATA_TYPE) : integerTimeStamps)
+			{
+				table.addColumn(new SQLiteTimeStampColumn(SQLiteRecordStore.this, columnPointer));
+				return;
+			}
+			table.addColumn(new SQLiteStringColumn<TimeStamp>(SQLiteRecordStore.this, columnPointer, new TypeMapping<String, TimeStamp>()
 			{
 
 				@Override
@@ -938,7 +2604,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		
 		/**
 		 * We store the values of ListColumns as either String or BLOBs, based on the {@code useStringBasedColumn} parameter.
-		 * (Later we may change this by solution based on normalisation.)
+		 * The elements of selected ListColumns can additionally be stored in normalised form (see {@link SQLiteRecordStore#enableListTables(Schema, ListColumn...)}).
 		 * 
 		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.BasicTableFactory#visitListColumn(uk.ac.ucl.excites.sapelli.storage.model.ListColumn, boolean)
 		 */
@@ -1020,6 +2686,363 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	 * @author mstevens
 	 * @see http://www.sqlite.org/lang_createtable.html
 	 */
+	/**
+	 * {@link SQLiteCursor} wrapper which returns the {@link SQLiteStatement} it was obtained from to the statement cache when it is closed.
+	 * 
+	 * @author mstevens
+	 */
+	private class CachedStatementCursor implements SQLiteCursor
+	{
+		
+		private final String sql;
+		private final SQLiteStatement statement;
+		private final SQLiteCursor cursor;
+		private boolean closed = false;
+		
+		public CachedStatementCursor(String sql, SQLiteStatement statement, SQLiteCursor cursor)
+		{
+			this.sql = sql;
+			this.statement = statement;
+			this.cursor = cursor;
+		}
+
+		@Override
+		public byte[] getBlob(int columnIdx) throws DBException
+		{
+			return cursor.getBlob(columnIdx);
+		}
+
+		@Override
+		public long getLong(int columnIdx) throws DBException
+		{
+			return cursor.getLong(columnIdx);
+		}
+
+		@Override
+		public double getDouble(int columnIdx) throws DBException
+		{
+			return cursor.getDouble(columnIdx);
+		}
+
+		@Override
+		public String getString(int columnIdx) throws DBException
+		{
+			return cursor.getString(columnIdx);
+		}
+
+		@Override
+		public boolean isNull(int columnIdx) throws DBException
+		{
+			return cursor.isNull(columnIdx);
+		}
+
+		@Override
+		public boolean hasRow()
+		{
+			return !closed && cursor.hasRow();
+		}
+
+		@Override
+		public boolean moveToNext() throws DBException
+		{
+			return !closed && cursor.moveToNext();
+		}
+
+		@Override
+		public void close()
+		{
+			if(closed)
+				return;
+			closed = true;
+			releaseCachedStatement(sql, statement); // instead of closing it
+		}
+
+		@Override
+		public boolean isClosed()
+		{
+			return closed;
+		}
+		
+	}
+	
+	/**
+	 * Wraps a {@link SQLiteStatement} in order to measure the executions of INSERT, UPDATE and DELETE statements
+	 * and of single value queries, and to record them in the {@link QueryMetrics} of the store.
+	 * SELECT row queries are measured by a {@link MeasuredCursor} instead.
+	 * 
+	 * @author mstevens
+	 */
+	private class MeasuredStatement extends SQLiteStatement
+	{
+		
+		private final String sql;
+		private final SQLiteStatement statement;
+		
+		public MeasuredStatement(String sql, SQLiteStatement statement)
+		{
+			super(statement.paramCols);
+			this.sql = sql;
+			this.statement = statement;
+		}
+		
+		private void record(long startNanos, int rows)
+		{
+			QueryMetrics metrics = getQueryMetrics();
+			if(metrics != null)
+				recordExecution(metrics, sql, System.nanoTime() - startNanos, rows);
+		}
+		
+		@Override
+		public void bindBlob(int paramIdx, byte[] value) throws DBException
+		{
+			statement.bindBlob(paramIdx, value);
+		}
+		
+		@Override
+		public void bindLong(int paramIdx, Long value) throws DBException
+		{
+			statement.bindLong(paramIdx, value);
+		}
+		
+		@Override
+		public void bindDouble(int paramIdx, Double value) throws DBException
+		{
+			statement.bindDouble(paramIdx, value);
+		}
+		
+		@Override
+		public void bindString(int paramIdx, String value) throws DBException
+		{
+			statement.bindString(paramIdx, value);
+		}
+		
+		@Override
+		public void bindNull(int paramIdx) throws DBException
+		{
+			statement.bindNull(paramIdx);
+		}
+		
+		@Override
+		public void clearAllBindings()
+		{
+			statement.clearAllBindings();
+		}
+		
+		@Override
+		public long executeInsert() throws DBPrimaryKeyException, DBConstraintException, DBException
+		{
+			long startNanos = System.nanoTime();
+			long rowID = statement.executeInsert();
+			record(startNanos, 1);
+			return rowID;
+		}
+		
+		@Override
+		public boolean mustLastInsertBeVerified()
+		{
+			return statement.mustLastInsertBeVerified();
+		}
+		
+		@Override
+		public int executeUpdate() throws DBConstraintException, DBException
+		{
+			long startNanos = System.nanoTime();
+			int rows = statement.executeUpdate();
+			record(startNanos, rows);
+			return rows;
+		}
+		
+		@Override
+		public int executeDelete() throws DBException
+		{
+			long startNanos = System.nanoTime();
+			int rows = statement.executeDelete();
+			record(startNanos, rows);
+			return rows;
+		}
+		
+		@Override
+		public SQLiteCursor executeSelectRows() throws DBException
+		{
+			return statement.executeSelectRows(); // measured by MeasuredCursor
+		}
+		
+		@Override
+		public Long executeLongQuery() throws DBException
+		{
+			long startNanos = System.nanoTime();
+			Long result = statement.executeLongQuery();
+			record(startNanos, result != null ? 1 : 0);
+			return result;
+		}
+		
+		@Override
+		public void close()
+		{
+			statement.close();
+		}
+		
+		@Override
+		protected String getSQL()
+		{
+			return sql;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return statement.toString();
+		}
+		
+	}
+	
+	/**
+	 * Wraps the cursor of a SELECT query in order to measure the time spent on stepping through the results and to count the rows.
+	 * The total time (including the execution time passed to the constructor) and number of rows are recorded in the
+	 * {@link QueryMetrics} of the store when the cursor is closed.
+	 * 
+	 * @author mstevens
+	 */
+	private class MeasuredCursor implements SQLiteCursor
+	{
+		
+		private final QueryMetrics metrics;
+		private final String sql;
+		private final SQLiteCursor cursor;
+		private long nanos;
+		private int rows = 0;
+		private boolean recorded = false;
+		
+		/**
+		 * @param metrics
+		 * @param sql
+		 * @param cursor
+		 * @param executionNanos time it took to execute the query and to obtain the cursor
+		 */
+		public MeasuredCursor(QueryMetrics metrics, String sql, SQLiteCursor cursor, long executionNanos)
+		{
+			this.metrics = metrics;
+			this.sql = sql;
+			this.cursor = cursor;
+			this.nanos = executionNanos;
+		}
+		
+		@Override
+		public byte[] getBlob(int columnIdx) throws DBException
+		{
+			return cursor.getBlob(columnIdx);
+		}
+		
+		@Override
+		public long getLong(int columnIdx) throws DBException
+		{
+			return cursor.getLong(columnIdx);
+		}
+		
+		@Override
+		public double getDouble(int columnIdx) throws DBException
+		{
+			return cursor.getDouble(columnIdx);
+		}
+		
+		@Override
+		public String getString(int columnIdx) throws DBException
+		{
+			return cursor.getString(columnIdx);
+		}
+		
+		@Override
+		public boolean isNull(int columnIdx) throws DBException
+		{
+			return cursor.isNull(columnIdx);
+		}
+		
+		@Override
+		public boolean hasRow()
+		{
+			return cursor.hasRow();
+		}
+		
+		@Override
+		public boolean moveToNext() throws DBException
+		{
+			long startNanos = System.nanoTime();
+			boolean next = cursor.moveToNext();
+			nanos += System.nanoTime() - startNanos;
+			if(next)
+				rows++;
+			return next;
+		}
+		
+		@Override
+		public void close()
+		{
+			cursor.close();
+			if(!recorded)
+			{
+				recorded = true;
+				recordExecution(metrics, sql, nanos, rows);
+			}
+		}
+		
+		@Override
+		public boolean isClosed()
+		{
+			return cursor.isClosed();
+		}
+		
+	}
+	
+	/**
+	 * Helper class to build parameterised UPSERT statements, i.e. "INSERT ... ON CONFLICT([PK columns]) DO UPDATE/NOTHING"
+	 * 
+	 * @author mstevens
+	 * @see https://www.sqlite.org/lang_UPSERT.html
+	 */
+	protected class RecordUpsertHelper extends RecordInsertHelper
+	{
+		
+		/**
+		 * @param table
+		 * @param doUpdate whether to UPDATE the existing row (only if any of its values differ) upon a primary key conflict, or to do nothing
+		 */
+		public RecordUpsertHelper(SQLiteTable table, boolean doUpdate)
+		{
+			super(table, 1);
+			
+			// Conflict target:
+			bldr.append("ON CONFLICT(");
+			bldr.openTransaction(", ");
+			for(SQLiteColumn<?, ?> keyPartCol : table.getKeyPartSQLColumns())
+				bldr.append(keyPartCol.sanitisedName);
+			bldr.commitTransaction(false);
+			bldr.append(")", false);
+			
+			// Conflict action:
+			List<SQLiteColumn<?, ?>> nonKeyCols = new ArrayList<SQLiteColumn<?, ?>>();
+			for(SQLiteColumn<?, ?> sqlCol : table.sqlColumns.values())
+				if(!table.getKeyPartSQLColumns().contains(sqlCol))
+					nonKeyCols.add(sqlCol);
+			if(!doUpdate || nonKeyCols.isEmpty())
+			{
+				bldr.append("DO NOTHING");
+				return;
+			}
+			bldr.append("DO UPDATE SET");
+			bldr.openTransaction(", ");
+			for(SQLiteColumn<?, ?> sqlCol : nonKeyCols)
+				bldr.append(sqlCol.sanitisedName + " = excluded." + sqlCol.sanitisedName);
+			bldr.commitTransaction();
+			// Change detection:
+			bldr.append("WHERE");
+			bldr.openTransaction(" OR ");
+			for(SQLiteColumn<?, ?> sqlCol : nonKeyCols)
+				bldr.append(sqlCol.sanitisedName + " " + getNullSafeInequalityOperator() + " excluded." + sqlCol.sanitisedName);
+			bldr.commitTransaction();
+		}
+		
+	}
+	
 	protected class SQLiteTableCreationHelper extends TableCreationHelper
 	{
 
@@ -1027,6 +3050,30 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		{
 			super(table);
 		}
+		
+		/**
+		 * Also creates the (empty) side tables of the table's enabled spatial indexes and list tables, and its FTS table (if any), replacing any which were left behind by a previous incarnation of the table.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.TableCreationHelper#createTableAndIndexes()
+		 */
+		@Override
+		public void createTableAndIndexes() throws DBException
+		{
+			super.createTableAndIndexes();
+			for(SQLiteSpatialIndex spatialIndex : table.getPotentialSpatialIndexes())
+				spatialIndex.drop();
+			table.spatialIndexes = null; // leftovers don't count
+			for(SQLiteSpatialIndex spatialIndex : table.getSpatialIndexes())
+				spatialIndex.ensureInDB();
+			for(SQLiteListTable listTable : table.getPotentialListTables())
+				listTable.drop();
+			table.listTables = null; // leftovers don't count
+			for(SQLiteListTable listTable : table.getListTables())
+				listTable.ensureInDB();
+			executeSQL(String.format("DROP TABLE IF EXISTS %s;", sanitiseIdentifier(table.getFullTextTableName())));
+			if(table.getSQLiteFullTextIndex() != null)
+				table.getSQLiteFullTextIndex().ensureInDB();
+		}
 
 		@Override
 		protected String getColumnConstraint(SQLiteColumn<?, ?> sqlCol, List<Index> indexesToProcess)
@@ -77,6 +77,27 @@ public abstract class SQLiteStatement implements Closeable
 		}
 	}
 	
+	/**
+	 * Binds the values of several records to a statement whose parameter columns are those of a single record repeated once per record
+	 * (e.g. a multi-row INSERT).
+	 * 
+	 * @param recordsOrReferences
+	 * @throws DBException
+	 */
+	public void retrieveAndBindAll(List<? extends RecordValueSet<?>> recordsOrReferences) throws DBException
+	{
+		if(paramCols != null && !recordsOrReferences.isEmpty())
+		{
+			int paramsPerRecord = paramCols.size() / recordsOrReferences.size();
+			int p = 1; // SQLite uses 1-based parameter indexes when binding!
+			for(SQLiteColumn<?, ?> sqliteCol : paramCols)
+			{
+				sqliteCol.retrieveAndBind(this, p, recordsOrReferences.get((p - 1) / paramsPerRecord));
+				p++;
+			}
+		}
+	}
+	
 	/**
 	 * @param arguments
 	 * @throws DBException
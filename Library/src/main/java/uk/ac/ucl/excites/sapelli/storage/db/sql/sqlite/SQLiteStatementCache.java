@@ -0,0 +1,179 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of compiled {@link SQLiteStatement}s, keyed by their (parameterised) SQL.
+ *
+ * Because parameterised SQL generated for a {@link uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery} contains
+ * the table name, the "shape" of the constraints (columns, operators, null comparisons), the ordering and the limit,
+ * but not the compared values, queries which only differ in those values share a single cached statement.
+ *
+ * Statements are "checked out" while in use (e.g. while serving as the cursor of a SELECT query) and "checked in"
+ * again afterwards, so a statement is never handed to two users at once. Checked-in statements in excess of the
+ * capacity, or for which an idle equivalent is already cached, are closed.
+ *
+ * @author mstevens
+ */
+public class SQLiteStatementCache
+{
+
+	// STATIC -------------------------------------------------------
+	static public final int DEFAULT_CAPACITY = 32;
+
+	// DYNAMIC ------------------------------------------------------
+	private final int capacity;
+	private final LinkedHashMap<String, SQLiteStatement> idleStatements;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public SQLiteStatementCache()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity maximum number of idle statements held on to, 0 disables caching
+	 */
+	public SQLiteStatementCache(int capacity)
+	{
+		if(capacity < 0)
+			throw new IllegalArgumentException("Capacity cannot be negative");
+		this.capacity = capacity;
+		this.idleStatements = new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true /*access-order*/)
+		{
+			private static final long serialVersionUID = 2L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest)
+			{
+				if(size() > SQLiteStatementCache.this.capacity)
+				{
+					evictions++;
+					eldest.getValue().close();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Takes the cached statement for the given SQL (if there is one) out of the cache.
+	 * The caller must either {@link #checkIn(String, SQLiteStatement)} or close the statement when done with it.
+	 *
+	 * @param sql
+	 * @return the cached statement or {@code null} if there was none
+	 */
+	public synchronized SQLiteStatement checkOut(String sql)
+	{
+		SQLiteStatement statement = idleStatements.remove(sql);
+		if(statement != null)
+			hits++;
+		else
+			misses++;
+		return statement;
+	}
+
+	/**
+	 * Returns a statement, which was either checked out or newly compiled, to the cache.
+	 *
+	 * @param sql
+	 * @param statement
+	 */
+	public synchronized void checkIn(String sql, SQLiteStatement statement)
+	{
+		if(capacity == 0 || idleStatements.containsKey(sql))
+			statement.close();
+		else
+			idleStatements.put(sql, statement);
+	}
+
+	/**
+	 * Closes and forgets all idle statements. Statements which are checked out at the time are not affected.
+	 */
+	public synchronized void clear()
+	{
+		for(SQLiteStatement statement : idleStatements.values())
+			statement.close();
+		idleStatements.clear();
+	}
+
+	/**
+	 * @return the number of idle statements currently held on to
+	 */
+	public synchronized int size()
+	{
+		return idleStatements.size();
+	}
+
+	/**
+	 * @return the capacity
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return the number of times a cached statement could be reused
+	 */
+	public synchronized long getHitCount()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return the number of times no cached statement was available (meaning a new one had to be compiled)
+	 */
+	public synchronized long getMissCount()
+	{
+		return misses;
+	}
+
+	/**
+	 * @return the number of statements which were closed to make room for more recently used ones
+	 */
+	public synchronized long getEvictionCount()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters.
+	 */
+	public synchronized void resetCounts()
+	{
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("SQLiteStatementCache[size: %d/%d; hits: %d; misses: %d; evictions: %d]", idleStatements.size(), capacity, hits, misses, evictions);
+	}
+
+}
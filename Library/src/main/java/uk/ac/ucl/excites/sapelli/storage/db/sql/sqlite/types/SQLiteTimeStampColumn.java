@@ -0,0 +1,122 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types;
+
+import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.TypeMapping;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore;
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
+/**
+ * Column storing {@link TimeStamp}s as a single INTEGER, allowing time window queries to use integer comparisons
+ * (and indexes) and avoiding string parsing when records are read.
+ * 
+ * The milliseconds since the epoch are stored in the high bits and the (biased) quarter-hour offset w.r.t. UTC in
+ * the lowest {@value #OFFSET_BITS} bits. As a result values are ordered by instant first and offset second, and
+ * distinct TimeStamps are stored as distinct values (needed for equality constraints and primary keys).
+ * 
+ * @author mstevens
+ */
+public class SQLiteTimeStampColumn extends SQLiteIntegerColumn<TimeStamp>
+{
+	
+	// STATIC -------------------------------------------------------
+	static public final int OFFSET_BITS = 7;
+	
+	static private final int OFFSET_BIAS = 1 << (OFFSET_BITS - 1);
+	
+	static private final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
+	
+	static public final int MIN_QUARTER_HOUR_OFFSET = -OFFSET_BIAS;
+	
+	static public final int MAX_QUARTER_HOUR_OFFSET = OFFSET_BIAS - 1;
+	
+	static private final TypeMapping<Long, TimeStamp> MAPPING = new TypeMapping<Long, TimeStamp>()
+	{
+		
+		@Override
+		public Long toSQLType(TimeStamp value)
+		{
+			return encode(value);
+		}
+		
+		@Override
+		public TimeStamp toSapelliType(Long value)
+		{
+			return decode(value);
+		}
+		
+	};
+	
+	/**
+	 * @param timeStamp
+	 * @return
+	 * @throws IllegalArgumentException when the quarter-hour offset of the timeStamp cannot be encoded
+	 */
+	static public long encode(TimeStamp timeStamp) throws IllegalArgumentException
+	{
+		int offsetQH = timeStamp.getQuarterHourOffsetWrtUTC();
+		if(offsetQH < MIN_QUARTER_HOUR_OFFSET || offsetQH > MAX_QUARTER_HOUR_OFFSET)
+			throw new IllegalArgumentException("Quarter-hour offset (" + offsetQH + ") out of range [" + MIN_QUARTER_HOUR_OFFSET + ", " + MAX_QUARTER_HOUR_OFFSET + "]");
+		return (timeStamp.getMsSinceEpoch() << OFFSET_BITS) | (offsetQH + OFFSET_BIAS);
+	}
+	
+	/**
+	 * @param value
+	 * @return
+	 */
+	static public TimeStamp decode(long value)
+	{
+		return new TimeStamp(value >> OFFSET_BITS, (int) (value & OFFSET_MASK) - OFFSET_BIAS);
+	}
+	
+	// DYNAMIC ------------------------------------------------------
+	/**
+	 * @param store
+	 * @param sourceColumnPointer
+	 */
+	public SQLiteTimeStampColumn(SQLiteRecordStore store, ColumnPointer<? extends Column<TimeStamp>> sourceColumnPointer)
+	{
+		super(store, sourceColumnPointer, MAPPING);
+	}
+	
+	/**
+	 * TimeStamps compare by instant only (see {@link TimeStamp#compareTo(TimeStamp)}), so comparisons must be made
+	 * against the range of values which hold the same instant with any offset.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLColumn#getComparisonBounds(java.lang.Object)
+	 */
+	@Override
+	public Object[] getComparisonBounds(Object sapValue)
+	{
+		long msSinceEpoch = sourceColumnPointer.getColumn().convert(sapValue).getMsSinceEpoch();
+		return new Object[] { new TimeStamp(msSinceEpoch, MIN_QUARTER_HOUR_OFFSET), new TimeStamp(msSinceEpoch, MAX_QUARTER_HOUR_OFFSET) };
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore.SQLColumn#getComparisonExpression()
+	 */
+	@Override
+	public String getComparisonExpression()
+	{
+		return "(" + sanitisedName + " >> " + OFFSET_BITS + ")";
+	}
+	
+}
@@ -0,0 +1,116 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db.sql.upgrades;
+
+import java.util.List;
+
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.storage.StorageClient;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStore;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStoreUpgrader.UpgradeOperations;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.SQLRecordStoreUpgrader.UpgradeStep;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore;
+import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteTimeStampColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
+
+/**
+ * UpgradeStep class which converts the tables of a {@link SQLiteRecordStore} from the String-based to the INTEGER-based
+ * storage of {@link TimeStamp}s (see {@link SQLiteRecordStore#setIntegerTimeStamps(boolean)} and {@link SQLiteTimeStampColumn}).
+ * 
+ * Every table whose schema contains at least one (top-level or nested) {@link TimeStampColumn} is read (using the layout
+ * recognised from its column types), dropped and recreated (with its indexes) using the INTEGER-based layout, after which
+ * the records are re-inserted. Tables of other schemata are left untouched. The step also enables the INTEGER-based layout
+ * for tables created afterwards.
+ * 
+ * @author mstevens
+ */
+public class IntegerTimeStampsUpgradeStep<C extends StorageClient> extends UpgradeStep<C>
+{
+
+	/**
+	 * @param client
+	 * @param fromVersion
+	 * @param toVersion
+	 */
+	public IntegerTimeStampsUpgradeStep(C client, int fromVersion, int toVersion)
+	{
+		super(client, fromVersion, toVersion);
+	}
+
+	/**
+	 * @param client
+	 * @param fromVersion
+	 */
+	public IntegerTimeStampsUpgradeStep(C client, int fromVersion)
+	{
+		super(client, fromVersion);
+	}
+
+	@Override
+	public void apply(SQLRecordStore<?, ?, ?> recordStore, UpgradeOperations upgradeOps) throws Exception
+	{
+		if(!(recordStore instanceof SQLiteRecordStore))
+			throw new DBException(getClass().getSimpleName() + " can only be applied to a " + SQLiteRecordStore.class.getSimpleName());
+		SQLiteRecordStore sqliteStore = (SQLiteRecordStore) recordStore;
+		
+		// Use INTEGER-based TimeStamps for all tables created from now on:
+		sqliteStore.setIntegerTimeStamps(true);
+		
+		// Loop over all schemata:
+		for(Schema schema : upgradeOps.getAllSchemata(recordStore))
+		{
+			// Check if the schema has a table and whether it contains TimeStamps:
+			if(!hasTimeStampColumn(schema) || !upgradeOps.doesTableExist(recordStore, schema.tableName))
+				continue; // nothing to convert
+			
+			// Make sure a new SQLTable instance will be constructed using the layout of the existing table:
+			upgradeOps.forgetTable(recordStore, schema.tableName);
+			
+			// Get all current records:
+			List<Record> records = recordStore.retrieveRecords(schema);
+			
+			// Drop table (this will also get rid of the above-mentioned SQLTable instance):
+			upgradeOps.dropTable(recordStore, schema.tableName, false);
+			
+			// Re-insert all records in new table (which will have INTEGER columns for the TimeStamps):
+			recordStore.store(records);
+		}
+		
+		// Upgrade step done!
+	}
+	
+	/**
+	 * @param columnSet
+	 * @return whether the columnSet contains a {@link TimeStampColumn}, either directly or nested in a {@link ValueSetColumn}
+	 */
+	private boolean hasTimeStampColumn(ColumnSet columnSet)
+	{
+		for(Column<?> col : columnSet.getColumns(false))
+			if(col instanceof TimeStampColumn || (col instanceof ValueSetColumn<?, ?> && hasTimeStampColumn(((ValueSetColumn<?, ?>) col).getColumnSet())))
+				return true;
+		return false;
+	}
+
+}
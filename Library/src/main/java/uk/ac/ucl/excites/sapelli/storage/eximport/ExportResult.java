@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.List;
 
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 
 /**
  * @author mstevens
@@ -52,6 +53,24 @@ public class ExportResult
 		return new ExportResult(exportedRecords, folder.getAbsolutePath(), files, reason, numberOfUnexportedRecords);
 	}
 	
+	static public ExportResult Success(RecordBatch exportedBatch, File folder, List<File> files)
+	{
+		return new ExportResult(exportedBatch, exportedBatch.size(), folder.getAbsolutePath(), files, null, 0);
+	}
+	
+	/**
+	 * @param batch the batch that was being exported
+	 * @param numberOfExportedRecords the number of records, at the start of the batch, that were exported
+	 * @param folder
+	 * @param files
+	 * @param reason
+	 * @return
+	 */
+	static public ExportResult PartialFailure(RecordBatch batch, int numberOfExportedRecords, File folder, List<File> files, Exception reason)
+	{
+		return new ExportResult(batch, numberOfExportedRecords, folder.getAbsolutePath(), files, reason, batch.size() - numberOfExportedRecords);
+	}
+	
 	static public ExportResult Failure(String destination, Exception reason, int numberOfUnexportedRecords)
 	{
 		return new ExportResult(null, destination, null, reason, numberOfUnexportedRecords);
@@ -68,7 +87,9 @@ public class ExportResult
 	}
 	
 	// DYNAMICS------------------------------------------------------
-	private final List<Record> exportedRecords;
+	private List<Record> exportedRecords;
+	private final RecordBatch exportedBatch;
+	private final int numberOfExportedBatchRecords;
 	private final String destination;
 	private final List<File> files;
 	private final Exception failureReason;
@@ -81,8 +102,28 @@ public class ExportResult
 	 * @param failureReason
 	 */
 	private ExportResult(List<Record> exportedRecords, String destination, List<File> files, Exception failureReason, int numberOfUnexportedRecords)
+	{
+		this(exportedRecords, null, 0, destination, files, failureReason, numberOfUnexportedRecords);
+	}
+	
+	/**
+	 * @param exportedBatch
+	 * @param numberOfExportedBatchRecords
+	 * @param destination
+	 * @param files
+	 * @param failureReason
+	 * @param numberOfUnexportedRecords
+	 */
+	private ExportResult(RecordBatch exportedBatch, int numberOfExportedBatchRecords, String destination, List<File> files, Exception failureReason, int numberOfUnexportedRecords)
+	{
+		this(null, exportedBatch, numberOfExportedBatchRecords, destination, files, failureReason, numberOfUnexportedRecords);
+	}
+	
+	private ExportResult(List<Record> exportedRecords, RecordBatch exportedBatch, int numberOfExportedBatchRecords, String destination, List<File> files, Exception failureReason, int numberOfUnexportedRecords)
 	{
 		this.exportedRecords = exportedRecords;
+		this.exportedBatch = exportedBatch;
+		this.numberOfExportedBatchRecords = numberOfExportedBatchRecords;
 		this.destination = destination;
 		this.files = files;
 		this.failureReason = failureReason;
@@ -94,14 +135,20 @@ public class ExportResult
 	 */
 	public int getNumberedOfExportedRecords()
 	{
+		if(exportedRecords == null && exportedBatch != null)
+			return numberOfExportedBatchRecords; // avoid materialising the records
 		return getExportedRecords().size();
 	}
 
 	/**
+	 * In case a {@link RecordBatch} was exported the records are only materialised upon the first call of this method.
+	 * 
 	 * @return the successfully exported records
 	 */
 	public List<Record> getExportedRecords()
 	{
+		if(exportedRecords == null && exportedBatch != null)
+			exportedRecords = exportedBatch.toRecords(0, numberOfExportedBatchRecords);
 		return exportedRecords == null ? Collections.<Record> emptyList() : exportedRecords;
 	}
 
@@ -24,6 +24,7 @@ import org.joda.time.format.DateTimeFormatter;
 
 import uk.ac.ucl.excites.sapelli.shared.util.TimeUtils;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 
 public interface Exporter
 {
@@ -45,4 +46,13 @@ public interface Exporter
 	 */
 	public ExportResult export(List<Record> records, String description);
 	
+	/**
+	 * Exports the records in the given batch, without materialising them all at once.
+	 * 
+	 * @param batch
+	 * @param description - may be null or empty
+	 * @return
+	 */
+	public ExportResult export(RecordBatch batch, String description);
+	
 }
@@ -21,7 +21,9 @@ package uk.ac.ucl.excites.sapelli.storage.eximport.csv;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -44,6 +46,7 @@ import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.ListLikeColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
@@ -261,51 +264,12 @@ public class CSVRecordsExporter extends SimpleExporter
 				getColumnPointers(schema);
 				
 				// Write header:
-				writer.openTransaction(); // output will be buffered
-				try
-				{
-					// Column names (separated by the separator):
-					for(ColumnPointer<?> cp : columnPointers)
-						writer.write((!writer.isTransactionBufferEmpty() ? separator.getSeparatorChar() : "") + cp.getQualifiedColumnName());
-					// Postfix (assuming separator is ,): ,modelID=XXXXXXXXXXXXXXXX,modelSchemaNumber=YY,schemaName="abcdef",
-					writer.write(	separator.getSeparatorChar() + Schema.ATTRIBUTE_MODEL_ID + "=" + schema.getModelID() +
-									separator.getSeparatorChar() + Schema.ATTRIBUTE_MODEL_SCHEMA_NUMBER + "=" + schema.getModelSchemaNumber() +
-									separator.getSeparatorChar() + Schema.ATTRIBUTE_SCHEMA_NAME + "=" + escapeAndQuote(schema.getName(), true) +
-									separator.getSeparatorChar() + ATTRIBUTE_EXPORTED_AT + "=" + ExportedAtFormatter.print(timestamp) +
-									separator.getSeparatorChar());
-					writer.write(LINE_ENDING);
-				}
-				catch(Exception e)
-				{
-					writer.rollbackTransaction(); // !!!
-					throw e;
-				}
-				writer.commitTransaction(); // write out buffer
+				writeHeader(schema, timestamp);
 				
 				// Write records:
 				for(Record r : entry.getValue())
 				{
-					writer.openTransaction(); // output will be buffered
-					try
-					{
-						boolean first = true;
-						for(ColumnPointer<?> cp : columnPointers)
-						{
-							if(!first)
-								writer.write(separator.getSeparatorChar());
-							else
-								first = false;							
-							writer.write(valueStringProvider.getValueString(cp.getColumn(), cp.getValueSet(r, false), ""));
-							// will write nothing (i.e. "") when the value is not set (i.e. null value is represented by an empty String)
-						}
-						writer.write(LINE_ENDING);
-					}
-					catch(Exception e)
-					{
-						writer.rollbackTransaction(); // !!!
-						throw e;
-					}
-					writer.commitTransaction(); // write out buffer
+					writeRecord(r);
 					exportedForSchema.add(r);
 				}
 				csvFiles.add(writer.getFile());
@@ -336,6 +300,118 @@ public class CSVRecordsExporter extends SimpleExporter
 		}
 	}
 	
+	/**
+	 * Exports the records in the given batch to a single CSV file. The records are materialised one at a time, reusing the same {@link Record} instance.
+	 * 
+	 * @param batch
+	 * @param description
+	 * @return
+	 * @see uk.ac.ucl.excites.sapelli.storage.eximport.Exporter#export(uk.ac.ucl.excites.sapelli.storage.model.RecordBatch, java.lang.String)
+	 */
+	@Override
+	public ExportResult export(RecordBatch batch, String description)
+	{
+		if(batch == null || batch.isEmpty())
+			return ExportResult.NothingToExport();
+		
+		Schema schema = batch.getSchema();
+		
+		// Skip unexportable records unless force not to:
+		if(!forceExportUnexportable && !schema.hasFlags(StorageClient.SCHEMA_FLAG_EXPORTABLE))
+			return ExportResult.PartialFailure(batch, 0, exportFolder, Collections.<File> emptyList(), new UnexportableRecordsException(batch.size()));
+		
+		// Timestamp for filename:
+		DateTime timestamp = DateTime.now();
+		
+		valueStringProvider.reset();
+		try
+		{
+			openWriter((description != null && !description.isEmpty() ? description + "_" : "") + schema.getName(), timestamp);
+			
+			// Construct column list:
+			getColumnPointers(schema);
+			
+			// Write header:
+			writeHeader(schema, timestamp);
+			
+			// Write records:
+			for(Iterator<Record> it = batch.iterator(true); it.hasNext();)
+				writeRecord(it.next());
+			
+			File csvFile = writer.getFile();
+			closeWriter();
+			return ExportResult.Success(batch, exportFolder, Collections.singletonList(csvFile));
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace(System.err);
+			deleteFile();
+			return ExportResult.Failure(exportFolder, e, batch.size());
+		}
+	}
+	
+	/**
+	 * Writes the header line, {@link #getColumnPointers(Schema)} must have been called first.
+	 * 
+	 * @param schema
+	 * @param timestamp
+	 * @throws Exception
+	 */
+	private void writeHeader(Schema schema, DateTime timestamp) throws Exception
+	{
+		writer.openTransaction(); // output will be buffered
+		try
+		{
+			// Column names (separated by the separator):
+			for(ColumnPointer<?> cp : columnPointers)
+				writer.write((!writer.isTransactionBufferEmpty() ? separator.getSeparatorChar() : "") + cp.getQualifiedColumnName());
+			// Postfix (assuming separator is ,): ,modelID=XXXXXXXXXXXXXXXX,modelSchemaNumber=YY,schemaName="abcdef",
+			writer.write(	separator.getSeparatorChar() + Schema.ATTRIBUTE_MODEL_ID + "=" + schema.getModelID() +
+							separator.getSeparatorChar() + Schema.ATTRIBUTE_MODEL_SCHEMA_NUMBER + "=" + schema.getModelSchemaNumber() +
+							separator.getSeparatorChar() + Schema.ATTRIBUTE_SCHEMA_NAME + "=" + escapeAndQuote(schema.getName(), true) +
+							separator.getSeparatorChar() + ATTRIBUTE_EXPORTED_AT + "=" + ExportedAtFormatter.print(timestamp) +
+							separator.getSeparatorChar());
+			writer.write(LINE_ENDING);
+		}
+		catch(Exception e)
+		{
+			writer.rollbackTransaction(); // !!!
+			throw e;
+		}
+		writer.commitTransaction(); // write out buffer
+	}
+	
+	/**
+	 * Writes a single record line, {@link #getColumnPointers(Schema)} must have been called first.
+	 * 
+	 * @param r
+	 * @throws Exception
+	 */
+	private void writeRecord(Record r) throws Exception
+	{
+		writer.openTransaction(); // output will be buffered
+		try
+		{
+			boolean first = true;
+			for(ColumnPointer<?> cp : columnPointers)
+			{
+				if(!first)
+					writer.write(separator.getSeparatorChar());
+				else
+					first = false;							
+				writer.write(valueStringProvider.getValueString(cp.getColumn(), cp.getValueSet(r, false), ""));
+				// will write nothing (i.e. "") when the value is not set (i.e. null value is represented by an empty String)
+			}
+			writer.write(LINE_ENDING);
+		}
+		catch(Exception e)
+		{
+			writer.rollbackTransaction(); // !!!
+			throw e;
+		}
+		writer.commitTransaction(); // write out buffer
+	}
+	
 	protected List<ColumnPointer<?>> getColumnPointers(Schema schema)
 	{
 		columnPointers.clear();
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.io.Charsets;
@@ -44,6 +45,7 @@ import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.ListLikeColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
@@ -170,6 +172,90 @@ public class XMLRecordsExporter extends SimpleExporter
 		}
 	}
 	
+	/**
+	 * @param r the record to write
+	 * @throws Exception
+	 */
+	private void writeRecord(Record r) throws Exception
+	{
+		writer.openTransaction(); // output will be buffered
+		try
+		{
+			//Open tag:
+			writer.writeLine(StringUtils.addTabsFront(
+				"<" + Record.TAG_RECORD + " " +
+				Schema.ATTRIBUTE_SCHEMA_NAME + "=\"" + XMLUtils.escapeCharacters(r.getSchema().getName()) + "\" " +
+				Schema.ATTRIBUTE_MODEL_ID + "=\"" + r.getSchema().getModelID() + "\" " +
+				Schema.ATTRIBUTE_MODEL_SCHEMA_NUMBER + "=\"" + r.getSchema().getModelSchemaNumber() + "\"" +
+				">", tabs));
+		
+			// Indent:
+			tabs++;
+		
+			// Traverse columns:
+			currentRecord = r;
+			traverse(r.getSchema());
+		
+			// Unindent:
+			tabs--;
+		
+			//Close tag:
+			writer.writeLine(StringUtils.addTabsFront("</" + Record.TAG_RECORD + ">", tabs));
+		}
+		catch(Exception e)
+		{
+			writer.rollbackTransaction(); // !!!
+			tabs = 1;
+			writer.writeLine(XMLUtils.comment("Exception on exporting record: " + e.toString() + (e.getMessage() != null ? " [" + e.getMessage() + "]" : ""), tabs));
+			throw e; //!!!
+		}
+		writer.commitTransaction(); // write out buffer
+	}
+	
+	/**
+	 * Exports the records in the given batch. The records are materialised one at a time, reusing the same {@link Record} instance.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.eximport.Exporter#export(uk.ac.ucl.excites.sapelli.storage.model.RecordBatch, java.lang.String)
+	 */
+	@Override
+	public ExportResult export(RecordBatch batch, String description)
+	{
+		if(batch == null || batch.isEmpty())
+			return ExportResult.NothingToExport();
+		
+		// Skip unexportable records unless force not to:
+		if(!forceExportUnexportable && !batch.getSchema().hasFlags(StorageClient.SCHEMA_FLAG_EXPORTABLE))
+			return ExportResult.PartialFailure(batch, 0, exportFolder, Collections.<File> emptyList(), new UnexportableRecordsException(batch.size()));
+		
+		// Export:
+		int exported = 0;
+		helper.reset();
+		try
+		{
+			openWriter(description, DateTime.now());
+			tabs = 1;
+			currentRecord = null;
+			for(Iterator<Record> it = batch.iterator(true); it.hasNext();)
+			{
+				writeRecord(it.next());
+				exported++;
+			}
+			return ExportResult.Success(batch, exportFolder, Collections.singletonList(writer.getFile()));
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace(System.err);
+			if(exported > 0)
+				return ExportResult.PartialFailure(batch, exported, exportFolder, Collections.singletonList(writer.getFile()), e);
+			else
+				return ExportResult.Failure(exportFolder, e, batch.size());
+		}
+		finally
+		{
+			closeWriter();
+		}
+	}
+	
 	@Override
 	public ExportResult export(List<Record> records, String description)
 	{
@@ -202,38 +288,7 @@ public class XMLRecordsExporter extends SimpleExporter
 				if(!forceExportUnexportable && !r.getSchema().hasFlags(StorageClient.SCHEMA_FLAG_EXPORTABLE))
 					continue;
 				
-				writer.openTransaction(); // output will be buffered
-				try
-				{
-					//Open tag:
-					writer.writeLine(StringUtils.addTabsFront(
-						"<" + Record.TAG_RECORD + " " +
-						Schema.ATTRIBUTE_SCHEMA_NAME + "=\"" + XMLUtils.escapeCharacters(r.getSchema().getName()) + "\" " +
-						Schema.ATTRIBUTE_MODEL_ID + "=\"" + r.getSchema().getModelID() + "\" " +
-						Schema.ATTRIBUTE_MODEL_SCHEMA_NUMBER + "=\"" + r.getSchema().getModelSchemaNumber() + "\"" +
-						">", tabs));
-				
-					// Indent:
-					tabs++;
-				
-					// Traverse columns:
-					currentRecord = r;
-					traverse(r.getSchema());
-				
-					// Unindent:
-					tabs--;
-				
-					//Close tag:
-					writer.writeLine(StringUtils.addTabsFront("</" + Record.TAG_RECORD + ">", tabs));
-				}
-				catch(Exception e)
-				{
-					writer.rollbackTransaction(); // !!!
-					tabs = 1;
-					writer.writeLine(XMLUtils.comment("Exception on exporting record: " + e.toString() + (e.getMessage() != null ? " [" + e.getMessage() + "]" : ""), tabs));
-					throw e; //!!!
-				}
-				writer.commitTransaction(); // write out buffer
+				writeRecord(r);
 				exported.add(r);
 				// TODO mark record as exported?
 			}
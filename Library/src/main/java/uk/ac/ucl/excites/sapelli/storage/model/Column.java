@@ -65,6 +65,33 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 	private static final long serialVersionUID = 2L;
 
 	static public final char ILLEGAL_NAME_CHAR_REPLACEMENT = '_';
+	
+	/**
+	 * Counts the changes which affected the hashCode of a sealed {@link Column} or {@link ColumnSet}. Because the hashCodes of
+	 * column sets (and of composite columns) depend on those of their columns, which do not know which column sets contain
+	 * them, every such change invalidates all memoised hashCodes.
+	 */
+	static volatile int SealedHashCodeChanges = 0;
+	
+	/**
+	 * @param hashCode
+	 * @param changes the value of {@link #SealedHashCodeChanges} before the hashCode was computed
+	 * @return a memo holding the given hashCode (in the lower 32 bits) and the given number of changes plus one (in the upper 32 bits)
+	 */
+	static long Memoise(int hashCode, int changes)
+	{
+		return ((long) (changes + 1) << 32) | (hashCode & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * @param hashCodeMemo the memo (see {@link #Memoise(int, int)}), or 0 if no hashCode was memoised
+	 * @param changes the current value of {@link #SealedHashCodeChanges}
+	 * @return whether the hashCode held by the memo can still be used, i.e. whether no sealed column or column set has changed since it was computed
+	 */
+	static boolean IsUpToDate(long hashCodeMemo, int changes)
+	{
+		return (int) (hashCodeMemo >>> 32) == changes + 1;
+	}
 
 	/**
 	 * @param name the String to be sanitised for use as a Column name
@@ -154,6 +181,23 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 	public final String name;
 	public final boolean optional;
 	private List<VirtualColumn<?, T>> virtualVersions;
+	
+	/**
+	 * Position at which this column was last found in a (sealed) {@link ColumnSet}, only a hint which must be verified by identity check.
+	 * 
+	 * @see ColumnSet#getKnownColumnPosition(Column)
+	 */
+	transient int positionHint;
+	
+	/**
+	 * Whether the column is part of a sealed {@link ColumnSet}
+	 */
+	private transient boolean sealed = false;
+	
+	/**
+	 * Memoised hashCode (see {@link #Memoise(int, int)}, 0 = not computed yet), only used when {@link #sealed}
+	 */
+	private transient volatile long hashCodeMemo;
 	public final T defaultValue;
 
 	/**
@@ -285,6 +329,20 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 	public T storeValue(ValueSet<?> valueSet, T value) throws InvalidColumnException, InvalidValueException, NullPointerException, UnsupportedOperationException
 	{
 		// Check:
+		checkValue(value);
+		// Store & return value:
+		return storeValueUnchecked(valueSet, value);
+	}
+	
+	/**
+	 * Performs optionality check and validation on a value that is about to be stored.
+	 * 
+	 * @param value the value to check, may be {@code null} only if the column is optional
+	 * @throws InvalidValueException when the given value is invalid
+	 * @throws NullPointerException if value is {@code null} on an non-optional column
+	 */
+	protected final void checkValue(T value) throws InvalidValueException, NullPointerException
+	{
 		if(value == null)
 		{
 			if(!optional)
@@ -292,8 +350,6 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 		}
 		else
 			validate(value); // throws InvalidValueException if invalid
-		// Store & return value:
-		return storeValueUnchecked(valueSet, value);
 	}
 	
 	/**
@@ -491,6 +547,111 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 		return (T) valueSet.getValue(this);
 	}
 	
+	/**
+	 * Retrieves the previously stored value for this column from the given valueSet as a primitive {@code long},
+	 * without boxing if the valueSet holds it in a primitive slot (see {@link ColumnSet#setPrimitiveSlots(boolean)}).
+	 * For use by {@link uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn}.
+	 * 
+	 * @param valueSet the {@link ValueSet} to retrieve the value from, should not be {@code null}
+	 * @param nullReplacement value to return if the valueSet holds no value for this column
+	 * @return stored value or nullReplacement
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	protected final long retrieveLongValue(ValueSet<?> valueSet, long nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("valueSet is null!");
+		return valueSet.getLongValue(this, nullReplacement);
+	}
+	
+	/**
+	 * Stores the given primitive {@code long} in this column on the given valueSet, without boxing if the valueSet holds it in a primitive slot.
+	 * Does not validate the value, callers are expected to have done so.
+	 * For use by {@link uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn}.
+	 * 
+	 * @param valueSet the valueSet in which to store the value, may not be {@code null}
+	 * @param value the (valid) value to store
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 */
+	protected final void storeLongValueUnchecked(ValueSet<?> valueSet, long value) throws InvalidColumnException, NullPointerException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("Given valueSet is null");
+		valueSet.setLongValue(this, value);
+	}
+	
+	/**
+	 * Retrieves the previously stored value for this column from the given valueSet as a primitive {@code double},
+	 * without boxing if the valueSet holds it in a primitive slot (see {@link ColumnSet#setPrimitiveSlots(boolean)}).
+	 * For use by {@link uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn}.
+	 * 
+	 * @param valueSet the {@link ValueSet} to retrieve the value from, should not be {@code null}
+	 * @param nullReplacement value to return if the valueSet holds no value for this column
+	 * @return stored value or nullReplacement
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	protected final double retrieveDoubleValue(ValueSet<?> valueSet, double nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("valueSet is null!");
+		return valueSet.getDoubleValue(this, nullReplacement);
+	}
+	
+	/**
+	 * Stores the given primitive {@code double} in this column on the given valueSet, without boxing if the valueSet holds it in a primitive slot.
+	 * Does not validate the value, callers are expected to have done so.
+	 * For use by {@link uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn}.
+	 * 
+	 * @param valueSet the valueSet in which to store the value, may not be {@code null}
+	 * @param value the (valid) value to store
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 */
+	protected final void storeDoubleValueUnchecked(ValueSet<?> valueSet, double value) throws InvalidColumnException, NullPointerException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("Given valueSet is null");
+		valueSet.setDoubleValue(this, value);
+	}
+	
+	/**
+	 * Retrieves the previously stored value for this column from the given valueSet as a primitive {@code boolean},
+	 * without boxing if the valueSet holds it in a primitive slot (see {@link ColumnSet#setPrimitiveSlots(boolean)}).
+	 * For use by {@link uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn}.
+	 * 
+	 * @param valueSet the {@link ValueSet} to retrieve the value from, should not be {@code null}
+	 * @param nullReplacement value to return if the valueSet holds no value for this column
+	 * @return stored value or nullReplacement
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	protected final boolean retrieveBooleanValue(ValueSet<?> valueSet, boolean nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("valueSet is null!");
+		return valueSet.getBooleanValue(this, nullReplacement);
+	}
+	
+	/**
+	 * Stores the given primitive {@code boolean} in this column on the given valueSet, without boxing if the valueSet holds it in a primitive slot.
+	 * Does not validate the value, callers are expected to have done so.
+	 * For use by {@link uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn}.
+	 * 
+	 * @param valueSet the valueSet in which to store the value, may not be {@code null}
+	 * @param value the (valid) value to store
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 */
+	protected final void storeBooleanValueUnchecked(ValueSet<?> valueSet, boolean value) throws InvalidColumnException, NullPointerException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("Given valueSet is null");
+		valueSet.setBooleanValue(this, value);
+	}
+	
 	/**
 	 * Retrieves previously stored value for this column from the given valueSet and converts it to a String representation.
 	 * 
@@ -1463,6 +1624,7 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 		if(virtualVersions == null)
 			virtualVersions = new ArrayList<VirtualColumn<?,T>>();
 		virtualVersions.add(virtualVersion);
+		resetHashCode();
 	}
 
 	/**
@@ -1681,8 +1843,51 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 
 	protected abstract boolean equalRestrictions(Column<T> otherColumn);
 	
+	/**
+	 * Returns the hashCode of the column. Once the column has been added to a sealed {@link ColumnSet}
+	 * the hashCode is only computed once and then remembered, until a sealed column or column set changes.
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 * @see #computeHashCode()
+	 */
 	@Override
-	public int hashCode()
+	public final int hashCode()
+	{
+		if(!sealed)
+			return computeHashCode();
+		long memo = hashCodeMemo;
+		int changes = SealedHashCodeChanges;
+		if(!IsUpToDate(memo, changes))
+			hashCodeMemo = memo = Memoise(computeHashCode(), changes);
+		return (int) memo;
+	}
+	
+	/**
+	 * Marks the column as sealed, meaning its hashCode can be memoised.
+	 * Called when a {@link ColumnSet} which contains the column is sealed.
+	 */
+	/*package*/ final void seal()
+	{
+		sealed = true;
+	}
+	
+	/**
+	 * Forgets the memoised hashCode (if any). To be called by subclasses upon changes which affect the hashCode.
+	 * If the column is sealed this also invalidates the memoised hashCodes of the column sets which contain it.
+	 */
+	protected final void resetHashCode()
+	{
+		hashCodeMemo = 0;
+		if(sealed)
+			SealedHashCodeChanges++;
+	}
+	
+	/**
+	 * To be overridden by subclasses which add to the hashCode.
+	 * 
+	 * @return the computed hashCode
+	 */
+	protected int computeHashCode()
 	{
 		int hash = 1;
 		hash = 31 * hash + getTypeString().hashCode();
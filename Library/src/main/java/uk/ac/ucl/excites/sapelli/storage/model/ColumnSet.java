@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +47,16 @@ public class ColumnSet implements Serializable
 	
 	static protected final int UNKNOWN_COLUMN_POSITION = -1;
 	
+	/**
+	 * Maximum number of compatible "foreign" column instances of which the position is remembered, when more are found the least recently used one is forgotten
+	 */
+	static private final int MAX_COMPATIBLE_COLUMNS = 64;
+	
+	/**
+	 * Maximum number of columns for which a linear identity scan is used when the position hint is incorrect
+	 */
+	static private final int MAX_SCANNED_COLUMNS = 8;
+	
 	static public final Set<Column<?>> SKIP_NONE = Collections.<Column<?>> emptySet();
 
 	// Dynamics-----------------------------------------------------------
@@ -53,6 +64,11 @@ public class ColumnSet implements Serializable
 	protected final boolean useVirtualVersions;
 	private boolean sealed = false;
 	
+	/**
+	 * Whether or not ValueSets of this ColumnSet keep the values of integer, float & boolean columns in primitive slots
+	 */
+	private boolean primitiveSlots = false;
+	
 	public ColumnSet(String name, boolean useVirtualVersions)
 	{
 		this.name = name;
@@ -80,6 +96,37 @@ public class ColumnSet implements Serializable
 	 */
 	private transient List<Column<?>> allColumns;
 	
+	/**
+	 * Lazily compiled codecs for lossless ([0]) and lossy ([1]) encoding of all (and only) non-virtual ("real") columns
+	 */
+	private transient ValueSetCodec[] codecs;
+	
+	/**
+	 * Lazily initialised slot layout, only used once the ColumnSet is sealed and if {@link #primitiveSlots} is {@code true}
+	 */
+	private transient SlotLayout slotLayout;
+	
+	/**
+	 * Array of all (and only) non-virtual ("real") columns, indexed by position, only used once the ColumnSet is sealed
+	 * (volatile because it is lazily initialised by whichever thread first needs it)
+	 */
+	private transient volatile Column<?>[] columnSlots;
+	
+	/**
+	 * Positions of column instances which are not part of the ColumnSet but have been found to be compatible with a column that is (copy-on-write)
+	 */
+	private transient volatile Map<Column<?>, CompatibleColumnPosition> compatibleColumnPositions;
+	
+	/**
+	 * Counts look-ups in {@link #compatibleColumnPositions}, used to time-stamp their use (updated without synchronisation, so stamps are approximate)
+	 */
+	private transient long compatibleColumnLookups;
+	
+	/**
+	 * Memoised hashCode (see {@link Column#Memoise(int, int)}, 0 = not computed yet), only used once the ColumnSet is sealed
+	 */
+	private transient volatile long hashCodeMemo;
+	
 	/**
 	 * Add a series of new, non-virtual columns to the ColumnSet. The columns' virtual versions are added only if {@link #useVirtualVersions} is {@code true}.
 	 * 
@@ -199,8 +246,21 @@ public class ColumnSet implements Serializable
 			throw new IllegalStateException("A ColumnSet must contain at least 1 (real) column before it can be sealed.");
 		// Do additional work (if any):
 		sealTasks();
-		// Seal the ColumnSet:
+		// Seal the ColumnSet & its columns:
 		this.sealed = true;
+		for(Column<?> column : getColumns(true))
+			column.seal();
+	}
+	
+	/**
+	 * Forgets the memoised hashCode (if any). To be called by subclasses upon changes which affect the hashCode.
+	 * If the ColumnSet is sealed this also invalidates the memoised hashCodes of other column sets and columns which may contain it.
+	 */
+	protected final void resetHashCode()
+	{
+		hashCodeMemo = 0;
+		if(sealed)
+			Column.SealedHashCodeChanges++;
 	}
 	
 	/**
@@ -219,6 +279,46 @@ public class ColumnSet implements Serializable
 		return sealed;
 	}
 	
+	/**
+	 * Sets whether or not ValueSets of this ColumnSet keep the values of integer, float & boolean columns in primitive
+	 * ({@code long[]}/bitset) slots instead of as boxed objects. This reduces the memory footprint of, and allocation by,
+	 * ValueSets with many numeric columns and allows values to be stored & retrieved without boxing through the primitive
+	 * accessors of {@link uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn},
+	 * {@link uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn} &
+	 * {@link uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn}.
+	 * The values, and the behaviour of the ValueSets, are the same in either case.
+	 * 
+	 * @param primitiveSlots
+	 * @throws IllegalStateException if the ColumnSet is already sealed
+	 */
+	public void setPrimitiveSlots(boolean primitiveSlots) throws IllegalStateException
+	{
+		if(sealed)
+			throw new IllegalStateException("Cannot change the value layout of a sealed ColumnSet!");
+		this.primitiveSlots = primitiveSlots;
+	}
+	
+	/**
+	 * @return whether or not ValueSets of this ColumnSet keep the values of integer, float & boolean columns in primitive slots
+	 */
+	public boolean isUsingPrimitiveSlots()
+	{
+		return primitiveSlots;
+	}
+	
+	/**
+	 * @return the slot layout for ValueSets of this (sealed) ColumnSet, or {@code null} if all values are to be kept in an Object array
+	 */
+	/*package*/ SlotLayout getSlotLayout()
+	{
+		if(!primitiveSlots)
+			return null;
+		SlotLayout layout = slotLayout;
+		if(layout == null)
+			slotLayout = layout = new SlotLayout(this);
+		return layout;
+	}
+	
 	/**
 	 * @return the name
 	 */
@@ -283,6 +383,80 @@ public class ColumnSet implements Serializable
 		return pos.intValue();
 	}
 
+	/**
+	 * Returns the position of the given column instance if it is known to this (sealed) ColumnSet, either because it is
+	 * one of the ColumnSet's own non-virtual columns or because it was previously found to be compatible with one of them.
+	 * Only identity checks are performed, no name lookups nor compatibility checks.
+	 * 
+	 * @param column
+	 * @return the position of the given {@link Column} instance, or {@link #UNKNOWN_COLUMN_POSITION} if it is not (yet) known
+	 */
+	int getKnownColumnPosition(Column<?> column)
+	{
+		if(column == null || !sealed)
+			return UNKNOWN_COLUMN_POSITION;
+		Column<?>[] slots = columnSlots;
+		if(slots == null)
+			columnSlots = slots = realColumns.toArray(new Column<?>[realColumns.size()]);
+		// Check position hint:
+		int hint = column.positionHint;
+		if(hint < slots.length && slots[hint] == column)
+			return hint;
+		// Scan small ColumnSets (e.g. indexes), so their columns don't keep overwriting the hint their schema relies on:
+		if(slots.length <= MAX_SCANNED_COLUMNS)
+			for(int p = 0; p < slots.length; p++)
+				if(slots[p] == column)
+					return p;
+		// Check compatible columns:
+		Map<Column<?>, CompatibleColumnPosition> compatibles = compatibleColumnPositions;
+		if(compatibles != null)
+		{
+			CompatibleColumnPosition compatible = compatibles.get(column);
+			if(compatible != null)
+			{
+				compatible.lastUsed = ++compatibleColumnLookups;
+				return compatible.position;
+			}
+		}
+		return UNKNOWN_COLUMN_POSITION;
+	}
+	
+	/**
+	 * Remembers the position of a column instance after it was found by name and, if it is not one of the ColumnSet's own columns, checked for compatibility.
+	 * At most {@link #MAX_COMPATIBLE_COLUMNS} compatible column instances are remembered, beyond that the least recently used one is replaced.
+	 * 
+	 * @param column
+	 * @param position
+	 * @see #getKnownColumnPosition(Column)
+	 */
+	void rememberColumnPosition(Column<?> column, int position)
+	{
+		if(!sealed)
+			return;
+		if(column == realColumns.get(position))
+			column.positionHint = position;
+		else
+			synchronized(this)
+			{
+				Map<Column<?>, CompatibleColumnPosition> compatibles = compatibleColumnPositions;
+				compatibles = compatibles == null ? new IdentityHashMap<Column<?>, CompatibleColumnPosition>() : new IdentityHashMap<Column<?>, CompatibleColumnPosition>(compatibles);
+				if(compatibles.size() >= MAX_COMPATIBLE_COLUMNS && !compatibles.containsKey(column))
+				{	// Forget the least recently used one:
+					Column<?> lruColumn = null;
+					long lruLastUsed = Long.MAX_VALUE;
+					for(Map.Entry<Column<?>, CompatibleColumnPosition> entry : compatibles.entrySet())
+						if(entry.getValue().lastUsed < lruLastUsed)
+						{
+							lruColumn = entry.getKey();
+							lruLastUsed = entry.getValue().lastUsed;
+						}
+					compatibles.remove(lruColumn);
+				}
+				compatibles.put(column, new CompatibleColumnPosition(position, ++compatibleColumnLookups));
+				compatibleColumnPositions = compatibles;
+			}
+	}
+	
 	/**
 	 * Returns a list of all columns (including virtual ones if {@code includeVirtual} is {@code true}) in the order of addition.
 	 * If {@code includeVirtual} is {@code true} virtual columns are inserted between their "real" owner and the next "real" column.
@@ -560,6 +734,40 @@ public class ColumnSet implements Serializable
 		return !canBeLossy();
 	}
 	
+	/**
+	 * Returns the (lazily compiled) codec to encode/decode the values of all (and only) non-virtual columns of ValueSets of this ColumnSet.
+	 * 
+	 * @param lossless if {@code true} all values are to be losslessly encoded; if {@code false} the values of columns which {@link #canBeLossy()} are to be lossyly encoded, and the values of the others losslessly.
+	 * @return the codec
+	 * @throws IllegalStateException if the ColumnSet is not sealed
+	 */
+	public ValueSetCodec getCodec(boolean lossless) throws IllegalStateException
+	{
+		ValueSetCodec[] codecs = this.codecs;
+		if(codecs == null)
+			this.codecs = codecs = new ValueSetCodec[2];
+		int c = lossless ? 0 : 1;
+		if(codecs[c] == null)
+			codecs[c] = ValueSetCodec.Compile(this, SKIP_NONE, lossless);
+		return codecs[c];
+	}
+	
+	/**
+	 * Returns a codec to encode/decode the values of the non-virtual columns, except the given skipped ones, of ValueSets of this ColumnSet.
+	 * Only the codecs for {@link #SKIP_NONE} are cached, so callers should hold on to the returned codec for as long as the skipColumns don't change.
+	 * 
+	 * @param skipColumns columns *not* to include the values of
+	 * @param lossless if {@code true} all values are to be losslessly encoded; if {@code false} the values of columns which {@link #canBeLossy()} are to be lossyly encoded, and the values of the others losslessly.
+	 * @return the codec
+	 * @throws IllegalStateException if the ColumnSet is not sealed
+	 */
+	public ValueSetCodec getCodec(Set<? extends Column<?>> skipColumns, boolean lossless) throws IllegalStateException
+	{
+		if(skipColumns == null || skipColumns.isEmpty())
+			return getCodec(lossless);
+		return ValueSetCodec.Compile(this, skipColumns, lossless);
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -607,8 +815,31 @@ public class ColumnSet implements Serializable
 			return false;
 	}
 	
+	/**
+	 * Returns the hashCode of the ColumnSet. Once the ColumnSet has been sealed the hashCode is only computed once and then remembered,
+	 * until a sealed column or column set changes (e.g. when a virtual version is added to one of its columns).
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 * @see #computeHashCode()
+	 */
 	@Override
-	public int hashCode()
+	public final int hashCode()
+	{
+		if(!sealed)
+			return computeHashCode();
+		long memo = hashCodeMemo;
+		int changes = Column.SealedHashCodeChanges;
+		if(!Column.IsUpToDate(memo, changes))
+			hashCodeMemo = memo = Column.Memoise(computeHashCode(), changes);
+		return (int) memo;
+	}
+	
+	/**
+	 * To be overridden by subclasses which add to the hashCode.
+	 * 
+	 * @return the computed hashCode
+	 */
+	protected int computeHashCode()
 	{
 		int hash = 1;
 		hash = 31 * hash + Objects.hashCode(name);
@@ -627,5 +858,24 @@ public class ColumnSet implements Serializable
 		for(Column<?> c : getColumns(visitor.includeVirtualColumns(), skipColumns))
 			c.accept(visitor);
 	}
+	
+	/**
+	 * The position of a compatible "foreign" column instance, and when it was last looked up (see {@link ColumnSet#compatibleColumnPositions})
+	 * 
+	 * @author mstevens
+	 */
+	static private final class CompatibleColumnPosition
+	{
+		
+		final int position;
+		long lastUsed;
+		
+		CompatibleColumnPosition(int position, long lastUsed)
+		{
+			this.position = position;
+			this.lastUsed = lastUsed;
+		}
+		
+	}
 
 }
@@ -770,9 +770,9 @@ public abstract class ListColumn<L extends List<T>, T> extends Column<L> impleme
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + sizeField.hashCode();
 		hash = 31 * hash + serialisationDelimiter;
 		hash = 31 * hash + serialisationSeparator;
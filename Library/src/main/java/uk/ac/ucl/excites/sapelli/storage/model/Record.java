@@ -66,10 +66,10 @@ public class Record extends RecordValueSet<Schema>
 		if(values != null)
 		{
 			Column<?> autoKeyCol = columnSet.getAutoIncrementingPrimaryKeyColumn();
-			if(this.values.length == values.length)
+			if(getNumberOfValues() == values.length)
 			{
 				// Init from given values:
-				for(int c = 0; c < this.values.length; c++)
+				for(int c = 0; c < values.length; c++)
 				{
 					Column<?> col = columnSet.getColumn(c);
 					if(col == autoKeyCol && values[c] == null)
@@ -79,7 +79,7 @@ public class Record extends RecordValueSet<Schema>
 				}
 			}
 			else
-				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + this.values.length + ").");
+				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + getNumberOfValues() + ").");
 		}
 	}
 	
@@ -149,7 +149,7 @@ public class Record extends RecordValueSet<Schema>
 	 * @param newSchema
 	 * @param force - if true the old and new schema are *not* compared, but the number of columns of the new schema must *always* match the number of values!
 	 * @throws IndexOutOfBoundsException - when the new schema has a different number of columns than the number of values in the record
-	 * @throws IllegalArgumentException - when the new schema is incompatible with the old one
+	 * @throws IllegalArgumentException - when the new schema is incompatible with the old one, or (if forced) when the record's primitive slots do not match the new schema's column types
 	 * 
 	 * @deprecated unsafe, avoid this unless there is a very good reason and you know what you are doing
 	 */
@@ -157,8 +157,10 @@ public class Record extends RecordValueSet<Schema>
 	{
 		if(force)
 		{		
-			if(newSchema.getNumberOfColumns(false) != values.length)
+			if(newSchema.getNumberOfColumns(false) != getNumberOfValues())
 				throw new IndexOutOfBoundsException("The new schema has a different number of columns than the number of values in this record!");
+			if(!isLaidOutFor(newSchema))
+				throw new IllegalArgumentException("The new schema's column types do not match the primitive slots of this record!");
 		}
 		else
 		{
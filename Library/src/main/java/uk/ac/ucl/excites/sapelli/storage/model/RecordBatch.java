@@ -0,0 +1,738 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidColumnException;
+
+/**
+ * A batch of records of a single {@link Schema}, held column by column rather than as separate {@link Record} objects.
+ *
+ * The values of each (non-virtual, top-level) column are kept in a "vector": a {@code long[]} for {@link IntegerColumn}s,
+ * a {@code long[]} (double bits) for {@link FloatColumn}s, a bitset for {@link BooleanColumn}s, a {@code long[]} and a
+ * {@code byte[]} for {@link TimeStampColumn}s, dictionary codes for {@link StringColumn}s (so repeated Strings are stored
+ * only once), and an {@code Object[]} for all other columns. A bitset per vector keeps track of {@code null} values.
+ *
+ * This makes large numbers of records much cheaper to hold in memory than a {@code List<Record>}. Records are materialised
+ * on demand, either as new instances ({@link #get(int)}, {@link #iterator()}) or by loading the values into a reusable
+ * instance ({@link #get(int, Record)}, {@link #iterator(boolean)}).
+ *
+ * Values are copied into and out of the batch, so batches and records never share mutable values.
+ * Instances are not thread-safe.
+ *
+ * @author mstevens
+ */
+public class RecordBatch implements Iterable<Record>
+{
+
+	// STATIC -------------------------------------------------------
+	static private final int DEFAULT_INITIAL_CAPACITY = 16;
+
+	/**
+	 * Groups the given records in batches per schema.
+	 *
+	 * @param records
+	 * @return a list of batches, one per schema, in order of first occurrence of the schema among the records
+	 */
+	static public List<RecordBatch> GroupBySchema(Collection<? extends Record> records)
+	{
+		Map<Schema, RecordBatch> batches = new LinkedHashMap<Schema, RecordBatch>();
+		for(Record record : records)
+		{
+			RecordBatch batch = batches.get(record.getSchema());
+			if(batch == null)
+				batches.put(record.getSchema(), batch = new RecordBatch(record.getSchema()));
+			batch.add(record);
+		}
+		return new ArrayList<RecordBatch>(batches.values());
+	}
+
+	static private Vector CreateVector(Column<?> column)
+	{
+		if(column instanceof IntegerColumn)
+			return new LongVector();
+		if(column instanceof FloatColumn)
+			return new DoubleVector();
+		if(column instanceof BooleanColumn)
+			return new BooleanVector();
+		if(column instanceof TimeStampColumn)
+			return new TimeStampVector();
+		if(column instanceof StringColumn)
+			return new StringVector();
+		return new ObjectVector(column);
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	private final Schema schema;
+	private final Vector[] vectors;
+	private int size = 0;
+	private int capacity = 0;
+
+	/**
+	 * @param schema a sealed schema
+	 */
+	public RecordBatch(Schema schema)
+	{
+		this(schema, DEFAULT_INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param schema a sealed schema
+	 * @param initialCapacity
+	 * @throws IllegalStateException if the schema is not sealed
+	 */
+	public RecordBatch(Schema schema, int initialCapacity) throws IllegalStateException
+	{
+		if(!schema.isSealed())
+			throw new IllegalStateException("Schema must be sealed before records based on it can be batched!");
+		this.schema = schema;
+		List<Column<?>> columns = schema.getColumns(false);
+		this.vectors = new Vector[columns.size()];
+		for(int p = 0; p < vectors.length; p++)
+			vectors[p] = CreateVector(columns.get(p));
+		ensureCapacity(initialCapacity);
+	}
+
+	/**
+	 * @param schema a sealed schema
+	 * @param records records of the given schema
+	 * @throws IllegalArgumentException if one of the records is of another schema
+	 */
+	public RecordBatch(Schema schema, Collection<? extends Record> records) throws IllegalArgumentException
+	{
+		this(schema, Math.max(records.size(), 1));
+		addAll(records);
+	}
+
+	/**
+	 * @return the schema
+	 */
+	public Schema getSchema()
+	{
+		return schema;
+	}
+
+	/**
+	 * @return the number of records in the batch
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	private void ensureCapacity(int minimumCapacity)
+	{
+		if(minimumCapacity <= capacity)
+			return;
+		int newCapacity = Math.max(minimumCapacity, capacity + (capacity >> 1));
+		for(Vector vector : vectors)
+			vector.ensureCapacity(newCapacity);
+		capacity = newCapacity;
+	}
+
+	/**
+	 * Adds (a copy of the values of) the given record to the end of the batch.
+	 *
+	 * @param record
+	 * @throws IllegalArgumentException if the record is of another schema
+	 */
+	public void add(Record record) throws IllegalArgumentException
+	{
+		checkSchema(record);
+		ensureCapacity(size + 1);
+		store(size, record);
+		size++;
+	}
+
+	/**
+	 * @param records
+	 * @throws IllegalArgumentException if one of the records is of another schema
+	 */
+	public void addAll(Collection<? extends Record> records) throws IllegalArgumentException
+	{
+		ensureCapacity(size + records.size());
+		for(Record record : records)
+			add(record);
+	}
+
+	/**
+	 * Replaces the values at the given index by (a copy of) those of the given record.
+	 *
+	 * @param index
+	 * @param record
+	 * @throws IndexOutOfBoundsException
+	 * @throws IllegalArgumentException if the record is of another schema
+	 */
+	public void set(int index, Record record) throws IndexOutOfBoundsException, IllegalArgumentException
+	{
+		checkIndex(index);
+		checkSchema(record);
+		store(index, record);
+	}
+
+	private void store(int index, Record record)
+	{
+		for(int p = 0; p < vectors.length; p++)
+			vectors[p].store(index, record, p);
+	}
+
+	/**
+	 * Materialises the record at the given index as a new {@link Record} instance.
+	 *
+	 * @param index
+	 * @return a new Record
+	 * @throws IndexOutOfBoundsException
+	 */
+	public Record get(int index) throws IndexOutOfBoundsException
+	{
+		return get(index, schema.createRecord());
+	}
+
+	/**
+	 * Loads the values of the record at the given index into the given, reusable, Record instance.
+	 *
+	 * @param index
+	 * @param record a (modifiable) record of the batch's schema, all its values will be overwritten
+	 * @return the given record
+	 * @throws IndexOutOfBoundsException
+	 * @throws IllegalArgumentException if the record is of another schema
+	 */
+	public Record get(int index, Record record) throws IndexOutOfBoundsException, IllegalArgumentException
+	{
+		checkIndex(index);
+		checkSchema(record);
+		for(int p = 0; p < vectors.length; p++)
+			vectors[p].load(index, record, p);
+		return record;
+	}
+
+	/**
+	 * @param column
+	 * @param index
+	 * @return whether the record at the given index has a non-{@code null} value for the given column
+	 * @throws IndexOutOfBoundsException
+	 * @throws InvalidColumnException when the column is not part of the schema, nor compatible with a column by the same name that is
+	 */
+	public boolean isValuePresent(Column<?> column, int index) throws IndexOutOfBoundsException, InvalidColumnException
+	{
+		checkIndex(index);
+		return vectors[getPosition(column)].isPresent(index);
+	}
+
+	/**
+	 * @param column
+	 * @param index
+	 * @return the value of the given column of the record at the given index (possibly {@code null})
+	 * @throws IndexOutOfBoundsException
+	 * @throws InvalidColumnException when the column is not part of the schema, nor compatible with a column by the same name that is
+	 */
+	public <T> T getValue(Column<T> column, int index) throws IndexOutOfBoundsException, InvalidColumnException
+	{
+		checkIndex(index);
+		return column.cast(vectors[getPosition(column)].get(index));
+	}
+
+	/**
+	 * @param column
+	 * @param index
+	 * @param nullReplacement
+	 * @return the value of the given column of the record at the given index, or nullReplacement
+	 * @throws IndexOutOfBoundsException
+	 * @throws InvalidColumnException when the column is not part of the schema, nor compatible with a column by the same name that is
+	 */
+	public long getPrimitiveLong(IntegerColumn column, int index, long nullReplacement) throws IndexOutOfBoundsException, InvalidColumnException
+	{
+		checkIndex(index);
+		LongVector vector = (LongVector) vectors[getPosition(column)];
+		return vector.isPresent(index) ? vector.values[index] : nullReplacement;
+	}
+
+	/**
+	 * @param column
+	 * @param index
+	 * @param nullReplacement
+	 * @return the value of the given column of the record at the given index, or nullReplacement
+	 * @throws IndexOutOfBoundsException
+	 * @throws InvalidColumnException when the column is not part of the schema, nor compatible with a column by the same name that is
+	 */
+	public double getPrimitiveDouble(FloatColumn column, int index, double nullReplacement) throws IndexOutOfBoundsException, InvalidColumnException
+	{
+		checkIndex(index);
+		DoubleVector vector = (DoubleVector) vectors[getPosition(column)];
+		return vector.isPresent(index) ? Double.longBitsToDouble(vector.values[index]) : nullReplacement;
+	}
+
+	/**
+	 * Removes all records from the batch (but keeps the allocated capacity).
+	 */
+	public void clear()
+	{
+		for(Vector vector : vectors)
+			vector.clear(size);
+		size = 0;
+	}
+
+	/**
+	 * @return a list with all records in the batch, materialised as new {@link Record} instances
+	 */
+	public List<Record> toRecords()
+	{
+		return toRecords(0, size);
+	}
+
+	/**
+	 * @param fromIndex inclusive
+	 * @param toIndex exclusive
+	 * @return a list with the records in the given index range, materialised as new {@link Record} instances
+	 * @throws IndexOutOfBoundsException
+	 */
+	public List<Record> toRecords(int fromIndex, int toIndex) throws IndexOutOfBoundsException
+	{
+		if(fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("Invalid range [" + fromIndex + ", " + toIndex + "[ for batch of size " + size);
+		List<Record> records = new ArrayList<Record>(toIndex - fromIndex);
+		for(int i = fromIndex; i < toIndex; i++)
+			records.add(get(i));
+		return records;
+	}
+
+	/**
+	 * Returns an iterator which materialises each record as a new {@link Record} instance.
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Record> iterator()
+	{
+		return iterator(false);
+	}
+
+	/**
+	 * @param reuseRecord if {@code true} the iterator loads the values of each record into the same {@link Record} instance, meaning that
+	 * 			instance is only valid until the next call of {@link Iterator#next()}; if {@code false} each record is materialised as a new instance
+	 * @return an iterator over the records in the batch
+	 */
+	public Iterator<Record> iterator(final boolean reuseRecord)
+	{
+		return new Iterator<Record>()
+		{
+
+			private int next = 0;
+			private final Record reusable = reuseRecord ? schema.createRecord() : null;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next < size;
+			}
+
+			@Override
+			public Record next()
+			{
+				if(!hasNext())
+					throw new NoSuchElementException();
+				return reuseRecord ? get(next++, reusable) : get(next++);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException("Cannot remove records from a " + RecordBatch.class.getSimpleName());
+			}
+
+		};
+	}
+
+	private void checkIndex(int index) throws IndexOutOfBoundsException
+	{
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+
+	private void checkSchema(Record record) throws IllegalArgumentException
+	{
+		if(record.getSchema() != schema && !record.getSchema().equals(schema))
+			throw new IllegalArgumentException("Record of schema " + record.getSchema().getName() + " cannot be added to batch of schema " + schema.getName());
+	}
+
+	private int getPosition(Column<?> column) throws InvalidColumnException
+	{
+		int position = schema.getKnownColumnPosition(column);
+		if(position == Schema.UNKNOWN_COLUMN_POSITION)
+		{
+			position = schema.getColumnPosition(column.name);
+			if(position == Schema.UNKNOWN_COLUMN_POSITION || !column.isCompatible(schema.getColumn(position)))
+				throw new InvalidColumnException("The schema of this batch has no such (compatible) column.", column);
+		}
+		return position;
+	}
+
+	/**
+	 * Holds the values of a single column, at the same index as the record they belong to
+	 */
+	static private abstract class Vector
+	{
+
+		/**
+		 * Presence (i.e. non-{@code null} value) bit per record
+		 */
+		private long[] presence = new long[0];
+
+		final boolean isPresent(int index)
+		{
+			return (presence[index >>> 6] & (1L << index)) != 0;
+		}
+
+		final void setPresent(int index, boolean present)
+		{
+			if(present)
+				presence[index >>> 6] |= (1L << index);
+			else
+				presence[index >>> 6] &= ~(1L << index);
+		}
+
+		void ensureCapacity(int capacity)
+		{
+			presence = Arrays.copyOf(presence, (capacity + Long.SIZE - 1) / Long.SIZE);
+		}
+
+		/**
+		 * @param size the size of the batch before clearing
+		 */
+		void clear(int size)
+		{
+			Arrays.fill(presence, 0L);
+		}
+
+		/**
+		 * Copies the value at the given position in the valueSet into the vector at the given index.
+		 */
+		final void store(int index, ValueSet<?> valueSet, int position)
+		{
+			boolean present = valueSet.isValuePresentAt(position);
+			setPresent(index, present);
+			if(present)
+				storePresent(index, valueSet, position);
+			else
+				storeNull(index);
+		}
+
+		abstract void storePresent(int index, ValueSet<?> valueSet, int position);
+
+		void storeNull(int index)
+		{
+			// does nothing by default
+		}
+
+		/**
+		 * Copies the value at the given index in the vector to the given position in the valueSet.
+		 */
+		final void load(int index, ValueSet<?> valueSet, int position)
+		{
+			if(isPresent(index))
+				loadPresent(index, valueSet, position);
+			else
+				valueSet.setValueAt(position, null);
+		}
+
+		abstract void loadPresent(int index, ValueSet<?> valueSet, int position);
+
+		/**
+		 * @return the (boxed) value at the given index
+		 */
+		final Object get(int index)
+		{
+			return isPresent(index) ? getPresent(index) : null;
+		}
+
+		abstract Object getPresent(int index);
+
+	}
+
+	static private final class LongVector extends Vector
+	{
+
+		long[] values = new long[0];
+
+		@Override
+		void ensureCapacity(int capacity)
+		{
+			super.ensureCapacity(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void storePresent(int index, ValueSet<?> valueSet, int position)
+		{
+			values[index] = valueSet.getLongAt(position, 0L);
+		}
+
+		@Override
+		void loadPresent(int index, ValueSet<?> valueSet, int position)
+		{
+			valueSet.setLongAt(position, values[index]);
+		}
+
+		@Override
+		Object getPresent(int index)
+		{
+			return Long.valueOf(values[index]);
+		}
+
+	}
+
+	/**
+	 * Doubles are held as their bits
+	 */
+	static private final class DoubleVector extends Vector
+	{
+
+		long[] values = new long[0];
+
+		@Override
+		void ensureCapacity(int capacity)
+		{
+			super.ensureCapacity(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void storePresent(int index, ValueSet<?> valueSet, int position)
+		{
+			values[index] = Double.doubleToLongBits(valueSet.getDoubleAt(position, 0.0d));
+		}
+
+		@Override
+		void loadPresent(int index, ValueSet<?> valueSet, int position)
+		{
+			valueSet.setDoubleAt(position, Double.longBitsToDouble(values[index]));
+		}
+
+		@Override
+		Object getPresent(int index)
+		{
+			return Double.valueOf(Double.longBitsToDouble(values[index]));
+		}
+
+	}
+
+	static private final class BooleanVector extends Vector
+	{
+
+		private long[] bits = new long[0];
+
+		@Override
+		void ensureCapacity(int capacity)
+		{
+			super.ensureCapacity(capacity);
+			bits = Arrays.copyOf(bits, (capacity + Long.SIZE - 1) / Long.SIZE);
+		}
+
+		private boolean getBit(int index)
+		{
+			return (bits[index >>> 6] & (1L << index)) != 0;
+		}
+
+		@Override
+		void storePresent(int index, ValueSet<?> valueSet, int position)
+		{
+			if(valueSet.getBooleanAt(position, false))
+				bits[index >>> 6] |= (1L << index);
+			else
+				bits[index >>> 6] &= ~(1L << index);
+		}
+
+		@Override
+		void loadPresent(int index, ValueSet<?> valueSet, int position)
+		{
+			valueSet.setBooleanAt(position, getBit(index));
+		}
+
+		@Override
+		Object getPresent(int index)
+		{
+			return Boolean.valueOf(getBit(index));
+		}
+
+	}
+
+	/**
+	 * TimeStamps are held as milliseconds since the epoch and quarter-hour offset w.r.t. UTC (which always fits a byte: [-48, 56])
+	 */
+	static private final class TimeStampVector extends Vector
+	{
+
+		private long[] msSinceEpoch = new long[0];
+		private byte[] quarterHourOffsets = new byte[0];
+
+		@Override
+		void ensureCapacity(int capacity)
+		{
+			super.ensureCapacity(capacity);
+			msSinceEpoch = Arrays.copyOf(msSinceEpoch, capacity);
+			quarterHourOffsets = Arrays.copyOf(quarterHourOffsets, capacity);
+		}
+
+		@Override
+		void storePresent(int index, ValueSet<?> valueSet, int position)
+		{
+			TimeStamp timeStamp = (TimeStamp) valueSet.getValueAt(position);
+			msSinceEpoch[index] = timeStamp.getMsSinceEpoch();
+			quarterHourOffsets[index] = (byte) timeStamp.getQuarterHourOffsetWrtUTC();
+		}
+
+		@Override
+		void loadPresent(int index, ValueSet<?> valueSet, int position)
+		{
+			valueSet.setValueAt(position, getPresent(index));
+		}
+
+		@Override
+		Object getPresent(int index)
+		{
+			return new TimeStamp(msSinceEpoch[index], quarterHourOffsets[index]);
+		}
+
+	}
+
+	/**
+	 * Strings are dictionary-coded
+	 */
+	static private final class StringVector extends Vector
+	{
+
+		private int[] codes = new int[0];
+		private final List<String> dictionary = new ArrayList<String>();
+		private final Map<String, Integer> codesByString = new HashMap<String, Integer>();
+
+		@Override
+		void ensureCapacity(int capacity)
+		{
+			super.ensureCapacity(capacity);
+			codes = Arrays.copyOf(codes, capacity);
+		}
+
+		@Override
+		void clear(int size)
+		{
+			super.clear(size);
+			dictionary.clear();
+			codesByString.clear();
+		}
+
+		@Override
+		void storePresent(int index, ValueSet<?> valueSet, int position)
+		{
+			String value = (String) valueSet.getValueAt(position);
+			Integer code = codesByString.get(value);
+			if(code == null)
+			{
+				code = dictionary.size();
+				dictionary.add(value);
+				codesByString.put(value, code);
+			}
+			codes[index] = code;
+		}
+
+		@Override
+		void loadPresent(int index, ValueSet<?> valueSet, int position)
+		{
+			valueSet.setValueAt(position, dictionary.get(codes[index]));
+		}
+
+		@Override
+		Object getPresent(int index)
+		{
+			return dictionary.get(codes[index]);
+		}
+
+	}
+
+	static private final class ObjectVector extends Vector
+	{
+
+		private final Column<?> column;
+		private Object[] values = new Object[0];
+
+		ObjectVector(Column<?> column)
+		{
+			this.column = column;
+		}
+
+		@Override
+		void ensureCapacity(int capacity)
+		{
+			super.ensureCapacity(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void clear(int size)
+		{
+			super.clear(size);
+			Arrays.fill(values, 0, size, null); // allow GC
+		}
+
+		@Override
+		void storePresent(int index, ValueSet<?> valueSet, int position)
+		{
+			values[index] = column.copyObject(valueSet.getValueAt(position), false); // cast, don't convert
+		}
+
+		@Override
+		void storeNull(int index)
+		{
+			values[index] = null;
+		}
+
+		@Override
+		void loadPresent(int index, ValueSet<?> valueSet, int position)
+		{
+			valueSet.setValueAt(position, getPresent(index));
+		}
+
+		@Override
+		Object getPresent(int index)
+		{
+			return column.copyObject(values[index], false); // cast, don't convert
+		}
+
+	}
+
+}
@@ -42,6 +42,16 @@ public class RecordReference extends RecordValueSet<PrimaryKey>
 	
 	private final Schema referencedSchema;
 	
+	/**
+	 * Memoised hashCode (0 = not computed yet), only used once all key part values are set
+	 */
+	private transient int hashCode;
+	
+	/**
+	 * The {@link ValueSet#getModificationCount()} at the time the hashCode was memoised
+	 */
+	private transient int hashCodeModificationCount;
+	
 	/**
 	 * Creates a new, but "empty", RecordReference which, once the column values have been set, can be used to reference a record of the given schema. 
 	 * 
@@ -184,18 +194,31 @@ public class RecordReference extends RecordValueSet<PrimaryKey>
 		
 		// Match for key parts:
 		AndConstraint constraints = new AndConstraint();
-		int c = 0;
-		for(Object keyPart : values)
-			constraints.addConstraint(new EqualityConstraint(columnSet.getColumn(c++), keyPart));
+		for(int c = 0, n = getNumberOfValues(); c < n; c++)
+			constraints.addConstraint(new EqualityConstraint(columnSet.getColumn(c), getValueAt(c)));
 		
 		return constraints.reduce();
 	}
 	
+	/**
+	 * The hashCode is memoised once all key part values have been set.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#hashCode()
+	 */
 	@Override
 	public int hashCode()
 	{
-		int hash = super.hashCode();
-		hash = 31 * hash + referencedSchema.hashCode();
+		int hash = hashCode;
+		if(hash == 0 || hashCodeModificationCount != getModificationCount())
+		{
+			hash = super.hashCode();
+			hash = 31 * hash + referencedSchema.hashCode();
+			for(int c = 0, n = getNumberOfValues(); c < n; c++)
+				if(getValueAt(c) == null)
+					return hash; // don't memoise until all key parts are set
+			hashCode = hash;
+			hashCodeModificationCount = getModificationCount();
+		}
 		return hash;
 	}
 	
@@ -349,6 +349,7 @@ public class Schema extends ColumnSet implements Serializable
 			indexes = new ArrayList<Index>();
 		// Add to the indexes:
 		indexes.add(index);
+		resetHashCode(); // indexes can be added after sealing
 	}
 	
 	@Override
@@ -651,9 +652,9 @@ public class Schema extends ColumnSet implements Serializable
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + tableName.hashCode();
 		hash = 31 * hash + ((int) (model.getID() ^ (model.getID() >>> 32))); // do not use model.hashCode() here!
 		hash = 31 * hash + modelSchemaNumber;
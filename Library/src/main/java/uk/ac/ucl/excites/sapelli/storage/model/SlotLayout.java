@@ -0,0 +1,148 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+
+/**
+ * Describes how the values of ValueSets of a {@link ColumnSet} which uses primitive slots (see {@link ColumnSet#setPrimitiveSlots(boolean)})
+ * are laid out in memory: the values of {@link IntegerColumn}s and {@link FloatColumn}s are kept in a {@code long[]} (the latter as raw
+ * double bits), those of {@link BooleanColumn}s in a bitset, and those of all other columns in an {@code Object[]}.
+ * The bitset also holds one presence bit per primitive slot, so {@code null} values remain representable.
+ *
+ * Bitset layout: bits {@code [0, primitiveCount)} are presence bits, bits {@code [primitiveCount, primitiveCount + booleanCount)} hold boolean values.
+ *
+ * Instances are immutable.
+ *
+ * @author mstevens
+ */
+final class SlotLayout implements Serializable
+{
+
+	// STATIC -------------------------------------------------------
+	static private final long serialVersionUID = 2L;
+
+	static final byte KIND_OBJECT = 0;
+	static final byte KIND_LONG = 1;
+	static final byte KIND_DOUBLE = 2;
+	static final byte KIND_BOOLEAN = 3;
+
+	static private byte GetKind(Column<?> column)
+	{
+		if(column instanceof IntegerColumn)
+			return KIND_LONG;
+		if(column instanceof FloatColumn)
+			return KIND_DOUBLE;
+		if(column instanceof BooleanColumn)
+			return KIND_BOOLEAN;
+		return KIND_OBJECT;
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	/**
+	 * Slot kind, per column position
+	 */
+	final byte[] kinds;
+
+	/**
+	 * Index in the Object array (KIND_OBJECT), the long array (KIND_LONG & KIND_DOUBLE) or the bitset (KIND_BOOLEAN), per column position
+	 */
+	final int[] indexes;
+
+	/**
+	 * Index of the presence bit in the bitset, per column position (-1 for KIND_OBJECT)
+	 */
+	final int[] presenceBits;
+
+	final int objectCount;
+	final int longCount;
+	final int bitsetWords;
+
+	SlotLayout(ColumnSet columnSet)
+	{
+		List<Column<?>> columns = columnSet.getColumns(false);
+		int size = columns.size();
+		kinds = new byte[size];
+		indexes = new int[size];
+		presenceBits = new int[size];
+		int objects = 0, longs = 0, booleans = 0, primitives = 0;
+		for(int p = 0; p < size; p++)
+		{
+			kinds[p] = GetKind(columns.get(p));
+			switch(kinds[p])
+			{
+				case KIND_OBJECT :
+					indexes[p] = objects++;
+					presenceBits[p] = -1;
+					continue;
+				case KIND_BOOLEAN :
+					indexes[p] = booleans++; // offset added below
+					break;
+				default :
+					indexes[p] = longs++;
+			}
+			presenceBits[p] = primitives++;
+		}
+		// Boolean values are stored after the presence bits:
+		for(int p = 0; p < size; p++)
+			if(kinds[p] == KIND_BOOLEAN)
+				indexes[p] += primitives;
+		this.objectCount = objects;
+		this.longCount = longs;
+		this.bitsetWords = (primitives + booleans + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/**
+	 * @param columnSet
+	 * @return whether or not ValueSets with this layout can hold the values of the given ColumnSet
+	 */
+	boolean fits(ColumnSet columnSet)
+	{
+		List<Column<?>> columns = columnSet.getColumns(false);
+		if(columns.size() != kinds.length)
+			return false;
+		for(int p = 0; p < kinds.length; p++)
+			if(GetKind(columns.get(p)) != kinds[p])
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true;
+		if(obj instanceof SlotLayout)
+			return Arrays.equals(this.kinds, ((SlotLayout) obj).kinds); // indexes are derived from the kinds
+		return false;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(kinds);
+	}
+
+}
@@ -89,6 +89,33 @@ public class UnmodifiableValueSet<CS extends ColumnSet> extends ValueSet<CS>
 		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#setLongValue(uk.ac.ucl.excites.sapelli.storage.model.Column, long)
+	 */
+	@Override
+	protected void setLongValue(Column<?> column, long value) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#setDoubleValue(uk.ac.ucl.excites.sapelli.storage.model.Column, double)
+	 */
+	@Override
+	protected void setDoubleValue(Column<?> column, double value) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#setBooleanValue(uk.ac.ucl.excites.sapelli.storage.model.Column, boolean)
+	 */
+	@Override
+	protected void setBooleanValue(Column<?> column, boolean value) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
+	}
+
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#parse(java.lang.String)
 	 */
@@ -134,6 +161,15 @@ public class UnmodifiableValueSet<CS extends ColumnSet> extends ValueSet<CS>
 		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#readFromBitStream(uk.ac.ucl.excites.sapelli.shared.io.BitInputStream, uk.ac.ucl.excites.sapelli.storage.model.ValueSetCodec)
+	 */
+	@Override
+	public void readFromBitStream(BitInputStream bitStream, ValueSetCodec codec) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
+	}
+
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#readColumnsFromBitStream(uk.ac.ucl.excites.sapelli.shared.io.BitInputStream, java.util.List, boolean)
 	 */
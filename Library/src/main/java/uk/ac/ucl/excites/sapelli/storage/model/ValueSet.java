@@ -62,8 +62,32 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	// Dynamics------------------------------------------------------
 	protected /*final*/ CS columnSet; // not final (for now) for Record#setSchema() methods
 	
+	/**
+	 * Holds the values of all columns, or if primitive slots are used (see {@link ColumnSet#setPrimitiveSlots(boolean)}) only those of non-primitive columns.
+	 * Should only be accessed directly when {@link #slotLayout} is {@code null}, otherwise use {@link #getValueAt(int)} & {@link #setValueAt(int, Object)}.
+	 */
 	protected final Object[] values;
 	
+	/**
+	 * Describes how the values are distributed over {@link #values}, {@link #longSlots} & {@link #bitSlots}, {@code null} if all values are held in {@link #values}
+	 */
+	private final SlotLayout slotLayout;
+	
+	/**
+	 * Values of integer & float columns (the latter as double bits), only used if {@link #slotLayout} is non-{@code null}
+	 */
+	private final long[] longSlots;
+	
+	/**
+	 * Presence bits & values of boolean columns, only used if {@link #slotLayout} is non-{@code null}
+	 */
+	private final long[] bitSlots;
+	
+	/**
+	 * Incremented upon every change to any of the values
+	 */
+	private transient int modificationCount;
+	
 	/**
 	 * Creates a new, ValueSet with the given ColumnSet, with each Column's value set to its defaultValue (usually {@code null}).
 	 * 
@@ -76,10 +100,26 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		if(!columnSet.isSealed())
 			throw new IllegalStateException("Schema must be sealed before records based on it can be created!");
 		this.columnSet = columnSet;
-		values = new Object[columnSet.getNumberOfColumns(false)];
+		this.slotLayout = columnSet.getSlotLayout();
+		if(slotLayout == null)
+		{
+			values = new Object[columnSet.getNumberOfColumns(false)];
+			longSlots = null;
+			bitSlots = null;
+		}
+		else
+		{
+			values = new Object[slotLayout.objectCount];
+			longSlots = new long[slotLayout.longCount];
+			bitSlots = new long[slotLayout.bitsetWords];
+		}
 		// Initialise values with the defaultValue of each Column (usually null):
-		for(int c = 0; c < this.values.length; c++)
-			this.values[c] = columnSet.getColumn(c).defaultValue;
+		for(int c = 0, n = getNumberOfValues(); c < n; c++)
+		{
+			Object defaultValue = columnSet.getColumn(c).defaultValue;
+			if(defaultValue != null)
+				setValueAt(c, defaultValue);
+		}
 	}
 	
 	/**
@@ -97,14 +137,14 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		this(columnSet);
 		if(values != null)
 		{	
-			if(this.values.length == values.length)
+			if(getNumberOfValues() == values.length)
 			{
 				// Init from given values:
-				for(int c = 0; c < this.values.length; c++)
+				for(int c = 0; c < values.length; c++)
 					columnSet.getColumn(c).storeObject(this, values[c]); // validation (and possibly conversion) will be applied
 			}
 			else
-				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + this.values.length + ").");
+				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + getNumberOfValues() + ").");
 		}
 	}
 	
@@ -146,11 +186,23 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		this(another.columnSet);
 		
 		//(Deep) copy of values:
-		for(int c = 0; c < this.values.length; c++)
-		{
-			Column<?> col = columnSet.getColumn(c);
-			this.values[c] = col.copyObject(another.values[c], false); // cast, don't convert
+		if(slotLayout != null && slotLayout.equals(another.slotLayout))
+		{	// Primitive slots can be copied as-is:
+			System.arraycopy(another.longSlots, 0, this.longSlots, 0, longSlots.length);
+			System.arraycopy(another.bitSlots, 0, this.bitSlots, 0, bitSlots.length);
+			for(int c = 0; c < slotLayout.kinds.length; c++)
+				if(slotLayout.kinds[c] == SlotLayout.KIND_OBJECT)
+				{
+					int index = slotLayout.indexes[c];
+					this.values[index] = columnSet.getColumn(c).copyObject(another.values[index], false); // cast, don't convert
+				}
 		}
+		else
+			for(int c = 0, n = getNumberOfValues(); c < n; c++)
+			{
+				Column<?> col = columnSet.getColumn(c);
+				setValueAt(c, col.copyObject(another.getValueAt(c), false)); // cast, don't convert
+			}
 	}
 	
 	/**
@@ -171,7 +223,7 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	protected void setValue(Column<?> column, Object value) throws InvalidColumnException
 	{
-		values[getPosition(column)] = value; // set value in array
+		setValueAt(getPosition(column), value);
 	}
 	
 	/**
@@ -183,7 +235,269 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	protected final Object getValue(Column<?> column) throws InvalidColumnException
 	{
-		return values[getPosition(column)]; // return value from array
+		return getValueAt(getPosition(column));
+	}
+	
+	/**
+	 * To be called from {@link uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn#storePrimitiveLong(ValueSet, long)}.
+	 * This method is not {@code final} for the sake of the {@link UnmodifiableValueSet} subclass.
+	 * 
+	 * @param column
+	 * @param value
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	protected void setLongValue(Column<?> column, long value) throws InvalidColumnException
+	{
+		setLongAt(getPosition(column), value);
+	}
+	
+	/**
+	 * To be called from {@link uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn#getPrimitiveLong(ValueSet, long)}
+	 * 
+	 * @param column
+	 * @param nullReplacement value to return if the column has no value
+	 * @return the current value, or nullReplacement
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	protected final long getLongValue(Column<?> column, long nullReplacement) throws InvalidColumnException
+	{
+		return getLongAt(getPosition(column), nullReplacement);
+	}
+	
+	/**
+	 * To be called from {@link uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn#storePrimitiveDouble(ValueSet, double)}.
+	 * This method is not {@code final} for the sake of the {@link UnmodifiableValueSet} subclass.
+	 * 
+	 * @param column
+	 * @param value
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	protected void setDoubleValue(Column<?> column, double value) throws InvalidColumnException
+	{
+		setDoubleAt(getPosition(column), value);
+	}
+	
+	/**
+	 * To be called from {@link uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn#getPrimitiveDouble(ValueSet, double)}
+	 * 
+	 * @param column
+	 * @param nullReplacement value to return if the column has no value
+	 * @return the current value, or nullReplacement
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	protected final double getDoubleValue(Column<?> column, double nullReplacement) throws InvalidColumnException
+	{
+		return getDoubleAt(getPosition(column), nullReplacement);
+	}
+	
+	/**
+	 * To be called from {@link uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn#storePrimitiveBoolean(ValueSet, boolean)}.
+	 * This method is not {@code final} for the sake of the {@link UnmodifiableValueSet} subclass.
+	 * 
+	 * @param column
+	 * @param value
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	protected void setBooleanValue(Column<?> column, boolean value) throws InvalidColumnException
+	{
+		setBooleanAt(getPosition(column), value);
+	}
+	
+	/**
+	 * To be called from {@link uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn#getPrimitiveBoolean(ValueSet, boolean)}
+	 * 
+	 * @param column
+	 * @param nullReplacement value to return if the column has no value
+	 * @return the current value, or nullReplacement
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	protected final boolean getBooleanValue(Column<?> column, boolean nullReplacement) throws InvalidColumnException
+	{
+		return getBooleanAt(getPosition(column), nullReplacement);
+	}
+	
+	/**
+	 * @return the number of values (= the number of non-virtual columns in the ColumnSet the ValueSet was created for)
+	 */
+	/*package*/ final int getNumberOfValues()
+	{
+		return slotLayout == null ? values.length : slotLayout.kinds.length;
+	}
+	
+	/**
+	 * @param columnSet
+	 * @return whether or not the values of this ValueSet are laid out in a way that suits the given ColumnSet
+	 */
+	/*package*/ final boolean isLaidOutFor(ColumnSet columnSet)
+	{
+		return slotLayout == null ?
+			values.length == columnSet.getNumberOfColumns(false) :
+			slotLayout.fits(columnSet);
+	}
+	
+	/**
+	 * @return a counter which is incremented upon every change to any of the values
+	 */
+	/*package*/ final int getModificationCount()
+	{
+		return modificationCount;
+	}
+	
+	/**
+	 * @param position
+	 * @return whether or not there is a non-{@code null} value at the given position (does not box)
+	 */
+	/*package*/ final boolean isValuePresentAt(int position)
+	{
+		if(slotLayout == null)
+			return values[position] != null;
+		if(slotLayout.kinds[position] == SlotLayout.KIND_OBJECT)
+			return values[slotLayout.indexes[position]] != null;
+		return isPresentAt(position);
+	}
+	
+	/**
+	 * @param position
+	 * @return the value at the given position, boxed if it is held in a primitive slot
+	 */
+	/*package*/ final Object getValueAt(int position)
+	{
+		if(slotLayout == null)
+			return values[position];
+		int index = slotLayout.indexes[position];
+		switch(slotLayout.kinds[position])
+		{
+			case SlotLayout.KIND_OBJECT :
+				return values[index];
+			case SlotLayout.KIND_LONG :
+				return isPresentAt(position) ? Long.valueOf(longSlots[index]) : null;
+			case SlotLayout.KIND_DOUBLE :
+				return isPresentAt(position) ? Double.valueOf(Double.longBitsToDouble(longSlots[index])) : null;
+			default : // KIND_BOOLEAN
+				return isPresentAt(position) ? Boolean.valueOf(getBit(index)) : null;
+		}
+	}
+	
+	/**
+	 * Sets the value at the given position, without any checks. Values for primitive slots must be {@code null} or of the column's type.
+	 * 
+	 * @param position
+	 * @param value
+	 */
+	/*package*/ final void setValueAt(int position, Object value)
+	{
+		modificationCount++;
+		if(slotLayout == null)
+		{
+			values[position] = value;
+			return;
+		}
+		int index = slotLayout.indexes[position];
+		byte kind = slotLayout.kinds[position];
+		if(kind == SlotLayout.KIND_OBJECT)
+			values[index] = value;
+		else
+		{
+			setBit(slotLayout.presenceBits[position], value != null);
+			// Note: slots of null values are zeroed so ValueSets with the same layout can be compared slot-by-slot
+			if(kind == SlotLayout.KIND_LONG)
+				longSlots[index] = value != null ? ((Number) value).longValue() : 0L;
+			else if(kind == SlotLayout.KIND_DOUBLE)
+				longSlots[index] = value != null ? Double.doubleToLongBits(((Number) value).doubleValue()) : 0L;
+			else
+				setBit(index, value != null && ((Boolean) value).booleanValue());
+		}
+	}
+	
+	/*package*/ final long getLongAt(int position, long nullReplacement)
+	{
+		if(slotLayout != null && slotLayout.kinds[position] == SlotLayout.KIND_LONG)
+			return isPresentAt(position) ? longSlots[slotLayout.indexes[position]] : nullReplacement;
+		Object value = getValueAt(position);
+		return value != null ? ((Number) value).longValue() : nullReplacement;
+	}
+	
+	/*package*/ final void setLongAt(int position, long value)
+	{
+		if(slotLayout != null && slotLayout.kinds[position] == SlotLayout.KIND_LONG)
+		{
+			modificationCount++;
+			setBit(slotLayout.presenceBits[position], true);
+			longSlots[slotLayout.indexes[position]] = value;
+		}
+		else
+			setValueAt(position, Long.valueOf(value));
+	}
+	
+	/*package*/ final double getDoubleAt(int position, double nullReplacement)
+	{
+		if(slotLayout != null && slotLayout.kinds[position] == SlotLayout.KIND_DOUBLE)
+			return isPresentAt(position) ? Double.longBitsToDouble(longSlots[slotLayout.indexes[position]]) : nullReplacement;
+		Object value = getValueAt(position);
+		return value != null ? ((Number) value).doubleValue() : nullReplacement;
+	}
+	
+	/*package*/ final void setDoubleAt(int position, double value)
+	{
+		if(slotLayout != null && slotLayout.kinds[position] == SlotLayout.KIND_DOUBLE)
+		{
+			modificationCount++;
+			setBit(slotLayout.presenceBits[position], true);
+			longSlots[slotLayout.indexes[position]] = Double.doubleToLongBits(value);
+		}
+		else
+			setValueAt(position, Double.valueOf(value));
+	}
+	
+	/*package*/ final boolean getBooleanAt(int position, boolean nullReplacement)
+	{
+		if(slotLayout != null && slotLayout.kinds[position] == SlotLayout.KIND_BOOLEAN)
+			return isPresentAt(position) ? getBit(slotLayout.indexes[position]) : nullReplacement;
+		Object value = getValueAt(position);
+		return value != null ? ((Boolean) value).booleanValue() : nullReplacement;
+	}
+	
+	/*package*/ final void setBooleanAt(int position, boolean value)
+	{
+		if(slotLayout != null && slotLayout.kinds[position] == SlotLayout.KIND_BOOLEAN)
+		{
+			modificationCount++;
+			setBit(slotLayout.presenceBits[position], true);
+			setBit(slotLayout.indexes[position], value);
+		}
+		else
+			setValueAt(position, Boolean.valueOf(value));
+	}
+	
+	private boolean isPresentAt(int position)
+	{
+		return getBit(slotLayout.presenceBits[position]);
+	}
+	
+	private boolean getBit(int bit)
+	{
+		return (bitSlots[bit >>> 6] & (1L << bit)) != 0;
+	}
+	
+	private void setBit(int bit, boolean value)
+	{
+		if(value)
+			bitSlots[bit >>> 6] |= (1L << bit);
+		else
+			bitSlots[bit >>> 6] &= ~(1L << bit);
+	}
+	
+	/**
+	 * @return array with all values, boxed where necessary; this is the values array itself if no primitive slots are used (so do not modify it)
+	 */
+	private Object[] getValueArray()
+	{
+		if(slotLayout == null)
+			return values;
+		Object[] array = new Object[slotLayout.kinds.length];
+		for(int p = 0; p < array.length; p++)
+			array[p] = getValueAt(p);
+		return array;
 	}
 	
 	/**
@@ -219,8 +533,12 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	protected final int getPosition(Column<?> column) throws InvalidColumnException
 	{
+		// Check if the column instance is already known to the columnSet (no name lookup nor compatibility check needed):
+		int position = columnSet.getKnownColumnPosition(column);
+		if(position != Schema.UNKNOWN_COLUMN_POSITION)
+			return position;
 		// Get column position by its name:
-		int position = columnSet.getColumnPosition(column.name);
+		position = columnSet.getColumnPosition(column.name);
 		// Check position:
 		if(position == Schema.UNKNOWN_COLUMN_POSITION)
 		{
@@ -233,7 +551,8 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		Column<?> schemaColumn = columnSet.getColumn(position);
 		if(column != schemaColumn && !column.isCompatible(schemaColumn))
 			throw new InvalidColumnException("Schema mismatch: incompatible column.", column);
-		// All OK, return position:
+		// All OK, remember & return position:
+		columnSet.rememberColumnPosition(column, position);
 		return position;
 	}
 
@@ -778,7 +1097,31 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	public void writeToBitStream(BitOutputStream bitStream, boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless) throws IOException
 	{
-		writeColumnsToBitStream(bitStream, columnSet.getColumns(includeVirtual, skipColumns), lossless);
+		if(!includeVirtual && (skipColumns == null || skipColumns.isEmpty()))
+			writeToBitStream(bitStream, columnSet.getCodec(lossless)); // use pre-compiled codec
+		else
+			writeColumnsToBitStream(bitStream, columnSet.getColumns(includeVirtual, skipColumns), lossless);
+	}
+	
+	/**
+	 * Write ValueSet values to the given bitStream using the given pre-compiled codec.
+	 * 
+	 * @param bitStream
+	 * @param codec a codec obtained from {@link ColumnSet#getCodec(Set, boolean)} on this ValueSet's ColumnSet (or an equivalent one)
+	 * @throws IOException
+	 */
+	public void writeToBitStream(BitOutputStream bitStream, ValueSetCodec codec) throws IOException
+	{
+		if(!codec.isApplicableTo(this))
+			throw new IllegalArgumentException("Codec is not applicable to " + columnSet.toString());
+		try
+		{
+			codec.encode(this, bitStream);
+		}
+		catch(Exception e)
+		{
+			throw new IOException("Error on attempting to write record", e);
+		}
 	}
 	
 	/**
@@ -856,7 +1199,31 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	public void readFromBitStream(BitInputStream bitStream, boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless) throws IOException
 	{
-		readColumnsFromBitStream(bitStream, columnSet.getColumns(includeVirtual, skipColumns), lossless);
+		if(!includeVirtual && (skipColumns == null || skipColumns.isEmpty()))
+			readFromBitStream(bitStream, columnSet.getCodec(lossless)); // use pre-compiled codec
+		else
+			readColumnsFromBitStream(bitStream, columnSet.getColumns(includeVirtual, skipColumns), lossless);
+	}
+	
+	/**
+	 * Read ValueSet values from the given bitStream using the given pre-compiled codec.
+	 * 
+	 * @param bitStream
+	 * @param codec a codec obtained from {@link ColumnSet#getCodec(Set, boolean)} on this ValueSet's ColumnSet (or an equivalent one)
+	 * @throws IOException
+	 */
+	public void readFromBitStream(BitInputStream bitStream, ValueSetCodec codec) throws IOException
+	{
+		if(!codec.isApplicableTo(this))
+			throw new IllegalArgumentException("Codec is not applicable to " + columnSet.toString());
+		try
+		{
+			codec.decode(this, bitStream);
+		}
+		catch(Exception e)
+		{
+			throw new IOException("Error on attempting to read record. Read so far: " + this.toString(), e);
+		}
 	}
 	
 	/**
@@ -962,7 +1329,7 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	{
 		int hash = 1;
 		hash = 31 * hash + columnSet.hashCode();
-		hash = 31 * hash + Arrays.deepHashCode(values);
+		hash = 31 * hash + Arrays.deepHashCode(getValueArray());
 		return hash;
 	}
 	
@@ -1052,7 +1419,20 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		return other == null ?	false :
 								(!skipColumns.isEmpty() || asLossyEncoded ?
 									hasEqualValuesForColumns(other, this.columnSet.getColumns(false, skipColumns), asLossyEncoded) :
-									this == other || Arrays.deepEquals(this.values, other.values));
+									this == other || hasEqualSlots(other));
+	}
+	
+	/**
+	 * @param other
+	 * @return whether or not the values of this ValueSet are equal to those of the other
+	 */
+	private boolean hasEqualSlots(ValueSet<?> other)
+	{
+		if(this.slotLayout != null && this.slotLayout.equals(other.slotLayout))
+			return	Arrays.equals(this.longSlots, other.longSlots) &&
+					Arrays.equals(this.bitSlots, other.bitSlots) &&
+					Arrays.deepEquals(this.values, other.values);
+		return Arrays.deepEquals(this.getValueArray(), other.getValueArray());
 	}
 	
 	/**
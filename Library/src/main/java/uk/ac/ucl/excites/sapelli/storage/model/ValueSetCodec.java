@@ -0,0 +1,308 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
+import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidValueException;
+
+/**
+ * Pre-compiled binary "serialisation plan" for the ValueSets of a given (sealed) {@link ColumnSet}.
+ *
+ * Upon compilation the columns of the ColumnSet (minus any skipped ones) are resolved, once, to a flat
+ * sequence of steps which hold the position of the value in the ValueSet and the column
+ * to write/read it with. The subcolumns of (non-swapped) {@link ValueSetColumn}s (e.g. those of a
+ * LocationColumn or OrientationColumn) are inlined in this sequence, taking the column's skip & swap
+ * settings for the given {@code lossless}ness into account.
+ *
+ * Encoding/decoding with a codec therefore requires no column name lookups, nor compatibility checks, and
+ * produces/consumes exactly the same bits as {@link ValueSet#writeToBitStream(BitOutputStream, boolean, Set, boolean)}
+ * and {@link ValueSet#readFromBitStream(BitInputStream, boolean, Set, boolean)} (with {@code includeVirtual = false}).
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author mstevens
+ *
+ * @see ColumnSet#getCodec(boolean)
+ * @see ColumnSet#getCodec(Set, boolean)
+ */
+public final class ValueSetCodec
+{
+
+	// STATIC -------------------------------------------------------
+	static private final int NO_FRAME = -1;
+
+	/**
+	 * Compiles a new codec.
+	 *
+	 * @param columnSet a sealed ColumnSet
+	 * @param skipColumns (top-level) columns whose values are *not* to be written/read, may be {@code null}
+	 * @param lossless if {@code true} all values are to be losslessly encoded; if {@code false} the values of columns which {@link Column#canBeLossy()} are to be lossyly encoded, and the values of the others losslessly.
+	 * @return the compiled codec
+	 * @throws IllegalStateException if the columnSet is not sealed
+	 */
+	static ValueSetCodec Compile(ColumnSet columnSet, Set<? extends Column<?>> skipColumns, boolean lossless) throws IllegalStateException
+	{
+		if(!columnSet.isSealed())
+			throw new IllegalStateException("ColumnSet must be sealed before a codec can be compiled for it!");
+		List<Step> steps = new ArrayList<Step>();
+		int maxFrame = addSteps(steps, columnSet, null, 0, skipColumns, lossless);
+		return new ValueSetCodec(columnSet, lossless, steps.toArray(new Step[steps.size()]), maxFrame + 1);
+	}
+
+	/**
+	 * @param steps list to add steps to
+	 * @param columnSet the ColumnSet whose columns to add steps for
+	 * @param owner the ValueSetColumn the columnSet belongs to, {@code null} for the top-level ColumnSet
+	 * @param frame the index of the frame (i.e. top-level or nested ValueSet) the values are to be found in
+	 * @param skipColumns (top-level) columns to skip, may be {@code null}
+	 * @param lossless
+	 * @return the highest frame index in use
+	 */
+	static private int addSteps(List<Step> steps, ColumnSet columnSet, ValueSetColumn<?, ?> owner, int frame, Set<? extends Column<?>> skipColumns, boolean lossless)
+	{
+		int maxFrame = frame;
+		List<Column<?>> columns = columnSet.getColumns(false);
+		for(int position = 0; position < columns.size(); position++)
+		{
+			Column<?> schemaColumn = columns.get(position);
+			// Skip?
+			if(owner == null ?
+				(skipColumns != null && skipColumns.contains(schemaColumn)) :
+				(!lossless && owner.isColumnSkipped(schemaColumn))) // never skip a subcolumn if lossless
+				continue;
+			Column<?> binaryColumn = owner == null ? schemaColumn : owner.getBinaryColumn(schemaColumn);
+			if(schemaColumn instanceof ValueSetColumn && binaryColumn == schemaColumn)
+			{	// Inline subcolumns:
+				int enterIndex = steps.size();
+				steps.add(null); // placeholder
+				maxFrame = Math.max(maxFrame, addSteps(steps, ((ValueSetColumn<?, ?>) schemaColumn).getColumnSet(), (ValueSetColumn<?, ?>) schemaColumn, frame + 1, null, lossless));
+				steps.set(enterIndex, new Step(frame, position, schemaColumn, binaryColumn, frame + 1, steps.size()));
+			}
+			else
+				steps.add(new Step(frame, position, schemaColumn, binaryColumn, NO_FRAME, steps.size() + 1));
+		}
+		return maxFrame;
+	}
+
+	/**
+	 * Validates the given (non-{@code null}) value, as {@link Column#writeValue(Object, BitOutputStream, boolean)} and {@link Column#readValue(BitInputStream, boolean)} would.
+	 *
+	 * @param column
+	 * @param value
+	 * @throws InvalidValueException
+	 */
+	static private <T> void validate(Column<T> column, Object value) throws InvalidValueException
+	{
+		column.validate(column.cast(value));
+	}
+
+	/**
+	 * Stores the given value in a nested ValueSet, with the same conversion and checks as {@link Column#storeObject(ValueSet, Object)}.
+	 *
+	 * @param column
+	 * @param valueSet
+	 * @param position
+	 * @param valueObject
+	 * @throws InvalidValueException
+	 * @throws NullPointerException
+	 * @throws ClassCastException
+	 */
+	static private <T> void store(Column<T> column, ValueSet<?> valueSet, int position, Object valueObject) throws InvalidValueException, NullPointerException, ClassCastException
+	{
+		T value = column.convert(valueObject);
+		column.checkValue(value);
+		valueSet.setValueAt(position, value);
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	private final ColumnSet columnSet;
+	private final boolean lossless;
+	private final Step[] steps;
+	private final int numberOfFrames;
+
+	private ValueSetCodec(ColumnSet columnSet, boolean lossless, Step[] steps, int numberOfFrames)
+	{
+		this.columnSet = columnSet;
+		this.lossless = lossless;
+		this.steps = steps;
+		this.numberOfFrames = numberOfFrames;
+	}
+
+	/**
+	 * @return the ColumnSet this codec was compiled for
+	 */
+	public ColumnSet getColumnSet()
+	{
+		return columnSet;
+	}
+
+	/**
+	 * @return whether the codec writes/reads all values losslessly
+	 */
+	public boolean isLossless()
+	{
+		return lossless;
+	}
+
+	/**
+	 * @param valueSet
+	 * @return whether or not this codec can be used to encode/decode the given ValueSet
+	 */
+	public boolean isApplicableTo(ValueSet<?> valueSet)
+	{
+		return valueSet.columnSet == columnSet || columnSet.equals(valueSet.columnSet, true, true);
+	}
+
+	/**
+	 * Writes the values of the given ValueSet to the given bitStream.
+	 *
+	 * @param valueSet assumed to be non-{@code null} and applicable
+	 * @param bitStream
+	 * @throws Exception
+	 * @see ValueSet#writeToBitStream(BitOutputStream, ValueSetCodec)
+	 */
+	void encode(ValueSet<?> valueSet, BitOutputStream bitStream) throws Exception
+	{
+		ValueSet<?>[] frames = new ValueSet<?>[numberOfFrames];
+		frames[0] = valueSet;
+		int s = 0;
+		while(s < steps.length)
+		{
+			Step step = steps[s];
+			Object value = frames[step.frame].getValueAt(step.position);
+			if(step.childFrame == NO_FRAME)
+				step.binaryColumn.writeObject(value, bitStream, lossless); // will also write presence-bit if column is optional
+			else
+			{	// Nested ValueSet:
+				step.binaryColumn.writePresenceBit(value, bitStream);
+				if(value == null)
+				{
+					s = step.next; // skip over subcolumns
+					continue;
+				}
+				validate(step.binaryColumn, value);
+				frames[step.childFrame] = (ValueSet<?>) value;
+			}
+			s++;
+		}
+	}
+
+	/**
+	 * Reads the values of the given ValueSet from the given bitStream.
+	 *
+	 * @param valueSet assumed to be non-{@code null}, modifiable and applicable
+	 * @param bitStream
+	 * @throws Exception
+	 * @see ValueSet#readFromBitStream(BitInputStream, ValueSetCodec)
+	 */
+	void decode(ValueSet<?> valueSet, BitInputStream bitStream) throws Exception
+	{
+		ValueSet<?>[] frames = new ValueSet<?>[numberOfFrames];
+		frames[0] = valueSet;
+		int s = 0;
+		while(s < steps.length)
+		{
+			Step step = steps[s];
+			Object value;
+			if(step.childFrame == NO_FRAME)
+				value = step.binaryColumn.readValue(bitStream, lossless); // will also read presence-bit if column is optional
+			else
+			{	// Nested ValueSet:
+				if(step.binaryColumn.optional && !bitStream.readBit())
+					value = null;
+				else
+				{
+					value = ((ValueSetColumn<?, ?>) step.binaryColumn).getNewValueSet();
+					validate(step.binaryColumn, value);
+				}
+			}
+			// Store value:
+			if(step.frame == 0)
+				valueSet.setValueAt(step.position, value); // readValue() & validate() have performed all necessary checks
+			else
+				store(step.schemaColumn, frames[step.frame], step.position, value);
+			// Next step:
+			if(step.childFrame != NO_FRAME)
+			{
+				if(value == null)
+				{
+					s = step.next; // skip over subcolumns
+					continue;
+				}
+				frames[step.childFrame] = (ValueSet<?>) value;
+			}
+			s++;
+		}
+	}
+
+	/**
+	 * A single step in the plan.
+	 */
+	static private final class Step
+	{
+
+		/**
+		 * The index of the frame (0 = top-level ValueSet, > 0 = nested ValueSet) which holds the value
+		 */
+		final int frame;
+
+		/**
+		 * The position of the value in the ValueSet in the frame
+		 */
+		final int position;
+
+		/**
+		 * The column as it appears in the ColumnSet
+		 */
+		final Column<?> schemaColumn;
+
+		/**
+		 * The column to write/read the value with (see {@link ValueSetColumn#swapColumn(Column, Column)})
+		 */
+		final Column<?> binaryColumn;
+
+		/**
+		 * For inlined ValueSetColumns: the index of the frame holding the nested ValueSet, otherwise {@link ValueSetCodec#NO_FRAME}
+		 */
+		final int childFrame;
+
+		/**
+		 * The index of the step following this one and, if any, its inlined subcolumn steps
+		 */
+		final int next;
+
+		Step(int frame, int position, Column<?> schemaColumn, Column<?> binaryColumn, int childFrame, int next)
+		{
+			this.frame = frame;
+			this.position = position;
+			this.schemaColumn = schemaColumn;
+			this.binaryColumn = binaryColumn;
+			this.childFrame = childFrame;
+			this.next = next;
+		}
+
+	}
+
+}
@@ -168,6 +168,7 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 			skipColumnPositions = new HashSet<Integer>();
 		skipColumnPositions.add(position);
 		skipColumns = null; // to ensure the set of Column<?>s is recreated
+		resetHashCode();
 	}
 	
 	protected Set<Column<?>> getSkipColumns(boolean forceNone)
@@ -213,6 +214,7 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 		if(swapColumns == null)
 			swapColumns = new HashMap<Integer, Column<?>>();
 		swapColumns.put(schemaColPos, binaryColumn);
+		resetHashCode();
 	}
 	
 	/**
@@ -533,9 +535,9 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + columnSet.hashCode();
 		hash = 31 * hash + (skipColumnPositions == null ? 0 : skipColumnPositions.hashCode());
 		hash = 31 * hash + (includeSkipColsInStringSerialisation ? 0 : 1);
@@ -199,9 +199,9 @@ public class VirtualColumn<TT, ST> extends Column<TT>
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + targetColumn.hashCode();
 		hash = 31 * hash + valueMapper.hashCode();
 		return hash;
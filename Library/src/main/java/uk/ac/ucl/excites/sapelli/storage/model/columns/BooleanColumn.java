@@ -23,7 +23,11 @@ import java.io.IOException;
 import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ComparableColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidColumnException;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidValueException;
 import uk.ac.ucl.excites.sapelli.storage.visitors.ColumnVisitor;
 
 /**
@@ -59,6 +63,34 @@ public class BooleanColumn extends ComparableColumn<Boolean>
 		return new BooleanColumn(name, optional, defaultValue);
 	}
 	
+	/**
+	 * @param valueSet
+	 * @param nullReplacement
+	 * @return
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	public boolean getPrimitiveBoolean(ValueSet<?> valueSet, boolean nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		return retrieveBooleanValue(valueSet, nullReplacement); // no boxing if the valueSet uses primitive slots
+	}
+	
+	/**
+	 * Primitive version of {@link BooleanColumn#storeValue(ValueSet, Boolean)}, which does not box the value if the valueSet uses primitive slots.
+	 * 
+	 * @param valueSet
+	 * @param value
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @throws InvalidValueException when the given value is invalid
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 * @see ColumnSet#setPrimitiveSlots(boolean)
+	 */
+	public void storePrimitiveBoolean(ValueSet<?> valueSet, boolean value) throws InvalidColumnException, InvalidValueException, NullPointerException
+	{
+		validate(Boolean.valueOf(value)); // Boolean.valueOf() does not allocate
+		storeBooleanValueUnchecked(valueSet, value);
+	}
+	
 	/**
 	 * @param value the String to parse (can be expected to be neither null nor "")
 	 * @return the parsed value
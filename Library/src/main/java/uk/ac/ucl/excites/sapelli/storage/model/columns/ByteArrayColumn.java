@@ -125,7 +125,7 @@ public class ByteArrayColumn extends Column<byte[]>
 	protected byte[] read(BitInputStream bitStream, boolean lossless) throws IOException
 	{
 		//Read length:
-		int numberOfBytes = sizeField.read(bitStream).intValue();
+		int numberOfBytes = sizeField.readInt(bitStream);
 		//Read actual bytes:
 		return bitStream.readBytes(numberOfBytes);
 	}
@@ -188,9 +188,9 @@ public class ByteArrayColumn extends Column<byte[]>
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + sizeField.hashCode();
 		return hash;
 	}
@@ -119,10 +119,7 @@ public class FloatColumn extends NumberColumn<Double>
 	 */
 	public double getPrimitiveDouble(ValueSet<?> valueSet, double nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Double doubleValue = retrieveValue(valueSet);
-		if(doubleValue == null)
-			return nullReplacement;
-		return doubleValue.doubleValue();
+		return retrieveDoubleValue(valueSet, nullReplacement); // no boxing if the valueSet uses primitive slots
 	}
 	
 	/**
@@ -134,10 +131,23 @@ public class FloatColumn extends NumberColumn<Double>
 	 */
 	public float getPrimitiveFloat(ValueSet<?> valueSet, float nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Double doubleValue = retrieveValue(valueSet);
-		if(doubleValue == null)
-			return nullReplacement;
-		return doubleValue.floatValue();
+		return (float) retrieveDoubleValue(valueSet, nullReplacement); // no boxing if the valueSet uses primitive slots
+	}
+	
+	/**
+	 * Primitive version of {@link FloatColumn#storeValue(ValueSet, Double)}, which does not box the value if the valueSet uses primitive slots.
+	 * 
+	 * @param valueSet
+	 * @param value
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @throws InvalidValueException when the given value is invalid
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 * @see ColumnSet#setPrimitiveSlots(boolean)
+	 */
+	public void storePrimitiveDouble(ValueSet<?> valueSet, double value) throws InvalidColumnException, InvalidValueException, NullPointerException
+	{
+		validatePrimitive(value);
+		storeDoubleValueUnchecked(valueSet, value);
 	}
 
 	/**
@@ -153,6 +163,11 @@ public class FloatColumn extends NumberColumn<Double>
 
 	@Override
 	protected void validate(Double value) throws InvalidValueException
+	{
+		validatePrimitive(value.doubleValue());
+	}
+	
+	private void validatePrimitive(double value) throws InvalidValueException
 	{
 		if(!signed && value < 0.0d)
 			throw new InvalidValueException("Cannot store negative values because column is unsigned", this);
@@ -252,9 +267,9 @@ public class FloatColumn extends NumberColumn<Double>
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + (doublePrecision ? 0 : 1);
 		hash = 31 * hash + (signed ? 0 : 1);
 		return hash;
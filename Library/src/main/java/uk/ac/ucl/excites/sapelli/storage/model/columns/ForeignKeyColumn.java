@@ -137,13 +137,13 @@ public class ForeignKeyColumn extends ValueSetColumn<RecordReference, PrimaryKey
 	 * 	cause an infinite loop. Calling {@link Schema#columnLessHashcode()}
 	 * 	instead avoids this.
 	 * 
-	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn#hashCode()
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn#computeHashCode()
 	 * @see Schema#columnLessHashcode()
 	 */
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + foreignSchema.columnLessHashcode();
 		return hash;
 	}
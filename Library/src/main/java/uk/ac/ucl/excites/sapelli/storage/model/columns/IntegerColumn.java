@@ -23,7 +23,6 @@ import java.math.BigInteger;
 
 import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
-import uk.ac.ucl.excites.sapelli.shared.util.BigIntegerUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.IntegerRangeMapping;
 import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
@@ -339,10 +338,7 @@ public class IntegerColumn extends NumberColumn<Long>
 	 */
 	public long getPrimitiveLong(ValueSet<?> valueSet, long nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Long longValue = retrieveValue(valueSet);
-		if(longValue == null)
-			return nullReplacement;
-		return longValue.longValue();
+		return retrieveLongValue(valueSet, nullReplacement); // no boxing if the valueSet uses primitive slots
 	}
 	
 	/**
@@ -354,10 +350,23 @@ public class IntegerColumn extends NumberColumn<Long>
 	 */
 	public int getPrimitiveInt(ValueSet<?> valueSet, int nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Long longValue = retrieveValue(valueSet);
-		if(longValue == null)
-			return nullReplacement;
-		return longValue.intValue();
+		return (int) retrieveLongValue(valueSet, nullReplacement); // no boxing if the valueSet uses primitive slots
+	}
+	
+	/**
+	 * Primitive version of {@link IntegerColumn#storeValue(ValueSet, Long)}, which does not box the value if the valueSet uses primitive slots.
+	 * 
+	 * @param valueSet
+	 * @param value
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @throws InvalidValueException when the given value is invalid
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 * @see ColumnSet#setPrimitiveSlots(boolean)
+	 */
+	public void storePrimitiveLong(ValueSet<?> valueSet, long value) throws InvalidColumnException, InvalidValueException, NullPointerException
+	{
+		validatePrimitive(value);
+		storeLongValueUnchecked(valueSet, value);
 	}
 	
 	/**
@@ -373,6 +382,11 @@ public class IntegerColumn extends NumberColumn<Long>
 
 	@Override
 	protected void validate(Long value) throws InvalidValueException
+	{
+		validatePrimitive(value.longValue());
+	}
+	
+	private void validatePrimitive(long value) throws InvalidValueException
 	{
 		if(rangeMapping != null && !rangeMapping.inStrictRange(value))
 			throw new InvalidValueException("The value (" + value + ") is not in the allowed range: " + rangeMapping.getStrictRangeString() + ".", this);
@@ -387,14 +401,18 @@ public class IntegerColumn extends NumberColumn<Long>
 	
 	public long getMinValue()
 	{
-		return (rangeMapping != null ?	rangeMapping.lowBound() :
-										BigIntegerUtils.GetMinValue(size, signed)).longValue();
+		if(rangeMapping != null)
+			return rangeMapping.lowBound().longValue();
+		// Same as BigIntegerUtils.GetMinValue(size, signed).longValue(), but without BigInteger arithmetic:
+		return !signed || size == 0 ? 0l : -1l << (size - 1);
 	}
 
 	public long getMaxValue()
 	{
-		return (rangeMapping != null ?	rangeMapping.highBound() :
-										BigIntegerUtils.GetMaxValue(size, signed)).longValue();
+		if(rangeMapping != null)
+			return rangeMapping.highBound().longValue();
+		// Same as BigIntegerUtils.GetMaxValue(size, signed).longValue(), but without BigInteger arithmetic (unsigned size is at most 63 bits):
+		return size == 0 ? 0l : ~(-1l << (signed ? size - 1 : size));
 	}
 	
 	@Override
@@ -410,7 +428,7 @@ public class IntegerColumn extends NumberColumn<Long>
 	protected Long read(BitInputStream bitStream, boolean lossless) throws IOException
 	{
 		if(rangeMapping != null)
-			return rangeMapping.read(bitStream).longValue();
+			return rangeMapping.readLong(bitStream);
 		else
 			return bitStream.readInteger(size, signed);
 	}
@@ -494,9 +512,9 @@ public class IntegerColumn extends NumberColumn<Long>
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + size;
 		hash = 31 * hash + (signed ? 0 : 1);
 		hash = 31 * hash + Objects.hashCode(rangeMapping);
@@ -442,7 +442,7 @@ public class StringColumn extends ComparableColumn<String> implements ListLikeCo
 	protected String read(BitInputStream bitStream, boolean lossless) throws IOException
 	{
 		//Read length:
-		int numberOfBytes = sizeField.read(bitStream).intValue();
+		int numberOfBytes = sizeField.readInt(bitStream);
 		//Read actual string:
 		return bitStream.readString(numberOfBytes, getCharset());
 	}
@@ -516,9 +516,9 @@ public class StringColumn extends ComparableColumn<String> implements ListLikeCo
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + getCharset().hashCode();
 		hash = 31 * hash + serialisationDelimiter;
 		hash = 31 * hash + sizeField.hashCode();
@@ -65,9 +65,9 @@ public class AutoIncrementingPrimaryKey extends PrimaryKey
 	}
 	
 	@Override
-    public int hashCode()
+    protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + "AutoIncrement".hashCode(); // to differentiate from a normal PrimaryKey
 		return hash;
 	}
@@ -111,9 +111,9 @@ public class Index extends ColumnSet
 	}
 	
 	@Override
-    public int hashCode()
+    protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + (unique ? 0 : 1);
 		return hash;
 	}
@@ -73,9 +73,9 @@ public class PrimaryKey extends Index
 	}
 	
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + getClass().getSimpleName().hashCode(); // to differentiate from a normal index
 		return hash;
 	}
@@ -25,7 +25,16 @@ import java.util.Comparator;
 import java.util.List;
 
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.ComparableColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.AndConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.DummyConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.EqualityConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.OrConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint.Comparison;
 import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
 
 /**
@@ -171,6 +180,87 @@ public class Order implements Comparator<Record>
 		Collections.sort(records, this);
 	}
 	
+	/**
+	 * Returns a {@link Constraint} which only accepts records that come after the given (sub)record or reference in this order.
+	 * 
+	 * @param recordOrReference the last record (or reference) of the previous "page", must hold values for all columns in this order
+	 * @return
+	 * @throws IllegalStateException when this order is undefined or contains an ordering which is not on a {@link ComparableColumn}
+	 * @see #getAfterConstraint(List)
+	 */
+	public Constraint getAfterConstraint(ValueSet<?> recordOrReference) throws IllegalStateException
+	{
+		List<ColumnOrdering> columnOrderings = getColumnOrderings();
+		List<Object> values = new ArrayList<Object>(columnOrderings.size());
+		for(ColumnOrdering ordering : columnOrderings)
+			values.add(ordering.by.retrieveValue(recordOrReference));
+		return getAfterConstraint(values);
+	}
+	
+	/**
+	 * Returns a {@link Constraint} which only accepts records that come after the given tuple of values in this order,
+	 * allowing "keyset" (or "seek") pagination: to get the next "page" of an ordered and limited query the same query
+	 * is executed again with this constraint added, using the values of the last record of the previous page.
+	 * Unlike skipping over a number of records this allows each page to be found using an index on the ordered columns,
+	 * meaning deep pages are as cheap to get as the first one.
+	 * 
+	 * For orderings (a, b, c) and values (x, y, z) the constraint is (assuming ascending orderings on non-optional columns):
+	 * {@code a >= x AND (a > x OR (b >= y AND (b > y OR c > z)))}. This is equivalent to {@code (a, b, c) > (x, y, z)} but does not
+	 * require "row value" comparisons (which many databases, including older SQLite versions, do not support), while the leading
+	 * {@code a >= x} term still lets the database seek into an index on the first column.
+	 * In line with {@link Column#compareValues(Object, Object)} (and SQL) {@code null} values come first in ascending order and last in descending order.
+	 * 
+	 * The order should end with (a) column(s) which uniquely identif(y/ies) records (e.g. the primary key), otherwise records
+	 * which are equal to the given values in all of the ordered columns will be skipped.
+	 * 
+	 * @param values the values for each of the ordered columns, in order
+	 * @return
+	 * @throws IllegalStateException when this order is undefined or contains an ordering which is not on a {@link ComparableColumn}
+	 * @throws IllegalArgumentException when the number of values does not match the number of orderings
+	 */
+	public Constraint getAfterConstraint(List<?> values) throws IllegalStateException, IllegalArgumentException
+	{
+		List<ColumnOrdering> columnOrderings = getColumnOrderings();
+		if(values == null || values.size() != columnOrderings.size())
+			throw new IllegalArgumentException("Please provide exactly 1 value per ordering (" + columnOrderings.size() + ")");
+		// Build constraint from the last ordering to the first:
+		Constraint after = null;
+		for(int o = columnOrderings.size() - 1; o >= 0; o--)
+		{
+			ColumnOrdering ordering = columnOrderings.get(o);
+			Object value = values.get(o);
+			Constraint greater = ordering.getAfterConstraint(value, false);
+			if(after == null)
+				// Last ordering: strictly after
+				after = greater != null ? greater : DummyConstraint.ACCEPT_NONE;
+			else
+			{	// Either strictly after on this ordering, or equal on this ordering and after on the next one(s):
+				//	written as "greaterOrEqual AND (greater OR after)", such that the first term can use an index on the column
+				Constraint greaterOrEqual = ordering.getAfterConstraint(value, true);
+				after = new AndConstraint(greaterOrEqual, greater != null ? new OrConstraint(greater, after) : after).reduce();
+			}
+		}
+		return after;
+	}
+	
+	/**
+	 * @return the orderings as {@link ColumnOrdering}s on {@link ComparableColumn}s
+	 * @throws IllegalStateException when this order is undefined or contains an ordering which is not on a {@link ComparableColumn}
+	 */
+	private List<ColumnOrdering> getColumnOrderings() throws IllegalStateException
+	{
+		if(isUndefined())
+			throw new IllegalStateException("Cannot determine what comes \"after\" in an undefined order");
+		List<ColumnOrdering> columnOrderings = new ArrayList<ColumnOrdering>(orderings.size());
+		for(Ordering ordering : orderings)
+		{
+			if(!(ordering instanceof ColumnOrdering) || !(((ColumnOrdering) ordering).by.getColumn() instanceof ComparableColumn))
+				throw new IllegalStateException("Cannot determine what comes \"after\" in an order that is not (exclusively) on comparable columns");
+			columnOrderings.add((ColumnOrdering) ordering);
+		}
+		return columnOrderings;
+	}
+	
 	/**
 	 * @author mstevens
 	 *
@@ -289,6 +379,31 @@ public class Order implements Comparator<Record>
 			return new ColumnOrdering(by, !direction);
 		}
 		
+		/**
+		 * @param value
+		 * @param orEqual
+		 * @return a constraint accepting records which come after (or, if orEqual is {@code true}, are equal to) the given value in this ordering,
+		 * 	or {@code null} if all records are accepted (if orEqual is {@code true}) or none are (if orEqual is {@code false})
+		 */
+		@SuppressWarnings("unchecked")
+		private Constraint getAfterConstraint(Object value, boolean orEqual)
+		{
+			ColumnPointer<? extends ComparableColumn<?>> cp = (ColumnPointer<? extends ComparableColumn<?>>) by;
+			if(value == null)
+			{	// null values come first in ascending order and last in descending order:
+				if(isAsc())
+					return orEqual ? null : EqualityConstraint.IsNotNull(cp);
+				else
+					return orEqual ? EqualityConstraint.IsNull(cp) : null;
+			}
+			else
+			{
+				Constraint comparison = new RuleConstraint(cp, isAsc() ? (orEqual ? Comparison.GREATER_OR_EQUAL : Comparison.GREATER) : (orEqual ? Comparison.SMALLER_OR_EQUAL : Comparison.SMALLER), value);
+				// In descending order null values come after all non-null ones:
+				return isDesc() && cp.getColumn().optional ? new OrConstraint(comparison, EqualityConstraint.IsNull(cp)) : comparison;
+			}
+		}
+		
 	}
 	
 	/**
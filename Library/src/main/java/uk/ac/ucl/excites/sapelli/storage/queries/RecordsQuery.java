@@ -21,6 +21,7 @@ package uk.ac.ucl.excites.sapelli.storage.queries;
 import java.util.List;
 
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.AndConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
@@ -49,6 +50,11 @@ public class RecordsQuery extends Query<List<Record>>
 	/*package*/ final Order order;
 	/*package*/ final int limit;
 	
+	/**
+	 * The constraints without the one added by {@link #after(RecordValueSet)} or {@link #after(List)} (if any)
+	 */
+	private final Constraint filterConstraints;
+	
 	/**
 	 * Query all records of the given schema
 	 * 
@@ -255,6 +261,51 @@ public class RecordsQuery extends Query<List<Record>>
 		if(limit < NO_LIMIT)
 			throw new IllegalArgumentException("Limit must be positive, or 0 (meaning there is no limit)");
 		this.limit = limit;
+		this.filterConstraints = this.constraints;
+	}
+	
+	/**
+	 * Creates a copy of the given query with an additional constraint which only accepts records that come after the given ones in its order
+	 * 
+	 * @param query
+	 * @param afterConstraint
+	 */
+	private RecordsQuery(RecordsQuery query, Constraint afterConstraint)
+	{
+		this.source = query.source;
+		this.order = query.order;
+		this.limit = query.limit;
+		this.filterConstraints = query.filterConstraints;
+		this.constraints = new AndConstraint(filterConstraints, afterConstraint).reduce();
+	}
+	
+	/**
+	 * Returns a query for the next "page" of results, i.e. the records which come after the given (last) record or reference in the order of this query.
+	 * Any "after" constraint of this query itself (i.e. of the current page) is replaced rather than accumulated.
+	 * 
+	 * @param lastRecordOrReference the last record (or reference) of the current page, must hold values for all columns in the order of this query
+	 * @return a new {@link RecordsQuery} with the same source, order, limit and constraints, but only accepting records that come after the given one
+	 * @throws IllegalStateException when the query's order is undefined or contains an ordering which is not on a comparable column
+	 * @see Order#getAfterConstraint(List)
+	 */
+	public RecordsQuery after(RecordValueSet<?> lastRecordOrReference) throws IllegalStateException
+	{
+		return new RecordsQuery(this, order.getAfterConstraint(lastRecordOrReference));
+	}
+	
+	/**
+	 * Returns a query for the next "page" of results, i.e. the records which come after the given tuple of values in the order of this query.
+	 * Any "after" constraint of this query itself (i.e. of the current page) is replaced rather than accumulated.
+	 * 
+	 * @param lastValues the values of the last record of the current page for each of the ordered columns, in order
+	 * @return a new {@link RecordsQuery} with the same source, order, limit and constraints, but only accepting records that come after the given values
+	 * @throws IllegalStateException when the query's order is undefined or contains an ordering which is not on a comparable column
+	 * @throws IllegalArgumentException when the number of values does not match the number of orderings
+	 * @see Order#getAfterConstraint(List)
+	 */
+	public RecordsQuery after(List<?> lastValues) throws IllegalStateException, IllegalArgumentException
+	{
+		return new RecordsQuery(this, order.getAfterConstraint(lastValues));
 	}
 	
 	/**
@@ -276,7 +327,7 @@ public class RecordsQuery extends Query<List<Record>>
 		order.sort(records);
 		
 		// Limit:
-		if(limit != NO_LIMIT)
+		if(limit != NO_LIMIT && records.size() > limit)
 			records = records.subList(0, limit);
 		
 		return records;
@@ -1,37 +1,660 @@
 /**
  * Sapelli data collection platform: http://sapelli.org
- * 
+ *
  * Copyright 2012-2016 University College London - ExCiteS group
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *     http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and 
+ * See the License for the specific language governing permissions and
  * limitations under the License.
  */
 
 package uk.ac.ucl.excites.sapelli.storage.queries;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
 /**
- * TODO
- * 
+ * Class which expresses a {@link Query} returning rows of values rather than {@link Record}s.
+ *
+ * A ValueQuery consists of a number of {@link Projection}s, which are either plain column values or aggregates
+ * (COUNT, SUM, MIN, MAX or AVG), optionally made DISTINCT or computed per group of records sharing the same values
+ * in a number of GROUP BY columns. Only leaf (i.e. non-composite) columns can be projected or grouped by.
+ *
+ * The wrapped {@link RecordsQuery} determines which records are considered (i.e. its source and constraints).
+ * Its limit applies to the resulting rows, its order only to "plain" (i.e. non-distinct, non-aggregating) queries.
+ * The rows resulting from aggregating queries are ordered by their GROUP BY values, those resulting from distinct
+ * queries by their values (in both cases ascending, as defined by the columns).
+ *
+ * Each resulting row is an {@code Object[]} with one element per {@link Projection}, holding:
+ * <ul>
+ * <li>for {@link Function#VALUE}, {@link Function#MIN} and {@link Function#MAX}: a value of the column's type, or {@code null};</li>
+ * <li>for {@link Function#COUNT}: a {@link Long};</li>
+ * <li>for {@link Function#SUM}: a {@link Long} (on an {@link IntegerColumn}) or a {@link Double} (on a {@link FloatColumn}), or {@code null} if there were no non-{@code null} values;</li>
+ * <li>for {@link Function#AVG}: a {@link Double}, or {@code null} if there were no non-{@code null} values.</li>
+ * </ul>
+ *
+ * Query execution happens in 2 steps: first "partial rows" are computed, holding the values of the
+ * {@link #getPartialProjections() partial projections} either for each individual record (see {@link #execute(List)})
+ * or for each group of records in a database table; next these are {@link #combine(List) combined} into the resulting rows.
+ *
  * @author mstevens
  */
-public class ValueQuery
+public class ValueQuery extends Query<List<Object[]>>
 {
 
+	// STATICS-------------------------------------------------------
+	/**
+	 * @author mstevens
+	 */
+	static public enum Function
+	{
+		VALUE,
+		COUNT,
+		SUM,
+		MIN,
+		MAX,
+		AVG;
+
+		public boolean isAggregate()
+		{
+			return this != VALUE;
+		}
+
+	}
+
+	/**
+	 * A single "column" in the rows resulting from a {@link ValueQuery}.
+	 *
+	 * @author mstevens
+	 */
+	static public class Projection
+	{
+
+		static public Projection Value(Column<?> column)
+		{
+			return Value(new ColumnPointer<Column<?>>(column));
+		}
+
+		static public Projection Value(ColumnPointer<?> columnPointer)
+		{
+			return new Projection(Function.VALUE, columnPointer);
+		}
+
+		/**
+		 * @return a projection representing COUNT(*), i.e. the number of records
+		 */
+		static public Projection Count()
+		{
+			return new Projection(Function.COUNT, null);
+		}
+
+		/**
+		 * @param column
+		 * @return a projection representing the number of records with a non-{@code null} value in the given column
+		 */
+		static public Projection Count(Column<?> column)
+		{
+			return Count(new ColumnPointer<Column<?>>(column));
+		}
+
+		static public Projection Count(ColumnPointer<?> columnPointer)
+		{
+			return new Projection(Function.COUNT, columnPointer);
+		}
+
+		static public Projection Sum(Column<?> column)
+		{
+			return Sum(new ColumnPointer<Column<?>>(column));
+		}
+
+		static public Projection Sum(ColumnPointer<?> columnPointer)
+		{
+			return new Projection(Function.SUM, columnPointer);
+		}
+
+		static public Projection Min(Column<?> column)
+		{
+			return Min(new ColumnPointer<Column<?>>(column));
+		}
+
+		static public Projection Min(ColumnPointer<?> columnPointer)
+		{
+			return new Projection(Function.MIN, columnPointer);
+		}
+
+		static public Projection Max(Column<?> column)
+		{
+			return Max(new ColumnPointer<Column<?>>(column));
+		}
+
+		static public Projection Max(ColumnPointer<?> columnPointer)
+		{
+			return new Projection(Function.MAX, columnPointer);
+		}
+
+		static public Projection Avg(Column<?> column)
+		{
+			return Avg(new ColumnPointer<Column<?>>(column));
+		}
+
+		static public Projection Avg(ColumnPointer<?> columnPointer)
+		{
+			return new Projection(Function.AVG, columnPointer);
+		}
+
+		public final Function function;
+
+		/**
+		 * {@code null} for COUNT(*)
+		 */
+		public final ColumnPointer<?> columnPointer;
+
+		private Projection(Function function, ColumnPointer<?> columnPointer)
+		{
+			if(columnPointer == null)
+			{
+				if(function != Function.COUNT)
+					throw new NullPointerException("A column(pointer) is required for " + function);
+			}
+			else
+			{
+				Column<?> column = columnPointer.getColumn();
+				CheckLeafColumn(column);
+				if((function == Function.SUM || function == Function.AVG) && !(column instanceof IntegerColumn || column instanceof FloatColumn))
+					throw new IllegalArgumentException(function + " requires a numeric (i.e. integer or float) column");
+			}
+			this.function = function;
+			this.columnPointer = columnPointer;
+		}
+
+		public boolean isAggregate()
+		{
+			return function.isAggregate();
+		}
+
+		/**
+		 * @return the column (or {@code null} for COUNT(*))
+		 */
+		public Column<?> getColumn()
+		{
+			return columnPointer != null ? columnPointer.getColumn() : null;
+		}
+
+		/**
+		 * @param record
+		 * @return the value the record holds in the pointed-at column, or {@code null} if it has none (or does not have the column)
+		 */
+		protected Object retrieveValue(Record record)
+		{
+			try
+			{
+				return columnPointer.retrieveValue(record);
+			}
+			catch(IllegalArgumentException e)
+			{
+				return null; // record (schema) does not have the column
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			String column = columnPointer != null ? columnPointer.getQualifiedColumnName() : "*";
+			return function == Function.VALUE ? column : function.name() + "(" + column + ")";
+		}
+
+	}
+
+	static private void CheckLeafColumn(Column<?> column)
+	{
+		if(column == null)
+			throw new NullPointerException("Column cannot be null");
+		if(column instanceof ValueSetColumn)
+			throw new IllegalArgumentException("Composite column \"" + column.getName() + "\" cannot be projected or grouped by, use a ColumnPointer to one of its subcolumns instead");
+	}
+
+	// DYNAMICS------------------------------------------------------
+	private final RecordsQuery recordsQuery;
+	private final List<Projection> projections;
+	private final List<ColumnPointer<?>> groupBy;
+	private final boolean distinct;
+	private final boolean aggregating;
+
+	/**
+	 * @param recordsQuery determines the source & constraints (and limit, and for plain projections also order), may be {@code null}
+	 * @param projections
+	 */
+	public ValueQuery(RecordsQuery recordsQuery, Projection... projections)
+	{
+		this(recordsQuery, false, null, projections);
+	}
+
+	/**
+	 * @param recordsQuery determines the source & constraints (and limit, and for plain projections also order), may be {@code null}
+	 * @param distinct whether or not to eliminate duplicate rows
+	 * @param projections
+	 */
+	public ValueQuery(RecordsQuery recordsQuery, boolean distinct, Projection... projections)
+	{
+		this(recordsQuery, distinct, null, projections);
+	}
+
+	/**
+	 * @param recordsQuery determines the source & constraints (and limit), may be {@code null}
+	 * @param groupBy columns to group by (non-aggregate projections must be on one of these)
+	 * @param projections
+	 */
+	public ValueQuery(RecordsQuery recordsQuery, List<? extends ColumnPointer<?>> groupBy, Projection... projections)
+	{
+		this(recordsQuery, false, groupBy, projections);
+	}
+
+	/**
+	 * @param recordsQuery determines the source & constraints (and limit, and for plain projections also order), may be {@code null}
+	 * @param distinct whether or not to eliminate duplicate rows
+	 * @param groupBy columns to group by (non-aggregate projections must be on one of these), may be {@code null}
+	 * @param projections
+	 * @throws IllegalArgumentException if there are no projections, or if there is a non-aggregate projection on a column which is not grouped by in an aggregating query
+	 */
+	public ValueQuery(RecordsQuery recordsQuery, boolean distinct, List<? extends ColumnPointer<?>> groupBy, Projection... projections) throws IllegalArgumentException
+	{
+		if(projections == null || projections.length == 0)
+			throw new IllegalArgumentException("Please provide at least 1 projection");
+		this.recordsQuery = recordsQuery != null ? recordsQuery : RecordsQuery.ALL;
+		this.projections = Collections.unmodifiableList(new ArrayList<Projection>(Arrays.asList(projections)));
+		this.groupBy = groupBy != null && !groupBy.isEmpty() ? Collections.unmodifiableList(new ArrayList<ColumnPointer<?>>(groupBy)) : Collections.<ColumnPointer<?>> emptyList();
+		for(ColumnPointer<?> groupByCP : this.groupBy)
+			CheckLeafColumn(groupByCP.getColumn());
+		this.distinct = distinct;
+
+		// Determine whether or not we aggregate:
+		boolean aggregating = !this.groupBy.isEmpty();
+		for(Projection projection : projections)
+			aggregating |= projection.isAggregate();
+		this.aggregating = aggregating;
+
+		// Check non-aggregate projections:
+		if(aggregating)
+			for(Projection projection : projections)
+				if(!projection.isAggregate() && !this.groupBy.contains(projection.columnPointer))
+					throw new IllegalArgumentException("Projection " + projection + " must either be an aggregate or be on a GROUP BY column");
+	}
+
+	/**
+	 * @return the recordsQuery
+	 */
+	public RecordsQuery getRecordsQuery()
+	{
+		return recordsQuery;
+	}
+
+	/**
+	 * @return a {@link RecordsQuery} selecting the records the query considers: the wrapped query itself for plain
+	 * 	queries, otherwise a query with the same source and constraints but without order or limit (as those apply to rows)
+	 */
+	public RecordsQuery getRecordSelectionQuery()
+	{
+		return isPlain() ? recordsQuery : new RecordsQuery(recordsQuery.source, recordsQuery.constraints);
+	}
+
+	/**
+	 * @return the projections
+	 */
+	public List<Projection> getProjections()
+	{
+		return projections;
+	}
+
+	/**
+	 * @return the GROUP BY columns (possibly empty, never {@code null})
+	 */
+	public List<ColumnPointer<?>> getGroupBy()
+	{
+		return groupBy;
+	}
+
+	/**
+	 * @return whether or not duplicate rows are eliminated
+	 */
+	public boolean isDistinct()
+	{
+		return distinct;
+	}
+
+	/**
+	 * @return whether or not the query computes aggregates and/or groups records
+	 */
+	public boolean isAggregating()
+	{
+		return aggregating;
+	}
+
+	/**
+	 * @return whether or not the query simply projects the values of each matching record (i.e. it is neither distinct nor aggregating)
+	 */
+	public boolean isPlain()
+	{
+		return !aggregating && !distinct;
+	}
+
+	/**
+	 * Returns the projections that make up the partial rows which are {@link #combine(List) combined} into the resulting rows:
+	 * <ul>
+	 * <li>for non-aggregating queries: the projections themselves;</li>
+	 * <li>for aggregating queries: a {@link Function#VALUE} projection for each GROUP BY column, followed by the aggregate projections,
+	 * 	with each {@link Function#AVG} being replaced by a {@link Function#SUM} and a {@link Function#COUNT} on the same column.</li>
+	 * </ul>
+	 *
+	 * @return
+	 */
+	public List<Projection> getPartialProjections()
+	{
+		if(!aggregating)
+			return projections;
+		List<Projection> partialProjections = new ArrayList<Projection>();
+		for(ColumnPointer<?> groupByCP : groupBy)
+			partialProjections.add(Projection.Value(groupByCP));
+		for(Projection projection : projections)
+		{
+			if(projection.function == Function.AVG)
+			{
+				partialProjections.add(Projection.Sum(projection.columnPointer));
+				partialProjections.add(Projection.Count(projection.columnPointer));
+			}
+			else if(projection.isAggregate())
+				partialProjections.add(projection);
+		}
+		return partialProjections;
+	}
+
 	/**
-	 * 
+	 * Executes the query in Java runtime memory, using a list of records as source.
+	 *
+	 * @param sourceRecords
+	 * @return the resulting rows
+	 */
+	@Override
+	public List<Object[]> execute(List<Record> sourceRecords)
+	{
+		List<Record> records = sourceRecords != null ? new ArrayList<Record>(sourceRecords) : new ArrayList<Record>();
+
+		// Apply constraints:
+		Constraint inMemoryConstraints = getInMemoryConstraits();
+		if(inMemoryConstraints != null)
+			records = inMemoryConstraints.filter(records);
+
+		// Sort:
+		if(isPlain())
+			recordsQuery.order.sort(records);
+
+		// Compute partial rows & combine:
+		return combine(getPartialRows(records));
+	}
+
+	/**
+	 * Computes a partial row (see {@link #getPartialProjections()}) for each of the given records, which must already have been
+	 * filtered (and, if the query is plain, sorted).
+	 *
+	 * @param records
+	 * @return the partial rows, one per record and in the same order
+	 */
+	public List<Object[]> getPartialRows(List<Record> records)
+	{
+		List<Projection> partialProjections = getPartialProjections();
+		List<Object[]> partialRows = new ArrayList<Object[]>(records.size());
+		for(Record record : records)
+		{
+			Object[] partialRow = new Object[partialProjections.size()];
+			int p = 0;
+			for(Projection projection : partialProjections)
+			{
+				if(projection.function == Function.COUNT)
+					partialRow[p++] = projection.columnPointer == null || projection.retrieveValue(record) != null ? 1L : 0L;
+				else
+					partialRow[p++] = projection.retrieveValue(record);
+			}
+			partialRows.add(partialRow);
+		}
+		return partialRows;
+	}
+
+	/**
+	 * Combines partial rows (see {@link #getPartialProjections()}) into the rows resulting from the query, and applies the query's limit.
+	 *
+	 * Partial rows may have been computed per record or per group of records (e.g. in different database tables).
+	 * In the latter case {@link Function#SUM}, {@link Function#MIN} and {@link Function#MAX} values must be {@code null}
+	 * if there were no non-{@code null} values in the group.
+	 *
+	 * @param partialRows
+	 * @return the resulting rows
+	 */
+	public List<Object[]> combine(List<Object[]> partialRows)
+	{
+		List<Object[]> rows;
+		if(aggregating)
+		{
+			List<Projection> partialProjections = getPartialProjections();
+			// Group & accumulate partial rows:
+			Map<List<Object>, Object[]> groups = new LinkedHashMap<List<Object>, Object[]>();
+			for(Object[] partialRow : partialRows)
+			{
+				List<Object> groupKey = Arrays.asList(Arrays.copyOf(partialRow, groupBy.size()));
+				Object[] accumulated = groups.get(groupKey);
+				if(accumulated == null)
+					groups.put(groupKey, partialRow.clone());
+				else
+					accumulate(partialProjections, accumulated, partialRow);
+			}
+			// Without GROUP BY there is always exactly 1 row, even when there were no records:
+			if(groups.isEmpty() && groupBy.isEmpty())
+			{
+				Object[] empty = new Object[partialProjections.size()];
+				for(int p = 0; p < empty.length; p++)
+					if(partialProjections.get(p).function == Function.COUNT)
+						empty[p] = 0L;
+				groups.put(Collections.emptyList(), empty);
+			}
+			// Sort groups:
+			List<List<Object>> groupKeys = new ArrayList<List<Object>>(groups.keySet());
+			Collections.sort(groupKeys, getValuesComparator(groupBy));
+			// Produce rows:
+			rows = new ArrayList<Object[]>(groupKeys.size());
+			for(List<Object> groupKey : groupKeys)
+				rows.add(finalise(groupKey, groups.get(groupKey)));
+		}
+		else if(distinct)
+		{
+			// Eliminate duplicates:
+			Set<List<Object>> distinctRows = new LinkedHashSet<List<Object>>();
+			for(Object[] partialRow : partialRows)
+				distinctRows.add(Arrays.asList(partialRow));
+			// Sort:
+			List<List<Object>> sortedRows = new ArrayList<List<Object>>(distinctRows);
+			List<ColumnPointer<?>> projectedCPs = new ArrayList<ColumnPointer<?>>(projections.size());
+			for(Projection projection : projections)
+				projectedCPs.add(projection.columnPointer);
+			Collections.sort(sortedRows, getValuesComparator(projectedCPs));
+			// Produce rows:
+			rows = new ArrayList<Object[]>(sortedRows.size());
+			for(List<Object> row : sortedRows)
+				rows.add(row.toArray());
+		}
+		else
+			rows = new ArrayList<Object[]>(partialRows);
+
+		// Limit:
+		if(isLimited() && rows.size() > getLimit())
+			rows = new ArrayList<Object[]>(rows.subList(0, getLimit()));
+
+		return rows;
+	}
+
+	/**
+	 * Accumulates the aggregate values of a partial row into the accumulated (partial) row of its group.
+	 *
+	 * @param partialProjections
+	 * @param accumulated
+	 * @param partialRow
+	 */
+	@SuppressWarnings("unchecked")
+	private void accumulate(List<Projection> partialProjections, Object[] accumulated, Object[] partialRow)
+	{
+		for(int p = groupBy.size(); p < accumulated.length; p++)
+		{
+			Object value = partialRow[p];
+			if(value == null)
+				continue; // aggregates ignore nulls
+			Object current = accumulated[p];
+			Projection partialProjection = partialProjections.get(p);
+			switch(partialProjection.function)
+			{
+				case COUNT :
+				case SUM :
+					accumulated[p] = current == null ? value : Add((Number) current, (Number) value);
+					break;
+				case MIN :
+				case MAX :
+					if(current == null)
+						accumulated[p] = value;
+					else
+					{
+						int comparison = ((Column<Object>) partialProjection.getColumn()).compareValues(current, value);
+						if(partialProjection.function == Function.MIN ? comparison > 0 : comparison < 0)
+							accumulated[p] = value;
+					}
+					break;
+				default :
+					break;
+			}
+		}
+	}
+
+	static private Number Add(Number a, Number b)
+	{
+		if(a instanceof Long && b instanceof Long)
+			return a.longValue() + b.longValue();
+		else
+			return a.doubleValue() + b.doubleValue();
+	}
+
+	/**
+	 * @param groupKey
+	 * @param accumulated the accumulated partial row of the group
+	 * @return the resulting row for the group
+	 */
+	private Object[] finalise(List<Object> groupKey, Object[] accumulated)
+	{
+		Object[] row = new Object[projections.size()];
+		int p = groupBy.size(); // position in accumulated partial row
+		for(int r = 0; r < row.length; r++)
+		{
+			Projection projection = projections.get(r);
+			switch(projection.function)
+			{
+				case VALUE :
+					row[r] = groupKey.get(groupBy.indexOf(projection.columnPointer));
+					break;
+				case COUNT :
+					row[r] = accumulated[p] != null ? ((Number) accumulated[p]).longValue() : 0L;
+					p++;
+					break;
+				case SUM :
+					Number sum = (Number) accumulated[p++];
+					row[r] = sum == null ? null : (projection.getColumn() instanceof IntegerColumn ? (Object) sum.longValue() : (Object) sum.doubleValue());
+					break;
+				case AVG :
+					Number avgSum = (Number) accumulated[p++];
+					Number avgCount = (Number) accumulated[p++];
+					row[r] = avgSum == null || avgCount == null || avgCount.longValue() == 0 ? null : avgSum.doubleValue() / avgCount.longValue();
+					break;
+				default : // MIN & MAX
+					row[r] = accumulated[p++];
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * @param columnPointers
+	 * @return a comparator for lists of values of the given columns
+	 */
+	static private Comparator<List<Object>> getValuesComparator(final List<ColumnPointer<?>> columnPointers)
+	{
+		return new Comparator<List<Object>>()
+		{
+			@SuppressWarnings("unchecked")
+			@Override
+			public int compare(List<Object> lhs, List<Object> rhs)
+			{
+				for(int c = 0; c < columnPointers.size(); c++)
+				{
+					int comparison = ((Column<Object>) columnPointers.get(c).getColumn()).compareValues(lhs.get(c), rhs.get(c));
+					if(comparison != 0)
+						return comparison;
+				}
+				return 0;
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.Query#getSource()
+	 */
+	@Override
+	public Source getSource()
+	{
+		return recordsQuery.source;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.Query#getConstraints()
+	 */
+	@Override
+	public Constraint getConstraints()
+	{
+		return recordsQuery.constraints;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.Query#getOrder()
+	 */
+	@Override
+	public Order getOrder()
+	{
+		return recordsQuery.order;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.Query#getLimit()
 	 */
-	public ValueQuery()
+	@Override
+	public int getLimit()
 	{
-		// TODO Auto-generated constructor stub
+		return recordsQuery.limit;
 	}
 
 }
@@ -0,0 +1,246 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
+
+import java.util.List;
+
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.types.LineColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.Location;
+import uk.ac.ucl.excites.sapelli.storage.types.LocationColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.PolygonColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
+/**
+ * Constraint which matches records whose value in a {@link LocationColumn}, {@link LineColumn} or {@link PolygonColumn}
+ * lies within a latitude/longitude bounding box (all bounds inclusive). For {@link Location}s this means the point lies
+ * within the box, for {@code Line}s and {@code Polygon}s it means the bounding box of their points intersects the box.
+ * Records with a {@code null} (or empty) value never match.
+ * 
+ * Boxes do not wrap around the antimeridian, a box spanning it has to be split into two (combined with an {@link OrConstraint}).
+ * 
+ * @author mstevens
+ */
+public class BoundingBoxConstraint extends Constraint
+{
+	
+	// STATICS-------------------------------------------------------
+	static public final double MIN_LATITUDE = -90.0d;
+	static public final double MAX_LATITUDE = 90.0d;
+	static public final double MIN_LONGITUDE = -180.0d;
+	static public final double MAX_LONGITUDE = 180.0d;
+	
+	/**
+	 * @param column
+	 * @return whether or not the given column holds values which can be the subject of a {@link BoundingBoxConstraint} 
+	 */
+	static public boolean IsGeometryColumn(Column<?> column)
+	{
+		return column instanceof LocationColumn || column instanceof LineColumn || column instanceof PolygonColumn;
+	}
+	
+	/**
+	 * Computes the bounding box of a {@link Location}, {@code Line} or {@code Polygon}.
+	 * 
+	 * @param geometry a {@link Location} or a {@link List} of {@link Location}s (i.e. a {@code Line} or {@code Polygon}), may be {@code null}
+	 * @return an array containing the minimum latitude, maximum latitude, minimum longitude and maximum longitude (in that order), or {@code null} if the given geometry was {@code null} or empty
+	 */
+	static public double[] GetBounds(Object geometry)
+	{
+		if(geometry instanceof Location)
+		{
+			Location loc = (Location) geometry;
+			return new double[] { loc.getLatitude(), loc.getLatitude(), loc.getLongitude(), loc.getLongitude() };
+		}
+		if(!(geometry instanceof List) || ((List<?>) geometry).isEmpty())
+			return null;
+		double[] bounds = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for(Object point : (List<?>) geometry)
+		{
+			Location loc = (Location) point;
+			bounds[0] = Math.min(bounds[0], loc.getLatitude());
+			bounds[1] = Math.max(bounds[1], loc.getLatitude());
+			bounds[2] = Math.min(bounds[2], loc.getLongitude());
+			bounds[3] = Math.max(bounds[3], loc.getLongitude());
+		}
+		return bounds;
+	}
+	
+	// DYNAMICS------------------------------------------------------
+	private final ColumnPointer<?> geometryColumnPointer;
+	private final double minLatitude;
+	private final double maxLatitude;
+	private final double minLongitude;
+	private final double maxLongitude;
+	
+	/**
+	 * @param geometryColumn a {@link LocationColumn}, {@link LineColumn} or {@link PolygonColumn}
+	 * @param minLatitude
+	 * @param maxLatitude
+	 * @param minLongitude
+	 * @param maxLongitude
+	 * @throws IllegalArgumentException when the column is of an unsupported type or the bounds are invalid
+	 */
+	public BoundingBoxConstraint(Column<?> geometryColumn, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) throws IllegalArgumentException
+	{
+		this(new ColumnPointer<Column<?>>(geometryColumn), minLatitude, maxLatitude, minLongitude, maxLongitude);
+	}
+	
+	/**
+	 * @param geometryColumnPointer pointer to a {@link LocationColumn}, {@link LineColumn} or {@link PolygonColumn}
+	 * @param minLatitude
+	 * @param maxLatitude
+	 * @param minLongitude
+	 * @param maxLongitude
+	 * @throws IllegalArgumentException when the column is of an unsupported type or the bounds are invalid
+	 */
+	public BoundingBoxConstraint(ColumnPointer<?> geometryColumnPointer, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) throws IllegalArgumentException
+	{
+		// Checks:
+		if(geometryColumnPointer == null)
+			throw new NullPointerException("Please provide a non-null column(pointer)");
+		if(!IsGeometryColumn(geometryColumnPointer.getColumn()))
+			throw new IllegalArgumentException(getClass().getSimpleName() + " cannot be applied to column " + geometryColumnPointer.getColumn().name + " of type " + geometryColumnPointer.getColumn().getTypeString());
+		if(!(MIN_LATITUDE <= minLatitude && minLatitude <= maxLatitude && maxLatitude <= MAX_LATITUDE))
+			throw new IllegalArgumentException("Invalid latitude bounds: [" + minLatitude + ", " + maxLatitude + "]");
+		if(!(MIN_LONGITUDE <= minLongitude && minLongitude <= maxLongitude && maxLongitude <= MAX_LONGITUDE))
+			throw new IllegalArgumentException("Invalid longitude bounds: [" + minLongitude + ", " + maxLongitude + "]");
+		
+		// Initialise:
+		this.geometryColumnPointer = geometryColumnPointer;
+		this.minLatitude = minLatitude;
+		this.maxLatitude = maxLatitude;
+		this.minLongitude = minLongitude;
+		this.maxLongitude = maxLongitude;
+	}
+	
+	/**
+	 * @return the geometryColumnPointer
+	 */
+	public ColumnPointer<?> getGeometryColumnPointer()
+	{
+		return geometryColumnPointer;
+	}
+	
+	/**
+	 * @return whether the constrained column is a {@link LocationColumn} (rather than a {@link LineColumn} or {@link PolygonColumn})
+	 */
+	public boolean isOnPoints()
+	{
+		return geometryColumnPointer.getColumn() instanceof LocationColumn;
+	}
+
+	/**
+	 * @return the minLatitude
+	 */
+	public double getMinLatitude()
+	{
+		return minLatitude;
+	}
+
+	/**
+	 * @return the maxLatitude
+	 */
+	public double getMaxLatitude()
+	{
+		return maxLatitude;
+	}
+
+	/**
+	 * @return the minLongitude
+	 */
+	public double getMinLongitude()
+	{
+		return minLongitude;
+	}
+
+	/**
+	 * @return the maxLongitude
+	 */
+	public double getMaxLongitude()
+	{
+		return maxLongitude;
+	}
+	
+	/**
+	 * @param bounds array containing minimum latitude, maximum latitude, minimum longitude and maximum longitude (in that order), may be {@code null}
+	 * @return whether the given bounds intersect with this bounding box
+	 */
+	public boolean intersects(double[] bounds)
+	{
+		return	bounds != null &&
+				bounds[1] >= minLatitude && bounds[0] <= maxLatitude &&
+				bounds[3] >= minLongitude && bounds[2] <= maxLongitude;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#_isValid(uk.ac.ucl.excites.sapelli.storage.model.Record)
+	 */
+	@Override
+	protected boolean _isValid(Record record)
+	{
+		return intersects(GetBounds(geometryColumnPointer.retrieveValue(record)));
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#accept(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor)
+	 */
+	@Override
+	public void accept(ConstraintVisitor visitor)
+	{
+		visitor.visit(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true; // references to same object
+		if(obj != null && obj.getClass() == getClass())
+		{
+			BoundingBoxConstraint that = (BoundingBoxConstraint) obj;
+			return	this.geometryColumnPointer.equals(that.geometryColumnPointer) &&
+					this.minLatitude == that.minLatitude &&
+					this.maxLatitude == that.maxLatitude &&
+					this.minLongitude == that.minLongitude &&
+					this.maxLongitude == that.maxLongitude;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		hash = 31 * hash + geometryColumnPointer.hashCode();
+		hash = 31 * hash + Double.valueOf(minLatitude).hashCode();
+		hash = 31 * hash + Double.valueOf(maxLatitude).hashCode();
+		hash = 31 * hash + Double.valueOf(minLongitude).hashCode();
+		hash = 31 * hash + Double.valueOf(maxLongitude).hashCode();
+		return hash;
+	}
+
+}
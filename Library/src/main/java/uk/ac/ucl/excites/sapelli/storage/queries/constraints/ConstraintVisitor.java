@@ -38,6 +38,16 @@ public interface ConstraintVisitor
 	
 	public void visit(BitFlagConstraint bitFlagConstr);
 	
+	public void visit(BoundingBoxConstraint boundingBoxConstr);
+	
+	public void visit(WithinDistanceConstraint withinDistanceConstr);
+	
+	public void visit(TextMatchConstraint textMatchConstr);
+	
+	public void visit(ListContainsConstraint listContainsConstr);
+	
+	public void visit(ListSizeConstraint listSizeConstr);
+	
 	public void visit(DummyConstraint dummyConstr);
 
 }
@@ -0,0 +1,151 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
+
+import java.util.List;
+
+import uk.ac.ucl.excites.sapelli.shared.util.Objects;
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidValueException;
+
+/**
+ * Constraint which matches records whose value in a {@link ListColumn} contains the given element (compared using {@link Objects#deepEquals(Object, Object)}).
+ * Records with a {@code null} list never match.
+ * 
+ * @author mstevens
+ */
+public class ListContainsConstraint extends Constraint
+{
+
+	// DYNAMICS------------------------------------------------------
+	private final ColumnPointer<? extends ListColumn<?, ?>> listColumnPointer;
+	private final Object element;
+	
+	/**
+	 * @param listColumn
+	 * @param element
+	 * @throws InvalidValueException when the element is not a valid value for the element column of the list column
+	 */
+	public ListContainsConstraint(ListColumn<?, ?> listColumn, Object element) throws InvalidValueException
+	{
+		this(new ColumnPointer<ListColumn<?, ?>>(listColumn), element);
+	}
+	
+	/**
+	 * @param listColumnPointer
+	 * @param element
+	 * @throws InvalidValueException when the element is not a valid value for the element column of the list column
+	 */
+	public ListContainsConstraint(ColumnPointer<? extends ListColumn<?, ?>> listColumnPointer, Object element) throws InvalidValueException
+	{
+		if(listColumnPointer == null)
+			throw new NullPointerException("Please provide a non-null column(pointer)");
+		if(element == null)
+			throw new NullPointerException("Please provide a non-null element");
+		Column<?> elementColumn = listColumnPointer.getColumn().getSingleColumn();
+		try
+		{
+			if(!elementColumn.isValidValueObject(element, true /*convert!*/))
+				throw new Exception();
+		}
+		catch(InvalidValueException ive)
+		{
+			throw ive; // re-throw
+		}
+		catch(Exception e)
+		{
+			throw new InvalidValueException(ListContainsConstraint.class.getSimpleName() + ": element (" + element.toString() + ") is invalid for column " + elementColumn.name, elementColumn);
+		}
+		this.listColumnPointer = listColumnPointer;
+		this.element = elementColumn.convert(element); // convert to column type!
+	}
+
+	/**
+	 * @return the listColumnPointer
+	 */
+	public ColumnPointer<? extends ListColumn<?, ?>> getListColumnPointer()
+	{
+		return listColumnPointer;
+	}
+
+	/**
+	 * @return the element
+	 */
+	public Object getElement()
+	{
+		return element;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#_isValid(uk.ac.ucl.excites.sapelli.storage.model.Record)
+	 */
+	@Override
+	protected boolean _isValid(Record record)
+	{
+		List<?> list = (List<?>) listColumnPointer.retrieveValue(record);
+		if(list == null)
+			return false;
+		for(Object listElement : list)
+			if(Objects.deepEquals(listElement, element))
+				return true;
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#accept(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor)
+	 */
+	@Override
+	public void accept(ConstraintVisitor visitor)
+	{
+		visitor.visit(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true; // references to same object
+		if(obj instanceof ListContainsConstraint)
+		{
+			ListContainsConstraint that = (ListContainsConstraint) obj;
+			return	this.listColumnPointer.equals(that.listColumnPointer) &&
+					Objects.deepEquals(this.element, that.element);
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		hash = 31 * hash + listColumnPointer.hashCode();
+		hash = 31 * hash + element.hashCode();
+		return hash;
+	}
+
+}
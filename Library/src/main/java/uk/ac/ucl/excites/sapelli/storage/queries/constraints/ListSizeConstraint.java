@@ -0,0 +1,153 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
+
+import java.util.List;
+
+import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint.Comparison;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
+/**
+ * Constraint which compares the number of elements in the value of a {@link ListColumn} to a given size.
+ * Records with a {@code null} list never match.
+ * 
+ * @author mstevens
+ */
+public class ListSizeConstraint extends Constraint
+{
+
+	// DYNAMICS------------------------------------------------------
+	private final ColumnPointer<? extends ListColumn<?, ?>> listColumnPointer;
+	private final Comparison comparison;
+	private final int size;
+	
+	/**
+	 * @param listColumn
+	 * @param comparison
+	 * @param size
+	 */
+	public ListSizeConstraint(ListColumn<?, ?> listColumn, Comparison comparison, int size)
+	{
+		this(new ColumnPointer<ListColumn<?, ?>>(listColumn), comparison, size);
+	}
+	
+	/**
+	 * @param listColumnPointer
+	 * @param comparison
+	 * @param size
+	 */
+	public ListSizeConstraint(ColumnPointer<? extends ListColumn<?, ?>> listColumnPointer, Comparison comparison, int size)
+	{
+		if(listColumnPointer == null)
+			throw new NullPointerException("Please provide a non-null column(pointer)");
+		if(comparison == null)
+			throw new NullPointerException("Please provide a non-null comparison");
+		this.listColumnPointer = listColumnPointer;
+		this.comparison = comparison;
+		this.size = size;
+	}
+
+	/**
+	 * @return the listColumnPointer
+	 */
+	public ColumnPointer<? extends ListColumn<?, ?>> getListColumnPointer()
+	{
+		return listColumnPointer;
+	}
+
+	/**
+	 * @return the comparison
+	 */
+	public Comparison getComparison()
+	{
+		return comparison;
+	}
+
+	/**
+	 * @return the size
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#_isValid(uk.ac.ucl.excites.sapelli.storage.model.Record)
+	 */
+	@Override
+	protected boolean _isValid(Record record)
+	{
+		List<?> list = (List<?>) listColumnPointer.retrieveValue(record);
+		if(list == null)
+			return false;
+		switch(comparison)
+		{
+			case SMALLER :			return list.size() < size;
+			case SMALLER_OR_EQUAL :	return list.size() <= size;
+			case EQUAL :			return list.size() == size;
+			case NOT_EQUAL :		return list.size() != size;
+			case GREATER_OR_EQUAL :	return list.size() >= size;
+			case GREATER :			return list.size() > size;
+		}
+		return false; // should never happen
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#accept(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor)
+	 */
+	@Override
+	public void accept(ConstraintVisitor visitor)
+	{
+		visitor.visit(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true; // references to same object
+		if(obj instanceof ListSizeConstraint)
+		{
+			ListSizeConstraint that = (ListSizeConstraint) obj;
+			return	this.listColumnPointer.equals(that.listColumnPointer) &&
+					this.comparison == that.comparison &&
+					this.size == that.size;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		hash = 31 * hash + listColumnPointer.hashCode();
+		hash = 31 * hash + comparison.ordinal();
+		hash = 31 * hash + size;
+		return hash;
+	}
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
+/**
+ * Constraint which matches records whose value in a {@link StringColumn} contains all of the given search terms as words.
+ * 
+ * Words are maximal runs of ASCII letters and digits and non-ASCII characters; all other (ASCII) characters separate words.
+ * Matching is case-insensitive for ASCII letters only. A term followed by a {@code *} matches any word starting with it.
+ * These are the rules of SQLite's "simple" (FTS3/4) and "ascii" (FTS5) full-text tokenizers, so the constraint can be
+ * resolved through a full-text index when a record store has one, or by scanning when it does not.
+ * Records with a {@code null} value never match.
+ * 
+ * @author mstevens
+ * 
+ * @see https://www.sqlite.org/fts3.html#tokenizer
+ */
+public class TextMatchConstraint extends Constraint
+{
+
+	// STATICS-------------------------------------------------------
+	static public final char PREFIX_MARKER = '*';
+	
+	static private boolean IsWordChar(char c)
+	{
+		return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	/**
+	 * Splits the given text into words, with ASCII letters converted to lower case.
+	 * 
+	 * @param text
+	 * @return the list of words (possibly empty)
+	 */
+	static public List<String> Tokenise(String text)
+	{
+		List<String> words = new ArrayList<String>();
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++)
+		{
+			if(i < text.length() && IsWordChar(text.charAt(i)))
+			{
+				if(start == -1)
+					start = i;
+			}
+			else if(start != -1)
+			{
+				words.add(ToLowerCaseASCII(text.substring(start, i)));
+				start = -1;
+			}
+		}
+		return words;
+	}
+	
+	static private String ToLowerCaseASCII(String word)
+	{
+		char[] chars = word.toCharArray();
+		for(int i = 0; i < chars.length; i++)
+			if(chars[i] >= 'A' && chars[i] <= 'Z')
+				chars[i] += 'a' - 'A';
+		return new String(chars);
+	}
+	
+	/**
+	 * @param term
+	 * @return whether the given term (as returned by {@link #getTerms()}) matches words which start with it, rather than only the word itself
+	 */
+	static public boolean IsPrefixTerm(String term)
+	{
+		return term.charAt(term.length() - 1) == PREFIX_MARKER;
+	}
+	
+	// DYNAMICS------------------------------------------------------
+	private final ColumnPointer<StringColumn> columnPointer;
+	private final List<String> terms;
+	
+	/**
+	 * @param column
+	 * @param searchTerms the words to look for (separated by spaces or punctuation), each may be followed by a {@code *} to match words starting with it
+	 * @throws IllegalArgumentException when there are no search terms
+	 */
+	public TextMatchConstraint(StringColumn column, String searchTerms) throws IllegalArgumentException
+	{
+		this(new ColumnPointer<StringColumn>(column), searchTerms);
+	}
+	
+	/**
+	 * @param columnPointer
+	 * @param searchTerms the words to look for (separated by spaces or punctuation), each may be followed by a {@code *} to match words starting with it
+	 * @throws IllegalArgumentException when there are no search terms
+	 */
+	public TextMatchConstraint(ColumnPointer<StringColumn> columnPointer, String searchTerms) throws IllegalArgumentException
+	{
+		if(columnPointer == null)
+			throw new NullPointerException("Please provide a non-null column(pointer)");
+		List<String> terms = new ArrayList<String>();
+		int start = -1;
+		for(int i = 0; i <= searchTerms.length(); i++)
+		{
+			if(i < searchTerms.length() && IsWordChar(searchTerms.charAt(i)))
+			{
+				if(start == -1)
+					start = i;
+			}
+			else if(start != -1)
+			{
+				String term = ToLowerCaseASCII(searchTerms.substring(start, i));
+				if(i < searchTerms.length() && searchTerms.charAt(i) == PREFIX_MARKER)
+					term += PREFIX_MARKER;
+				if(!terms.contains(term))
+					terms.add(term);
+				start = -1;
+			}
+		}
+		if(terms.isEmpty())
+			throw new IllegalArgumentException("No search terms in \"" + searchTerms + "\"");
+		this.columnPointer = columnPointer;
+		this.terms = Collections.unmodifiableList(terms);
+	}
+
+	/**
+	 * @return the columnPointer
+	 */
+	public ColumnPointer<StringColumn> getColumnPointer()
+	{
+		return columnPointer;
+	}
+
+	/**
+	 * @return the (lower-cased) search terms, prefix terms end with {@link #PREFIX_MARKER}
+	 */
+	public List<String> getTerms()
+	{
+		return terms;
+	}
+	
+	/**
+	 * @return the search terms as a full-text query (implicitly AND-ing them), suitable for SQLite's MATCH operator (FTS3, 4 and 5)
+	 */
+	public String getMatchExpression()
+	{
+		StringBuilder bldr = new StringBuilder();
+		for(String term : terms)
+		{
+			if(bldr.length() > 0)
+				bldr.append(' ');
+			bldr.append(term);
+		}
+		return bldr.toString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#_isValid(uk.ac.ucl.excites.sapelli.storage.model.Record)
+	 */
+	@Override
+	protected boolean _isValid(Record record)
+	{
+		String value = (String) columnPointer.retrieveValue(record);
+		if(value == null)
+			return false;
+		Set<String> words = new HashSet<String>(Tokenise(value));
+		for(String term : terms)
+		{
+			if(IsPrefixTerm(term))
+			{
+				String prefix = term.substring(0, term.length() - 1);
+				boolean found = false;
+				for(String word : words)
+					if(word.startsWith(prefix))
+					{
+						found = true;
+						break;
+					}
+				if(!found)
+					return false;
+			}
+			else if(!words.contains(term))
+				return false;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#accept(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor)
+	 */
+	@Override
+	public void accept(ConstraintVisitor visitor)
+	{
+		visitor.visit(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true; // references to same object
+		if(obj instanceof TextMatchConstraint)
+		{
+			TextMatchConstraint that = (TextMatchConstraint) obj;
+			return this.columnPointer.equals(that.columnPointer) && this.terms.equals(that.terms);
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		hash = 31 * hash + columnPointer.hashCode();
+		hash = 31 * hash + terms.hashCode();
+		return hash;
+	}
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
+
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.types.Location;
+import uk.ac.ucl.excites.sapelli.storage.types.LocationColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
+/**
+ * Constraint which matches records whose value in a {@link LocationColumn} lies within a given distance of a centre point.
+ * 
+ * Distances are computed using the equirectangular approximation (i.e. treating the area around the centre point as flat),
+ * which only involves arithmetic, so that the exact same test can be expressed in SQL. The error is negligible for distances
+ * of up to tens of kilometres (except very close to the poles). The constraint is a {@link BoundingBoxConstraint} on the
+ * box which encloses the circle, so spatial indexes can be used to find candidates.
+ * 
+ * @author mstevens
+ */
+public class WithinDistanceConstraint extends BoundingBoxConstraint
+{
+	
+	// STATICS-------------------------------------------------------
+	/**
+	 * Mean radius of the Earth in metres
+	 */
+	static public final double EARTH_RADIUS_M = 6371008.8d;
+	
+	// DYNAMICS------------------------------------------------------
+	private final double centreLatitude;
+	private final double centreLongitude;
+	private final double distanceM;
+	
+	/**
+	 * @param locationColumn
+	 * @param centre
+	 * @param distanceM distance in metres
+	 * @throws IllegalArgumentException when the distance is negative
+	 */
+	public WithinDistanceConstraint(LocationColumn locationColumn, Location centre, double distanceM) throws IllegalArgumentException
+	{
+		this(new ColumnPointer<LocationColumn>(locationColumn), centre, distanceM);
+	}
+	
+	/**
+	 * @param locationColumnPointer
+	 * @param centre
+	 * @param distanceM distance in metres
+	 * @throws IllegalArgumentException when the distance is negative
+	 */
+	public WithinDistanceConstraint(ColumnPointer<LocationColumn> locationColumnPointer, Location centre, double distanceM) throws IllegalArgumentException
+	{
+		super(	locationColumnPointer,
+				Math.max(MIN_LATITUDE, centre.getLatitude() - GetDistanceInDegrees(distanceM)),
+				Math.min(MAX_LATITUDE, centre.getLatitude() + GetDistanceInDegrees(distanceM)),
+				Math.max(MIN_LONGITUDE, centre.getLongitude() - GetLongitudeSpan(centre.getLatitude(), distanceM)),
+				Math.min(MAX_LONGITUDE, centre.getLongitude() + GetLongitudeSpan(centre.getLatitude(), distanceM)));
+		this.centreLatitude = centre.getLatitude();
+		this.centreLongitude = centre.getLongitude();
+		this.distanceM = distanceM;
+	}
+	
+	static private double GetDistanceInDegrees(double distanceM) throws IllegalArgumentException
+	{
+		if(distanceM < 0.0d)
+			throw new IllegalArgumentException("Distance cannot be negative");
+		return Math.toDegrees(distanceM / EARTH_RADIUS_M);
+	}
+	
+	static private double GetLongitudeSpan(double latitude, double distanceM)
+	{
+		double cosLat = Math.cos(Math.toRadians(latitude));
+		return cosLat > 0.0d ? GetDistanceInDegrees(distanceM) / cosLat : MAX_LONGITUDE - MIN_LONGITUDE;
+	}
+	
+	/**
+	 * @return the centreLatitude
+	 */
+	public double getCentreLatitude()
+	{
+		return centreLatitude;
+	}
+
+	/**
+	 * @return the centreLongitude
+	 */
+	public double getCentreLongitude()
+	{
+		return centreLongitude;
+	}
+
+	/**
+	 * @return the distance in metres
+	 */
+	public double getDistanceM()
+	{
+		return distanceM;
+	}
+	
+	/**
+	 * @return the factor by which longitude differences (in degrees) must be multiplied before squaring them, see {@link #isWithinDistance(double, double)}
+	 */
+	public double getLongitudeFactor()
+	{
+		double cosLat = Math.cos(Math.toRadians(centreLatitude));
+		return cosLat * cosLat;
+	}
+	
+	/**
+	 * @return the square of the distance expressed in degrees (of latitude), see {@link #isWithinDistance(double, double)}
+	 */
+	public double getSquaredDistanceInDegrees()
+	{
+		double distanceDeg = GetDistanceInDegrees(distanceM);
+		return distanceDeg * distanceDeg;
+	}
+	
+	/**
+	 * Tests whether the given point lies within distance of the centre point, which is the case if:
+	 * {@code (lat - centreLat)² + (lon - centreLon)² * longitudeFactor <= squaredDistanceInDegrees}.
+	 * 
+	 * @param latitude
+	 * @param longitude
+	 * @return
+	 */
+	public boolean isWithinDistance(double latitude, double longitude)
+	{
+		double dLat = latitude - centreLatitude;
+		double dLon = longitude - centreLongitude;
+		return dLat * dLat + dLon * dLon * getLongitudeFactor() <= getSquaredDistanceInDegrees();
+	}
+	
+	/**
+	 * The bounding box is checked as well because it may have been clipped at the poles or the antimeridian.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint#_isValid(uk.ac.ucl.excites.sapelli.storage.model.Record)
+	 */
+	@Override
+	protected boolean _isValid(Record record)
+	{
+		Location location = (Location) getGeometryColumnPointer().retrieveValue(record);
+		return super._isValid(record) && isWithinDistance(location.getLatitude(), location.getLongitude());
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint#accept(uk.ac.ucl.excites.sapelli.storage.queries.constraints.ConstraintVisitor)
+	 */
+	@Override
+	public void accept(ConstraintVisitor visitor)
+	{
+		visitor.visit(this);
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true; // references to same object
+		if(obj instanceof WithinDistanceConstraint)
+		{
+			WithinDistanceConstraint that = (WithinDistanceConstraint) obj;
+			return	this.getGeometryColumnPointer().equals(that.getGeometryColumnPointer()) &&
+					this.centreLatitude == that.centreLatitude &&
+					this.centreLongitude == that.centreLongitude &&
+					this.distanceM == that.distanceM;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		int hash = super.hashCode();
+		hash = 31 * hash + Double.valueOf(centreLatitude).hashCode();
+		hash = 31 * hash + Double.valueOf(centreLongitude).hashCode();
+		hash = 31 * hash + Double.valueOf(distanceM).hashCode();
+		return hash;
+	}
+	
+}
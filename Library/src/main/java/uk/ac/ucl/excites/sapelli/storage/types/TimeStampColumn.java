@@ -525,9 +525,9 @@ public class TimeStampColumn extends ComparableColumn<TimeStamp>
 	}
 
 	@Override
-	public int hashCode()
+	protected int computeHashCode()
 	{
-		int hash = super.hashCode();
+		int hash = super.computeHashCode();
 		hash = 31 * hash + Objects.hashCode(timeMapping);
 		hash = 31 * hash + (keepMS ? 0 : 1);
 		hash = 31 * hash + (keepLocalTimezone ? 0 : 1);
@@ -0,0 +1,254 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.AndConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.BoundingBoxConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.WithinDistanceConstraint;
+import uk.ac.ucl.excites.sapelli.storage.types.LineColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.LocationColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.PolygonColumn;
+
+/**
+ * In-memory spatial index for record stores which cannot resolve {@link BoundingBoxConstraint}s themselves (i.e. non-SQL ones).
+ * The latitude/longitude plane is divided into square cells and every record is filed under each of the cells its geometry's bounding box
+ * overlaps. Records with geometries which would cover more than {@link #MAX_CELLS_PER_RECORD} cells are kept aside and checked on every query.
+ * 
+ * Records are held by identity (not by equality), so they must be removed or (re-)added using the same object.
+ * 
+ * @author mstevens
+ */
+public class SpatialGridIndex
+{
+	
+	// STATIC -------------------------------------------------------
+	/**
+	 * Default cell size in degrees (0.1° of latitude is roughly 11 km)
+	 */
+	static public final double DEFAULT_CELL_SIZE = 0.1d;
+	
+	static public final int MAX_CELLS_PER_RECORD = 64;
+	
+	/**
+	 * @param constraints may be {@code null}
+	 * @return a {@link BoundingBoxConstraint} which records must satisfy to satisfy the given constraints (i.e. the given constraint itself or one of the
+	 * 			direct subconstraints of an {@link AndConstraint}), or {@code null} if there is none
+	 */
+	static public BoundingBoxConstraint GetBoundingBoxConstraint(Constraint constraints)
+	{
+		if(constraints instanceof BoundingBoxConstraint)
+			return (BoundingBoxConstraint) constraints;
+		if(constraints instanceof AndConstraint)
+			for(Constraint subConstraint : ((AndConstraint) constraints).getSubConstraints())
+				if(subConstraint instanceof BoundingBoxConstraint)
+					return (BoundingBoxConstraint) subConstraint;
+		return null;
+	}
+	
+	// DYNAMIC ------------------------------------------------------
+	private final ColumnPointer<?> geometryColumnPointer;
+	private final double cellSize;
+	private final long columnCount;
+	
+	private final Map<Long, List<Record>> cells = new HashMap<Long, List<Record>>();
+	private final Map<Record, int[]> cellRangeByRecord = new IdentityHashMap<Record, int[]>();
+	private final Set<Record> oversized = Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+	
+	/**
+	 * @param geometryColumnPointer pointer to a {@link LocationColumn}, {@link LineColumn} or {@link PolygonColumn}
+	 */
+	public SpatialGridIndex(ColumnPointer<?> geometryColumnPointer)
+	{
+		this(geometryColumnPointer, DEFAULT_CELL_SIZE);
+	}
+	
+	/**
+	 * @param geometryColumnPointer pointer to a {@link LocationColumn}, {@link LineColumn} or {@link PolygonColumn}
+	 * @param cellSize in degrees
+	 * @throws IllegalArgumentException when the column is of an unsupported type or the cell size is not positive
+	 */
+	public SpatialGridIndex(ColumnPointer<?> geometryColumnPointer, double cellSize) throws IllegalArgumentException
+	{
+		if(!BoundingBoxConstraint.IsGeometryColumn(geometryColumnPointer.getColumn()))
+			throw new IllegalArgumentException("Column " + geometryColumnPointer.getQualifiedColumnName() + " does not hold geometries");
+		if(!(cellSize > 0.0d))
+			throw new IllegalArgumentException("Cell size must be positive");
+		this.geometryColumnPointer = geometryColumnPointer;
+		this.cellSize = cellSize;
+		this.columnCount = getCellColumn(BoundingBoxConstraint.MAX_LONGITUDE) + 1;
+	}
+	
+	/**
+	 * @return the geometryColumnPointer
+	 */
+	public ColumnPointer<?> getGeometryColumnPointer()
+	{
+		return geometryColumnPointer;
+	}
+	
+	private int getCellRow(double latitude)
+	{
+		return (int) Math.floor((latitude - BoundingBoxConstraint.MIN_LATITUDE) / cellSize);
+	}
+	
+	private int getCellColumn(double longitude)
+	{
+		return (int) Math.floor((longitude - BoundingBoxConstraint.MIN_LONGITUDE) / cellSize);
+	}
+	
+	/**
+	 * @param bounds see {@link BoundingBoxConstraint#GetBounds(Object)}
+	 * @return array containing the first row, last row, first column and last column of the cells overlapped by the given bounds
+	 */
+	private int[] getCellRange(double[] bounds)
+	{
+		return new int[] { getCellRow(bounds[0]), getCellRow(bounds[1]), getCellColumn(bounds[2]), getCellColumn(bounds[3]) };
+	}
+	
+	private boolean isOversized(int[] cellRange)
+	{
+		return (long) (cellRange[1] - cellRange[0] + 1) * (cellRange[3] - cellRange[2] + 1) > MAX_CELLS_PER_RECORD;
+	}
+	
+	/**
+	 * Adds the given record to the index, or updates its position if it was added before.
+	 * Records without a (non-empty) geometry are not indexed.
+	 * 
+	 * @param record
+	 */
+	public void add(Record record)
+	{
+		remove(record);
+		double[] bounds = BoundingBoxConstraint.GetBounds(geometryColumnPointer.retrieveValue(record));
+		if(bounds == null)
+			return;
+		int[] cellRange = getCellRange(bounds);
+		cellRangeByRecord.put(record, cellRange);
+		if(isOversized(cellRange))
+		{
+			oversized.add(record);
+			return;
+		}
+		for(int row = cellRange[0]; row <= cellRange[1]; row++)
+			for(int col = cellRange[2]; col <= cellRange[3]; col++)
+			{
+				Long key = Long.valueOf(row * columnCount + col);
+				List<Record> cell = cells.get(key);
+				if(cell == null)
+				{
+					cell = new ArrayList<Record>(4);
+					cells.put(key, cell);
+				}
+				cell.add(record);
+			}
+	}
+	
+	/**
+	 * @param record
+	 * @return whether the record was in the index
+	 */
+	public boolean remove(Record record)
+	{
+		int[] cellRange = cellRangeByRecord.remove(record);
+		if(cellRange == null)
+			return false;
+		if(oversized.remove(record))
+			return true;
+		for(int row = cellRange[0]; row <= cellRange[1]; row++)
+			for(int col = cellRange[2]; col <= cellRange[3]; col++)
+			{
+				Long key = Long.valueOf(row * columnCount + col);
+				List<Record> cell = cells.get(key);
+				for(int i = 0; i < cell.size(); i++)
+					if(cell.get(i) == record)
+					{
+						cell.remove(i);
+						break;
+					}
+				if(cell.isEmpty())
+					cells.remove(key);
+			}
+		return true;
+	}
+	
+	public void clear()
+	{
+		cells.clear();
+		cellRangeByRecord.clear();
+		oversized.clear();
+	}
+	
+	/**
+	 * @return the number of indexed records
+	 */
+	public int size()
+	{
+		return cellRangeByRecord.size();
+	}
+	
+	/**
+	 * @param boundingBox a {@link BoundingBoxConstraint} (or {@link WithinDistanceConstraint}) on the indexed column
+	 * @return the indexed records which satisfy the given constraint, in no particular order
+	 * @throws IllegalArgumentException when the constraint is on another column
+	 */
+	public List<Record> query(BoundingBoxConstraint boundingBox) throws IllegalArgumentException
+	{
+		if(!geometryColumnPointer.equals(boundingBox.getGeometryColumnPointer()))
+			throw new IllegalArgumentException("Constraint is not on the indexed column");
+		int[] cellRange = getCellRange(new double[] { boundingBox.getMinLatitude(), boundingBox.getMaxLatitude(), boundingBox.getMinLongitude(), boundingBox.getMaxLongitude() });
+		Set<Record> candidates = Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+		if(isOversized(cellRange) && (long) cells.size() < (long) (cellRange[1] - cellRange[0] + 1) * (cellRange[3] - cellRange[2] + 1))
+		{	// visiting the occupied cells is cheaper than visiting all overlapped ones:
+			for(Map.Entry<Long, List<Record>> entry : cells.entrySet())
+			{
+				long row = entry.getKey() / columnCount;
+				long col = entry.getKey() % columnCount;
+				if(row >= cellRange[0] && row <= cellRange[1] && col >= cellRange[2] && col <= cellRange[3])
+					candidates.addAll(entry.getValue());
+			}
+		}
+		else
+			for(int row = cellRange[0]; row <= cellRange[1]; row++)
+				for(int col = cellRange[2]; col <= cellRange[3]; col++)
+				{
+					List<Record> cell = cells.get(Long.valueOf(row * columnCount + col));
+					if(cell != null)
+						candidates.addAll(cell);
+				}
+		candidates.addAll(oversized);
+		
+		// Check candidates exactly:
+		List<Record> result = new ArrayList<Record>();
+		for(Record candidate : candidates)
+			if(boundingBox.isValid(candidate))
+				result.add(candidate);
+		return result;
+	}
+	
+}
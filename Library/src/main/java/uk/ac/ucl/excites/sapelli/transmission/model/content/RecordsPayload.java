@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -37,10 +38,13 @@ import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.IntegerRangeMapping;
+import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSetCodec;
 import uk.ac.ucl.excites.sapelli.storage.util.UnknownModelException;
 import uk.ac.ucl.excites.sapelli.transmission.TransmissionClient;
 import uk.ac.ucl.excites.sapelli.transmission.model.Payload;
@@ -140,14 +144,10 @@ public class RecordsPayload extends Payload
 	 */
 	public void addRecord(Record record) throws IllegalStateException, IllegalArgumentException, TransmissionCapacityExceededException, TransmissionSendingException
 	{
-		if(!isTansmissionSet())
-			throw new IllegalStateException("No transmission set!");
-		
 		Schema schema = record.getSchema();
-
-		// Check if transmittable:
-		if(!schema.hasFlags(TransmissionClient.SCHEMA_FLAG_TRANSMITTABLE))
-			throw new IllegalArgumentException("Schema of given record(s) is not transmittable.");
+		
+		// Check transmission, schema & model:
+		checkAddable(schema);
 		
 		// Check if record has non-null values for all transmittable columns:
 		if(!record.isFilled(transmission.client.getNonTransmittableColumns(schema))) // includes auto-incr-PK columns
@@ -157,17 +157,9 @@ public class RecordsPayload extends Payload
 		if(recordsBySchema.isEmpty())
 			// set model:
 			model = schema.getModel();
-		//	Check model:
-		else if(model != schema.getModel())
-			throw new IllegalArgumentException("The schemata of the records in a single Transmission must all belong to the same model.");
 		
 		// Add the record to the list of attached records for this schema:
-		List<Record> recordsOfSchema = recordsBySchema.get(schema);
-		if(recordsOfSchema == null)
-		{
-			recordsOfSchema = new ArrayList<Record>();
-			recordsBySchema.put(schema, recordsOfSchema);
-		}
+		List<Record> recordsOfSchema = getRecordsListFor(schema);
 		recordsOfSchema.add(record);
 		
 		// Try serialising and check capacity:
@@ -186,6 +178,91 @@ public class RecordsPayload extends Payload
 		}
 	}
 	
+	/**
+	 * To be called from the sending side. Adds all records of the given batch, or none of them.
+	 * Unlike repeated calls of {@link #addRecord(Record)} the transmission capacity is only checked once, after all records have been added.
+	 * 
+	 * @param batch the records to add
+	 * @throws IllegalStateException when no transmission is set
+	 * @throws IllegalArgumentException when the schema of the batch is not transmittable or one of the records is not filled (some non-optional, transmittable values are null)
+	 * @throws TransmissionCapacityExceededException when adding the records caused transmission capacity to be exceeded
+	 * @throws TransmissionSendingException when another Transmission preparation or I/O problem occurs
+	 */
+	public void addRecords(RecordBatch batch) throws IllegalStateException, IllegalArgumentException, TransmissionCapacityExceededException, TransmissionSendingException
+	{
+		if(batch.isEmpty())
+			return;
+		Schema schema = batch.getSchema();
+		
+		// Check transmission, schema & model:
+		checkAddable(schema);
+		
+		// Model:
+		if(recordsBySchema.isEmpty())
+			// set model:
+			model = schema.getModel();
+		
+		// Add the records to the list of attached records for this schema:
+		Set<Column<?>> nonTransmittableColumns = transmission.client.getNonTransmittableColumns(schema); // includes auto-incr-PK columns
+		List<Record> recordsOfSchema = getRecordsListFor(schema);
+		int previousSize = recordsOfSchema.size();
+		try
+		{
+			for(Record record : batch)
+			{
+				// Check if record has non-null values for all transmittable columns:
+				if(!record.isFilled(nonTransmittableColumns))
+					throw new IllegalArgumentException("Record is not filled (some non-optional, transmittable values are null).");
+				recordsOfSchema.add(record);
+			}
+			
+			// Try serialising and check capacity:
+			transmission.checkCapacity();
+		}
+		catch(IllegalArgumentException | TransmissionSendingException e)
+		{	// Undo adding of records:
+			recordsOfSchema.subList(previousSize, recordsOfSchema.size()).clear();
+			if(recordsOfSchema.isEmpty())
+				recordsBySchema.remove(schema);
+			//	Re-throw exception:
+			throw e;
+		}
+	}
+	
+	/**
+	 * @param schema
+	 * @throws IllegalStateException when no transmission is set
+	 * @throws IllegalArgumentException when the schema is not transmittable or belongs to another model than the records already added
+	 */
+	private void checkAddable(Schema schema) throws IllegalStateException, IllegalArgumentException
+	{
+		if(!isTansmissionSet())
+			throw new IllegalStateException("No transmission set!");
+		
+		// Check if transmittable:
+		if(!schema.hasFlags(TransmissionClient.SCHEMA_FLAG_TRANSMITTABLE))
+			throw new IllegalArgumentException("Schema of given record(s) is not transmittable.");
+		
+		//	Check model:
+		if(!recordsBySchema.isEmpty() && model != schema.getModel())
+			throw new IllegalArgumentException("The schemata of the records in a single Transmission must all belong to the same model.");
+	}
+	
+	/**
+	 * @param schema
+	 * @return the (possibly new) list of attached records of the given schema
+	 */
+	private List<Record> getRecordsListFor(Schema schema)
+	{
+		List<Record> recordsOfSchema = recordsBySchema.get(schema);
+		if(recordsOfSchema == null)
+		{
+			recordsOfSchema = new ArrayList<Record>();
+			recordsBySchema.put(schema, recordsOfSchema);
+		}
+		return recordsOfSchema;
+	}
+	
 	/**
 	 * @return records grouped by schema
 	 */
@@ -407,7 +484,7 @@ public class RecordsPayload extends Payload
 				if(records.size() > 1)
 				{	// Only if there is more than 1 record for this schema:
 					// 	Get factored out values ...
-					factoredOutValues = new HashMap<Column<?>, BitArray>();
+					factoredOutValues = new IdentityHashMap<Column<?>, BitArray>(); // keys are the schema's own column instances
 					boolean first = true;
 					for(Record r : records)
 					{
@@ -423,7 +500,9 @@ public class RecordsPayload extends Payload
 							for(Iterator<Map.Entry<Column<?>, BitArray>> it = factoredOutValues.entrySet().iterator(); it.hasNext();) // use an iterator so we can remove in the for-loop
 							{
 								Map.Entry<Column<?>, BitArray> entry = it.next();
-								if(!entry.getValue().equals(entry.getKey().retrieveValueAsBits(r, lossless)))
+								Column<?> c = entry.getKey();
+								if(	!Objects.deepEquals(c.retrieveValue(records.get(0)), c.retrieveValue(r)) &&	// equal values always give equal bits, ...
+									!entry.getValue().equals(c.retrieveValueAsBits(r, lossless)))				// ... but (lossyly encoded) different ones may too
 									it.remove(); // value mismatch -> this column can not be factored out
 							}
 							if(factoredOutValues.isEmpty())
@@ -459,8 +538,9 @@ public class RecordsPayload extends Payload
 				// Write record data, skipping ...
 				Set<Column<?>> skipColumns = new HashSet<Column<?>>(nonTransmittableColumns); 	// ... non-transmittable,
 				skipColumns.addAll(factoredOutValues.keySet());									// factored-out, ...
-				for(Record r : recordsBySchema.get(schema))
-					r.writeToBitStream(out, false /* ... and virtual columns */, skipColumns, lossless);
+				ValueSetCodec codec = schema.getCodec(skipColumns, lossless);					// ... and virtual columns
+				for(Record r : records)
+					r.writeToBitStream(out, codec);
 			}
 			
 			// Close the stream & return bits:
@@ -510,7 +590,7 @@ public class RecordsPayload extends Payload
 					// 	Read factoring-out header (including factored-out values, if used) ...
 					if(in.readBit()) //	read flag that indicates whether or not some columns are factored-out
 					{
-						factoredOutValues = new HashMap<Column<?>, Object>();
+						factoredOutValues = new IdentityHashMap<Column<?>, Object>(); // keys are the schema's own column instances
 						for(Column<?> c : schema.getColumns(false))
 						{	// for all transmittable columns:
 							if(!nonTransmittableColumns.contains(c))
@@ -525,13 +605,15 @@ public class RecordsPayload extends Payload
 				// Read record data, skipping ...
 				Set<Column<?>> skipColumns = new HashSet<Column<?>>(nonTransmittableColumns); 	// ... non-transmittable,
 				skipColumns.addAll(factoredOutValues.keySet());									// factored-out, ...
+				ValueSetCodec codec = schema.getCodec(skipColumns, lossless);					// ... and virtual columns
+				int minimumRecordSize = schema.getMinimumSize(false, skipColumns, lossless);
 				while(	records.size() < numberOfRecordsForSchema &&					
-						in.bitsAvailable() >= schema.getMinimumSize(false /* ... and virtual columns */, skipColumns, lossless))
+						in.bitsAvailable() >= minimumRecordSize)
 				{
 					// Get new Record instance:
 					record = schema.createRecord();
 					// Read record values from the stream, skipping virtual columns and factored-out columns:
-					record.readFromBitStream(in, false /* ... and virtual columns */, skipColumns, lossless);
+					record.readFromBitStream(in, codec);
 					// Set factored-out values:
 					for(Entry<Column<?>, Object> fEntry : factoredOutValues.entrySet())
 						fEntry.getKey().storeObject(record, fEntry.getValue());
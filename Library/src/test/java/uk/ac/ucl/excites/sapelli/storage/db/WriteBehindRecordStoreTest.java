@@ -0,0 +1,304 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
+import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle.StoreSetter;
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.storage.BulkStorageObserver;
+import uk.ac.ucl.excites.sapelli.storage.StorageClient;
+import uk.ac.ucl.excites.sapelli.storage.StorageClient.RecordOperation;
+import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBConstraintException;
+import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBPrimaryKeyException;
+import uk.ac.ucl.excites.sapelli.storage.model.Attachment;
+import uk.ac.ucl.excites.sapelli.storage.model.Model;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordReference;
+import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.indexes.PrimaryKey;
+import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery;
+
+/**
+ * @author mstevens
+ */
+public class WriteBehindRecordStoreTest
+{
+
+	static private final String BAD_NAME = "bad";
+
+	static private final Model MODEL = new Model(1234, "WriteBehindTest", StorageClient.SCHEMA_FLAG_TRACK_CHANGES);
+	static private final Schema SCHEMA = new Schema(MODEL, "Things");
+	static private final IntegerColumn COLUMN_ID = SCHEMA.addColumn(new IntegerColumn("ID", false, false, 32));
+	static private final StringColumn COLUMN_NAME = SCHEMA.addColumn(StringColumn.ForCharacterCount("Name", false, 20));
+	static
+	{
+		SCHEMA.setPrimaryKey(PrimaryKey.WithColumnNames(COLUMN_ID), true /*seal!*/);
+		MODEL.seal();
+	}
+
+	/**
+	 * A batch with one failing write must only produce events for the writes which were really committed, once each.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void partlyFailingBatchReportsCommittedWritesOnce() throws Exception
+	{
+		TestClient client = new TestClient();
+		WriteBehindRecordStore<TestClient> writeBehind = new WriteBehindRecordStore<TestClient>(client, 100, 1000, 1000);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int i = 0; i < 10; i++)
+			futures.add(writeBehind.store(SCHEMA.createRecord((long) i, i == 7 ? BAD_NAME : "thing" + i)));
+		writeBehind.flush();
+		int succeeded = 0;
+		for(Future<Void> future : futures)
+		{
+			try
+			{
+				future.get();
+				succeeded++;
+			}
+			catch(ExecutionException ignore) {}
+		}
+		writeBehind.close();
+
+		assertEquals(9, succeeded);
+		assertEquals(9, client.inserted.size());
+		assertEquals(9, new HashSet<RecordReference>(client.inserted).size()); // no event was reported twice
+	}
+
+	/**
+	 * A batch which fails as a whole must not produce any events.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void failedBatchReportsNothing() throws Exception
+	{
+		TestClient client = new TestClient();
+		WriteBehindRecordStore<TestClient> writeBehind = new WriteBehindRecordStore<TestClient>(client, 100, 1000, 1000);
+		Future<Void> future = writeBehind.store(SCHEMA.createRecord(1L, BAD_NAME));
+		writeBehind.flush();
+		try
+		{
+			future.get();
+		}
+		catch(ExecutionException ignore) {}
+		writeBehind.close();
+
+		assertEquals(0, client.inserted.size());
+	}
+
+	/**
+	 * Client which uses a {@link MemoryRecordStore} and records the reported insertions.
+	 *
+	 * @author mstevens
+	 */
+	static private class TestClient extends StorageClient
+	{
+
+		final List<RecordReference> inserted = Collections.synchronizedList(new ArrayList<RecordReference>());
+
+		public TestClient()
+		{
+			addObserver(new BulkStorageObserver()
+			{
+				@Override
+				public void storageEvent(RecordOperation operation, RecordReference recordRef, RecordStore recordStore)
+				{
+					if(operation == RecordOperation.Inserted)
+						inserted.add(recordRef);
+				}
+
+				@Override
+				public void storageEvents(RecordOperation operation, List<RecordReference> recordRefs, RecordStore recordStore)
+				{
+					if(operation == RecordOperation.Inserted)
+						inserted.addAll(recordRefs);
+				}
+			});
+		}
+
+		@Override
+		protected void createAndSetRecordStore(StoreSetter<RecordStore> setter) throws DBException
+		{
+			setter.setAndInitialise(new MemoryRecordStore(this));
+		}
+
+		@Override
+		public List<? extends Attachment> getRecordAttachments(Record record)
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		protected Model getClientModel(long modelID)
+		{
+			return modelID == MODEL.id ? MODEL : null;
+		}
+
+		@Override
+		protected void serialiseClientModel(Model model, OutputStream out)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected Model deserialiseClientModel(byte kind, InputStream in)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Schema getSchemaV1(int schemaID, int schemaVersion)
+		{
+			return null;
+		}
+
+		@Override
+		public void logError(String msg, Throwable throwable) {}
+
+		@Override
+		public void logWarning(String msg) {}
+
+		@Override
+		public void logInfo(String msg) {}
+
+	}
+
+	/**
+	 * Minimal in-memory RecordStore, which rejects records named {@link WriteBehindRecordStoreTest#BAD_NAME}.
+	 *
+	 * @author mstevens
+	 */
+	static private class MemoryRecordStore extends RecordStore
+	{
+
+		private Map<RecordReference, Record> records = new LinkedHashMap<RecordReference, Record>();
+		private final Deque<Map<RecordReference, Record>> snapshots = new ArrayDeque<Map<RecordReference, Record>>();
+
+		public MemoryRecordStore(StorageClient client)
+		{
+			super(client, false);
+		}
+
+		@Override
+		protected void doStartTransaction()
+		{
+			snapshots.push(new LinkedHashMap<RecordReference, Record>(records));
+		}
+
+		@Override
+		protected void doCommitTransaction()
+		{
+			snapshots.pop();
+		}
+
+		@Override
+		protected void doRollbackTransaction()
+		{
+			records = snapshots.pop();
+		}
+
+		@Override
+		protected Boolean doStore(Record record) throws DBConstraintException
+		{
+			if(BAD_NAME.equals(COLUMN_NAME.retrieveValue(record)))
+				throw new DBConstraintException("Bad record", record);
+			Record previous = records.put(record.getReference(), new Record(record));
+			return previous == null ? Boolean.TRUE : (previous.equals(record) ? null : Boolean.FALSE);
+		}
+
+		@Override
+		protected boolean doInsert(Record record) throws DBPrimaryKeyException, DBConstraintException
+		{
+			if(records.containsKey(record.getReference()))
+				throw new DBPrimaryKeyException("Duplicate record", record);
+			return doStore(record) != null;
+		}
+
+		@Override
+		protected boolean doDelete(Record record)
+		{
+			return records.remove(record.getReference()) != null;
+		}
+
+		@Override
+		public List<Record> retrieveRecords(RecordsQuery query)
+		{
+			return query.execute(new ArrayList<Record>(records.values()));
+		}
+
+		@Override
+		public List<RecordReference> retrieveRecordReferences(RecordsQuery query)
+		{
+			List<RecordReference> refs = new ArrayList<RecordReference>();
+			for(Record record : retrieveRecords(query))
+				refs.add(record.getReference());
+			return refs;
+		}
+
+		@Override
+		public Record retrieveRecord(SingleRecordQuery query)
+		{
+			return query.execute(new ArrayList<Record>(records.values()));
+		}
+
+		@Override
+		public Model retrieveModel(long modelID)
+		{
+			return null;
+		}
+
+		@Override
+		protected void closeConnection() {}
+
+		@Override
+		protected void doBackup(StoreBackupper backuper, File destinationFolder) {}
+
+		@Override
+		public boolean hasFullIndexSupport()
+		{
+			return false;
+		}
+
+	}
+
+}